@@ -5,3 +5,4 @@ javac -d classes -classpath lib -sourcepath src src/qp/algorithms/ExternalSort.j
 javac -d classes -classpath lib -sourcepath src src/utils/PrintTupleFile.java
 javac -d classes -classpath lib -sourcepath src src/utils/BuildIndex.java
 javac -d classes -classpath lib -sourcepath src src/qp/optimizer/BufferManager.java
+javac -d classes -classpath lib -sourcepath src src/utils/ConvertTblFormat.java
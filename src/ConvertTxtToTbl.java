@@ -3,73 +3,254 @@
   attributes of the relation. each subsequent line represents 1
   tuple of the relation. also assume that the fields of each line
   is delimited by tabs ("\t")
+
+  the table is written in the binary page format (see qp.utils.PageFile)
+  with pages of <pagesize> bytes, 4096 bytes if it is not given
+
+  the input is split into chunks of whole lines which are parsed by
+  <numthreads> threads, one thread per processor if it is not given.
+  the chunks are written in file order, so the tuples keep their order.
+  the <tablename>.stat file is written in the same pass, with the number
+  of tuples and the number of distinct values of every column. the count
+  is exact up to DistinctCounter.EXACT_LIMIT values and estimated with a
+  HyperLogLog sketch past it, so memory stays bounded on large inputs.
+  a .stat file already there, such as the one written by RandomDB, is
+  replaced, as the counts of the actual data are more accurate
 */
 
 import qp.utils.Attribute;
+import qp.utils.DistinctCounter;
+import qp.utils.PageFile;
+import qp.utils.PageFileWriter;
 import qp.utils.Schema;
 import qp.utils.Tuple;
+import qp.utils.ZoneMap;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.StringTokenizer;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class ConvertTxtToTbl {
 
+    static int chunkSize = 4 << 20;   // Number of bytes of the input read per chunk, smaller in the tests
+
     public static void main(String[] args) throws IOException {
         // check the arguments
-        if (args.length != 1) {
-            System.out.println("usage: java ConvertTxtToTbl <tablename> \n creats <tablename>.tbl files");
+        if (args.length < 1 || args.length > 3) {
+            System.out.println("usage: java ConvertTxtToTbl <tablename> [pagesize] [numthreads] \n creats <tablename>.tbl and <tablename>.stat files");
             System.exit(1);
         }
         String tblname = args[0];
         String mdfile = tblname + ".md";
         String tblfile = tblname + ".tbl";
-
-        /** open the input and output streams **/
-        BufferedReader in = new BufferedReader(new FileReader(tblname + ".txt"));
-        ObjectOutputStream outtbl = new ObjectOutputStream(new FileOutputStream(tblfile));
+        String statfile = tblname + ".stat";
+        int pagesize = PageFile.DEFAULT_PAGE_SIZE;
+        if (args.length >= 2) {
+            pagesize = Integer.parseInt(args[1]);
+        }
+        int numThreads = Runtime.getRuntime().availableProcessors();
+        if (args.length == 3) {
+            numThreads = Math.max(1, Integer.parseInt(args[2]));
+        }
 
         /** First Line is METADATA **/
-        int linenum = 0;
-        String line;
         Schema schema = null;
         try {
             ObjectInputStream ins = new ObjectInputStream(new FileInputStream(mdfile));
             schema = (Schema) ins.readObject();
+            ins.close();
         } catch (ClassNotFoundException ce) {
             System.out.println("class not found exception --- error in schema object file");
             System.exit(1);
         }
+        int numCols = schema.getNumCols();
+        int[] types = new int[numCols];
+        for (int i = 0; i < numCols; ++i) {
+            types[i] = schema.typeOf(i);
+            if (types[i] != Attribute.INT && types[i] != Attribute.REAL && types[i] != Attribute.STRING) {
+                System.err.println("Invalid data type");
+                System.exit(1);
+            }
+        }
 
-        boolean flag = false;
-        StringTokenizer tokenizer;
-        while ((line = in.readLine()) != null) {
-            linenum++;
-            tokenizer = new StringTokenizer(line);
+        /** Distinct values of every column, the parsing threads merge the values of their chunks in **/
+        DistinctCounter[] distinct = new DistinctCounter[numCols];
+        for (int i = 0; i < numCols; ++i) {
+            distinct[i] = new DistinctCounter();
+        }
 
-            ArrayList<Object> data = new ArrayList<>();
-            int attrIndex = 0;
+        /** open the input and output streams **/
+        InputStream in = new FileInputStream(tblname + ".txt");
+        PageFileWriter outtbl = new PageFileWriter(tblfile, schema, pagesize);
+        outtbl.setZoneMap(ZoneMap.fileFor(tblfile));
+        if (!outtbl.open()) {
+            System.exit(1);
+        }
 
-            while (tokenizer.hasMoreElements()) {
-                String dataElement = tokenizer.nextToken();
-                int datatype = schema.typeOf(attrIndex);
-                if (datatype == Attribute.INT) {
-                    data.add(Integer.valueOf(dataElement));
-                } else if (datatype == Attribute.REAL) {
-                    data.add(Float.valueOf(dataElement));
-                } else if (datatype == Attribute.STRING) {
-                    data.add(dataElement);
-                } else {
-                    System.err.println("Invalid data type");
-                    System.exit(1);
+        /** At most two chunks per thread are held in memory at a time **/
+        ExecutorService parsers = Executors.newFixedThreadPool(numThreads);
+        ArrayDeque<Future<ArrayList<Tuple>>> pending = new ArrayDeque<>();
+        byte[] buffer = new byte[chunkSize];
+        int filled = 0;
+        int read;
+        while ((read = in.read(buffer, filled, buffer.length - filled)) != -1 || filled > 0) {
+            if (read > 0) {
+                filled += read;
+                if (filled < buffer.length) {
+                    continue;
                 }
-                attrIndex++;
             }
-            Tuple tuple = new Tuple(data);
-            outtbl.writeObject(tuple);
+            /** The chunk ends after its last complete line, the rest starts the next chunk **/
+            int end = filled;
+            if (read != -1) {
+                while (end > 0 && buffer[end - 1] != '\n') {
+                    end--;
+                }
+                if (end == 0) {
+                    /** A single line longer than the buffer **/
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                    continue;
+                }
+            }
+            final byte[] chunk = Arrays.copyOf(buffer, end);
+            pending.add(parsers.submit(() -> parseChunk(chunk, types, distinct)));
+            System.arraycopy(buffer, end, buffer, 0, filled - end);
+            filled -= end;
+            while (pending.size() >= 2 * numThreads) {
+                writeChunk(pending.poll(), outtbl);
+            }
         }
+        while (!pending.isEmpty()) {
+            writeChunk(pending.poll(), outtbl);
+        }
+        parsers.shutdown();
         outtbl.close();
         in.close();
+
+        /** printing the number of tuples and of distinct values of each column
+         in <tablename>.stat file
+         **/
+        if (new File(statfile).exists()) {
+            System.out.println("replacing the existing " + statfile);
+        }
+        PrintWriter outstat = new PrintWriter(new BufferedWriter(new FileWriter(statfile)));
+        outstat.print(outtbl.getNumTuple());
+        outstat.println();
+        for (int i = 0; i < numCols; ++i) {
+            outstat.print(distinct[i].count() + "\t");
+        }
+        outstat.close();
+    }
+
+    /**
+     * Waits for a chunk to be parsed and appends its tuples to the table
+     */
+    static void writeChunk(Future<ArrayList<Tuple>> chunk, PageFileWriter outtbl) {
+        try {
+            for (Tuple tuple : chunk.get()) {
+                outtbl.next(tuple);
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            System.err.println("Error in parsing the input: " + e.getCause());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Parses the lines of the chunk into tuples and records the values of every column.
+     * Fields are separated by white space, as with a StringTokenizer, and empty lines are skipped.
+     * The values are counted for the chunk alone, then merged into the counters of the table.
+     */
+    static ArrayList<Tuple> parseChunk(byte[] chunk, int[] types, DistinctCounter[] distinct) {
+        ArrayList<Tuple> tuples = new ArrayList<>();
+        int numCols = types.length;
+        DistinctCounter[] counted = new DistinctCounter[numCols];
+        for (int i = 0; i < numCols; ++i) {
+            counted[i] = new DistinctCounter();
+        }
+        int pos = 0;
+        while (pos < chunk.length) {
+            ArrayList<Object> data = new ArrayList<>(numCols);
+            int attrIndex = 0;
+            while (pos < chunk.length && chunk[pos] != '\n') {
+                if (isSpace(chunk[pos])) {
+                    pos++;
+                    continue;
+                }
+                int start = pos;
+                while (pos < chunk.length && chunk[pos] != '\n' && !isSpace(chunk[pos])) {
+                    pos++;
+                }
+                if (attrIndex >= numCols) {
+                    System.err.println("Too many fields in line: " + new String(chunk, start, pos - start, StandardCharsets.UTF_8));
+                    System.exit(1);
+                }
+                Object value;
+                if (types[attrIndex] == Attribute.INT) {
+                    value = parseInt(chunk, start, pos);
+                } else if (types[attrIndex] == Attribute.REAL) {
+                    value = Float.valueOf(new String(chunk, start, pos - start, StandardCharsets.US_ASCII));
+                } else {
+                    value = new String(chunk, start, pos - start, StandardCharsets.UTF_8);
+                }
+                data.add(value);
+                counted[attrIndex].add(value);
+                attrIndex++;
+            }
+            pos++;  // Skip the end of the line
+            if (attrIndex == 0) {
+                continue;
+            }
+            if (attrIndex != numCols) {
+                System.err.println("Missing fields in line " + data);
+                System.exit(1);
+            }
+            tuples.add(new Tuple(data));
+        }
+        synchronized (distinct) {
+            for (int i = 0; i < numCols; ++i) {
+                distinct[i].merge(counted[i]);
+            }
+        }
+        return tuples;
+    }
+
+    static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\f';
     }
 
+    /**
+     * Parses a decimal integer without creating a String, falling back to
+     * Integer.valueOf for anything unusual so that the same errors are reported
+     */
+    static Integer parseInt(byte[] chunk, int start, int end) {
+        int pos = start;
+        boolean negative = false;
+        if (pos < end && (chunk[pos] == '-' || chunk[pos] == '+')) {
+            negative = chunk[pos] == '-';
+            pos++;
+        }
+        long value = 0;
+        if (pos == end || end - pos > 10) {
+            return Integer.valueOf(new String(chunk, start, end - start, StandardCharsets.US_ASCII));
+        }
+        for (; pos < end; ++pos) {
+            int digit = chunk[pos] - '0';
+            if (digit < 0 || digit > 9) {
+                return Integer.valueOf(new String(chunk, start, end - start, StandardCharsets.US_ASCII));
+            }
+            value = value * 10 + digit;
+        }
+        value = negative ? -value : value;
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            return Integer.valueOf(new String(chunk, start, end - start, StandardCharsets.US_ASCII));
+        }
+        return Integer.valueOf((int) value);
+    }
 }
@@ -3,7 +3,16 @@
  **/
 
 import qp.operators.Debug;
+import qp.operators.HashDistinct;
+import qp.operators.HashJoin;
+import qp.operators.Join;
+import qp.operators.MultiwayJoin;
 import qp.operators.Operator;
+import qp.operators.Orderby;
+import qp.operators.Project;
+import qp.operators.Scan;
+import qp.operators.Select;
+import qp.operators.SortDistinct;
 import qp.optimizer.BufferManager;
 import qp.optimizer.PlanCost;
 import qp.optimizer.RandomOptimizer;
@@ -20,7 +29,7 @@ public class QueryMain {
 
     public static void main(String[] args) {
         if (args.length < 2) {
-            System.out.println("usage: java QueryMain <queryfilename> <resultfile> <pagesize> <numbuffer>");
+            System.out.println("usage: java QueryMain <queryfilename> <resultfile> <pagesize> <numbuffer> [<nowait>] [clock|lru|lru-K]");
             System.exit(1);
         }
 
@@ -97,6 +106,9 @@ public class QueryMain {
                 e.printStackTrace();
             }
         } else numBuff = Integer.parseInt(args[3]);
+        if (args.length >= 6) {
+            BufferManager.setReplacementPolicy(ReplacementPolicy.forName(args[5]));
+        }
         if (numJoin != 0) {
             BufferManager bm = new BufferManager(numBuff, numJoin);
         } else {
@@ -126,6 +138,8 @@ public class QueryMain {
         }
 
         root = RandomOptimizer.makeExecPlan(planroot);
+        /** The pages of the result are handed back once printed **/
+        root.setRecycling(true);
 
         return root;
     }
@@ -180,6 +194,7 @@ public class QueryMain {
             for (int i = 0; i < resultbatch.size(); ++i) {
                 printTuple(resultbatch.get(i));
             }
+            root.recycle(resultbatch);
         }
         root.close();
         out.close();
@@ -187,9 +202,61 @@ public class QueryMain {
         long endtime = System.currentTimeMillis();
         double executiontime = (endtime - starttime) / 1000.0;
         System.out.println("Execution time = " + executiontime);
+        BufferPool pool = BufferManager.getBufferPool();
+        if (pool != null) {
+            System.out.println("Buffer pool: " + pool.getHits() + " hits, " + pool.getMisses()
+                    + " misses, " + pool.getAllocations() + " pages written, " + pool.getEvictions() + " evictions");
+        }
+        for (TupleCache cache : TupleCache.getCaches()) {
+            System.out.println("Index cache " + cache.getFileName() + ": " + cache.getHits() + " hits, "
+                    + cache.getMisses() + " misses");
+        }
+        printJoinStatistics(root);
         return executiontime;
     }
 
+    /**
+     * Print the heavy hitters found by the hash joins of the plan, and the chunks
+     * of the partitions too large for the buffers
+     **/
+    protected static void printJoinStatistics(Operator node) {
+        if (node instanceof HashJoin) {
+            HashJoin hj = (HashJoin) node;
+            if (hj.getNumHeavy() > 0 || hj.getNumChunks() > 0) {
+                System.out.print("Hash join on ");
+                Debug.PPrint(hj.getCondition());
+                System.out.println(": " + hj.getNumHeavy() + " heavy hitters, " + hj.getSkewBuild()
+                        + " right and " + hj.getSkewProbe() + " left tuples joined apart, "
+                        + hj.getNumChunks() + " extra chunks");
+            }
+        }
+        /** The levels of a MultiwayJoin are only its logical plan, the joins it ran are below **/
+        if (node instanceof MultiwayJoin) {
+            MultiwayJoin mj = (MultiwayJoin) node;
+            if (mj.isBinary()) {
+                printJoinStatistics(mj.getBinary());
+            } else {
+                printJoinStatistics(mj.getDriving());
+                for (int i = 0; i < mj.getNumLevels(); ++i) {
+                    printJoinStatistics(mj.getDimension(i));
+                }
+            }
+        } else if (node instanceof Join) {
+            printJoinStatistics(((Join) node).getLeft());
+            printJoinStatistics(((Join) node).getRight());
+        } else if (node instanceof Select) {
+            printJoinStatistics(((Select) node).getBase());
+        } else if (node instanceof Project) {
+            printJoinStatistics(((Project) node).getBase());
+        } else if (node instanceof Orderby) {
+            printJoinStatistics(((Orderby) node).getBase());
+        } else if (node instanceof SortDistinct) {
+            printJoinStatistics(((SortDistinct) node).getBase());
+        } else if (node instanceof HashDistinct) {
+            printJoinStatistics(((HashDistinct) node).getBase());
+        }
+    }
+
     protected static void printSchema(Schema schema) {
         String[] aggregates = new String[]{"", "MAX", "MIN", "SUM", "COUNT", "AVG"};
         for (int i = 0; i < numAtts; ++i) {
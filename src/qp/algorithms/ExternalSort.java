@@ -4,6 +4,10 @@ import java.io.*;
 import java.nio.file.Paths;
 import java.lang.Math;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Semaphore;
 
 import qp.utils.*;
 
@@ -12,14 +16,38 @@ import qp.utils.*;
  * The algorithm is as follows:
  * First read in the tuple batch by batch and partition them into separate files
  * Then merge them into a result file.
+ * The runs and the result file are written with TupleWriter in the format chosen for the schema,
+ * so they are read back with a TupleReader of the same schema, through the buffer pool.
+ *
+ * In the parallel mode each initial run of numberOfBuffers pages is read in chunks,
+ * which the threads of a ForkJoinPool sort while the next chunk is read. A task of the
+ * pool then merges the sorted chunks and writes the run through its single output page,
+ * while the next run is read. The tuples read and not yet written never take more than
+ * the numberOfBuffers pages: reading a page of the next run waits for a page of the run
+ * being written to go out. The runs keep the size of the sequential mode, so the merge
+ * takes no extra pass.
+ *
+ * With replacement selection the initial runs are instead produced by a heap of
+ * numberOfBuffers pages of tuples: the smallest tuple is written out and replaced by the
+ * next input tuple, which joins the current run if it is not smaller than the tuple
+ * written, or the next run otherwise. The runs are about twice the memory on random
+ * input, and an input already nearly in order makes a single run with no merge pass.
  */
 public class ExternalSort {
 
+    static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
     public UUID id; // Identifies the sort-id so we don't get confused between the different files on disk.
     public int pageSize;
     public int numberOfBuffers;
     public int tupleSize;
     public String currentAbsPath;
+    public Schema schema;   // Schema of the tuples being sorted, decides the format of the runs
+    public int parallelism; // Number of chunks of a run sorted in the background, 0 for none
+    public boolean replacementSelection;    // Whether the initial runs are made by replacement selection
+
+    private final ArrayList<List<Tuple>> chunks = new ArrayList<>();      // Chunks of the run being read
+    private final ArrayList<ForkJoinTask<?>> pending = new ArrayList<>(); // Sorts of the chunks in the background
 
     public static void main(String[] args) {
         if (args.length < 3) {
@@ -46,6 +74,47 @@ public class ExternalSort {
         this.numberOfBuffers = numberOfBuffers;
         this.id = UUID.randomUUID();
         this.currentAbsPath = Paths.get("").toAbsolutePath().toString();
+        this.parallelism = 0;
+        this.replacementSelection = false;
+    }
+
+    /**
+     * Sets whether the initial runs are made by replacement selection rather than by
+     * sorting chunks of numberOfBuffers pages. The runs are then written as they are
+     * made, so the parallelism does not apply to them.
+     * @param replacementSelection boolean
+     */
+    public void setReplacementSelection(boolean replacementSelection) {
+        this.replacementSelection = replacementSelection;
+    }
+
+    /**
+     * Source of the tuples to sort, returning null at the end
+     */
+    private interface TupleSource {
+        Tuple next() throws IOException;
+    }
+
+    /**
+     * A tuple in the heap of replacement selection, with the run it goes to
+     */
+    private static class RunTuple {
+        int run;
+        Tuple tuple;
+
+        RunTuple(int run, Tuple tuple) {
+            this.run = run;
+            this.tuple = tuple;
+        }
+    }
+
+    /**
+     * Sets the number of chunks each initial run is cut into, each sorted in the
+     * background while the next is read. 0 sorts every run whole once it is read.
+     * @param parallelism int
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = Math.max(0, parallelism);
     }
 
     /**
@@ -68,6 +137,7 @@ public class ExternalSort {
             System.exit(1);
         }
 
+        this.schema = schema;
         tupleSize = schema.getTupleSize();
         int batchSize = (int) Math.floor(pageSize / tupleSize);
 
@@ -77,47 +147,43 @@ public class ExternalSort {
         }
 
         ObjectInputStream tableIns = null;
+        PageFileReader tablePages = null;
 
         // First Step: Partition files
-        try {
-            tableIns = new ObjectInputStream(new FileInputStream(tblpath));
-        } catch (Exception e) {
-            System.err.println(" Error reading file during sort");
-            return "";
-        }
-
-        boolean eos = false;
-        int initialRunSize = batchSize * numberOfBuffers;
-        int initialRunCount = 0;
-        while (!eos) {
-            List<Tuple> outbatchTuplesList = new ArrayList<>();
-
-            // While the batch is not full and eos is not reached, write to outfile
-            while (!eos && outbatchTuplesList.size() != initialRunSize) {
-                try {
-                   Tuple data = readTuple(tableIns);
-                   outbatchTuplesList.add(data);
-                } catch (EOFException eof) {
-                    eos = true;
-                }
+        // The table may either be in the page format or a stream of serialized tuples
+        if (PageFile.isPageFile(tblpath)) {
+            tablePages = new PageFileReader(tblpath, schema);
+            if (!tablePages.open()) {
+                System.err.println(" Error reading file during sort");
+                return "";
             }
-
-            // If there are tuples in the list, sort and write it to disk
-            if (!outbatchTuplesList.isEmpty()) {
-                Collections.sort(outbatchTuplesList, new TupleComparator(indexes));
-                ObjectOutputStream outs =
-                    new ObjectOutputStream(new FileOutputStream(
-                                            currentAbsPath + "/tmp/" + this.id.toString()
-                                            + "-0-" + initialRunCount + ".tbl"));
-                for (Tuple t: outbatchTuplesList)
-                    outs.writeObject(t);
-
-                initialRunCount++;
-                outs.close();
+        } else {
+            try {
+                tableIns = new ObjectInputStream(new FileInputStream(tblpath));
+            } catch (Exception e) {
+                System.err.println(" Error reading file during sort");
+                return "";
             }
         }
 
-        tableIns.close();
+        final PageFileReader pages = tablePages;
+        final ObjectInputStream stream = tableIns;
+        TupleSource source = () -> {
+            if (pages != null)
+                return pages.next();
+            try {
+                return readTuple(stream);
+            } catch (EOFException eof) {
+                return null;
+            }
+        };
+        int initialRunCount = generateRuns(source, indexes, false,
+                currentAbsPath + "/tmp/" + this.id.toString() + "-0-", ".tbl", batchSize);
+
+        if (tablePages != null)
+            tablePages.close();
+        else
+            tableIns.close();
         if (initialRunCount == 1)
             return currentAbsPath + "/tmp/" + this.id.toString() + "-0-0.tbl";
 
@@ -132,6 +198,7 @@ public class ExternalSort {
      * @throws IOException
      */
     public String merge(int initialRunCount, List<Integer> indexes) throws IOException {
+        int batchSize = Math.max(1, pageSize / tupleSize);
         int runCount = initialRunCount;
         int buffersForRuns = numberOfBuffers - 1;
         int runId = 1;
@@ -141,55 +208,34 @@ public class ExternalSort {
         while (runCount > 1) {
             // This is for every pass of the sort-merge loop
             while (runCount > 0) {
-                List<ObjectInputStream> inputStreams = new ArrayList<>(numberOfBuffers);
-                List<Boolean> inputStreamsEof = new ArrayList<>(numberOfBuffers);
-                // Using a priority queue will help reduce the k-way merge runtime
-                PriorityQueue<Tuple> pq =
-                    new PriorityQueue<>(buffersForRuns, new TupleComparator(indexes));
-                HashMap<Tuple, Integer> tupleMap = new HashMap<>();
-                ObjectOutputStream outs =
-                    new ObjectOutputStream(new FileOutputStream(
+                List<TupleReader> inputStreams = new ArrayList<>(numberOfBuffers);
+                TupleWriter outs = new TupleWriter(
                         String.format("%s/tmp/%s-%d-%d.tbl", currentAbsPath,
-                            this.id.toString(), runId, nextRunCount)
-                    ));
+                            this.id.toString(), runId, nextRunCount), batchSize, schema);
+                if (!outs.open())
+                    throw new IOException("Cannot write the merged run");
 
                 // Open all the input streams to the previous runs
                 for (int i = 0; i < buffersForRuns && runCount > 0; i++, runCount--) {
                     // We need to add nextRunCount * 10, else we will always be reading the
                     // first 10 runs of every pass
-                    ObjectInputStream runInput = new ObjectInputStream(new FileInputStream(
+                    TupleReader runInput = new TupleReader(
                         String.format("%s/tmp/%s-%d-%d.tbl", currentAbsPath,
-                            this.id.toString(), runId - 1, i + (nextRunCount * buffersForRuns))));
+                            this.id.toString(), runId - 1, i + (nextRunCount * buffersForRuns)),
+                        batchSize, schema);
+                    if (!runInput.open())
+                        throw new IOException("Cannot read a run");
                     inputStreams.add(runInput);
-                    inputStreamsEof.add(false);
-
-                    try {
-                        Tuple data = readTuple(runInput);
-                        pq.add(data);
-                        tupleMap.put(data, i);
-                    } catch (EOFException eof) {
-                        inputStreamsEof.set(i, true);
-                    }
                 }
 
                 // Now we merge all the results in
-                while (!(inputStreamsEof.stream().reduce(true, (a, b) -> a && b)) &&
-                    !pq.isEmpty()) {
-                    Tuple head = pq.poll();
-                    outs.writeObject(head);
-
-                    int streamIndexToRead = tupleMap.get(head);
-                    try {
-                        Tuple data = readTuple(inputStreams.get(streamIndexToRead));
-                        pq.add(data);
-                        tupleMap.put(data, streamIndexToRead);
-                    } catch (EOFException eof) {
-                        inputStreamsEof.set(streamIndexToRead, true);
-                    }
-                }
+                mergeRuns(inputStreams, new TupleComparator(indexes), outs);
 
-                for (ObjectInputStream ins : inputStreams)
+                // The merged runs are not needed anymore
+                for (TupleReader ins : inputStreams) {
                     ins.close();
+                    PageFile.delete(ins.getFileName());
+                }
 
                 outs.close();
                 nextRunCount++;
@@ -205,18 +251,20 @@ public class ExternalSort {
 
     /**
      * Returns a string which represents absolute path to merged file.
-     * This is an overloaded method in the event the tuple size is provided
+     * This is an overloaded method in the event the schema is provided
      * This function is usually called directly by the code and not run as an executable
-     * @param tblpath String
-     * @param tupleSize int
+     * @param tblpath String of a file written by a TupleWriter with the schema
+     * @param schema Schema
      * @param indexes List<Integer>
      * @param isReverse boolean which indicates whether the sorting is reversed
      * @return String
      * @throws IOException
      */
-    public String sort(String tblpath, int tupleSize, List<Integer> indexes, boolean isReverse)
+    public String sort(String tblpath, Schema schema, List<Integer> indexes, boolean isReverse)
         throws IOException
     {
+        this.schema = schema;
+        tupleSize = schema.getTupleSize();
         int batchSize = (int) Math.floor(pageSize / tupleSize);
 
         if (pageSize < tupleSize) {
@@ -224,50 +272,15 @@ public class ExternalSort {
             System.exit(1);
         }
 
-        ObjectInputStream tableIns = null;
-
         // First Step: Partition files
-        try {
-            tableIns = new ObjectInputStream(new FileInputStream(tblpath));
-        } catch (Exception e) {
+        TupleReader tableIns = new TupleReader(tblpath, batchSize, schema);
+        if (!tableIns.open()) {
             System.err.println(" Error reading file during sort");
             return "";
         }
 
-        boolean eos = false;
-        int initialRunSize = batchSize * numberOfBuffers;
-        int initialRunCount = 0;
-        while (!eos) {
-            List<Tuple> outbatchTuplesList = new ArrayList<>();
-
-            // While the batch is not full and eos is not reached, write to outfile
-            while (!eos && outbatchTuplesList.size() != initialRunSize) {
-                try {
-                    Tuple data = readTuple(tableIns);
-                    outbatchTuplesList.add(data);
-                } catch (EOFException eof) {
-                    eos = true;
-                }
-            }
-
-            // If there are tuples in the list, sort and write it to disk
-            if (!outbatchTuplesList.isEmpty()) {
-                Collections.sort(outbatchTuplesList, new TupleComparator(indexes));
-                // Reverse it if in descending order
-                if (isReverse)
-                    Collections.reverse(outbatchTuplesList);
-
-                ObjectOutputStream outs =
-                    new ObjectOutputStream(new FileOutputStream(
-                        currentAbsPath + "/" + this.id.toString()
-                            + "-0-" + initialRunCount + ".tblo"));
-                for (Tuple t: outbatchTuplesList)
-                    outs.writeObject(t);
-
-                initialRunCount++;
-                outs.close();
-            }
-        }
+        int initialRunCount = generateRuns(tableIns::next, indexes, isReverse,
+                currentAbsPath + "/" + this.id.toString() + "-0-", ".tblo", batchSize);
 
         tableIns.close();
         if (initialRunCount == 1)
@@ -279,6 +292,7 @@ public class ExternalSort {
     /**
      * This is like the earlier merge function, but it supports reverse and the sorted file is
      * in the same directory as the current absolute path.
+     * The runs of every pass are deleted once they are merged, so only the final run is left.
      * @param initialRunCount
      * @param indexes
      * @param isReverse
@@ -286,6 +300,7 @@ public class ExternalSort {
      * @throws IOException
      */
     public String merge(int initialRunCount, List<Integer> indexes, boolean isReverse) throws IOException {
+        int batchSize = Math.max(1, pageSize / tupleSize);
         int runCount = initialRunCount;
         int buffersForRuns = numberOfBuffers - 1;
         int runId = 1;
@@ -295,55 +310,34 @@ public class ExternalSort {
         while (runCount > 1) {
             // This is for every pass of the sort-merge loop
             while (runCount > 0) {
-                List<ObjectInputStream> inputStreams = new ArrayList<>(numberOfBuffers);
-                List<Boolean> inputStreamsEof = new ArrayList<>(numberOfBuffers);
-                // Using a priority queue will help reduce the k-way merge runtime
-                PriorityQueue<Tuple> pq =
-                    new PriorityQueue<>(buffersForRuns, new TupleComparator(indexes, isReverse));
-                HashMap<Tuple, Integer> tupleMap = new HashMap<>();
-                ObjectOutputStream outs =
-                    new ObjectOutputStream(new FileOutputStream(
+                List<TupleReader> inputStreams = new ArrayList<>(numberOfBuffers);
+                TupleWriter outs = new TupleWriter(
                         String.format("%s/%s-%d-%d.tblo", currentAbsPath,
-                            this.id.toString(), runId, nextRunCount)
-                    ));
+                            this.id.toString(), runId, nextRunCount), batchSize, schema);
+                if (!outs.open())
+                    throw new IOException("Cannot write the merged run");
 
                 // Open all the input streams to the previous runs
                 for (int i = 0; i < buffersForRuns && runCount > 0; i++, runCount--) {
                     // We need to add nextRunCount * 10, else we will always be reading the
                     // first 10 runs of every pass
-                    ObjectInputStream runInput = new ObjectInputStream(new FileInputStream(
+                    TupleReader runInput = new TupleReader(
                         String.format("%s/%s-%d-%d.tblo", currentAbsPath,
-                            this.id.toString(), runId - 1, i + (nextRunCount * buffersForRuns))));
+                            this.id.toString(), runId - 1, i + (nextRunCount * buffersForRuns)),
+                        batchSize, schema);
+                    if (!runInput.open())
+                        throw new IOException("Cannot read a run");
                     inputStreams.add(runInput);
-                    inputStreamsEof.add(false);
-
-                    try {
-                        Tuple data = readTuple(runInput);
-                        pq.add(data);
-                        tupleMap.put(data, i);
-                    } catch (EOFException eof) {
-                        inputStreamsEof.set(i, true);
-                    }
                 }
 
                 // Now we merge all the results in
-                while (!(inputStreamsEof.stream().reduce(true, (a, b) -> a && b)) &&
-                    !pq.isEmpty()) {
-                    Tuple head = pq.poll();
-                    outs.writeObject(head);
-
-                    int streamIndexToRead = tupleMap.get(head);
-                    try {
-                        Tuple data = readTuple(inputStreams.get(streamIndexToRead));
-                        pq.add(data);
-                        tupleMap.put(data, streamIndexToRead);
-                    } catch (EOFException eof) {
-                        inputStreamsEof.set(streamIndexToRead, true);
-                    }
-                }
+                mergeRuns(inputStreams, new TupleComparator(indexes, isReverse), outs);
 
-                for (ObjectInputStream ins : inputStreams)
+                // The merged runs are not needed anymore
+                for (TupleReader ins : inputStreams) {
                     ins.close();
+                    PageFile.delete(ins.getFileName());
+                }
 
                 outs.close();
                 nextRunCount++;
@@ -357,6 +351,349 @@ public class ExternalSort {
         return String.format("%s/%s-%d-0.tblo", currentAbsPath, this.id.toString(), runId - 1);
     }
 
+    /**
+     * Merges the runs into the output with a loser tree, which takes about log2(k)
+     * comparisons per tuple for k runs. Of equal tuples, those of the earlier run come first.
+     * @param inputStreams List<TupleReader> of the runs
+     * @param comparator TupleComparator
+     * @param outs TupleWriter
+     */
+    static void mergeRuns(List<TupleReader> inputStreams, TupleComparator comparator, TupleWriter outs) {
+        LoserTree tree = new LoserTree(inputStreams, comparator);
+        int winner;
+        while ((winner = tree.winner()) >= 0) {
+            outs.next(tree.head(winner));
+            tree.advance(winner);
+        }
+    }
+
+    /**
+     * Tournament tree over the head tuples of k runs. Every inner node holds the run
+     * that lost the match played there, and node 0 the run that won the whole tournament,
+     * so replacing the head of the winner only replays the matches on its path to the root.
+     * An exhausted run loses every match.
+     */
+    private static class LoserTree {
+        final List<TupleReader> inputs;
+        final TupleComparator comparator;
+        final int k;            // Number of runs
+        final Tuple[] heads;    // Head tuple of every run, null once it is exhausted
+        final int[] tree;       // Loser of the match at every inner node, the winner at 0
+
+        LoserTree(List<TupleReader> inputs, TupleComparator comparator) {
+            this.inputs = inputs;
+            this.comparator = comparator;
+            k = inputs.size();
+            heads = new Tuple[k];
+            tree = new int[Math.max(1, k)];
+            // Run k stands for a tuple smaller than all, so that the first matches are won by the real runs
+            Arrays.fill(tree, k);
+            for (int i = 0; i < k; i++)
+                heads[i] = inputs.get(i).next();
+            for (int i = k - 1; i >= 0; i--)
+                replay(i);
+        }
+
+        /**
+         * Returns the run whose head comes next, or -1 if all the runs are exhausted
+         */
+        int winner() {
+            int w = tree[0];
+            return (w < k && heads[w] != null) ? w : -1;
+        }
+
+        Tuple head(int run) {
+            return heads[run];
+        }
+
+        /**
+         * Reads the next tuple of the run and replays its matches up to the root
+         */
+        void advance(int run) {
+            heads[run] = inputs.get(run).next();
+            replay(run);
+        }
+
+        private void replay(int run) {
+            int s = run;
+            for (int t = (run + k) / 2; t > 0; t /= 2) {
+                if (beats(tree[t], s)) {
+                    int loser = s;
+                    s = tree[t];
+                    tree[t] = loser;
+                }
+            }
+            tree[0] = s;
+        }
+
+        /**
+         * Whether the head of run a comes before the head of run b, ties going to the earlier run
+         */
+        private boolean beats(int a, int b) {
+            if (a == k)
+                return true;
+            if (b == k)
+                return false;
+            if (heads[a] == null)
+                return false;
+            if (heads[b] == null)
+                return true;
+            int result = comparator.compare(heads[a], heads[b]);
+            return result < 0 || (result == 0 && a < b);
+        }
+    }
+
+    /**
+     * Writes the initial runs to the files prefix + run number + suffix, and returns their number.
+     * @param source TupleSource of the input
+     * @param indexes List<Integer>
+     * @param isReverse boolean which indicates whether the runs are in descending order
+     * @param prefix String
+     * @param suffix String
+     * @param batchSize int
+     * @return int
+     * @throws IOException
+     */
+    private int generateRuns(TupleSource source, List<Integer> indexes, boolean isReverse,
+                             String prefix, String suffix, int batchSize) throws IOException {
+        if (replacementSelection) {
+            int runCount = selectRuns(source, new TupleComparator(indexes, isReverse), prefix, suffix, batchSize);
+            return atLeastOneRun(runCount, prefix + 0 + suffix, batchSize);
+        }
+
+        boolean eos = false;
+        int initialRunSize = batchSize * numberOfBuffers;
+        // In the parallel mode the run is cut into chunks, sorted while the next chunk is read
+        int chunkSize = Math.max(1, parallelism == 0 ? initialRunSize : initialRunSize / parallelism);
+        // Pages of the buffers free for the tuples read, given back as the run written goes out
+        Semaphore room = parallelism == 0 ? null : new Semaphore(numberOfBuffers);
+        ForkJoinTask<?> writing = null;
+        TupleComparator comparator = new TupleComparator(indexes);
+        int initialRunCount = 0;
+        while (!eos) {
+            List<Tuple> outbatchTuplesList = new ArrayList<>();
+            int runSize = 0;
+
+            // While the run is not full and eos is not reached, read the tuples chunk by chunk
+            while (!eos && runSize != initialRunSize) {
+                Tuple data = source.next();
+                if (data == null) {
+                    eos = true;
+                } else {
+                    if (room != null && runSize % batchSize == 0)
+                        room.acquireUninterruptibly();
+                    outbatchTuplesList.add(data);
+                    runSize++;
+                }
+                if (outbatchTuplesList.size() == chunkSize || (eos && !outbatchTuplesList.isEmpty())) {
+                    sortChunk(outbatchTuplesList, comparator);
+                    outbatchTuplesList = new ArrayList<>();
+                }
+            }
+            if (!outbatchTuplesList.isEmpty()) {
+                sortChunk(outbatchTuplesList, comparator);
+            }
+
+            // If there are tuples in the run, merge its chunks and write it to disk, in the
+            // background in the parallel mode once the run before is written
+            if (runSize > 0) {
+                if (writing != null)
+                    waitFor(writing);
+                writing = writeRun(comparator, isReverse, prefix + initialRunCount + suffix, batchSize, room);
+                initialRunCount++;
+            }
+        }
+        if (writing != null)
+            waitFor(writing);
+        return atLeastOneRun(initialRunCount, prefix + 0 + suffix, batchSize);
+    }
+
+    /**
+     * Writes an empty run for an empty input, so that the sorted file always exists
+     * @param runCount int number of runs written
+     * @param path String of the first run file
+     * @param batchSize int
+     * @return int
+     * @throws IOException
+     */
+    private int atLeastOneRun(int runCount, String path, int batchSize) throws IOException {
+        if (runCount > 0)
+            return runCount;
+        TupleWriter outs = new TupleWriter(path, batchSize, schema);
+        if (!outs.open())
+            throw new IOException("Cannot write the initial run");
+        outs.close();
+        return 1;
+    }
+
+    /**
+     * Writes the initial runs by replacement selection and returns their number.
+     * The heap is ordered on the run of the tuples first, so the tuples held back
+     * for the next run only come out once the current run is finished.
+     * @param source TupleSource of the input
+     * @param order TupleComparator of the runs
+     * @param prefix String
+     * @param suffix String
+     * @param batchSize int
+     * @return int
+     * @throws IOException
+     */
+    private int selectRuns(TupleSource source, TupleComparator order,
+                           String prefix, String suffix, int batchSize) throws IOException {
+        int capacity = Math.max(1, batchSize * numberOfBuffers);
+        PriorityQueue<RunTuple> heap = new PriorityQueue<>(capacity, (a, b) ->
+                a.run != b.run ? Integer.compare(a.run, b.run) : order.compare(a.tuple, b.tuple));
+        Tuple data;
+        while (heap.size() < capacity && (data = source.next()) != null)
+            heap.add(new RunTuple(0, data));
+
+        int run = -1;
+        TupleWriter outs = null;
+        while (!heap.isEmpty()) {
+            RunTuple head = heap.poll();
+            if (head.run != run) {
+                if (outs != null)
+                    outs.close();
+                run = head.run;
+                outs = new TupleWriter(prefix + run + suffix, batchSize, schema);
+                if (!outs.open())
+                    throw new IOException("Cannot write the initial run");
+            }
+            outs.next(head.tuple);
+
+            // The next tuple takes the place of the one written out
+            data = source.next();
+            if (data != null) {
+                head.run = order.compare(data, head.tuple) < 0 ? run + 1 : run;
+                head.tuple = data;
+                heap.add(head);
+            }
+        }
+        if (outs != null)
+            outs.close();
+        return run + 1;
+    }
+
+    /**
+     * Sorts a chunk of the run being read, in the background in the parallel mode
+     * @param chunk List<Tuple> which is not used by the caller any more
+     * @param comparator TupleComparator
+     */
+    private void sortChunk(List<Tuple> chunk, TupleComparator comparator) {
+        chunks.add(chunk);
+        if (parallelism == 0) {
+            Collections.sort(chunk, comparator);
+        } else {
+            pending.add(POOL.submit(() -> Collections.sort(chunk, comparator)));
+        }
+    }
+
+    /**
+     * Writes the run whose chunks were handed to sortChunk. In the parallel mode the run
+     * is written by a task of the pool, which is returned, and null otherwise.
+     * @param comparator TupleComparator
+     * @param isReverse boolean which indicates whether the sorted run is reversed
+     * @param path String of the run file
+     * @param batchSize int
+     * @param room Semaphore of the pages of the buffers, or null in the sequential mode
+     * @return ForkJoinTask writing the run, or null once it is written
+     * @throws IOException
+     */
+    private ForkJoinTask<?> writeRun(TupleComparator comparator, boolean isReverse,
+                                     String path, int batchSize, Semaphore room) throws IOException {
+        List<List<Tuple>> runChunks = new ArrayList<>(chunks);
+        List<ForkJoinTask<?>> sorts = new ArrayList<>(pending);
+        chunks.clear();
+        pending.clear();
+        if (room == null) {
+            writeChunks(runChunks, sorts, comparator, isReverse, path, batchSize, null);
+            return null;
+        }
+        return POOL.submit(() -> {
+            writeChunks(runChunks, sorts, comparator, isReverse, path, batchSize, room);
+            return null;
+        });
+    }
+
+    /**
+     * Waits for the chunks of the run to be sorted, merges them and writes the run to the file.
+     * Each page written gives a page back to room, and the tuples written are let go. The
+     * pages left are given back whatever happens, so that the reader never waits for ever.
+     */
+    private void writeChunks(List<List<Tuple>> runChunks, List<ForkJoinTask<?>> sorts,
+                             TupleComparator comparator, boolean isReverse,
+                             String path, int batchSize, Semaphore room) throws IOException {
+        int size = 0;
+        for (List<Tuple> chunk : runChunks)
+            size += chunk.size();
+        int held = (size + batchSize - 1) / batchSize;
+        try {
+            for (ForkJoinTask<?> task : sorts)
+                waitFor(task);
+            List<Tuple> run = runChunks.size() == 1 ? runChunks.get(0) : mergeChunks(runChunks, comparator);
+            runChunks.clear();
+            // Reverse it if in descending order
+            if (isReverse)
+                Collections.reverse(run);
+
+            TupleWriter outs = new TupleWriter(path, batchSize, schema);
+            if (!outs.open())
+                throw new IOException("Cannot write the initial run");
+            for (int i = 0; i < run.size(); ++i) {
+                outs.next(run.get(i));
+                run.set(i, null);
+                if (room != null && (i + 1) % batchSize == 0) {
+                    room.release();
+                    held--;
+                }
+            }
+            outs.close();
+        } finally {
+            if (room != null)
+                room.release(held);
+        }
+    }
+
+    /**
+     * Merges the sorted chunks of the run. Of equal tuples those of the earlier
+     * chunk come first, so the run is in the order of a single stable sort.
+     * @param chunks List of the sorted chunks
+     * @param comparator TupleComparator
+     * @return List<Tuple>
+     */
+    private static List<Tuple> mergeChunks(List<List<Tuple>> chunks, TupleComparator comparator) {
+        int[] curs = new int[chunks.size()];
+        PriorityQueue<Integer> heads = new PriorityQueue<>(chunks.size(), (a, b) -> {
+            int result = comparator.compare(chunks.get(a).get(curs[a]), chunks.get(b).get(curs[b]));
+            return result != 0 ? result : Integer.compare(a, b);
+        });
+        int size = 0;
+        for (int c = 0; c < chunks.size(); ++c) {
+            size += chunks.get(c).size();
+            heads.add(c);
+        }
+        List<Tuple> run = new ArrayList<>(size);
+        while (!heads.isEmpty()) {
+            int c = heads.poll();
+            run.add(chunks.get(c).get(curs[c]++));
+            if (curs[c] < chunks.get(c).size())
+                heads.add(c);
+        }
+        return run;
+    }
+
+    private void waitFor(ForkJoinTask<?> task) throws IOException {
+        try {
+            task.get();
+        } catch (InterruptedException ie) {
+            throw new IOException("Interrupted while writing a run", ie);
+        } catch (ExecutionException ee) {
+            if (ee.getCause() instanceof IOException)
+                throw (IOException) ee.getCause();
+            throw new IOException("Cannot write a run", ee.getCause());
+        }
+    }
+
     /**
      * Wrapper class to read Tuple
      * @param ins ObjectInputStream
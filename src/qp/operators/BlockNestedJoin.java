@@ -6,15 +6,26 @@ package qp.operators;
 
 import qp.utils.Attribute;
 import qp.utils.Batch;
+import qp.utils.BloomFilter;
 import qp.utils.Condition;
+import qp.utils.SpillCodec;
 import qp.utils.Tuple;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.HashMap;
 
 public class BlockNestedJoin extends NestedJoin {
 
     Batch[] leftbatches;                // Buffer page for left input stream
+    ArrayList<Integer> leftkeys;        // Indices of the left attributes of the equality conditions
+    ArrayList<Integer> rightkeys;       // Indices of the right attributes of the equality conditions
+    HashMap<Integer, ArrayList<Tuple>> blocktable;  // Tuples of the left block on the hash of their keys
+    Tuple probetuple;                   // Right tuple probing blocktable
+    ArrayList<Tuple> matches;           // Tuples of the left block with the hash of probetuple
+    int mcurs;                          // Cursor in matches
+    BloomFilter pending;                // Filter filled by the first pass over a rescanned right table
+    ArrayList<Attribute> filterkeys;    // Left attributes the filter is checked on
 
     public BlockNestedJoin(Join jn) {
         super(jn);
@@ -33,12 +44,24 @@ public class BlockNestedJoin extends NestedJoin {
         /** find indices attributes of join conditions **/
         leftindex = new ArrayList<>();
         rightindex = new ArrayList<>();
+        leftkeys = new ArrayList<>();
+        rightkeys = new ArrayList<>();
+        ArrayList<Attribute> leftkeyattrs = new ArrayList<>();
         for (Condition con : conditionList) {
             Attribute leftattr = con.getLhs();
             Attribute rightattr = (Attribute) con.getRhs();
             leftindex.add(left.getSchema().indexOf(leftattr));
             rightindex.add(right.getSchema().indexOf(rightattr));
+            if (con.getExprType() == Condition.EQUAL) {
+                leftkeys.add(left.getSchema().indexOf(leftattr));
+                rightkeys.add(right.getSchema().indexOf(rightattr));
+                leftkeyattrs.add(leftattr);
+            }
         }
+        /** With equality conditions, the keys of the right side make a Bloom filter
+         ** for the Scan of the left side, which then drops the tuples without a match
+         **/
+        BloomFilter filter = rightkeys.isEmpty() ? null : newRightKeyFilter();
         Batch rightpage;
 
         /** initialize the cursors of input buffers **/
@@ -49,10 +72,28 @@ public class BlockNestedJoin extends NestedJoin {
          ** if it reached end, we have to start new scan
          **/
         eosr = true;
+        blocktable = null;
+        matches = null;
 
         /** Right hand side table is to be materialized
-         ** for the Block Nested join to perform
+         ** for the Block Nested join to perform. Only its input and the output page are
+         ** in use meanwhile, so the rest of the buffers read the right side ahead. The block
+         ** of left pages takes all the spare buffers afterwards.
+         **/
+        Scan.prefetch(right, numBuff - 2);
+        /** A base table is already in a file, so it is simply scanned again for every left block.
+         ** The block takes the buffers that would read it ahead. The filter is then filled
+         ** while the first block is joined, and drops the left tuples of the later blocks.
          **/
+        rescan = right.getOpType() == OpType.SCAN;
+        pending = null;
+        if (rescan) {
+            rfname = null;
+            Scan.prefetch(right, 0);
+            pending = filter;
+            filterkeys = leftkeyattrs;
+            return left.open();
+        }
         if (!right.open()) {
             return false;
         } else {
@@ -62,12 +103,22 @@ public class BlockNestedJoin extends NestedJoin {
              **/
             filenum++;
             rfname = "BNJtemp-" + filenum;
+            int rightbatchsize = Math.max(1, Batch.getPageSize() / right.getSchema().getTupleSize());
+            in = SpillCodec.forSchema(right.getSchema(), rightbatchsize);
+            if (!in.openWrite(rfname)) {
+                return false;
+            }
             try {
-                ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(rfname));
                 while ((rightpage = right.next()) != null) {
-                    out.writeObject(rightpage);
+                    if (filter != null) {
+                        for (int k = 0; k < rightpage.size(); ++k) {
+                            filter.add(rightpage.get(k).hashOn(rightkeys));
+                        }
+                    }
+                    in.writeBatch(rightpage);
+                    right.recycle(rightpage);
                 }
-                out.close();
+                in.closeWrite();
             } catch (IOException io) {
                 System.out.println("BlockNestedJoin: Error writing to temporary file");
                 return false;
@@ -75,6 +126,9 @@ public class BlockNestedJoin extends NestedJoin {
             if (!right.close())
                 return false;
         }
+        if (filter != null) {
+            Scan.filterRuntime(left, filter, leftkeyattrs);
+        }
         return left.open();
     }
 
@@ -87,33 +141,18 @@ public class BlockNestedJoin extends NestedJoin {
         if (eosl) {
             return null;
         }
-        outbatch = new Batch(batchsize);
+        outbatch = newBatch(batchsize);
         while (!outbatch.isFull()) {
             if (lcurs == 0 && eosr) {
-                /** new left page is to be fetched**/
-                leftbatches = new Batch[numBuff - 2];
-                leftbatches[0] = left.next();
-                if (leftbatches[0] == null) {
-                    eosl = true;
+                if (!nextBlock()) {
                     return outbatch;
                 }
-                for (i = 1; i < leftbatches.length; i++) {
-                    leftbatches[i] = left.next();
-                    if (leftbatches[i] == null) {
-                        break;
-                    }
-                }
-                /** Whenever a new left page came, we have to start the
-                 ** scanning of right table
+                /** With equality conditions the right tuples probe a hash table
+                 ** on the keys of the block instead of every tuple of the block
                  **/
-                try {
-                    in = new ObjectInputStream(new FileInputStream(rfname));
-                    eosr = false;
-                } catch (IOException io) {
-                    System.err.println("BlockNestedJoin:error in reading the file");
-                    System.exit(1);
+                if (!leftkeys.isEmpty()) {
+                    buildBlockTable();
                 }
-
             }
             int leftTupleSize = 0;
             for (Batch leftBatch : leftbatches) {
@@ -124,13 +163,22 @@ public class BlockNestedJoin extends NestedJoin {
             }
             while (!eosr) {
                 try {
+                    if (blocktable != null) {
+                        if (probeBlock()) {
+                            return outbatch;
+                        }
+                        continue;
+                    }
                     if (rcurs == 0 && lcurs == 0) {
-                        rightbatch = (Batch) in.readObject();
+                        rightbatch = readRight();
+                        if (rightbatch == null) {
+                            closeRight();
+                            eosr = true;
+                            break;
+                        }
                     }
                     for (i = lcurs; i < leftTupleSize; ++i) {
-                        int leftBatchIndex = i / leftbatches[0].size();
-                        int leftTupleIndex = i % leftbatches[0].size();
-                        Tuple lefttuple = leftbatches[leftBatchIndex].get(leftTupleIndex);
+                        Tuple lefttuple = leftTuple(i);
 
                         for (j = rcurs; j < rightbatch.size(); ++j) {
                             Tuple righttuple = rightbatch.get(j);
@@ -160,16 +208,6 @@ public class BlockNestedJoin extends NestedJoin {
                         rcurs = 0;
                     }
                     lcurs = 0;
-                } catch (EOFException e) {
-                    try {
-                        in.close();
-                    } catch (IOException io) {
-                        System.out.println("BlockNestedJoin: Error in reading temporary file");
-                    }
-                    eosr = true;
-                } catch (ClassNotFoundException c) {
-                    System.out.println("BlockNestedJoin: Error in deserialising temporary file ");
-                    System.exit(1);
                 } catch (IOException io) {
                     System.out.println("BlockNestedJoin: Error in reading temporary file");
                     System.exit(1);
@@ -179,5 +217,126 @@ public class BlockNestedJoin extends NestedJoin {
         return outbatch;
     }
 
+    /**
+     * Fetches a new left block, handing back the pages of the old one, and
+     * * starts a new scan of the right table. Returns false at the end of the left input.
+     **/
+    boolean nextBlock() {
+        if (leftbatches != null) {
+            for (Batch b : leftbatches) {
+                left.recycle(b);
+            }
+        }
+        leftbatches = new Batch[numBuff - 2];
+        leftbatches[0] = left.next();
+        if (leftbatches[0] == null) {
+            eosl = true;
+            return false;
+        }
+        for (int i = 1; i < leftbatches.length; i++) {
+            leftbatches[i] = left.next();
+            if (leftbatches[i] == null) {
+                break;
+            }
+        }
+        /** Whenever a new left page came, we have to start the
+         ** scanning of right table
+         **/
+        if (!openRight()) {
+            System.err.println("BlockNestedJoin:error in reading the file");
+            System.exit(1);
+        }
+        eosr = false;
+        rightbatch = null;
+        return true;
+    }
+
+    /**
+     * Next page of the right hand side. During the first pass over a rescanned
+     * * base table, its keys are added to the filter, which goes to the left
+     * * Scan once the pass is over.
+     **/
+    Batch readRight() throws IOException {
+        Batch rightpage = super.readRight();
+        if (pending != null) {
+            if (rightpage == null) {
+                Scan.filterRuntime(left, pending, filterkeys);
+                pending = null;
+            } else {
+                for (int k = 0; k < rightpage.size(); ++k) {
+                    pending.add(rightpage.get(k).hashOn(rightkeys));
+                }
+            }
+        }
+        return rightpage;
+    }
+
+    /**
+     * Hashes the tuples of the left block on the attributes of the equality conditions
+     **/
+    private void buildBlockTable() {
+        blocktable = new HashMap<>();
+        for (Batch leftBatch : leftbatches) {
+            if (leftBatch == null) {
+                break;
+            }
+            for (int i = 0; i < leftBatch.size(); ++i) {
+                Tuple tuple = leftBatch.get(i);
+                blocktable.computeIfAbsent(tuple.hashOn(leftkeys), k -> new ArrayList<>()).add(tuple);
+            }
+        }
+        matches = null;
+    }
+
+    /**
+     * Probes the hash table of the left block with the right tuples not read yet.
+     * * The tuples with the same hash are still checked on all the conditions, so
+     * * those other than equality are applied there. Returns true once the output
+     * * page is full, and false once the right table is read to the end.
+     **/
+    private boolean probeBlock() throws IOException {
+        while (true) {
+            if (matches != null) {
+                while (mcurs < matches.size()) {
+                    Tuple lefttuple = matches.get(mcurs++);
+                    if (lefttuple.checkJoin(probetuple, leftindex, rightindex, conditionList)) {
+                        outbatch.add(lefttuple.joinWith(probetuple));
+                        if (outbatch.isFull()) {
+                            return true;
+                        }
+                    }
+                }
+                matches = null;
+            }
+            if (rightbatch == null || rcurs >= rightbatch.size()) {
+                rightbatch = readRight();
+                rcurs = 0;
+                if (rightbatch == null) {
+                    closeRight();
+                    eosr = true;
+                    return false;
+                }
+                continue;
+            }
+            probetuple = rightbatch.get(rcurs++);
+            matches = blocktable.get(probetuple.hashOn(rightkeys));
+            mcurs = 0;
+        }
+    }
+
+    /**
+     * Returns the i-th tuple of the left block. The pages of the block
+     * * need not hold the same number of tuples.
+     **/
+    private Tuple leftTuple(int i) {
+        for (Batch leftBatch : leftbatches) {
+            if (i < leftBatch.size()) {
+                return leftBatch.get(i);
+            }
+            i -= leftBatch.size();
+        }
+        return null;
+    }
+
 }
 
@@ -80,7 +80,19 @@ public class Debug {
     public static void PPrint(Operator node) {
         int optype = node.getOpType();
 
-        if (optype == OpType.JOIN) {
+        if (node instanceof MultiwayJoin) {
+            MultiwayJoin mj = (MultiwayJoin) node;
+            System.out.print("Multiway(");
+            PPrint(mj.getDriving());
+            for (int i = 0; i < mj.getNumLevels(); ++i) {
+                System.out.print("  [");
+                PPrint(mj.getLevel(i).getCondition());
+                System.out.print("]  ");
+                PPrint(mj.getDimension(i));
+            }
+            System.out.print(")");
+
+        } else if (optype == OpType.JOIN) {
             int exprtype = ((Join) node).getJoinType();
             switch (exprtype) {
                 case JoinType.NESTEDJOIN:
@@ -95,6 +107,15 @@ public class Debug {
                 case JoinType.HASHJOIN:
                     System.out.print("HashJoin(");
                     break;
+                case JoinType.HYBRIDHASH:
+                    System.out.print("HybridHash(");
+                    break;
+                case JoinType.PARALLELHASH:
+                    System.out.print("ParallelHash(");
+                    break;
+                case JoinType.INEQUALITY:
+                    System.out.print("InequalityJoin(");
+                    break;
             }
             PPrint(((Join) node).getLeft());
             System.out.print("  [");
@@ -2,11 +2,11 @@ package qp.operators;
 
 import qp.optimizer.BufferManager;
 import qp.utils.Batch;
+import qp.utils.PageFile;
 import qp.utils.Tuple;
 import qp.utils.TupleReader;
 import qp.utils.TupleWriter;
 
-import java.io.File;
 import java.util.ArrayList;
 import java.util.Hashtable;
 import java.util.stream.Collectors;
@@ -48,7 +48,7 @@ public class HashDistinct extends Operator {
         TupleWriter tw;
 
         ArrayList<TupleWriter> tupleWriters = IntStream.range(0, numBuffer)
-                .mapToObj(i -> new TupleWriter(String.format("temp-%d.tbl", i), batchSize))
+                .mapToObj(i -> new TupleWriter(String.format("temp-%d.tbl", i), batchSize, schema))
                 .collect(Collectors.toCollection(ArrayList::new));
         tupleWriters.forEach(TupleWriter::open);
         while (batch != null) {
@@ -81,11 +81,11 @@ public class HashDistinct extends Operator {
         int numBuckets = (numBuffer / 2) | 1;
         Hashtable<Integer, Tuple> hashTable = new Hashtable<>();
         filename = "temp-distinct.tbl";
-        tw = new TupleWriter(filename, batchSize);
+        tw = new TupleWriter(filename, batchSize, schema);
         tw.open();
         for (int i = 0; i < numBuffer; i++) {
             String fname = String.format("temp-%d.tbl", i);
-            TupleReader tr = new TupleReader(fname, batchSize);
+            TupleReader tr = new TupleReader(fname, batchSize, schema);
             tr.open();
             while (!tr.isEOF()) {
                 t = tr.next();
@@ -95,8 +95,7 @@ public class HashDistinct extends Operator {
             tr.close();
             hashTable.values().forEach(tw::next);
             hashTable.clear();
-            File file = new File(fname);
-            file.delete();
+            PageFile.delete(fname);
         }
         tw.close();
         return true;
@@ -108,7 +107,7 @@ public class HashDistinct extends Operator {
         }
 
         Batch outBatch = new Batch(batchSize);
-        TupleReader tupleReader = new TupleReader(filename, batchSize);
+        TupleReader tupleReader = new TupleReader(filename, batchSize, schema);
         tupleReader.open();
         while (!tupleReader.isEOF()) {
             Tuple t = tupleReader.next();
@@ -120,8 +119,7 @@ public class HashDistinct extends Operator {
     }
 
     public boolean close() {
-        File file = new File(filename);
-        file.delete();
+        PageFile.delete(filename);
         return base.close();
     }
 
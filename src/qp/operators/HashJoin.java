@@ -0,0 +1,615 @@
+/**
+ * Grace Hash Join algorithm
+ **/
+
+package qp.operators;
+
+import qp.utils.Attribute;
+import qp.utils.Batch;
+import qp.utils.BloomFilter;
+import qp.utils.Condition;
+import qp.utils.PageFile;
+import qp.utils.Schema;
+import qp.utils.Tuple;
+import qp.utils.TupleReader;
+import qp.utils.TupleWriter;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Both inputs are partitioned on the hash of the join attributes, and each pair of
+ * partitions is joined with a hash table on its smaller partition. A pair too large
+ * for the buffers is partitioned again, up to MAX_LEVEL times, and is then joined
+ * a chunk of its build partition at a time.
+ *
+ * Partitioning again does not help for a single join value with many tuples, so the
+ * values of the right input with the most tuples are found while it is partitioned.
+ * Once a value has enough tuples to fill the buffers on its own, and makes up at least
+ * 1 / MAX_HEAVY of the right tuples read so far, it is a heavy hitter: its further
+ * right tuples go to a pair of partitions of their own, and the left tuples with that
+ * value are written both there and to their usual partition.
+ **/
+public class HashJoin extends Join {
+
+    public static final int MAX_LEVEL = 3;  // Number of times a partition is split again before it is joined as it is
+    public static final int MAX_HEAVY = 64; // Number of values of the right input counted to find the heavy hitters
+    static int filenum = 0;          // To get unique filenum for this operation
+
+    int batchsize;                   // Number of tuples per out batch
+    int leftbatchsize;               // Number of tuples per page of the left partitions
+    int rightbatchsize;              // Number of tuples per page of the right partitions
+    ArrayList<Integer> leftindex;    // Indices of the join attributes in left table
+    ArrayList<Integer> rightindex;   // Indices of the join attributes in right table
+    ArrayList<Integer> leftkeys;     // Indices of the left attributes of the equality conditions
+    ArrayList<Integer> rightkeys;    // Indices of the right attributes of the equality conditions
+    ArrayList<Attribute> leftkeyattrs;   // Left attributes of the equality conditions
+    String prefix;                   // Prefix of the names of the partition files
+    int numfiles;                    // Number of partition files created so far
+    Batch outbatch;                  // Buffer page for output
+
+    ArrayDeque<Partition> partitions;      // Pairs of partitions that are still to be joined
+    Partition current;                     // Pair of partitions being joined
+    boolean buildleft;                     // Whether the hash table is built on the left partition
+    HashMap<Integer, ArrayList<Tuple>> table;  // Hash table on the build partition
+    TupleReader probe;                     // Reader of the probe partition
+    Tuple probetuple;                      // Tuple of the probe partition being joined
+    ArrayList<Tuple> matches;              // Build tuples with the same hash as probetuple
+    int mcurs;                             // Cursor in matches
+    boolean eos;                           // Whether all the partitions are joined
+    TupleReader chunkreader;               // Reader of a build partition joined a chunk at a time
+
+    HashMap<Integer, Integer> counters;    // Counts of the most frequent hashes of the right input
+    HashSet<Integer> heavy;                // Hashes of the heavy hitters of the right input
+    int heavythreshold;                    // Number of right tuples that makes a hash a heavy hitter
+    long rightcounted;                     // Number of right tuples counted so far
+    TupleWriter leftskew;                  // Writers of the pair of partitions of the heavy hitters
+    TupleWriter rightskew;
+
+    long skewbuild;                        // Right tuples of the heavy hitters written to their own partition
+    long skewprobe;                        // Left tuples of the heavy hitters written to their own partition
+    int numchunks;                         // Chunks of build partitions too large for the buffers
+
+    /**
+     * A pair of partition files, one of each input, whose tuples hash to the same partition
+     **/
+    static class Partition {
+        String leftfile;
+        String rightfile;
+        int level;               // Number of times the tuples were partitioned
+        int leftpages;           // Number of pages of the left partition
+        int rightpages;          // Number of pages of the right partition
+        int lefttuples;          // Number of tuples of the left partition
+        int righttuples;         // Number of tuples of the right partition
+
+        Partition(TupleWriter leftwriter, TupleWriter rightwriter, int level) {
+            this.leftfile = leftwriter.getFileName();
+            this.rightfile = rightwriter.getFileName();
+            this.level = level;
+            this.leftpages = leftwriter.getNumBatch();
+            this.rightpages = rightwriter.getNumBatch();
+            this.lefttuples = leftwriter.getNumTuple();
+            this.righttuples = rightwriter.getNumTuple();
+        }
+
+        void delete() {
+            PageFile.delete(leftfile);
+            PageFile.delete(rightfile);
+        }
+    }
+
+    public HashJoin(Join jn) {
+        super(jn.getLeft(), jn.getRight(), jn.getConditionList(), jn.getOpType());
+        schema = jn.getSchema();
+        jointype = jn.getJoinType();
+        numBuff = jn.getNumBuff();
+        numRightKeys = jn.getNumRightKeys();
+    }
+
+    public int getNumHeavy() {
+        return heavy == null ? 0 : heavy.size();
+    }
+
+    public long getSkewBuild() {
+        return skewbuild;
+    }
+
+    public long getSkewProbe() {
+        return skewprobe;
+    }
+
+    public int getNumChunks() {
+        return numchunks;
+    }
+
+    /**
+     * The pages of both inputs are handed back once all their tuples are processed
+     **/
+    public boolean handsBackInput() {
+        return true;
+    }
+
+    /**
+     * During open finds the index of the join attributes
+     * * Partitions both inputs into numBuff - 1 files each, hashing the
+     * * attributes of the equality conditions. The other conditions are
+     * * only checked when the tuples are joined. The right input is read
+     * * first, and a Bloom filter over its keys drops the left tuples
+     * * without a match, in the Scan of the left input if there is one.
+     * * The heavy hitters of the right input get a pair of partitions of their own.
+     **/
+    public boolean open() {
+        if (!setup()) {
+            return false;
+        }
+
+        /** One buffer reads the input while the others hold a page of each partition **/
+        int numparts = Math.max(2, numBuff - 1);
+        TupleWriter[] leftparts = createPartitions(numparts, leftbatchsize, left.getSchema());
+        TupleWriter[] rightparts = createPartitions(numparts, rightbatchsize, right.getSchema());
+        BloomFilter filter = newRightKeyFilter();
+        if (!partition(right, rightparts, rightkeys, filter, null)) {
+            return false;
+        }
+        openSkew();
+        boolean pushed = Scan.filterRuntime(left, filter, leftkeyattrs);
+        if (!partition(left, leftparts, leftkeys, null, pushed ? null : filter)) {
+            return false;
+        }
+        for (int p = 0; p < numparts; ++p) {
+            partitions.add(new Partition(leftparts[p], rightparts[p], 0));
+        }
+        finishSkew();
+        return true;
+    }
+
+    /**
+     * Finds the index of the join attributes and resets the state of the join.
+     * Returns false if there is no equality condition to hash.
+     **/
+    boolean setup() {
+        /** select number of tuples per batch **/
+        int tuplesize = schema.getTupleSize();
+        batchsize = Math.max(1, Batch.getPageSize() / tuplesize);
+        leftbatchsize = Math.max(1, Batch.getPageSize() / left.getSchema().getTupleSize());
+        rightbatchsize = Math.max(1, Batch.getPageSize() / right.getSchema().getTupleSize());
+
+        /** find indices attributes of join conditions **/
+        leftindex = new ArrayList<>();
+        rightindex = new ArrayList<>();
+        leftkeys = new ArrayList<>();
+        rightkeys = new ArrayList<>();
+        leftkeyattrs = new ArrayList<>();
+        for (Condition con : conditionList) {
+            Attribute leftattr = con.getLhs();
+            Attribute rightattr = (Attribute) con.getRhs();
+            leftindex.add(left.getSchema().indexOf(leftattr));
+            rightindex.add(right.getSchema().indexOf(rightattr));
+            if (con.getExprType() == Condition.EQUAL) {
+                leftkeys.add(left.getSchema().indexOf(leftattr));
+                rightkeys.add(right.getSchema().indexOf(rightattr));
+                leftkeyattrs.add(leftattr);
+            }
+        }
+        if (leftkeys.isEmpty()) {
+            System.out.println("HashJoin: at least one equality join condition is needed");
+            return false;
+        }
+
+        filenum++;
+        prefix = "HJtemp-" + filenum + "-";
+        numfiles = 0;
+        partitions = new ArrayDeque<>();
+        current = null;
+        table = null;
+        probe = null;
+        matches = null;
+        eos = false;
+        chunkreader = null;
+
+        counters = new HashMap<>();
+        heavy = new HashSet<>();
+        heavythreshold = Math.max(2, rightbatchsize * Math.max(1, numBuff - 2));
+        rightcounted = 0;
+        leftskew = null;
+        rightskew = null;
+        skewbuild = 0;
+        skewprobe = 0;
+        numchunks = 0;
+        return true;
+    }
+
+    /**
+     * Counts the hash of a right tuple, and writes the tuple to the partition of the
+     * heavy hitters if it is one. The hashes are counted as in the Misra-Gries
+     * algorithm with MAX_HEAVY counters, which never overestimate, so a hash becomes
+     * a heavy hitter only once it has had heavythreshold tuples. A hash with that many
+     * tuples in a large input is still ordinary unless it is also a large share of it.
+     * Returns true if the tuple was written.
+     **/
+    boolean spillHeavy(Tuple tuple, int hash) {
+        rightcounted++;
+        if (heavy.contains(hash)) {
+            if (rightskew == null) {
+                rightskew = createPartition(rightbatchsize, right.getSchema());
+            }
+            rightskew.next(tuple);
+            skewbuild++;
+            return true;
+        }
+        if (heavy.size() >= MAX_HEAVY) {
+            return false;
+        }
+        Integer count = counters.get(hash);
+        if (count != null) {
+            if (count + 1 >= heavythreshold && (long) (count + 1) * MAX_HEAVY >= rightcounted) {
+                counters.remove(hash);
+                heavy.add(hash);
+            } else {
+                counters.put(hash, count + 1);
+            }
+        } else if (counters.size() < MAX_HEAVY) {
+            counters.put(hash, 1);
+        } else {
+            Iterator<Map.Entry<Integer, Integer>> it = counters.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Integer, Integer> entry = it.next();
+                if (entry.getValue() == 1) {
+                    it.remove();
+                } else {
+                    entry.setValue(entry.getValue() - 1);
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes a left tuple of a heavy hitter to the partition of the heavy hitters too,
+     * as the right tuples read before the value became one are in its usual partition
+     **/
+    void copyHeavy(Tuple tuple, int hash) {
+        if (leftskew != null && heavy.contains(hash)) {
+            leftskew.next(tuple);
+            skewprobe++;
+        }
+    }
+
+    /**
+     * Once the right input is partitioned, opens the left partition of the heavy hitters
+     **/
+    void openSkew() {
+        counters = null;
+        if (rightskew != null) {
+            rightskew.close();
+            leftskew = createPartition(leftbatchsize, left.getSchema());
+        }
+    }
+
+    /**
+     * Once the left input is partitioned, queues the pair of partitions of the heavy
+     * hitters. It holds few values, so it is never partitioned again.
+     **/
+    void finishSkew() {
+        if (rightskew != null) {
+            leftskew.close();
+            partitions.add(new Partition(leftskew, rightskew, MAX_LEVEL));
+            leftskew = null;
+            rightskew = null;
+        }
+    }
+
+    /**
+     * Opens the writers of numparts new partition files
+     **/
+    TupleWriter[] createPartitions(int numparts, int partbatchsize, Schema partschema) {
+        TupleWriter[] writers = new TupleWriter[numparts];
+        for (int p = 0; p < numparts; ++p) {
+            writers[p] = createPartition(partbatchsize, partschema);
+        }
+        return writers;
+    }
+
+    /**
+     * Opens the writer of a new partition file
+     **/
+    synchronized TupleWriter createPartition(int partbatchsize, Schema partschema) {
+        numfiles++;
+        TupleWriter writer = new TupleWriter(prefix + numfiles, partbatchsize, partschema);
+        if (!writer.open()) {
+            System.out.println("HashJoin: Error writing to temporary file");
+            System.exit(1);
+        }
+        return writer;
+    }
+
+    /**
+     * Writes every tuple of the input to the partition its join attributes hash to.
+     * The hashes are added to the build filter, and the tuples the probe filter
+     * rules out are dropped, if the filters are given. The tuples of the heavy
+     * hitters are also written to their own partition.
+     **/
+    boolean partition(Operator input, TupleWriter[] writers, ArrayList<Integer> keys, BloomFilter build, BloomFilter probe) {
+        if (!input.open()) {
+            return false;
+        }
+        Batch inbatch;
+        while ((inbatch = input.next()) != null) {
+            for (int i = 0; i < inbatch.size(); ++i) {
+                Tuple tuple = inbatch.get(i);
+                int hash = tuple.hashOn(keys);
+                if (build != null) {
+                    build.add(hash);
+                    if (spillHeavy(tuple, hash)) {
+                        continue;
+                    }
+                } else if (probe != null && !probe.mightContain(hash)) {
+                    continue;
+                } else {
+                    copyHeavy(tuple, hash);
+                }
+                writers[partitionOf(hash, 0, writers.length)].next(tuple);
+            }
+            input.recycle(inbatch);
+        }
+        for (TupleWriter writer : writers) {
+            writer.close();
+        }
+        return input.close();
+    }
+
+    /**
+     * Splits a pair of partitions that is too large for the buffers, hashing with
+     * the seed of the next level so that the tuples are spread differently
+     **/
+    void repartition(Partition part) {
+        ArrayList<Partition> parts = split(part);
+        for (int p = parts.size() - 1; p >= 0; --p) {
+            partitions.addFirst(parts.get(p));
+        }
+    }
+
+    /**
+     * Partitions both files of the pair again and deletes them, returning the new pairs
+     **/
+    ArrayList<Partition> split(Partition part) {
+        int numparts = Math.max(2, numBuff - 1);
+        int level = part.level + 1;
+        TupleWriter[] leftparts = createPartitions(numparts, leftbatchsize, left.getSchema());
+        TupleWriter[] rightparts = createPartitions(numparts, rightbatchsize, right.getSchema());
+        split(part.leftfile, leftbatchsize, left.getSchema(), leftparts, leftkeys, level);
+        split(part.rightfile, rightbatchsize, right.getSchema(), rightparts, rightkeys, level);
+        part.delete();
+        ArrayList<Partition> parts = new ArrayList<>(numparts);
+        for (int p = 0; p < numparts; ++p) {
+            parts.add(new Partition(leftparts[p], rightparts[p], level));
+        }
+        return parts;
+    }
+
+    void split(String file, int partbatchsize, Schema partschema, TupleWriter[] writers, ArrayList<Integer> keys, int level) {
+        TupleReader reader = new TupleReader(file, partbatchsize, partschema);
+        if (!reader.open()) {
+            System.out.println("HashJoin: Error in reading temporary file");
+            System.exit(1);
+        }
+        Tuple tuple;
+        while ((tuple = reader.next()) != null) {
+            writers[partitionOf(tuple, keys, level, writers.length)].next(tuple);
+        }
+        reader.close();
+        for (TupleWriter writer : writers) {
+            writer.close();
+        }
+    }
+
+    /**
+     * Partition of the tuple at the given level. The hash of the join attributes is
+     * mixed with the level, as the tuples of a partition share their old partition.
+     **/
+    static int partitionOf(Tuple tuple, ArrayList<Integer> keys, int level, int numparts) {
+        return partitionOf(tuple.hashOn(keys), level, numparts);
+    }
+
+    static int partitionOf(int hash, int level, int numparts) {
+        int h = hash ^ (level * 0x9e3779b9);
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return Math.floorMod(h, numparts);
+    }
+
+    /**
+     * Moves on to the next pair of partitions that can produce a result, and builds
+     * the hash table on its smaller partition. The build partition has to fit in
+     * numBuff - 2 buffers, besides the probe input and the output page, otherwise
+     * the pair is partitioned again. Past MAX_LEVEL the hash table is built on as
+     * much of the build partition as fits, and the probe partition is read once per
+     * chunk. Returns false if all the pairs are joined.
+     **/
+    boolean nextPartition() {
+        closeCurrent();
+        while (!partitions.isEmpty()) {
+            Partition part = partitions.poll();
+            if (part.lefttuples == 0 || part.righttuples == 0) {
+                part.delete();
+                continue;
+            }
+            int buildpages = Math.min(part.leftpages, part.rightpages);
+            if (buildpages > numBuff - 2 && part.level < MAX_LEVEL) {
+                repartition(part);
+                continue;
+            }
+            current = part;
+            buildleft = part.leftpages <= part.rightpages;
+            chunkreader = buildleft
+                    ? new TupleReader(part.leftfile, leftbatchsize, left.getSchema())
+                    : new TupleReader(part.rightfile, rightbatchsize, right.getSchema());
+            if (!chunkreader.open()) {
+                System.out.println("HashJoin: Error in reading temporary file");
+                System.exit(1);
+            }
+            buildChunk();
+            openProbe(Math.max(0, numBuff - 2 - buildpages));
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Builds the hash table on as many tuples of the build partition as numBuff - 2
+     * buffers hold, and closes its reader once it is read to the end
+     **/
+    void buildChunk() {
+        int capacity = Math.max(1, numBuff - 2) * (buildleft ? leftbatchsize : rightbatchsize);
+        table = readChunk(chunkreader, buildleft ? leftkeys : rightkeys, capacity);
+        matches = null;
+        if (chunkreader.peek() == null) {
+            chunkreader.close();
+            chunkreader = null;
+        } else {
+            numchunks++;
+        }
+    }
+
+    /**
+     * Builds a hash table on the next capacity tuples of the reader at most
+     **/
+    static HashMap<Integer, ArrayList<Tuple>> readChunk(TupleReader reader, ArrayList<Integer> keys, int capacity) {
+        HashMap<Integer, ArrayList<Tuple>> chunk = new HashMap<>();
+        Tuple tuple;
+        int count = 0;
+        while (count < capacity && (tuple = reader.next()) != null) {
+            chunk.computeIfAbsent(tuple.hashOn(keys), k -> new ArrayList<>()).add(tuple);
+            count++;
+        }
+        return chunk;
+    }
+
+    /**
+     * Opens the probe partition of the current pair, the buffers not taken
+     * by the hash table reading it ahead
+     **/
+    void openProbe(int prefetch) {
+        if (probe != null) {
+            probe.close();
+        }
+        probe = buildleft
+                ? new TupleReader(current.rightfile, rightbatchsize, right.getSchema())
+                : new TupleReader(current.leftfile, leftbatchsize, left.getSchema());
+        probe.setPrefetch(prefetch);
+        if (!probe.open()) {
+            System.out.println("HashJoin: Error in reading temporary file");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Builds the hash table on the next chunk of the build partition of the current
+     * pair and reads its probe partition again. Returns false if there is none.
+     **/
+    boolean nextChunk() {
+        if (chunkreader == null) {
+            return false;
+        }
+        buildChunk();
+        openProbe(0);
+        return true;
+    }
+
+    /**
+     * Drops the hash table and the files of the pair of partitions just joined
+     **/
+    void closeCurrent() {
+        if (chunkreader != null) {
+            chunkreader.close();
+            chunkreader = null;
+        }
+        if (probe != null) {
+            probe.close();
+            probe = null;
+        }
+        if (current != null) {
+            current.delete();
+            current = null;
+        }
+        table = null;
+        matches = null;
+    }
+
+    /**
+     * Returns the next tuple to probe the hash table with, or null
+     * once the probe partition of the current pair is exhausted
+     **/
+    Tuple nextProbe() {
+        return (probe == null) ? null : probe.next();
+    }
+
+    /**
+     * Probes the hash table with the tuples of the other partition
+     * * And returns a page of output tuples
+     **/
+    public Batch next() {
+        if (eos) {
+            return null;
+        }
+        outbatch = newBatch(batchsize);
+        while (!outbatch.isFull()) {
+            if (matches != null && mcurs < matches.size()) {
+                Tuple match = matches.get(mcurs++);
+                Tuple lefttuple = buildleft ? match : probetuple;
+                Tuple righttuple = buildleft ? probetuple : match;
+                if (lefttuple.checkJoin(righttuple, leftindex, rightindex, conditionList)) {
+                    outbatch.add(lefttuple.joinWith(righttuple));
+                }
+                continue;
+            }
+            probetuple = nextProbe();
+            if (probetuple == null) {
+                if (!nextChunk() && !nextPartition()) {
+                    eos = true;
+                    break;
+                }
+                continue;
+            }
+            matches = table.get(probetuple.hashOn(buildleft ? rightkeys : leftkeys));
+            mcurs = 0;
+        }
+        if (outbatch.isEmpty()) {
+            recycle(outbatch);
+            return null;
+        }
+        return outbatch;
+    }
+
+    /**
+     * Close the operator
+     */
+    public boolean close() {
+        closeCurrent();
+        if (leftskew != null) {
+            leftskew.close();
+            PageFile.delete(leftskew.getFileName());
+            leftskew = null;
+        }
+        if (rightskew != null) {
+            rightskew.close();
+            PageFile.delete(rightskew.getFileName());
+            rightskew = null;
+        }
+        if (partitions != null) {
+            for (Partition part : partitions) {
+                part.delete();
+            }
+            partitions.clear();
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,221 @@
+/**
+ * Hybrid Hash Join algorithm
+ **/
+
+package qp.operators;
+
+import qp.utils.Batch;
+import qp.utils.BloomFilter;
+import qp.utils.PageFile;
+import qp.utils.Tuple;
+import qp.utils.TupleWriter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * The right input is the build side. Its partitions are kept in memory for as long as
+ * they fit, and only the partitions that do not fit are written out, largest first.
+ * The left input is then streamed: tuples of the partitions in memory are joined at
+ * once, and the others are written out to be joined as in the Grace hash join.
+ * A Bloom filter over the keys of the right input drops the left tuples without a match.
+ * The heavy hitters of the right input get a pair of partitions of their own, as in
+ * the Grace hash join.
+ **/
+public class HybridHashJoin extends HashJoin {
+
+    int numparts;                    // Number of partitions of the first pass
+    ArrayList<ArrayList<Tuple>> resident; // Build tuples of every partition kept in memory, null if written out
+    TupleWriter[] rightspill;        // Writers of the right partitions that are written out
+    TupleWriter[] leftspill;         // Writers of the matching left partitions
+    boolean probing;                 // Whether the left input is being streamed
+    Batch inbatch;                   // Page of the left input being streamed
+    BloomFilter filter;              // Filter over the keys of the right input, if the left Scan lacks it
+    int incurs;                      // Cursor in inbatch
+    int residentpages;               // Pages of the right partitions kept in memory
+    int numspilled;                  // Number of right partitions written out
+
+    public HybridHashJoin(Join jn) {
+        super(jn);
+    }
+
+    /**
+     * During open finds the index of the join attributes
+     * * Reads the right input into numBuff - 1 partitions, writing out
+     * * a partition whenever the ones in memory do not fit, and builds
+     * * the hash table on the partitions left in memory
+     **/
+    public boolean open() {
+        if (!setup()) {
+            return false;
+        }
+        numparts = Math.max(2, numBuff - 1);
+        resident = new ArrayList<>(numparts);
+        rightspill = new TupleWriter[numparts];
+        leftspill = new TupleWriter[numparts];
+        for (int p = 0; p < numparts; ++p) {
+            resident.add(new ArrayList<>());
+        }
+
+        /** Besides the pages in memory, every partition written out takes a buffer,
+         ** and the input and the output page of the probe phase take one each
+         **/
+        residentpages = 0;
+        numspilled = 0;
+        if (!right.open()) {
+            return false;
+        }
+        BloomFilter keys = newRightKeyFilter();
+        Batch rightbatch;
+        while ((rightbatch = right.next()) != null) {
+            for (int i = 0; i < rightbatch.size(); ++i) {
+                Tuple tuple = rightbatch.get(i);
+                int hash = tuple.hashOn(rightkeys);
+                keys.add(hash);
+                if (spillHeavy(tuple, hash)) {
+                    continue;
+                }
+                int p = partitionOf(hash, 0, numparts);
+                if (rightspill[p] != null) {
+                    rightspill[p].next(tuple);
+                    continue;
+                }
+                resident.get(p).add(tuple);
+                if (resident.get(p).size() % rightbatchsize == 1 || rightbatchsize == 1) {
+                    residentpages++;
+                }
+                while (residentpages > numBuff - 2 - numspilled - (rightskew == null ? 0 : 1)) {
+                    int victim = largestResident();
+                    if (victim < 0) {
+                        break;
+                    }
+                    residentpages -= pagesOf(resident.get(victim));
+                    rightspill[victim] = createPartition(rightbatchsize, right.getSchema());
+                    for (Tuple spilled : resident.get(victim)) {
+                        rightspill[victim].next(spilled);
+                    }
+                    resident.set(victim, null);
+                    numspilled++;
+                }
+            }
+            right.recycle(rightbatch);
+        }
+        if (!right.close()) {
+            return false;
+        }
+        openSkew();
+
+        table = new HashMap<>();
+        for (int p = 0; p < numparts; ++p) {
+            if (rightspill[p] != null) {
+                rightspill[p].close();
+                leftspill[p] = createPartition(leftbatchsize, left.getSchema());
+            } else {
+                for (Tuple tuple : resident.get(p)) {
+                    table.computeIfAbsent(tuple.hashOn(rightkeys), k -> new ArrayList<>()).add(tuple);
+                }
+                resident.set(p, null);
+            }
+        }
+        buildleft = false;
+        inbatch = null;
+        incurs = 0;
+        probing = true;
+        filter = Scan.filterRuntime(left, keys, leftkeyattrs) ? null : keys;
+        return left.open();
+    }
+
+    /**
+     * Partition in memory with the most pages, or -1 if they are all empty
+     **/
+    int largestResident() {
+        int victim = -1;
+        for (int p = 0; p < numparts; ++p) {
+            if (resident.get(p) != null && !resident.get(p).isEmpty()
+                    && (victim < 0 || resident.get(p).size() > resident.get(victim).size())) {
+                victim = p;
+            }
+        }
+        return victim;
+    }
+
+    int pagesOf(ArrayList<Tuple> tuples) {
+        return (tuples.size() + rightbatchsize - 1) / rightbatchsize;
+    }
+
+    /**
+     * While the left input is streamed, returns its tuples that hash to a partition
+     * in memory and writes out the others. Once it is exhausted, the pairs of
+     * partitions written out are joined as in the Grace hash join.
+     **/
+    Tuple nextProbe() {
+        while (probing) {
+            if (inbatch == null || incurs >= inbatch.size()) {
+                if (inbatch != null) {
+                    left.recycle(inbatch);
+                }
+                inbatch = left.next();
+                incurs = 0;
+                if (inbatch == null) {
+                    finishProbing();
+                    break;
+                }
+                continue;
+            }
+            Tuple tuple = inbatch.get(incurs++);
+            int hash = tuple.hashOn(leftkeys);
+            if (filter != null && !filter.mightContain(hash)) {
+                continue;
+            }
+            copyHeavy(tuple, hash);
+            int p = partitionOf(hash, 0, numparts);
+            if (leftspill[p] == null) {
+                return tuple;
+            }
+            leftspill[p].next(tuple);
+        }
+        return super.nextProbe();
+    }
+
+    /**
+     * Closes the left input and queues the pairs of partitions written out,
+     * with the pair of the heavy hitters
+     **/
+    void finishProbing() {
+        probing = false;
+        left.close();
+        for (int p = 0; p < numparts; ++p) {
+            if (leftspill[p] != null) {
+                leftspill[p].close();
+                partitions.add(new Partition(leftspill[p], rightspill[p], 0));
+                leftspill[p] = null;
+                rightspill[p] = null;
+            }
+        }
+        finishSkew();
+        table = null;
+        matches = null;
+        filter = null;
+    }
+
+    /**
+     * Close the operator
+     */
+    public boolean close() {
+        if (probing) {
+            probing = false;
+            left.close();
+            for (int p = 0; p < numparts; ++p) {
+                if (leftspill[p] != null) {
+                    leftspill[p].close();
+                    PageFile.delete(leftspill[p].getFileName());
+                }
+                if (rightspill[p] != null) {
+                    PageFile.delete(rightspill[p].getFileName());
+                }
+            }
+        }
+        return super.close();
+    }
+
+}
@@ -1,13 +1,10 @@
 package qp.operators;
 
-import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.RandomAccessFile;
 import java.nio.channels.FileChannel;
 import java.nio.file.Paths;
@@ -19,7 +16,10 @@ import qp.utils.BPlusTree;
 import qp.utils.BPlusTreeKey;
 import qp.utils.Batch;
 import qp.utils.Condition;
+import qp.utils.PageFile;
+import qp.utils.SpillCodec;
 import qp.utils.Tuple;
+import qp.utils.TupleCache;
 import utils.BuildIndex;
 
 public class IndexNestedJoin extends Join {
@@ -39,7 +39,7 @@ public class IndexNestedJoin extends Join {
     int matchingTuplesIndex;        // Enables us to handle a many to one join.
     boolean eoso;                   // Whether end of stream (outer table) is reached
     boolean eosi;                   // Whether end of stream (inner table) is reached
-    ObjectInputStream rightInputStream;  // Used if it falls back to block nested join
+    SpillCodec rightInputStream;    // Used if it falls back to block nested join
     Batch rightBatch;               // Store the right batch's result
 
     Operator outer;                 // Which operator is the inner or outer loop
@@ -48,6 +48,10 @@ public class IndexNestedJoin extends Join {
     private BPlusTree<BPlusTreeKey, Long> index;   // Index
     private int attrIndexInTreeIndex;             // The index of the attribute used for joining
     private FileChannel fc;
+    private TupleCache cache;                     // Tuples of the .tbli file read by any join
+    boolean sortedProbes = false;   // Whether each outer block is sorted on the join key before probing
+    Object probeKey;                // Join key of the outer tuple probed last
+    ArrayList<Tuple> probeMatches;  // Inner tuples matching probeKey
 
     static int filenum = 0;         // Unique filename
 
@@ -105,6 +109,8 @@ public class IndexNestedJoin extends Join {
 
         matchingTuplesIndex = 0;
         rightBatch = new Batch(0);
+        probeKey = null;
+        probeMatches = null;
 
         if (!right.open()) {
             return false;
@@ -118,6 +124,18 @@ public class IndexNestedJoin extends Join {
             return false;
     }
 
+    /**
+     * Whether each block of outer tuples is sorted on the join key before the
+     * index is probed. The inner tuples are then read from the .tbli file in
+     * the order they are stored in, and the outer tuples with the same key are
+     * joined with the inner tuples read once. The output is in the order of
+     * the join key within each block rather than in the order of the outer input,
+     * so it is off unless the caller does not need that order.
+     */
+    public void setSortedProbes(boolean sortedProbes) {
+        this.sortedProbes = sortedProbes;
+    }
+
     /**
      * Gets the next batch from the join operation
      * @return Batch
@@ -142,8 +160,7 @@ public class IndexNestedJoin extends Join {
      */
     public boolean close() {
         if (conditionUsedForIndexJoin == null) {
-            File f = new File(rfname);
-            f.delete();
+            PageFile.delete(rfname);
         }
         return true;
     }
@@ -155,7 +172,9 @@ public class IndexNestedJoin extends Join {
      */
     private Batch indexJoin(Batch outbatch) {
         // We iterate until the end of the outer file
+        int outerTupleIndex = outerindex.get(innerindex.indexOf(attrIndexInTreeIndex));
         while (!eoso || ocurs < outerBatch.size()) {
+            boolean loaded = false;
             while (outerBatch.capacity() - batchsize > outerBatch.size()  && !eoso) {
                 Batch nextBatch = outer.next();
                 if (nextBatch == null) {
@@ -163,18 +182,29 @@ public class IndexNestedJoin extends Join {
                     break;
                 }
                 outerBatch.addBatch(nextBatch);
+                loaded = true;
+            }
+
+            // Probe the index in the order of the join key, so that the .tbli file is read sequentially
+            if (loaded && sortedProbes && ocurs == 0) {
+                outerBatch.getTuples().sort((a, b) -> Tuple.compareTuples(a, b, outerTupleIndex));
             }
 
             // Need to use indexes here
             while (ocurs < outerBatch.size()) {
                 Tuple outerTuple = outerBatch.get(ocurs);
 
-                ArrayList<Tuple> matchingTuples = new ArrayList<>();
-                if (conditionUsedForIndexJoin.getExprType() == Condition.EQUAL) {
-                    matchingTuples = getMatchOnEquality(outerTuple);
-                } else {
-                    matchingTuples = getMatchOnInequality(outerTuple);
+                // Outer tuples with the key probed last reuse its matches
+                Object key = outerTuple.dataAt(outerTupleIndex);
+                if (probeMatches == null || !key.equals(probeKey)) {
+                    if (conditionUsedForIndexJoin.getExprType() == Condition.EQUAL) {
+                        probeMatches = getMatchOnEquality(outerTuple);
+                    } else {
+                        probeMatches = getMatchOnInequality(outerTuple);
+                    }
+                    probeKey = key;
                 }
+                ArrayList<Tuple> matchingTuples = probeMatches;
 
                 // Matching tuple not found
                 if (matchingTuples.size() == 0) {
@@ -205,7 +235,6 @@ public class IndexNestedJoin extends Join {
                     }
                 }
                 matchingTuplesIndex = 0;
-                matchingTuples = null;
                 ocurs++;
             }
 
@@ -235,20 +264,35 @@ public class IndexNestedJoin extends Join {
 
         // Because tuples with the same key only get a single offset value, we need
         // to iterate
-        Tuple innerTuple = BuildIndex.readTuple(fc, offset, index.serializedValueLength);
+        Tuple innerTuple = readInnerTuple(offset);
         while (
             innerTuple != null &&
             innerTuple.dataAt(attrIndexInTreeIndex).equals(outerTuple.dataAt(outerTupleIndex))
         ) {
             innerTuplesToJoin.add(innerTuple);
             offset += index.serializedValueLength;
-            innerTuple = BuildIndex.readTuple(fc, offset, index.serializedValueLength);
+            innerTuple = readInnerTuple(offset);
         }
 
         return innerTuplesToJoin;
     }
 
 
+    /**
+     * Reads the inner tuple at the offset of the .tbli file, through the cache
+     * shared by the joins reading that file. Returns null past the end of the file.
+     */
+    private Tuple readInnerTuple(long offset) {
+        Tuple innerTuple = cache.get(offset);
+        if (innerTuple == null) {
+            innerTuple = BuildIndex.readTuple(fc, offset, index.serializedValueLength);
+            if (innerTuple != null) {
+                cache.put(offset, innerTuple);
+            }
+        }
+        return innerTuple;
+    }
+
     /**
      * If it is a non equality join condition we handle it here.
      * @param outerTuple
@@ -274,21 +318,21 @@ public class IndexNestedJoin extends Join {
 
         // For Greater Than Relation we just add all the way till the end of the file
         if (inequalityCase == 3 || inequalityCase == 4) {
-            Tuple innerTuple = BuildIndex.readTuple(fc, offset, index.serializedValueLength);
+            Tuple innerTuple = readInnerTuple(offset);
             while (
                 innerTuple != null
             ) {
                 innerTuplesToJoin.add(innerTuple);
                 offset += index.serializedValueLength;
-                innerTuple = BuildIndex.readTuple(fc, offset, index.serializedValueLength);
+                innerTuple = readInnerTuple(offset);
             }
         } else {
             // Less then relations
-            Tuple innerTuple = BuildIndex.readTuple(fc, offset, index.serializedValueLength);
+            Tuple innerTuple = readInnerTuple(offset);
             while (innerTuple != null && offset < lastOffset) {
                 innerTuplesToJoin.add(innerTuple);
                 offset += index.serializedValueLength;
-                innerTuple = BuildIndex.readTuple(fc, offset, index.serializedValueLength);
+                innerTuple = readInnerTuple(offset);
             }
 
             // Now we are at the last offset, we need to add until the offset reaches EOF (null) or
@@ -299,7 +343,7 @@ public class IndexNestedJoin extends Join {
             ) {
                 innerTuplesToJoin.add(innerTuple);
                 offset += index.serializedValueLength;
-                innerTuple = BuildIndex.readTuple(fc, offset, index.serializedValueLength);
+                innerTuple = readInnerTuple(offset);
             }
         }
 
@@ -483,26 +527,26 @@ public class IndexNestedJoin extends Join {
 
             // If end of stream for right, restart it
             if (eosi) {
-                try {
-                    rightInputStream = new ObjectInputStream(new FileInputStream(rfname));
-                    eosi = false;
-                } catch (IOException ioe) {
+                if (!rightInputStream.openRead(rfname)) {
                     System.out.println("IndexNestedJoin: Failed to open rf file");
                     System.exit(1);
                 }
+                eosi = false;
             }
 
             // Read in a new right batch if necessary
             if (icurs >= rightBatch.size()) {
                 try {
-                    rightBatch = (Batch) rightInputStream.readObject();
-                    icurs = 0;
-                } catch (EOFException eof) {
-                    // If eosi is true, then we need to start reading in the new left blocks
-                    eosi = true;
-                    outerBatch.clear();
-                } catch (ClassNotFoundException ce) {
-                    System.exit(1);
+                    Batch nextBatch = rightInputStream.readBatch();
+                    if (nextBatch == null) {
+                        // If eosi is true, then we need to start reading in the new left blocks
+                        rightInputStream.closeRead();
+                        eosi = true;
+                        outerBatch.clear();
+                    } else {
+                        rightBatch = nextBatch;
+                        icurs = 0;
+                    }
                 } catch (IOException ioe) {
                     System.out.println("Index Nested Join: Cannot read in right batch");
                     System.exit(1);
@@ -629,6 +673,7 @@ public class IndexNestedJoin extends Join {
             // We once again assume that this program is being called from the /testcases/ path
             fc = new RandomAccessFile(rafname + ".tbli", "r").getChannel();
             fc.force(true);
+            cache = TupleCache.forFile(rafname + ".tbli");
 
         } catch (FileNotFoundException fofe) {
             System.out.println("Cannot find tbli file");
@@ -684,14 +729,19 @@ public class IndexNestedJoin extends Join {
     private void materializeRf() {
         filenum++;
         rfname = "INJ-" + filenum;
+        int rightbatchsize = Math.max(1, Batch.getPageSize() / right.getSchema().getTupleSize());
+        rightInputStream = SpillCodec.forSchema(right.getSchema(), rightbatchsize);
+        if (!rightInputStream.openWrite(rfname)) {
+            System.out.println("Index Nested Join: Error materializing right file");
+            System.exit(1);
+        }
         try {
-            ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(rfname));
             Batch rightpage = right.next();
             while (rightpage != null) {
-                out.writeObject(rightpage);
+                rightInputStream.writeBatch(rightpage);
                 rightpage = right.next();
             }
-            out.close();
+            rightInputStream.closeWrite();
         } catch (IOException io) {
             System.out.println("Index Nested Join: Error materializing right file");
             System.exit(1);
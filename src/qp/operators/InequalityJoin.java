@@ -0,0 +1,282 @@
+/**
+ * Inequality Join algorithm
+ **/
+
+package qp.operators;
+
+import qp.utils.Attribute;
+import qp.utils.Batch;
+import qp.utils.Condition;
+import qp.utils.Tuple;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Joins on one or two of the conditions <, <=, > and >= in the way of IEJoin.
+ * The right input is materialized and each block of left pages is joined with
+ * it as in the block nested join, but the block is sorted instead of scanned:
+ * the tuples of the block satisfying the first condition for a right tuple lie in
+ * a range of the block sorted on its attribute, which is found by binary search.
+ * For a second condition the right tuples of a page are swept in the order of its
+ * attribute, marking in a bitmap over that range the tuples of the block that
+ * satisfy it so far. Only the marked tuples of the range are then joined.
+ * All the conditions are still checked on the tuples joined, so the others act
+ * as a residual filter.
+ **/
+public class InequalityJoin extends BlockNestedJoin {
+
+    int xop;                         // Comparison of the first inequality condition
+    int xleft;                       // Index of its attribute in the left table
+    int xright;                      // Index of its attribute in the right table
+    int yop;                         // Comparison of the second inequality condition, 0 if none
+    int yleft;                       // Index of its attribute in the left table
+    int yright;                      // Index of its attribute in the right table
+
+    Tuple[] byx;                     // Tuples of the left block in the order of the first attribute
+    int[] yorder;                    // Positions in byx in the order of the second attribute
+    BitSet marked;                   // Positions in byx satisfying the second condition so far
+    int ycurs;                       // Cursor in yorder
+
+    Tuple[] probes;                  // Tuples of the right page in the order of the sweep
+    int pcurs;                       // Cursor in probes
+    Tuple probetuple;                // Right tuple joined with the block
+    int lo;                          // Range of byx satisfying the first condition for probetuple
+    int hi;
+    int pos;                         // Cursor in that range
+
+    public InequalityJoin(Join jn) {
+        super(jn);
+    }
+
+    /**
+     * Finds the first two inequality conditions, then materializes the
+     * * right hand side as the block nested join does
+     **/
+    public boolean open() {
+        xop = 0;
+        yop = 0;
+        for (Condition con : conditionList) {
+            int op = con.getExprType();
+            if (op != Condition.LESSTHAN && op != Condition.GREATERTHAN
+                    && op != Condition.LTOE && op != Condition.GTOE) {
+                continue;
+            }
+            int l = left.getSchema().indexOf(con.getLhs());
+            int r = right.getSchema().indexOf((Attribute) con.getRhs());
+            if (xop == 0) {
+                xop = op;
+                xleft = l;
+                xright = r;
+            } else if (yop == 0) {
+                yop = op;
+                yleft = l;
+                yright = r;
+            }
+        }
+        if (xop == 0) {
+            System.out.println("InequalityJoin: at least one inequality join condition is needed");
+            return false;
+        }
+        if (!super.open()) {
+            return false;
+        }
+        batchsize = Math.max(1, batchsize);
+        byx = null;
+        probes = null;
+        probetuple = null;
+        return true;
+    }
+
+    /**
+     * from the sorted block and the pages of the right table
+     * * joins the tuples satisfying the inequality conditions
+     * * And returns a page of output tuples
+     **/
+    public Batch next() {
+        if (eosl) {
+            return null;
+        }
+        outbatch = newBatch(batchsize);
+        try {
+            while (!outbatch.isFull()) {
+                /** join the right tuple with the rest of its range **/
+                if (probetuple != null) {
+                    pos = yop == 0 ? pos : marked.nextSetBit(pos);
+                    if (pos >= 0 && pos < hi) {
+                        Tuple lefttuple = byx[pos++];
+                        if (lefttuple.checkJoin(probetuple, leftindex, rightindex, conditionList)) {
+                            outbatch.add(lefttuple.joinWith(probetuple));
+                        }
+                        continue;
+                    }
+                    probetuple = null;
+                }
+                /** take the next left block once the right table is read to the end **/
+                if (eosr) {
+                    if (!nextBlock()) {
+                        break;
+                    }
+                    sortBlock();
+                    probes = null;
+                }
+                /** take the next right page once its tuples are all joined **/
+                if (probes == null || pcurs >= probes.length) {
+                    rightbatch = readRight();
+                    if (rightbatch == null) {
+                        closeRight();
+                        eosr = true;
+                        probes = null;
+                        continue;
+                    }
+                    sortProbes();
+                    continue;
+                }
+                startProbe(probes[pcurs++]);
+            }
+        } catch (IOException io) {
+            System.out.println("InequalityJoin: Error in reading temporary file");
+            System.exit(1);
+        }
+        if (outbatch.isEmpty()) {
+            recycle(outbatch);
+            return null;
+        }
+        return outbatch;
+    }
+
+    /**
+     * Sorts the tuples of the left block on the attribute of the first condition,
+     * * and their positions on the attribute of the second one. The positions are
+     * * in increasing order for < and <=, and in decreasing order for > and >=, so
+     * * that the tuples satisfying the condition come first.
+     **/
+    private void sortBlock() {
+        int size = 0;
+        for (Batch leftBatch : leftbatches) {
+            if (leftBatch == null) {
+                break;
+            }
+            size += leftBatch.size();
+        }
+        byx = new Tuple[size];
+        int n = 0;
+        for (Batch leftBatch : leftbatches) {
+            if (leftBatch == null) {
+                break;
+            }
+            for (int i = 0; i < leftBatch.size(); ++i) {
+                byx[n++] = leftBatch.get(i);
+            }
+        }
+        Arrays.sort(byx, (a, b) -> Tuple.compareTuples(a, b, xleft));
+        if (yop == 0) {
+            return;
+        }
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; ++i) {
+            order[i] = i;
+        }
+        int sign = ascending(yop) ? 1 : -1;
+        Arrays.sort(order, (a, b) -> sign * Tuple.compareTuples(byx[a], byx[b], yleft));
+        yorder = new int[size];
+        for (int i = 0; i < size; ++i) {
+            yorder[i] = order[i];
+        }
+        marked = new BitSet(size);
+    }
+
+    /**
+     * Orders the tuples of the right page for the sweep on the second condition,
+     * * in the same direction as the positions of the block
+     **/
+    private void sortProbes() {
+        probes = new Tuple[rightbatch.size()];
+        for (int i = 0; i < probes.length; ++i) {
+            probes[i] = rightbatch.get(i);
+        }
+        pcurs = 0;
+        if (yop != 0) {
+            int sign = ascending(yop) ? 1 : -1;
+            Arrays.sort(probes, (a, b) -> sign * Tuple.compareTuples(a, b, yright));
+            marked.clear();
+            ycurs = 0;
+        }
+    }
+
+    /**
+     * Finds the range of the block satisfying the first condition for the right tuple,
+     * * and marks the tuples of the block that satisfy the second one
+     **/
+    private void startProbe(Tuple righttuple) {
+        probetuple = righttuple;
+        if (yop != 0) {
+            while (ycurs < yorder.length
+                    && holds(yop, Tuple.compareTuples(byx[yorder[ycurs]], righttuple, yleft, yright))) {
+                marked.set(yorder[ycurs++]);
+            }
+        }
+        int lower = search(righttuple, false);
+        int upper = search(righttuple, true);
+        switch (xop) {
+            case Condition.LESSTHAN:
+                lo = 0;
+                hi = lower;
+                break;
+            case Condition.LTOE:
+                lo = 0;
+                hi = upper;
+                break;
+            case Condition.GREATERTHAN:
+                lo = upper;
+                hi = byx.length;
+                break;
+            default:
+                lo = lower;
+                hi = byx.length;
+                break;
+        }
+        pos = lo;
+    }
+
+    /**
+     * Position of the first tuple of byx whose attribute is at least the one of the
+     * * right tuple, or greater than it if strict
+     **/
+    private int search(Tuple righttuple, boolean strict) {
+        int low = 0;
+        int high = byx.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int cmp = Tuple.compareTuples(byx[mid], righttuple, xleft, xright);
+            if (cmp < 0 || (strict && cmp == 0)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    static boolean ascending(int op) {
+        return op == Condition.LESSTHAN || op == Condition.LTOE;
+    }
+
+    /**
+     * Whether the comparison of a left and a right value satisfies the condition
+     **/
+    static boolean holds(int op, int cmp) {
+        switch (op) {
+            case Condition.LESSTHAN:
+                return cmp < 0;
+            case Condition.LTOE:
+                return cmp <= 0;
+            case Condition.GREATERTHAN:
+                return cmp > 0;
+            default:
+                return cmp >= 0;
+        }
+    }
+
+}
@@ -4,6 +4,8 @@
 
 package qp.operators;
 
+import qp.utils.Batch;
+import qp.utils.BloomFilter;
 import qp.utils.Condition;
 import qp.utils.Schema;
 
@@ -17,6 +19,7 @@ public class Join extends Operator {
     int numBuff;                         // Number of buffers available
     int jointype;                        // JoinType.NestedJoin/SortMerge/HashJoin
     int nodeIndex;                       // Each join node is given a number
+    long numRightKeys;                   // Estimated distinct keys of the right input, 0 if unknown
 
     public Join(Operator left, Operator right, int type) {
         super(type);
@@ -48,6 +51,27 @@ public class Join extends Operator {
         this.numBuff = num;
     }
 
+    public long getNumRightKeys() {
+        return numRightKeys;
+    }
+
+    /**
+     * Sets the planner's estimate of the number of distinct values of the right
+     * attributes of the equality conditions, which the Bloom filters are sized for
+     **/
+    public void setNumRightKeys(long num) {
+        this.numRightKeys = num;
+    }
+
+    /**
+     * Bloom filter for the keys of the right input, sized for the estimated number
+     * of keys and never larger than the buffers of the join
+     **/
+    BloomFilter newRightKeyFilter() {
+        long maxBits = 8L * Batch.getPageSize() * Math.max(1, numBuff);
+        return new BloomFilter(numRightKeys, BloomFilter.FALSE_POSITIVE_RATE, maxBits);
+    }
+
     public int getNodeIndex() {
         return nodeIndex;
     }
@@ -115,6 +139,7 @@ public class Join extends Operator {
         jn.setJoinType(jointype);
         jn.setNodeIndex(nodeIndex);
         jn.setNumBuff(numBuff);
+        jn.setNumRightKeys(numRightKeys);
         return jn;
     }
 
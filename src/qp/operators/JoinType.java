@@ -13,8 +13,19 @@ public class JoinType {
     public static final int SORTMERGE = 2;
     public static final int HASHJOIN = 3;
     public static final int INDEXJOIN = 4;
+    public static final int HYBRIDHASH = 5;
+    public static final int PARALLELHASH = 6;
+    public static final int INEQUALITY = 7;
+
+    /** Join types the optimizer may choose between, they do not need an index **/
+    static final int[] CHOICES = {NESTEDJOIN, BLOCKNESTED, SORTMERGE, HASHJOIN, HYBRIDHASH, PARALLELHASH, INEQUALITY};
 
     public static int numJoinTypes() {
-        return 1;
+        return CHOICES.length;
+    }
+
+    /** Join type of the given choice, 0 <= choice < numJoinTypes() **/
+    public static int getJoinType(int choice) {
+        return CHOICES[choice];
     }
 }
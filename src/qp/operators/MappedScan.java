@@ -0,0 +1,38 @@
+/**
+ * Scans the base relational table through a memory mapping of the file
+ **/
+
+package qp.operators;
+
+import qp.utils.Schema;
+
+/**
+ * MappedScan - read a table in the page format by memory mapping the file.
+ * The pages are copied out of the mapping into the buffer pool, so a page scanned
+ * again while it is in the pool is a hit, and a miss is served by the OS page cache
+ * without a read call. Without a pool the pages are decoded straight out of the
+ * mapping. Tables that are still a stream of serialized tuples are read the same
+ * way as in Scan.
+ */
+public class MappedScan extends Scan {
+
+    public MappedScan(String tabname, int type) {
+        super(tabname, type);
+    }
+
+    /**
+     * Maps the file instead of reading it through the channel
+     **/
+    protected boolean openPages() {
+        return pages.openMapped();
+    }
+
+    public Object clone() {
+        String newtab = tabname;
+        MappedScan newscan = new MappedScan(newtab, optype);
+        newscan.setSchema((Schema) schema.clone());
+        newscan.setPrefetch(prefetch);
+        return newscan;
+    }
+
+}
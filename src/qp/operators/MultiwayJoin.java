@@ -0,0 +1,348 @@
+/**
+ * Multi-way Hash Join algorithm
+ **/
+
+package qp.operators;
+
+import qp.utils.Attribute;
+import qp.utils.Batch;
+import qp.utils.Condition;
+import qp.utils.Schema;
+import qp.utils.Tuple;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Replaces a chain of hash joins, in which every join has at most one other join
+ * below it, as in a star or a chain query. The input of each join that is not a
+ * join is a dimension, and the input at the bottom of the chain is the driving input.
+ * A hash table is built on every dimension at once, and each tuple of the driving
+ * input is then joined with the dimensions one after the other, going through all
+ * the joins of the chain before the next tuple is read. So none of the intermediate
+ * results is materialized, and every input is read only once.
+ *
+ * The chain is chosen on the estimated sizes of the dimensions. If their hash tables
+ * turn out not to fit in the buffers, the joins of the chain are executed one by one
+ * as the hash joins they were planned as.
+ **/
+public class MultiwayJoin extends Join {
+
+    Operator driving;                    // Input at the bottom of the chain
+    ArrayList<Join> levels;              // Joins of the chain from the bottom up
+    ArrayList<Operator> dimensions;      // Input of each join besides the chain
+    boolean[] dimleft;                   // Whether the dimension is the left input of its join
+
+    int batchsize;                       // Number of tuples per out batch
+    ArrayList<ArrayList<Integer>> dimkeys;     // Indices of the equality attributes in each dimension
+    ArrayList<ArrayList<Integer>> probekeys;   // Indices of the equality attributes in the tuple probing each level
+    ArrayList<ArrayList<Integer>> leftindex;   // Indices of the join attributes in the left input of each join
+    ArrayList<ArrayList<Integer>> rightindex;  // Indices of the join attributes in the right input of each join
+    ArrayList<HashMap<Integer, ArrayList<Tuple>>> tables;  // Tuples of each dimension on the hash of their keys
+    Operator binary;                     // Joins of the chain one by one, if the dimensions do not fit
+
+    Tuple[] partial;                     // Tuple of the driving input joined with the first i dimensions
+    ArrayList<ArrayList<Tuple>> matches; // Tuples of each dimension matching partial
+    int[] mcurs;                         // Cursor in each matches
+    int depth;                           // Level being probed, -1 to read the driving input
+    Batch inbatch;                       // Page of the driving input being read
+    int incurs;                          // Cursor in inbatch
+    boolean eos;                         // Whether the driving input is exhausted
+
+    /**
+     * The joins of the chain are given from the bottom up with their dimensions,
+     * the root of the chain being the last
+     **/
+    public MultiwayJoin(Operator driving, ArrayList<Join> levels, ArrayList<Operator> dimensions) {
+        super(levels.get(levels.size() - 1).getLeft(), levels.get(levels.size() - 1).getRight(),
+                levels.get(levels.size() - 1).getConditionList(), OpType.JOIN);
+        Join root = levels.get(levels.size() - 1);
+        schema = root.getSchema();
+        jointype = root.getJoinType();
+        numBuff = root.getNumBuff();
+        this.driving = driving;
+        this.levels = levels;
+        this.dimensions = dimensions;
+    }
+
+    public Operator getDriving() {
+        return driving;
+    }
+
+    public int getNumLevels() {
+        return levels.size();
+    }
+
+    public Join getLevel(int i) {
+        return levels.get(i);
+    }
+
+    public Operator getDimension(int i) {
+        return dimensions.get(i);
+    }
+
+    /**
+     * Whether the joins of the chain were executed one by one when last opened,
+     * as the dimensions did not fit
+     **/
+    public boolean isBinary() {
+        return binary != null;
+    }
+
+    /**
+     * The joins of the chain executed one by one, or null if the dimensions fit
+     **/
+    public Operator getBinary() {
+        return binary;
+    }
+
+    /**
+     * Whether the join has another join below it on its left, its right, or both
+     **/
+    static boolean hasJoin(Operator node) {
+        if (node.getOpType() == OpType.JOIN) {
+            return true;
+        } else if (node.getOpType() == OpType.SELECT) {
+            return hasJoin(((Select) node).getBase());
+        } else if (node.getOpType() == OpType.PROJECT) {
+            return hasJoin(((Project) node).getBase());
+        }
+        return false;
+    }
+
+    /**
+     * The input of the join which is not a join, if the join has at most one other
+     * join below it, or null. Takes the right input when neither is a join.
+     **/
+    public static Operator dimensionOf(Join node) {
+        boolean leftjoin = hasJoin(node.getLeft());
+        boolean rightjoin = hasJoin(node.getRight());
+        if (leftjoin && rightjoin) {
+            return null;
+        }
+        return rightjoin ? node.getLeft() : node.getRight();
+    }
+
+    /**
+     * The pages of the driving input and of the dimensions are handed back once
+     * all their tuples are processed
+     **/
+    public boolean handsBackInput() {
+        return true;
+    }
+
+    /**
+     * Builds the hash tables on all the dimensions, then opens the driving input.
+     * Once the tables take more than the numBuff - 2 buffers left besides the input
+     * and the output page, they are dropped and the joins are executed one by one.
+     **/
+    public boolean open() {
+        /** select number of tuples per batch **/
+        int tuplesize = schema.getTupleSize();
+        batchsize = Math.max(1, Batch.getPageSize() / tuplesize);
+
+        int n = levels.size();
+        dimleft = new boolean[n];
+        dimkeys = new ArrayList<>(n);
+        probekeys = new ArrayList<>(n);
+        leftindex = new ArrayList<>(n);
+        rightindex = new ArrayList<>(n);
+        tables = new ArrayList<>(n);
+        binary = null;
+        for (int i = 0; i < n; ++i) {
+            Join level = levels.get(i);
+            Schema leftschema = level.getLeft().getSchema();
+            Schema rightschema = level.getRight().getSchema();
+            dimleft[i] = dimensionOf(level) == level.getLeft();
+            ArrayList<Integer> dimkey = new ArrayList<>();
+            ArrayList<Integer> probekey = new ArrayList<>();
+            ArrayList<Integer> leftidx = new ArrayList<>();
+            ArrayList<Integer> rightidx = new ArrayList<>();
+            for (Condition con : level.getConditionList()) {
+                int l = leftschema.indexOf(con.getLhs());
+                int r = rightschema.indexOf((Attribute) con.getRhs());
+                leftidx.add(l);
+                rightidx.add(r);
+                if (con.getExprType() == Condition.EQUAL) {
+                    dimkey.add(dimleft[i] ? l : r);
+                    probekey.add(dimleft[i] ? r : l);
+                }
+            }
+            if (dimkey.isEmpty()) {
+                System.out.println("MultiwayJoin: every join needs an equality condition");
+                return false;
+            }
+            dimkeys.add(dimkey);
+            probekeys.add(probekey);
+            leftindex.add(leftidx);
+            rightindex.add(rightidx);
+        }
+
+        long pages = 0;
+        for (int i = 0; i < n; ++i) {
+            Operator dimension = dimensions.get(i);
+            if (!dimension.open()) {
+                return false;
+            }
+            HashMap<Integer, ArrayList<Tuple>> table = new HashMap<>();
+            int dimbatchsize = Math.max(1, Batch.getPageSize() / dimension.getSchema().getTupleSize());
+            long tuples = 0;
+            Batch dimbatch;
+            while ((dimbatch = dimension.next()) != null) {
+                for (int j = 0; j < dimbatch.size(); ++j) {
+                    Tuple tuple = dimbatch.get(j);
+                    table.computeIfAbsent(tuple.hashOn(dimkeys.get(i)), k -> new ArrayList<>()).add(tuple);
+                    if (tuples++ % dimbatchsize == 0) {
+                        pages++;
+                    }
+                }
+                dimension.recycle(dimbatch);
+                if (pages > numBuff - 2) {
+                    break;
+                }
+            }
+            if (!dimension.close()) {
+                return false;
+            }
+            if (pages > numBuff - 2) {
+                tables = null;
+                binary = binaryJoins();
+                return binary.open();
+            }
+            tables.add(table);
+        }
+
+        partial = new Tuple[n + 1];
+        matches = new ArrayList<>(n);
+        for (int i = 0; i < n; ++i) {
+            matches.add(null);
+        }
+        mcurs = new int[n];
+        depth = -1;
+        inbatch = null;
+        incurs = 0;
+        eos = false;
+        return driving.open();
+    }
+
+    /**
+     * Joins the tuples of the driving input with the dimensions depth first,
+     * * and returns a page of output tuples
+     **/
+    public Batch next() {
+        if (binary != null) {
+            return binary.next();
+        }
+        if (eos) {
+            return null;
+        }
+        int n = levels.size();
+        Batch outbatch = newBatch(batchsize);
+        while (!outbatch.isFull()) {
+            /** read the next tuple of the driving input **/
+            if (depth < 0) {
+                if (inbatch == null || incurs >= inbatch.size()) {
+                    if (inbatch != null) {
+                        driving.recycle(inbatch);
+                    }
+                    inbatch = driving.next();
+                    incurs = 0;
+                    if (inbatch == null) {
+                        eos = true;
+                        break;
+                    }
+                    continue;
+                }
+                partial[0] = inbatch.get(incurs++);
+                probe(0);
+                continue;
+            }
+            /** go back to the level below once the matches of this one are joined **/
+            ArrayList<Tuple> levelmatches = matches.get(depth);
+            if (levelmatches == null || mcurs[depth] >= levelmatches.size()) {
+                depth--;
+                continue;
+            }
+            Tuple match = levelmatches.get(mcurs[depth]++);
+            Tuple lefttuple = dimleft[depth] ? match : partial[depth];
+            Tuple righttuple = dimleft[depth] ? partial[depth] : match;
+            if (!lefttuple.checkJoin(righttuple, leftindex.get(depth), rightindex.get(depth), levels.get(depth).getConditionList())) {
+                continue;
+            }
+            partial[depth + 1] = lefttuple.joinWith(righttuple);
+            if (depth + 1 == n) {
+                outbatch.add(partial[n]);
+            } else {
+                probe(depth + 1);
+            }
+        }
+        if (outbatch.isEmpty()) {
+            recycle(outbatch);
+            return null;
+        }
+        return outbatch;
+    }
+
+    /**
+     * Looks up the tuples of the dimension of the level that match partial
+     **/
+    private void probe(int level) {
+        depth = level;
+        matches.set(level, tables.get(level).get(partial[level].hashOn(probekeys.get(level))));
+        mcurs[level] = 0;
+    }
+
+    /**
+     * The chain as a tree of hash joins, each with the method and the share of the
+     * buffers it was planned with
+     **/
+    Operator binaryJoins() {
+        Operator below = driving;
+        for (int i = 0; i < levels.size(); ++i) {
+            Join level = levels.get(i);
+            HashJoin join;
+            if (level.getJoinType() == JoinType.HYBRIDHASH) {
+                join = new HybridHashJoin(level);
+            } else if (level.getJoinType() == JoinType.PARALLELHASH) {
+                join = new ParallelHashJoin(level);
+            } else {
+                join = new HashJoin(level);
+            }
+            join.setLeft(dimleft[i] ? dimensions.get(i) : below);
+            join.setRight(dimleft[i] ? below : dimensions.get(i));
+            join.setNumBuff(numBuff / levels.size());
+            dimensions.get(i).setRecycling(join.handsBackInput());
+            below.setRecycling(join.handsBackInput());
+            below = join;
+        }
+        /** The top join hands its pages to the parent of this operator **/
+        below.setRecycling(isRecycling());
+        return below;
+    }
+
+    public void recycle(Batch batch) {
+        if (binary != null) {
+            binary.recycle(batch);
+        } else {
+            super.recycle(batch);
+        }
+    }
+
+    /**
+     * Close the operator
+     */
+    public boolean close() {
+        if (binary != null) {
+            return binary.close();
+        }
+        tables = null;
+        matches = null;
+        partial = null;
+        if (inbatch != null) {
+            driving.recycle(inbatch);
+            inbatch = null;
+        }
+        return driving.close();
+    }
+
+}
@@ -7,6 +7,8 @@ package qp.operators;
 import qp.utils.Attribute;
 import qp.utils.Batch;
 import qp.utils.Condition;
+import qp.utils.PageFile;
+import qp.utils.SpillCodec;
 import qp.utils.Tuple;
 
 import java.io.*;
@@ -22,7 +24,8 @@ public class NestedJoin extends Join {
     Batch outbatch;                 // Buffer page for output
     Batch leftbatch;                // Buffer page for left input stream
     Batch rightbatch;               // Buffer page for right input stream
-    ObjectInputStream in;           // File pointer to the right hand materialized file
+    SpillCodec in;                  // Codec of the right hand materialized file
+    boolean rescan;                 // Whether the right base table is scanned again instead of materialized
 
     int lcurs;                      // Cursor for left side buffer
     int rcurs;                      // Cursor for right side buffer
@@ -34,6 +37,14 @@ public class NestedJoin extends Join {
         schema = jn.getSchema();
         jointype = jn.getJoinType();
         numBuff = jn.getNumBuff();
+        numRightKeys = jn.getNumRightKeys();
+    }
+
+    /**
+     * The pages of both inputs are handed back once all their tuples are processed
+     **/
+    public boolean handsBackInput() {
+        return true;
     }
 
     /**
@@ -69,6 +80,21 @@ public class NestedJoin extends Join {
         /** Right hand side table is to be materialized
          ** for the Nested join to perform
          **/
+        /** Besides a page of each input and the output page, the buffers are used to read ahead.
+         ** While the right side is materialized only its input and the output page are in use
+         **/
+        int spare = Math.max(0, numBuff - 3);
+        Scan.prefetch(right, numBuff - 2);
+        Scan.prefetch(left, spare - spare / 2);
+
+        /** A base table is already in a file, so it is simply scanned again for every left page **/
+        rescan = right.getOpType() == OpType.SCAN;
+        if (rescan) {
+            rfname = null;
+            Scan.prefetch(right, spare / 2);
+            return left.open();
+        }
+
         if (!right.open()) {
             return false;
         } else {
@@ -78,12 +104,18 @@ public class NestedJoin extends Join {
              **/
             filenum++;
             rfname = "NJtemp-" + String.valueOf(filenum);
+            int rightbatchsize = Math.max(1, Batch.getPageSize() / right.getSchema().getTupleSize());
+            in = SpillCodec.forSchema(right.getSchema(), rightbatchsize);
+            in.setPrefetch(spare / 2);
+            if (!in.openWrite(rfname)) {
+                return false;
+            }
             try {
-                ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(rfname));
                 while ((rightpage = right.next()) != null) {
-                    out.writeObject(rightpage);
+                    in.writeBatch(rightpage);
+                    right.recycle(rightpage);
                 }
-                out.close();
+                in.closeWrite();
             } catch (IOException io) {
                 System.out.println("NestedJoin: Error writing to temporary file");
                 return false;
@@ -106,10 +138,11 @@ public class NestedJoin extends Join {
         if (eosl) {
             return null;
         }
-        outbatch = new Batch(batchsize);
+        outbatch = newBatch(batchsize);
         while (!outbatch.isFull()) {
             if (lcurs == 0 && eosr == true) {
-                /** new left page is to be fetched**/
+                /** new left page is to be fetched, the old one is handed back **/
+                left.recycle(leftbatch);
                 leftbatch = (Batch) left.next();
                 if (leftbatch == null) {
                     eosl = true;
@@ -118,19 +151,22 @@ public class NestedJoin extends Join {
                 /** Whenever a new left page came, we have to start the
                  ** scanning of right table
                  **/
-                try {
-                    in = new ObjectInputStream(new FileInputStream(rfname));
-                    eosr = false;
-                } catch (IOException io) {
+                if (!openRight()) {
                     System.err.println("NestedJoin:error in reading the file");
                     System.exit(1);
                 }
+                eosr = false;
 
             }
             while (eosr == false) {
                 try {
                     if (rcurs == 0 && lcurs == 0) {
-                        rightbatch = (Batch) in.readObject();
+                        rightbatch = readRight();
+                        if (rightbatch == null) {
+                            closeRight();
+                            eosr = true;
+                            break;
+                        }
                     }
                     for (i = lcurs; i < leftbatch.size(); ++i) {
                         for (j = rcurs; j < rightbatch.size(); ++j) {
@@ -162,16 +198,6 @@ public class NestedJoin extends Join {
                         rcurs = 0;
                     }
                     lcurs = 0;
-                } catch (EOFException e) {
-                    try {
-                        in.close();
-                    } catch (IOException io) {
-                        System.out.println("NestedJoin: Error in reading temporary file");
-                    }
-                    eosr = true;
-                } catch (ClassNotFoundException c) {
-                    System.out.println("NestedJoin: Error in deserialising temporary file ");
-                    System.exit(1);
                 } catch (IOException io) {
                     System.out.println("NestedJoin: Error in reading temporary file");
                     System.exit(1);
@@ -181,12 +207,48 @@ public class NestedJoin extends Join {
         return outbatch;
     }
 
+    /**
+     * Starts a new scan of the right hand side, from the
+     * * base table itself if it is not materialized
+     **/
+    boolean openRight() {
+        if (rescan) {
+            rightbatch = null;
+            return right.open();
+        }
+        return in.openRead(rfname);
+    }
+
+    /**
+     * Next page of the right hand side, or null at its end. The page read
+     * * before is handed back to the base table, all its tuples being joined.
+     **/
+    Batch readRight() throws IOException {
+        if (rescan) {
+            if (rightbatch != null) {
+                right.recycle(rightbatch);
+            }
+            return right.next();
+        }
+        return in.readBatch();
+    }
+
+    void closeRight() throws IOException {
+        if (rescan) {
+            right.close();
+        } else {
+            in.closeRead();
+        }
+    }
+
     /**
      * Close the operator
      */
     public boolean close() {
-        File f = new File(rfname);
-        f.delete();
+        if (rescan) {
+            return eosr || right.close();
+        }
+        PageFile.delete(rfname);
         return true;
     }
 
@@ -6,11 +6,22 @@ package qp.operators;
 import qp.utils.Batch;
 import qp.utils.Schema;
 
+import java.util.ArrayDeque;
+
 public class Operator {
 
+    static final int MAX_RECYCLED = 2;  // Number of batches kept for reuse per operator
+
     int optype;     // Whether it is OpType.SELECT/ Optype.PROJECT/OpType.JOIN
     Schema schema;  // Schema of the result at this operator
 
+    /**
+     * Batches handed back by the parent once it is done with them. They are only kept
+     * if recycling was turned on for this operator, and are reused by newBatch.
+     **/
+    boolean recycling = false;
+    ArrayDeque<Batch> recycled = new ArrayDeque<>(MAX_RECYCLED);
+
     public Operator(int type) {
         this.optype = type;
     }
@@ -31,6 +42,53 @@ public class Operator {
         this.optype = type;
     }
 
+    /**
+     * Lets the operator reuse the batches that its parent hands back through recycle
+     **/
+    public void setRecycling(boolean recycling) {
+        this.recycling = recycling;
+        recycled.clear();
+    }
+
+    public boolean isRecycling() {
+        return recycling;
+    }
+
+    /**
+     * Whether the operator drains every page it takes from its inputs and hands it
+     * back through recycle, in which case its inputs may be set to recycle
+     **/
+    public boolean handsBackInput() {
+        return false;
+    }
+
+    /**
+     * Hands back a batch returned by next. The parent must have drained the batch and
+     * must not keep any reference to it, as the batch is emptied and filled again by a
+     * later call to next. The tuples themselves are never reused, so they can be kept.
+     * Operators that hold on to their input batches, such as IndexNestedJoin, simply
+     * never hand them back. VectorBatches are not reused.
+     **/
+    public void recycle(Batch batch) {
+        if (recycling && batch != null && batch.getClass() == Batch.class
+                && recycled.size() < MAX_RECYCLED && !recycled.contains(batch)) {
+            batch.clear();
+            recycled.push(batch);
+        }
+    }
+
+    /**
+     * Returns an empty batch for the result of next, reusing a recycled one if there is any
+     **/
+    protected Batch newBatch(int numtuple) {
+        Batch batch = recycled.poll();
+        if (batch == null) {
+            return new Batch(numtuple);
+        }
+        batch.reset(numtuple);
+        return batch;
+    }
+
     public boolean open() {
         System.err.println("Abstract interface cannot be used.");
         System.exit(1);
@@ -1,18 +1,15 @@
 package qp.operators;
 
-import java.io.EOFException;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import qp.algorithms.ExternalSort;
 import qp.utils.Attribute;
 import qp.utils.Batch;
+import qp.utils.PageFile;
 import qp.utils.Schema;
 import qp.utils.Tuple;
+import qp.utils.TupleReader;
+import qp.utils.TupleWriter;
 
 public class Orderby extends Operator {
     Operator base;
@@ -22,7 +19,7 @@ public class Orderby extends Operator {
     String filename;
     boolean eos;
     int numBuff;
-    ObjectInputStream is;
+    TupleReader is;
 
     static int filenum = 0;
 
@@ -54,11 +51,20 @@ public class Orderby extends Operator {
         this.numBuff = numBuff;
     }
 
+    /**
+     * The pages of the base operator are handed back once all their tuples are processed
+     **/
+    public boolean handsBackInput() {
+        return true;
+    }
+
     public boolean open() {
         /** set number of tuples per batch **/
         int tuplesize = schema.getTupleSize();
         batchsize = Batch.getPageSize() / tuplesize;
 
+        /** Only the input and the output page are used while the input is materialized **/
+        Scan.prefetch(base, numBuff - 2);
         if (!base.open()) return false;
 
         // We materalize the result and sort it
@@ -67,12 +73,16 @@ public class Orderby extends Operator {
         Batch nextPage;
 
         try {
-            ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(filename));
+            TupleWriter out = new TupleWriter(filename, batchsize, schema);
+            if (!out.open())
+                throw new IOException("Cannot materialize the input");
             while ((nextPage = base.next()) != null) {
                 for (Tuple t : nextPage.getTuples()) {
-                    out.writeObject(t);
+                    out.next(t);
                 }
+                base.recycle(nextPage);
             }
+            out.close();
         } catch (IOException io) {
             System.out.println("IO Exception in order by");
             System.exit(1);
@@ -81,20 +91,22 @@ public class Orderby extends Operator {
         ArrayList<Attribute> schemaAttrs = schema.getAttList();
         ArrayList<Integer> indexes = new ArrayList<>();
         ExternalSort externalsort = new ExternalSort(Batch.getPageSize(), numBuff);
+        // Each run of numBuff pages is sorted in one chunk per processor
+        externalsort.setParallelism(Runtime.getRuntime().availableProcessors());
         String sortedFilePath = "";
         for (Attribute a : attrToSortBy) {
             indexes.add(schemaAttrs.indexOf(a));
         }
         try {
-            sortedFilePath = externalsort.sort(filename, tuplesize, indexes, !this.isAsc);
+            sortedFilePath = externalsort.sort(filename, schema, indexes, !this.isAsc);
         } catch (IOException ioe) {
             System.out.println("Failed to sort file during order by");
             System.exit(1);
         }
 
-        try {
-            is = new ObjectInputStream(new FileInputStream(sortedFilePath));
-        } catch (IOException ioe) {
+        is = new TupleReader(sortedFilePath, batchsize, schema);
+        is.setPrefetch(numBuff - 2);
+        if (!is.open()) {
             System.exit(1);
         }
 
@@ -108,24 +120,19 @@ public class Orderby extends Operator {
 
         Batch outbatch = new Batch(batchsize);
         for (int i = 0; i < batchsize; i++) {
-            try {
-                Tuple t = ExternalSort.readTuple(is);
-                outbatch.add(t);
-            } catch (EOFException eoe) {
+            Tuple t = is.next();
+            if (t == null) {
                 eos = true;
                 break;
-            } catch (IOException ioe) {
-                System.out.println("Cannot read from sorted file in order by");
-                System.exit(1) ;
             }
+            outbatch.add(t);
         }
 
         return outbatch;
     }
 
     public boolean close() {
-        File f = new File(filename);
-        f.delete();
+        PageFile.delete(filename);
         base.close();
         return true;
     }
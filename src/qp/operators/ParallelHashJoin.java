@@ -0,0 +1,319 @@
+/**
+ * Parallel Hash Join algorithm
+ **/
+
+package qp.operators;
+
+import qp.utils.Batch;
+import qp.utils.Tuple;
+import qp.utils.TupleReader;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Both inputs are partitioned on the hash of the join attributes as in the Grace hash
+ * join. The pairs of partitions are independent, so they are built and probed by the
+ * threads of a ForkJoinPool, and the pages of output are handed to next through a queue.
+ * The hash tables built at the same time share the numBuff - 2 buffers of the join,
+ * and a pair whose build partition is larger than its share is joined a chunk at a time.
+ * The threads wait for buffers and for room in the queue through ForkJoinPool.managedBlock,
+ * and a pair gives its buffers back before it waits to hand on its last page.
+ **/
+public class ParallelHashJoin extends HashJoin {
+
+    static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    static final Batch END = new Batch(0);  // Marks the end of the output in the queue
+
+    BlockingQueue<Batch> results;    // Pages of output produced by the threads
+    Semaphore memory;                // Buffers for the hash tables being built
+    ForkJoinTask<?> root;            // Task joining all the pairs of partitions
+    volatile boolean closed;         // Whether the operator was closed before the end
+    volatile Throwable failure;      // Error raised by one of the threads
+    HashSet<Thread> workers;         // Threads that joined a pair of partitions
+
+    public ParallelHashJoin(Join jn) {
+        super(jn);
+    }
+
+    /**
+     * Its pages are made by other threads, so they are never reused
+     **/
+    public void setRecycling(boolean recycling) {
+        super.setRecycling(false);
+    }
+
+    /**
+     * Partitions both inputs as the Grace hash join does, then
+     * * starts joining the pairs of partitions in the background
+     **/
+    public boolean open() {
+        if (!super.open()) {
+            return false;
+        }
+        final ArrayList<PairTask> tasks = new ArrayList<>();
+        for (Partition part : partitions) {
+            tasks.add(new PairTask(part));
+        }
+        partitions.clear();
+
+        int parallelism = POOL.getParallelism();
+        results = new ArrayBlockingQueue<>(2 * parallelism);
+        memory = new Semaphore(Math.max(1, numBuff - 2), true);
+        closed = false;
+        failure = null;
+        workers = new HashSet<>();
+        root = POOL.submit(new RecursiveAction() {
+            protected void compute() {
+                try {
+                    invokeAll(tasks);
+                } catch (Throwable e) {
+                    failure = e;
+                } finally {
+                    emit(END);
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Returns the next page of output produced by the threads
+     **/
+    public Batch next() {
+        if (eos) {
+            return null;
+        }
+        Batch outbatch;
+        try {
+            outbatch = results.take();
+        } catch (InterruptedException e) {
+            System.out.println("ParallelHashJoin: interrupted while waiting for the output");
+            System.exit(1);
+            return null;
+        }
+        if (outbatch == END) {
+            eos = true;
+            if (failure != null) {
+                System.out.println("ParallelHashJoin: Error in joining the partitions: " + failure);
+                System.exit(1);
+            }
+            return null;
+        }
+        return outbatch;
+    }
+
+    /**
+     * Hands a page of output to next, waiting while the queue is full.
+     * Gives up once the operator is closed, as nothing takes pages any more.
+     **/
+    void emit(Batch outbatch) {
+        try {
+            ForkJoinPool.managedBlock(new Output(outbatch));
+        } catch (InterruptedException e) {
+            closed = true;
+        }
+    }
+
+    /**
+     * Waits for room in the queue for a page of output. The wait goes through
+     * ForkJoinPool.managedBlock, so the pool may start another thread meanwhile.
+     **/
+    class Output implements ForkJoinPool.ManagedBlocker {
+        final Batch outbatch;
+        boolean done;
+
+        Output(Batch outbatch) {
+            this.outbatch = outbatch;
+        }
+
+        public boolean isReleasable() {
+            return done || closed || (done = results.offer(outbatch));
+        }
+
+        public boolean block() throws InterruptedException {
+            if (!isReleasable()) {
+                done = results.offer(outbatch, 100, TimeUnit.MILLISECONDS);
+            }
+            return done || closed;
+        }
+    }
+
+    /**
+     * Waits for the buffers of a hash table, through ForkJoinPool.managedBlock
+     **/
+    class Permits implements ForkJoinPool.ManagedBlocker {
+        final int count;
+        boolean acquired;
+
+        Permits(int count) {
+            this.count = count;
+        }
+
+        public boolean isReleasable() {
+            if (!acquired) {
+                try {
+                    acquired = memory.tryAcquire(count, 0, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return acquired;
+        }
+
+        public boolean block() throws InterruptedException {
+            if (!acquired) {
+                memory.acquire(count);
+                acquired = true;
+            }
+            return true;
+        }
+    }
+
+    // Counts a chunk of a build partition too large for the buffers
+    synchronized void countChunk() {
+        numchunks++;
+    }
+
+    // Notes the thread joining a pair of partitions
+    synchronized void countWorker() {
+        workers.add(Thread.currentThread());
+    }
+
+    /**
+     * Number of threads that joined pairs of partitions
+     **/
+    public synchronized int getNumWorkers() {
+        return workers == null ? 0 : workers.size();
+    }
+
+    /**
+     * Builds the hash table on the smaller partition of the pair and probes it with
+     * the other. A pair too large for the buffers is partitioned again and its new
+     * pairs are joined by new tasks, up to MAX_LEVEL. Past it the hash table is built
+     * on as much of the build partition as the buffers taken hold, as in HashJoin.
+     **/
+    class PairTask extends RecursiveAction {
+        private static final long serialVersionUID = 6307149241533126795L;
+        final Partition part;
+
+        PairTask(Partition part) {
+            this.part = part;
+        }
+
+        protected void compute() {
+            if (closed || part.lefttuples == 0 || part.righttuples == 0) {
+                part.delete();
+                return;
+            }
+            int buildpages = Math.min(part.leftpages, part.rightpages);
+            if (buildpages > numBuff - 2 && part.level < MAX_LEVEL) {
+                ArrayList<PairTask> tasks = new ArrayList<>();
+                for (Partition sub : split(part)) {
+                    tasks.add(new PairTask(sub));
+                }
+                invokeAll(tasks);
+                return;
+            }
+            int permits = Math.max(1, Math.min(buildpages, numBuff - 2));
+            try {
+                ForkJoinPool.managedBlock(new Permits(permits));
+            } catch (InterruptedException e) {
+                closed = true;
+                part.delete();
+                return;
+            }
+            Batch outbatch;
+            try {
+                outbatch = join(part.leftpages <= part.rightpages, permits);
+            } finally {
+                memory.release(permits);
+                part.delete();
+            }
+            /** The last page is handed on once the buffers of the hash table are free **/
+            if (!outbatch.isEmpty()) {
+                emit(outbatch);
+            }
+        }
+
+        /**
+         * Joins the pair with hash tables of at most the given number of pages of the
+         * build partition, reading the probe partition once per hash table.
+         * Returns the last page of output, which is not full.
+         **/
+        Batch join(boolean buildleft, int pages) {
+            countWorker();
+            String buildfile = buildleft ? part.leftfile : part.rightfile;
+            String probefile = buildleft ? part.rightfile : part.leftfile;
+            TupleReader build = buildleft
+                    ? new TupleReader(buildfile, leftbatchsize, left.getSchema())
+                    : new TupleReader(buildfile, rightbatchsize, right.getSchema());
+            ArrayList<Integer> buildkeys = buildleft ? leftkeys : rightkeys;
+            ArrayList<Integer> probekeys = buildleft ? rightkeys : leftkeys;
+            int capacity = pages * (buildleft ? leftbatchsize : rightbatchsize);
+            if (!build.open()) {
+                throw new IllegalStateException("cannot read " + buildfile);
+            }
+            Batch outbatch = new Batch(batchsize);
+            while (!closed && build.peek() != null) {
+                HashMap<Integer, ArrayList<Tuple>> table = readChunk(build, buildkeys, capacity);
+                if (build.peek() != null) {
+                    countChunk();
+                }
+                TupleReader probe = buildleft
+                        ? new TupleReader(probefile, rightbatchsize, right.getSchema())
+                        : new TupleReader(probefile, leftbatchsize, left.getSchema());
+                if (!probe.open()) {
+                    throw new IllegalStateException("cannot read " + probefile);
+                }
+                Tuple tuple;
+                while (!closed && (tuple = probe.next()) != null) {
+                    ArrayList<Tuple> matches = table.get(tuple.hashOn(probekeys));
+                    if (matches == null) {
+                        continue;
+                    }
+                    for (Tuple match : matches) {
+                        Tuple lefttuple = buildleft ? match : tuple;
+                        Tuple righttuple = buildleft ? tuple : match;
+                        if (lefttuple.checkJoin(righttuple, leftindex, rightindex, conditionList)) {
+                            outbatch.add(lefttuple.joinWith(righttuple));
+                            if (outbatch.isFull()) {
+                                emit(outbatch);
+                                outbatch = new Batch(batchsize);
+                            }
+                        }
+                    }
+                }
+                probe.close();
+            }
+            build.close();
+            return outbatch;
+        }
+    }
+
+    /**
+     * Close the operator, stopping the threads if the output was not read to the end
+     */
+    public boolean close() {
+        if (root != null) {
+            closed = true;
+            results.clear();
+            try {
+                root.get();
+            } catch (Exception e) {
+                /** the threads report their errors through failure **/
+            }
+            root = null;
+        }
+        return super.close();
+    }
+
+}
@@ -8,6 +8,8 @@ import qp.utils.Attribute;
 import qp.utils.Batch;
 import qp.utils.Schema;
 import qp.utils.Tuple;
+import qp.utils.TupleLayout;
+import qp.utils.VectorBatch;
 
 import java.util.ArrayList;
 
@@ -30,6 +32,7 @@ public class Project extends Operator {
      * * that are to be projected
      **/
     int[] attrIndex;
+    TupleLayout layout;            // Layout of the output tuples of vector batches
 
     public Project(Operator base, ArrayList<Attribute> as, int type) {
         super(type);
@@ -77,6 +80,13 @@ public class Project extends Operator {
     }
 
 
+    /**
+     * The pages of the base operator are handed back once all their tuples are processed
+     **/
+    public boolean handsBackInput() {
+        return true;
+    }
+
     /**
      * Opens the connection to the base operator
      * * Also figures out what are the columns to be
@@ -87,6 +97,12 @@ public class Project extends Operator {
         int tuplesize = schema.getTupleSize();
         batchsize = Batch.getPageSize() / tuplesize;
 
+        /** Plain projections can work on the columns of the base table **/
+        if (attrset.stream().allMatch(attr -> attr.getAggType() == Attribute.NONE)) {
+            Scan.vectorize(base);
+        }
+        layout = TupleLayout.forSchema(schema);
+
         if (!base.open()) return false;
 
         /** The following loop finds the index of the columns that
@@ -117,9 +133,8 @@ public class Project extends Operator {
      * Read next tuple from operator
      */
     public Batch next() {
-        outbatch = new Batch(batchsize);
-
         if (isAggregate) {
+            outbatch = new Batch(batchsize);
             int count = 0;    // Risk of overflow here but we assume that this will not happen.
             ArrayList<Object> aggregates = null;
 
@@ -185,6 +200,7 @@ public class Project extends Operator {
                         }
                     }
                 }
+                base.recycle(inbatch);
             }
 
             // If no results just return null
@@ -213,6 +229,12 @@ public class Project extends Operator {
                 return null;
             }
 
+            /** A vector batch is projected by picking its columns, no tuple is copied **/
+            if (inbatch instanceof VectorBatch && ((VectorBatch) inbatch).isColumnar()) {
+                return ((VectorBatch) inbatch).project(attrIndex, layout, batchsize);
+            }
+
+            outbatch = newBatch(batchsize);
             for (int i = 0; i < inbatch.size(); i++) {
                 Tuple basetuple = inbatch.get(i);
                 //Debug.PPrint(basetuple);
@@ -225,6 +247,7 @@ public class Project extends Operator {
                 Tuple outtuple = new Tuple(present);
                 outbatch.add(outtuple);
             }
+            base.recycle(inbatch);
             return outbatch;
         }
     }
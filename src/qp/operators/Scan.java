@@ -4,14 +4,22 @@
 
 package qp.operators;
 
+import qp.utils.Attribute;
 import qp.utils.Batch;
+import qp.utils.BloomFilter;
+import qp.utils.Condition;
+import qp.utils.PageFile;
+import qp.utils.PageFileReader;
 import qp.utils.Schema;
 import qp.utils.Tuple;
+import qp.utils.VectorBatch;
+import qp.utils.ZoneMap;
 
 import java.io.EOFException;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
+import java.util.ArrayList;
 
 /**
  * Scan operator - read data from a file
@@ -24,6 +32,20 @@ public class Scan extends Operator {
     ObjectInputStream in;  // Input file being scanned
     boolean eos;           // To indicate whether end of stream reached or not
 
+    /**
+     * The following fields are used when the table is stored in the
+     * * binary page format instead of as a stream of serialized tuples
+     **/
+    PageFileReader pages;  // Reader over the pages of the table
+    Batch page;            // Last page decoded from the file
+    int pagecurs;          // Cursor within the decoded page
+    boolean pageOut;       // Whether the decoded page was handed out as it is
+    boolean vectorized;    // Whether pages are decoded into VectorBatches
+    int prefetch;          // Number of pages read ahead in the background
+    ArrayList<Condition> pageConditions = new ArrayList<>();  // Conditions used to skip pages
+    ArrayList<BloomFilter> runtimeFilters = new ArrayList<>();  // Filters from the joins above
+    ArrayList<ArrayList<Integer>> runtimeKeys = new ArrayList<>();  // Columns hashed for every filter
+
     /**
      * Constructor - just save filename
      */
@@ -37,6 +59,106 @@ public class Scan extends Operator {
         return tabname;
     }
 
+    /**
+     * Asks the scan to return VectorBatches. This only has an effect on tables in the
+     * page format, and must be called before the scan is opened.
+     **/
+    public void setVectorized(boolean vectorized) {
+        this.vectorized = vectorized;
+    }
+
+    /**
+     * Turns on vectorized scanning for the Scan below the operator, looking
+     * through any Select in between. Used by the vectorized operators.
+     **/
+    public static void vectorize(Operator op) {
+        while (op instanceof Select) {
+            op = ((Select) op).getBase();
+        }
+        if (op instanceof Scan) {
+            ((Scan) op).setVectorized(true);
+        }
+    }
+
+    /**
+     * Sets the number of pages of a table in the page format that are read ahead
+     * while the parent works on the current batch. Must be called before the scan is opened.
+     **/
+    public void setPrefetch(int prefetch) {
+        this.prefetch = prefetch;
+    }
+
+    /**
+     * Gives the Scan below the operator, looking through any Select in between,
+     * the given number of read ahead pages. Used by operators with spare buffers.
+     **/
+    public static void prefetch(Operator op, int prefetch) {
+        while (op instanceof Select) {
+            op = ((Select) op).getBase();
+        }
+        if (op instanceof Scan) {
+            ((Scan) op).setPrefetch(prefetch);
+        }
+    }
+
+    /**
+     * Lets the scan skip the pages of the table in which the zone map shows that
+     * no tuple satisfies the condition. The tuples of the pages that are read
+     * still have to be checked by the Select. Must be called before the scan is opened.
+     **/
+    public void addPageCondition(Condition con) {
+        if (!pageConditions.contains(con)) {
+            pageConditions.add(con);
+        }
+    }
+
+    /**
+     * Hands the condition of a Select to the Scan below it, looking through any
+     * other Select in between
+     **/
+    public static void skipPages(Operator op, Condition con) {
+        while (op instanceof Select) {
+            op = ((Select) op).getBase();
+        }
+        if (op instanceof Scan) {
+            ((Scan) op).addPageCondition(con);
+        }
+    }
+
+    /**
+     * Lets the scan drop the tuples whose key attributes are not in the filter. A join
+     * builds the filter over the keys of its other input. The filter may be added to an
+     * open scan, and applies from its next batch on until the scan is closed.
+     * Returns false if the scan lacks an attribute.
+     **/
+    public boolean addRuntimeFilter(BloomFilter filter, ArrayList<Attribute> keys) {
+        ArrayList<Integer> cols = new ArrayList<>(keys.size());
+        for (Attribute key : keys) {
+            int col = schema.indexOf(key);
+            if (col < 0) {
+                return false;
+            }
+            cols.add(col);
+        }
+        runtimeFilters.add(filter);
+        runtimeKeys.add(cols);
+        return true;
+    }
+
+    /**
+     * Hands the filter of a join to the Scan below its input, looking through any
+     * Select in between. Returns false if the input is not scanned directly.
+     **/
+    public static boolean filterRuntime(Operator op, BloomFilter filter, ArrayList<Attribute> keys) {
+        while (op instanceof Select) {
+            op = ((Select) op).getBase();
+        }
+        if (op instanceof Scan) {
+            return ((Scan) op).addRuntimeFilter(filter, keys);
+        }
+        return false;
+    }
+
     /**
      * Open file prepare a stream pointer to read input file
      */
@@ -45,6 +167,23 @@ public class Scan extends Operator {
         int tuplesize = schema.getTupleSize();
         batchsize = Batch.getPageSize() / tuplesize;
         eos = false;
+        if (PageFile.isPageFile(filename)) {
+            pages = new PageFileReader(filename, schema);
+            pages.setPrefetch(prefetch);
+            page = null;
+            pagecurs = 0;
+            if (!openPages()) {
+                System.err.println(" Error reading " + filename);
+                return false;
+            }
+            if (!pageConditions.isEmpty()) {
+                ZoneMap zones = ZoneMap.load(filename, pages.getNumPages(), pages.getNumTuples());
+                if (zones != null) {
+                    pages.setPageFilter(zones.filter(pageConditions, schema));
+                }
+            }
+            return true;
+        }
         try {
             in = new ObjectInputStream(new FileInputStream(filename));
         } catch (Exception e) {
@@ -55,16 +194,67 @@ public class Scan extends Operator {
         return true;
     }
 
+    /**
+     * Opens the reader over a table in the page format
+     **/
+    protected boolean openPages() {
+        return pages.open();
+    }
+
     /**
      * Next operator - get a tuple from the file
+     * * Pages in which the runtime filters drop every tuple are not handed out
      **/
     public Batch next() {
+        Batch tuples = nextBatch();
+        while (tuples != null && !runtimeFilters.isEmpty()) {
+            tuples = applyRuntimeFilters(tuples);
+            if (!tuples.isEmpty()) {
+                break;
+            }
+            tuples = nextBatch();
+        }
+        return tuples;
+    }
+
+    /**
+     * Keeps the tuples of the batch that pass all the runtime filters
+     **/
+    private Batch applyRuntimeFilters(Batch tuples) {
+        if (tuples instanceof VectorBatch) {
+            VectorBatch vector = (VectorBatch) tuples;
+            int[] rows = new int[vector.size()];
+            int count = 0;
+            for (int i = 0; i < vector.size(); ++i) {
+                if (passesRuntimeFilters(vector.get(i))) {
+                    rows[count++] = vector.row(i);
+                }
+            }
+            return count == vector.size() ? vector : vector.select(rows, count);
+        }
+        tuples.getTuples().removeIf(tuple -> !passesRuntimeFilters(tuple));
+        return tuples;
+    }
+
+    private boolean passesRuntimeFilters(Tuple tuple) {
+        for (int f = 0; f < runtimeFilters.size(); ++f) {
+            if (!runtimeFilters.get(f).mightContain(tuple.hashOn(runtimeKeys.get(f)))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Batch nextBatch() {
         /** The file reached its end and no more to read **/
         if (eos) {
             close();
             return null;
         }
-        Batch tuples = new Batch(batchsize);
+        if (pages != null) {
+            return nextFromPages();
+        }
+        Batch tuples = newBatch(batchsize);
         while (!tuples.isFull()) {
             try {
                 Tuple data = (Tuple) in.readObject();
@@ -87,11 +277,69 @@ public class Scan extends Operator {
         return tuples;
     }
 
+    /**
+     * Next operator for tables in the page format. Whenever a page of the file holds
+     * * exactly one batch of tuples, the decoded page is handed out as it is
+     **/
+    protected Batch nextFromPages() {
+        Batch tuples = null;
+        while (tuples == null || !tuples.isFull()) {
+            if (page == null || pagecurs >= page.size()) {
+                /** A page whose tuples were copied out can be decoded into again **/
+                if (page != null && !pageOut) {
+                    recycle(page);
+                }
+                page = readNextPage();
+                pagecurs = 0;
+                pageOut = false;
+                if (page == null) {
+                    eos = true;
+                    if (tuples == null || tuples.isEmpty()) {
+                        close();
+                        return null;
+                    }
+                    return tuples;
+                }
+                if (tuples == null && page.size() == batchsize) {
+                    pagecurs = page.size();
+                    pageOut = true;
+                    return page;
+                }
+            }
+            if (tuples == null) {
+                tuples = page instanceof VectorBatch ? new VectorBatch(batchsize, schema) : newBatch(batchsize);
+            }
+            if (tuples instanceof VectorBatch) {
+                int count = Math.min(tuples.capacity() - tuples.size(), page.size() - pagecurs);
+                ((VectorBatch) tuples).appendRows((VectorBatch) page, pagecurs, count);
+                pagecurs += count;
+            }
+            while (!tuples.isFull() && pagecurs < page.size()) {
+                tuples.add(page.get(pagecurs++));
+            }
+        }
+        return tuples;
+    }
+
+    // Decodes the next page of the file, into columns if the scan is vectorized
+    private Batch readNextPage() {
+        if (vectorized && VectorBatch.supports(schema)) {
+            return pages.readNextVectorPage(batchsize);
+        }
+        return pages.readNextPage(newBatch(batchsize));
+    }
+
     /**
      * Close the file.. This routine is called when the end of filed
      * * is already reached
      **/
     public boolean close() {
+        runtimeFilters.clear();
+        runtimeKeys.clear();
+        if (pages != null) {
+            page = null;
+            return pages.close();
+        }
         try {
             in.close();
         } catch (IOException e) {
@@ -105,6 +353,7 @@ public class Scan extends Operator {
         String newtab = tabname;
         Scan newscan = new Scan(newtab, optype);
         newscan.setSchema((Schema) schema.clone());
+        newscan.setPrefetch(prefetch);
         return newscan;
     }
 
@@ -46,6 +46,13 @@ public class Select extends Operator {
         this.con = cn;
     }
 
+    /**
+     * The pages of the base operator are handed back once all their tuples are processed
+     **/
+    public boolean handsBackInput() {
+        return true;
+    }
+
     /**
      * Opens the connection to the base operator
      **/
@@ -57,6 +64,11 @@ public class Select extends Operator {
         int tuplesize = schema.getTupleSize();
         batchsize = Batch.getPageSize() / tuplesize;
 
+        /** Filtering works on the columns of the base table whenever it is scanned directly **/
+        Scan.vectorize(base);
+        /** The pages of the base table that cannot hold a matching tuple are not read at all **/
+        Scan.skipPages(base, con);
+
         if (base.open())
             return true;
         else
@@ -75,21 +87,33 @@ public class Select extends Operator {
             return null;
         }
 
-        /** An output buffer is initiated **/
-        outbatch = new Batch(batchsize);
+        /** The output buffer is only taken once a page is not filtered as a vector **/
+        outbatch = null;
 
         /** keep on checking the incoming pages until
          ** the output buffer is full
          **/
-        while (!outbatch.isFull()) {
+        while (outbatch == null || !outbatch.isFull()) {
             if (start == 0) {
                 inbatch = base.next();
                 /** There is no more incoming pages from base operator **/
                 if (inbatch == null) {
                     eos = true;
-                    return outbatch;
+                    return outbatch == null ? newBatch(batchsize) : outbatch;
+                }
+                /** A vector batch is filtered as a whole by narrowing its selection **/
+                if (outbatch == null && inbatch instanceof VectorBatch && ((VectorBatch) inbatch).isColumnar()) {
+                    VectorBatch selected = filter((VectorBatch) inbatch);
+                    if (selected != null) {
+                        if (selected.isEmpty())
+                            continue;
+                        return selected;
+                    }
                 }
             }
+            if (outbatch == null) {
+                outbatch = newBatch(batchsize);
+            }
 
             /** Continue this for loop until this page is fully observed
              ** or the output buffer is full
@@ -106,10 +130,12 @@ public class Select extends Operator {
             /** Modify the cursor to the position requierd
              ** when the base operator is called next time;
              **/
-            if (i == inbatch.size())
+            if (i == inbatch.size()) {
                 start = 0;
-            else
+                base.recycle(inbatch);
+            } else {
                 start = i;
+            }
         }
         return outbatch;
     }
@@ -219,6 +245,145 @@ public class Select extends Operator {
         return false;
     }
 
+    /**
+     * Evaluates the condition on the columns of the batch and returns the batch
+     * * of the rows that satisfy it. Returns null if the condition cannot be
+     * * evaluated on the columns, the tuples are then checked one at a time.
+     **/
+    protected VectorBatch filter(VectorBatch batch) {
+        int exprtype = con.getExprType();
+        if (exprtype < Condition.LESSTHAN || exprtype > Condition.NOTEQUAL) {
+            return null;
+        }
+        Attribute attr = con.getLhs();
+        int index = schema.indexOf(attr);
+        int datatype = schema.typeOf(attr);
+        if (index < 0 || batch.getType(index) != datatype) {
+            return null;
+        }
+        int rhsindex = -1;
+        if (con.getRhs() instanceof Attribute) {
+            rhsindex = schema.indexOf((Attribute) con.getRhs());
+            if (rhsindex < 0 || batch.getType(rhsindex) != datatype) {
+                return null;
+            }
+        } else if (!(con.getRhs() instanceof String)) {
+            return null;
+        }
+
+        int size = batch.size();
+        int[] rows = new int[size];
+        int count = 0;
+        if (datatype == Attribute.INT) {
+            int[] src = batch.getInts(index);
+            if (rhsindex < 0) {
+                int checkVal = Integer.parseInt((String) con.getRhs());
+                for (int i = 0; i < size; ++i) {
+                    int row = batch.row(i);
+                    if (satisfies(exprtype, Integer.compare(src[row], checkVal)))
+                        rows[count++] = row;
+                }
+            } else {
+                int[] check = batch.getInts(rhsindex);
+                for (int i = 0; i < size; ++i) {
+                    int row = batch.row(i);
+                    if (satisfies(exprtype, Integer.compare(src[row], check[row])))
+                        rows[count++] = row;
+                }
+            }
+        } else if (datatype == Attribute.STRING) {
+            int[] src = batch.getCodes(index);
+            StringDictionary dict = batch.getDictionary(index);
+            if (rhsindex < 0) {
+                /** Each distinct string only has to be compared once **/
+                String checkVal = (String) con.getRhs();
+                boolean[] matches = new boolean[dict.size()];
+                for (int code = 0; code < matches.length; ++code) {
+                    matches[code] = satisfies(exprtype, dict.get(code).compareTo(checkVal));
+                }
+                for (int i = 0; i < size; ++i) {
+                    int row = batch.row(i);
+                    if (matches[src[row]])
+                        rows[count++] = row;
+                }
+            } else {
+                int[] check = batch.getCodes(rhsindex);
+                StringDictionary checkDict = batch.getDictionary(rhsindex);
+                for (int i = 0; i < size; ++i) {
+                    int row = batch.row(i);
+                    int flag = dict.get(src[row]).compareTo(checkDict.get(check[row]));
+                    if (satisfies(exprtype, flag))
+                        rows[count++] = row;
+                }
+            }
+        } else if (datatype == Attribute.REAL) {
+            float[] src = batch.getFloats(index);
+            if (rhsindex < 0) {
+                float checkVal = Float.parseFloat((String) con.getRhs());
+                for (int i = 0; i < size; ++i) {
+                    int row = batch.row(i);
+                    if (satisfies(exprtype, src[row], checkVal))
+                        rows[count++] = row;
+                }
+            } else {
+                float[] check = batch.getFloats(rhsindex);
+                for (int i = 0; i < size; ++i) {
+                    int row = batch.row(i);
+                    if (satisfies(exprtype, src[row], check[row]))
+                        rows[count++] = row;
+                }
+            }
+        } else {
+            return null;
+        }
+        return batch.select(rows, count);
+    }
+
+    /**
+     * Whether the result of a comparison satisfies the condition operator
+     **/
+    static boolean satisfies(int exprtype, int flag) {
+        switch (exprtype) {
+            case Condition.LESSTHAN:
+                return flag < 0;
+            case Condition.GREATERTHAN:
+                return flag > 0;
+            case Condition.LTOE:
+                return flag <= 0;
+            case Condition.GTOE:
+                return flag >= 0;
+            case Condition.EQUAL:
+                return flag == 0;
+            case Condition.NOTEQUAL:
+                return flag != 0;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Same as above for floats, which are compared with the primitive operators
+     * * as in checkCondition
+     **/
+    static boolean satisfies(int exprtype, float srcVal, float checkVal) {
+        switch (exprtype) {
+            case Condition.LESSTHAN:
+                return srcVal < checkVal;
+            case Condition.GREATERTHAN:
+                return srcVal > checkVal;
+            case Condition.LTOE:
+                return srcVal <= checkVal;
+            case Condition.GTOE:
+                return srcVal >= checkVal;
+            case Condition.EQUAL:
+                return srcVal == checkVal;
+            case Condition.NOTEQUAL:
+                return srcVal != checkVal;
+            default:
+                return false;
+        }
+    }
+
     public Object clone() {
         Operator newbase = (Operator) base.clone();
         Condition newcon = (Condition) con.clone();
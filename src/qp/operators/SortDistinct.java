@@ -1,17 +1,14 @@
 package qp.operators;
 
-import java.io.EOFException;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import qp.algorithms.ExternalSort;
 import qp.utils.Batch;
+import qp.utils.PageFile;
 import qp.utils.Schema;
 import qp.utils.Tuple;
+import qp.utils.TupleReader;
+import qp.utils.TupleWriter;
 
 public class SortDistinct extends Operator {
     Operator base;
@@ -19,7 +16,7 @@ public class SortDistinct extends Operator {
     String filename;
     boolean eos;
     int numBuff;
-    ObjectInputStream is;
+    TupleReader is;
 
     static int filenum = 0;
 
@@ -49,11 +46,20 @@ public class SortDistinct extends Operator {
         this.numBuff = numBuff;
     }
 
+    /**
+     * The pages of the base operator are handed back once all their tuples are processed
+     **/
+    public boolean handsBackInput() {
+        return true;
+    }
+
     public boolean open() {
         /** set number of tuples per batch **/
         int tuplesize = schema.getTupleSize();
         batchsize = Batch.getPageSize() / tuplesize;
 
+        /** Only the input and the output page are used while the input is materialized **/
+        Scan.prefetch(base, numBuff - 2);
         if (!base.open()) return false;
 
         // We materalize the result and sort it
@@ -62,12 +68,16 @@ public class SortDistinct extends Operator {
         Batch nextPage;
 
         try {
-            ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(filename));
+            TupleWriter out = new TupleWriter(filename, batchsize, schema);
+            if (!out.open())
+                throw new IOException("Cannot materialize the input");
             while ((nextPage = base.next()) != null) {
                 for (Tuple t : nextPage.getTuples()) {
-                    out.writeObject(t);
+                    out.next(t);
                 }
+                base.recycle(nextPage);
             }
+            out.close();
         } catch (IOException io) {
             System.out.println("IO Exception in order by");
             System.exit(1);
@@ -75,20 +85,21 @@ public class SortDistinct extends Operator {
 
         ArrayList<Integer> indexes = new ArrayList<>();
         ExternalSort externalsort = new ExternalSort(Batch.getPageSize(), numBuff);
+        externalsort.setReplacementSelection(true);
         String sortedFilePath = "";
         // Just sort it on some random attribute
         indexes.add(0);
         try {
-            sortedFilePath = externalsort.sort(filename, tuplesize, indexes, false);
+            sortedFilePath = externalsort.sort(filename, schema, indexes, false);
         } catch (IOException ioe) {
             ioe.printStackTrace();
             System.out.println("Failed to sort file during distinct");
             System.exit(1);
         }
 
-        try {
-            is = new ObjectInputStream(new FileInputStream(sortedFilePath));
-        } catch (IOException ioe) {
+        is = new TupleReader(sortedFilePath, batchsize, schema);
+        is.setPrefetch(numBuff - 2);
+        if (!is.open()) {
             System.exit(1);
         }
 
@@ -104,21 +115,18 @@ public class SortDistinct extends Operator {
 
         Integer hashOfLastTuple = null;
         while (!outbatch.isFull() && !eos) {
-            try {
-                Tuple t = ExternalSort.readTuple(is);
-                int hash = t.hashCode();
-                // Because it is a sorted file, all identical tuples will be adjacent to one another
-                // We just discard a tuple if it has the same hashcode as its immediate preceeding
-                // tuples.
-                if (hashOfLastTuple == null || hashOfLastTuple != hash) {
-                    hashOfLastTuple = hash;
-                    outbatch.add(t);
-                }
-            } catch (EOFException eoe) {
+            Tuple t = is.next();
+            if (t == null) {
                 eos = true;
-            } catch (IOException ioe) {
-                System.out.println("Cannot read from sorted file in order by");
-                System.exit(1) ;
+                break;
+            }
+            int hash = t.hashCode();
+            // Because it is a sorted file, all identical tuples will be adjacent to one another
+            // We just discard a tuple if it has the same hashcode as its immediate preceeding
+            // tuples.
+            if (hashOfLastTuple == null || hashOfLastTuple != hash) {
+                hashOfLastTuple = hash;
+                outbatch.add(t);
             }
         }
 
@@ -126,8 +134,7 @@ public class SortDistinct extends Operator {
     }
 
     public boolean close() {
-        File f = new File(filename);
-        f.delete();
+        PageFile.delete(filename);
         base.close();
         return true;
     }
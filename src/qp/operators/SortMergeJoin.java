@@ -0,0 +1,499 @@
+/**
+ * Sort Merge Join algorithm
+ **/
+
+package qp.operators;
+
+import qp.algorithms.ExternalSort;
+import qp.utils.Attribute;
+import qp.utils.Batch;
+import qp.utils.Condition;
+import qp.utils.PageFile;
+import qp.utils.Schema;
+import qp.utils.Tuple;
+import qp.utils.TupleReader;
+import qp.utils.TupleWriter;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+public class SortMergeJoin extends Join {
+
+    static int filenum = 0;          // To get unique filenum for this operation
+
+    int batchsize;                   // Number of tuples per out batch
+    ArrayList<Integer> leftindex;    // Indices of the join attributes in left table
+    ArrayList<Integer> rightindex;   // Indices of the join attributes in right table
+    ArrayList<Integer> leftkeys;     // Indices of the left attributes of the equality conditions
+    ArrayList<Integer> rightkeys;    // Indices of the right attributes of the equality conditions
+    String prefix;                   // Prefix of the names of the materialized inputs
+    ArrayList<String> tempfiles;     // Materialized and sorted inputs, deleted on close
+    Batch outbatch;                  // Buffer page for output
+
+    SortedInput leftin;              // Left input in the order of the join keys
+    SortedInput rightin;             // Right input in the order of the join keys
+    ArrayList<Tuple> leftgroup;      // Left tuples with the key being merged, while they fit
+    Tuple groupkey;                  // First tuple of the group, null if there is no group
+    int grouplimit;                  // Number of tuples of the group kept in memory
+    String groupfile;                // File the group is written to once it does not fit
+    boolean groupspilled;            // Whether the group being merged is in groupfile
+    TupleReader groupreader;         // Reader of groupfile for the current right tuple
+    int spilledGroups;               // Number of groups written to groupfile
+    Tuple righttuple;                // Right tuple joined with the left group
+    int gcurs;                       // Cursor in leftgroup
+    boolean eos;                     // Whether either input is exhausted
+
+    /**
+     * A stream of tuples in the order of the join keys
+     **/
+    interface SortedInput {
+        Tuple peek();
+        Tuple next();
+        void close();
+    }
+
+    public SortMergeJoin(Join jn) {
+        super(jn.getLeft(), jn.getRight(), jn.getConditionList(), jn.getOpType());
+        schema = jn.getSchema();
+        jointype = jn.getJoinType();
+        numBuff = jn.getNumBuff();
+    }
+
+    /**
+     * The pages of both inputs are handed back once all their tuples are processed
+     **/
+    public boolean handsBackInput() {
+        return true;
+    }
+
+    /**
+     * During open finds the index of the join attributes
+     * * Sorts both inputs on the attributes of the equality conditions with an
+     * * external sort, unless they are already in that order. The other
+     * * conditions are only checked when the tuples are joined.
+     **/
+    public boolean open() {
+        /** select number of tuples per batch **/
+        int tuplesize = schema.getTupleSize();
+        batchsize = Math.max(1, Batch.getPageSize() / tuplesize);
+
+        /** find indices attributes of join conditions **/
+        leftindex = new ArrayList<>();
+        rightindex = new ArrayList<>();
+        leftkeys = new ArrayList<>();
+        rightkeys = new ArrayList<>();
+        ArrayList<Attribute> leftattrs = new ArrayList<>();
+        ArrayList<Attribute> rightattrs = new ArrayList<>();
+        for (Condition con : conditionList) {
+            Attribute leftattr = con.getLhs();
+            Attribute rightattr = (Attribute) con.getRhs();
+            leftindex.add(left.getSchema().indexOf(leftattr));
+            rightindex.add(right.getSchema().indexOf(rightattr));
+            if (con.getExprType() == Condition.EQUAL) {
+                leftkeys.add(left.getSchema().indexOf(leftattr));
+                rightkeys.add(right.getSchema().indexOf(rightattr));
+                leftattrs.add(leftattr);
+                rightattrs.add(rightattr);
+            }
+        }
+        if (leftkeys.isEmpty()) {
+            System.out.println("SortMergeJoin: at least one equality join condition is needed");
+            return false;
+        }
+
+        filenum++;
+        prefix = "SMJtemp-" + filenum + "-";
+        tempfiles = new ArrayList<>();
+        leftgroup = new ArrayList<>();
+        groupkey = null;
+        groupfile = prefix + "G";
+        groupspilled = false;
+        groupreader = null;
+        spilledGroups = 0;
+        righttuple = null;
+        gcurs = 0;
+        eos = false;
+
+        /** Each input is sorted with all the buffers, then the merge reads a page of each.
+         ** Half of the buffers besides those and the output page hold the group of left
+         ** tuples with the same key, at least a page of them, and the rest read the sorted
+         ** inputs ahead. A larger group is written to a file and read once per right tuple.
+         **/
+        int spare = Math.max(0, numBuff - 3);
+        int leftbatchsize = Math.max(1, Batch.getPageSize() / left.getSchema().getTupleSize());
+        grouplimit = Math.max(1, spare / 2) * leftbatchsize;
+        int ahead = spare - spare / 2;
+        leftin = sortedInput(left, leftattrs, leftkeys, "L", ahead - ahead / 2);
+        rightin = sortedInput(right, rightattrs, rightkeys, "R", ahead / 2);
+        return leftin != null && rightin != null;
+    }
+
+    /**
+     * Returns the input in the order of the keys. A base table with a sorted copy
+     * on the key, the .tbli file written by BuildIndex, is read from that copy, and
+     * the result of a sort merge join on the same keys is streamed as it is.
+     * Any other input is materialized and sorted.
+     **/
+    SortedInput sortedInput(Operator input, ArrayList<Attribute> keyattrs, ArrayList<Integer> keys, String side, int prefetch) {
+        if (input.getOpType() == OpType.SCAN && isSortedOn(input, keyattrs)) {
+            return new IndexFileInput(indexFileFor((Scan) input, keyattrs.get(0)));
+        }
+        if (!input.open()) {
+            return null;
+        }
+        if (isSortedOn(input, keyattrs)) {
+            return new OperatorInput(input);
+        }
+
+        Schema inschema = input.getSchema();
+        int inbatchsize = Math.max(1, Batch.getPageSize() / inschema.getTupleSize());
+        String filename = prefix + side;
+        TupleWriter out = new TupleWriter(filename, inbatchsize, inschema);
+        if (!out.open()) {
+            System.out.println("SortMergeJoin: Error writing to temporary file");
+            return null;
+        }
+        tempfiles.add(filename);
+        Batch inbatch;
+        while ((inbatch = input.next()) != null) {
+            for (int i = 0; i < inbatch.size(); ++i) {
+                out.next(inbatch.get(i));
+            }
+            input.recycle(inbatch);
+        }
+        out.close();
+        input.close();
+
+        /** An empty input has nothing to sort **/
+        String sortedFilePath = filename;
+        if (out.getNumTuple() > 0) {
+            ExternalSort externalsort = new ExternalSort(Batch.getPageSize(), numBuff);
+            externalsort.setReplacementSelection(true);
+            try {
+                sortedFilePath = externalsort.sort(filename, inschema, keys, false);
+            } catch (IOException ioe) {
+                System.out.println("SortMergeJoin: Failed to sort the input");
+                return null;
+            }
+            tempfiles.add(sortedFilePath);
+        }
+        TupleReader reader = new TupleReader(sortedFilePath, inbatchsize, inschema);
+        reader.setPrefetch(prefetch);
+        if (!reader.open()) {
+            System.out.println("SortMergeJoin: Error in reading temporary file");
+            return null;
+        }
+        return new FileInput(reader);
+    }
+
+    /**
+     * Whether the tuples of the operator come in the order of the keys, either as
+     * a scan of a table with a .tbli file on the key, or as the result of a sort
+     * merge join whose equality conditions start with the keys. Works on both the
+     * logical plan and the execution plan, so that PlanCost can tell as well.
+     **/
+    public static boolean isSortedOn(Operator input, List<Attribute> keys) {
+        if (input.getOpType() == OpType.SCAN) {
+            return keys.size() == 1
+                    && keys.get(0).getTabName().equals(((Scan) input).getTabName())
+                    && new File(indexFileFor((Scan) input, keys.get(0))).exists();
+        }
+        if (input.getOpType() == OpType.JOIN && ((Join) input).getJoinType() == JoinType.SORTMERGE) {
+            ArrayList<Condition> equalities = new ArrayList<>();
+            for (Condition con : ((Join) input).getConditionList()) {
+                if (con.getExprType() == Condition.EQUAL) {
+                    equalities.add(con);
+                }
+            }
+            if (keys.size() > equalities.size()) {
+                return false;
+            }
+            for (int i = 0; i < keys.size(); ++i) {
+                Condition con = equalities.get(i);
+                if (!keys.get(i).equals(con.getLhs()) && !keys.get(i).equals(con.getRhs())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * The sorted copy of the table written by BuildIndex for an index on the attribute
+     **/
+    static String indexFileFor(Scan scan, Attribute key) {
+        return scan.getTabName() + "-" + key.getColName() + ".tbli";
+    }
+
+    /**
+     * from the sorted inputs joins each group of left tuples with the same key
+     * * with the right tuples of that key
+     * * And returns a page of output tuples
+     **/
+    public Batch next() {
+        if (eos) {
+            return null;
+        }
+        outbatch = newBatch(batchsize);
+        while (!outbatch.isFull()) {
+            /** join the right tuple with the rest of the group **/
+            if (righttuple != null) {
+                Tuple lefttuple = nextInGroup();
+                if (lefttuple != null) {
+                    if (lefttuple.checkJoin(righttuple, leftindex, rightindex, conditionList)) {
+                        outbatch.add(lefttuple.joinWith(righttuple));
+                    }
+                    continue;
+                }
+            }
+            /** move on to the next right tuple with the key of the group **/
+            if (groupkey != null) {
+                Tuple next = rightin.peek();
+                if (next != null && Tuple.compareTuples(groupkey, next, leftkeys, rightkeys) == 0) {
+                    righttuple = rightin.next();
+                    rewindGroup();
+                    continue;
+                }
+                clearGroup();
+            }
+            /** advance the input with the smaller key until the keys match **/
+            Tuple lefttuple = leftin.peek();
+            Tuple next = rightin.peek();
+            if (lefttuple == null || next == null) {
+                eos = true;
+                break;
+            }
+            int cmp = Tuple.compareTuples(lefttuple, next, leftkeys, rightkeys);
+            if (cmp < 0) {
+                leftin.next();
+            } else if (cmp > 0) {
+                rightin.next();
+            } else if (!readGroup(lefttuple)) {
+                System.out.println("SortMergeJoin: Error writing to temporary file");
+                System.exit(1);
+            }
+        }
+        if (outbatch.isEmpty()) {
+            recycle(outbatch);
+            return null;
+        }
+        return outbatch;
+    }
+
+    /**
+     * Reads the left tuples with the key of the first one. They are kept in leftgroup
+     * up to grouplimit of them, past which the whole group is written to groupfile.
+     **/
+    boolean readGroup(Tuple first) {
+        groupkey = first;
+        TupleWriter out = null;
+        while (leftin.peek() != null && Tuple.compareTuples(leftin.peek(), first, leftkeys, leftkeys) == 0) {
+            Tuple tuple = leftin.next();
+            if (out == null && leftgroup.size() < grouplimit) {
+                leftgroup.add(tuple);
+                continue;
+            }
+            if (out == null) {
+                int groupbatchsize = Math.max(1, Batch.getPageSize() / left.getSchema().getTupleSize());
+                out = new TupleWriter(groupfile, groupbatchsize, left.getSchema());
+                if (!out.open()) {
+                    return false;
+                }
+                if (!tempfiles.contains(groupfile)) {
+                    tempfiles.add(groupfile);
+                }
+                for (Tuple t : leftgroup) {
+                    out.next(t);
+                }
+                leftgroup.clear();
+            }
+            out.next(tuple);
+        }
+        if (out != null) {
+            out.close();
+            groupspilled = true;
+            spilledGroups++;
+        }
+        return true;
+    }
+
+    // Next left tuple of the group for the current right tuple, null after the last
+    Tuple nextInGroup() {
+        if (groupspilled) {
+            return groupreader.next();
+        }
+        return gcurs < leftgroup.size() ? leftgroup.get(gcurs++) : null;
+    }
+
+    // Starts the group over for a new right tuple
+    void rewindGroup() {
+        gcurs = 0;
+        if (groupspilled) {
+            if (groupreader != null) {
+                groupreader.close();
+            }
+            int groupbatchsize = Math.max(1, Batch.getPageSize() / left.getSchema().getTupleSize());
+            groupreader = new TupleReader(groupfile, groupbatchsize, left.getSchema());
+            if (!groupreader.open()) {
+                System.out.println("SortMergeJoin: Error in reading temporary file");
+                System.exit(1);
+            }
+        }
+    }
+
+    void clearGroup() {
+        leftgroup.clear();
+        groupkey = null;
+        righttuple = null;
+        if (groupreader != null) {
+            groupreader.close();
+            groupreader = null;
+        }
+        groupspilled = false;
+    }
+
+    /**
+     * Close the operator
+     */
+    public boolean close() {
+        if (groupreader != null) {
+            groupreader.close();
+            groupreader = null;
+        }
+        if (leftin != null) {
+            leftin.close();
+        }
+        if (rightin != null) {
+            rightin.close();
+        }
+        if (tempfiles != null) {
+            for (String filename : tempfiles) {
+                PageFile.delete(filename);
+            }
+            tempfiles.clear();
+        }
+        return true;
+    }
+
+    /**
+     * Sorted input read from a file written by a TupleWriter
+     **/
+    static class FileInput implements SortedInput {
+        TupleReader reader;
+
+        FileInput(TupleReader reader) {
+            this.reader = reader;
+        }
+
+        public Tuple peek() {
+            return reader.peek();
+        }
+
+        public Tuple next() {
+            return reader.next();
+        }
+
+        public void close() {
+            reader.close();
+        }
+    }
+
+    /**
+     * Sorted input streamed from an operator
+     **/
+    static class OperatorInput implements SortedInput {
+        Operator input;
+        Batch inbatch;               // Page of the input being read
+        int curs;                    // Cursor in inbatch
+
+        OperatorInput(Operator input) {
+            this.input = input;
+        }
+
+        public Tuple peek() {
+            while (inbatch == null || curs >= inbatch.size()) {
+                if (inbatch != null) {
+                    input.recycle(inbatch);
+                }
+                inbatch = input.next();
+                curs = 0;
+                if (inbatch == null) {
+                    return null;
+                }
+            }
+            return inbatch.get(curs);
+        }
+
+        public Tuple next() {
+            Tuple tuple = peek();
+            if (tuple != null) {
+                curs++;
+            }
+            return tuple;
+        }
+
+        public void close() {
+            input.close();
+        }
+    }
+
+    /**
+     * Sorted input read from a .tbli file, which holds the tuples of the table
+     * in the order of the index key, each serialized on its own
+     **/
+    static class IndexFileInput implements SortedInput {
+        InputStream in;
+        Tuple peekTuple;             // The next tuple of the file, if read already
+        boolean completed;           // Whether the end of the file is reached
+
+        IndexFileInput(String filename) {
+            try {
+                in = new BufferedInputStream(new FileInputStream(filename));
+            } catch (IOException io) {
+                System.out.println("SortMergeJoin: Cannot find tbli file " + filename);
+                System.exit(1);
+            }
+        }
+
+        public Tuple peek() {
+            if (peekTuple != null || completed) {
+                return peekTuple;
+            }
+            try {
+                in.mark(1);
+                if (in.read() == -1) {
+                    completed = true;
+                    return null;
+                }
+                in.reset();
+                peekTuple = (Tuple) new ObjectInputStream(in).readObject();
+            } catch (IOException | ClassNotFoundException e) {
+                System.out.println("SortMergeJoin: Error in reading tbli file");
+                System.exit(1);
+            }
+            return peekTuple;
+        }
+
+        public Tuple next() {
+            Tuple tuple = peek();
+            peekTuple = null;
+            return tuple;
+        }
+
+        public void close() {
+            try {
+                in.close();
+            } catch (IOException io) {
+                System.out.println("SortMergeJoin: Error in closing tbli file");
+            }
+        }
+    }
+
+}
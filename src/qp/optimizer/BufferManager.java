@@ -1,31 +1,79 @@
 /**
  * simple buffer manager that distributes the buffers equally among all the join operators
+ * and keeps the pool of page frames the files are read through
  **/
 
 package qp.optimizer;
 
+import qp.utils.BufferPool;
+import qp.utils.ClockPolicy;
+import qp.utils.ReplacementPolicy;
+
+/**
+ * The frames of the pool are taken out of the numBuffer buffers, so the pool and the
+ * operators together never hold more than numBuffer pages. The pool gets one in
+ * POOL_SHARE of the buffers, as long as every join (or the sorts of a query without
+ * joins) is left with MIN_BUFFERS. With fewer buffers there is no pool, and the
+ * files are read and written directly.
+ **/
 public class BufferManager {
 
+    static final int POOL_SHARE = 4;   // The pool gets one in POOL_SHARE of the buffers
+    static final int MIN_BUFFERS = 3;  // Least number of buffers of a join or a sort
+
     static int numBuffer;
     static int numJoin;
 
     static int buffPerJoin;
 
+    static ReplacementPolicy policy = new ClockPolicy();  // Policy of the next pool created
+    static BufferPool pool;                               // Pool of the frames set aside from numBuffer
+    static int poolFrames;                                // Number of frames of the pool
+
     public BufferManager(int numBuffer, int numJoin) {
         this.numJoin = numJoin;
         BufferManager.numBuffer = numBuffer;
-        buffPerJoin = numBuffer / numJoin;
+        createPool(MIN_BUFFERS * numJoin);
+        buffPerJoin = (numBuffer - poolFrames) / numJoin;
     }
 
     public BufferManager(int numBuffer) {
         BufferManager.numBuffer = numBuffer;
+        createPool(MIN_BUFFERS);
+    }
+
+    /**
+     * Sets aside the frames of the pool, leaving at least reserved buffers to the operators
+     **/
+    private static void createPool(int reserved) {
+        poolFrames = Math.max(0, Math.min(numBuffer / POOL_SHARE, numBuffer - reserved));
+        pool = poolFrames > 0 ? new BufferPool(poolFrames, policy) : null;
+    }
+
+    /**
+     * Sets the replacement policy, must be called before the BufferManager is created
+     **/
+    public static void setReplacementPolicy(ReplacementPolicy replacementPolicy) {
+        policy = replacementPolicy;
     }
 
     public static int getBuffersPerJoin() {
         return buffPerJoin;
     }
 
+    /**
+     * Number of buffers of the operators, the frames of the pool excluded
+     **/
     public static int getNumBuffer() {
-       return numBuffer;
+       return numBuffer - poolFrames;
+    }
+
+    /**
+     * Returns the buffer pool, or null if no BufferManager was created or the
+     * buffers were too few to set any aside, in which case the files are read
+     * and written directly
+     **/
+    public static BufferPool getBufferPool() {
+        return pool;
     }
 }
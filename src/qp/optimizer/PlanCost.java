@@ -10,9 +10,11 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.StringTokenizer;
 
 import qp.operators.HashDistinct;
+import qp.operators.HashJoin;
 import qp.operators.Join;
 import qp.operators.JoinType;
 import qp.operators.OpType;
@@ -21,6 +23,7 @@ import qp.operators.Orderby;
 import qp.operators.Project;
 import qp.operators.Scan;
 import qp.operators.Select;
+import qp.operators.SortMergeJoin;
 import qp.operators.SortDistinct;
 import qp.utils.Attribute;
 import qp.utils.Batch;
@@ -66,6 +69,34 @@ public class PlanCost {
         }
     }
 
+    /**
+     * Returns the estimated number of pages of the result of the plan
+     **/
+    public long getNumPages(Operator root) {
+        isFeasible = true;
+        return calculateCost(root)[1];
+    }
+
+    /**
+     * Returns the estimated number of distinct combinations of the values of the
+     * attributes in the result of the plan, at most its number of tuples
+     **/
+    public long getNumDistinct(Operator root, List<Attribute> attrs) {
+        isFeasible = true;
+        long tuples = calculateCost(root)[0];
+        Schema schema = root.getSchema();
+        double distinct = 1;
+        for (Attribute attr : attrs) {
+            int index = schema.indexOf(attr);
+            Long count = index < 0 ? null : ht.get(schema.getAttribute(index));
+            if (count == null) {
+                return tuples;
+            }
+            distinct *= count;
+        }
+        return (long) Math.min(tuples, distinct);
+    }
+
     /**
      * Get number of tuples in estimated results
      **/
@@ -236,16 +267,48 @@ public class PlanCost {
 
         switch (joinType) {
             case JoinType.NESTEDJOIN:
-                joincost = leftpages * rightpages;
+                joincost = leftpages * rightpages + materializeCost(node.getRight(), rightpages);
                 break;
             case JoinType.INDEXJOIN:
                 joincost = Math.max(leftpages, rightpages);
                 break;
             case JoinType.BLOCKNESTED:
-                long leftcost = leftpages + leftpages / numbuff * rightpages;
-                long rightcost = rightpages + rightpages / numbuff * leftpages;
+                long leftcost = leftpages + leftpages / numbuff * rightpages
+                        + materializeCost(node.getRight(), rightpages);
+                long rightcost = rightpages + rightpages / numbuff * leftpages
+                        + materializeCost(node.getLeft(), leftpages);
                 joincost = Math.min(leftcost, rightcost);
                 break;
+            case JoinType.SORTMERGE:
+                joincost = sortMergeCost(node, leftpages, rightpages, numbuff);
+                if (joincost == Long.MAX_VALUE) {
+                    isFeasible = false;
+                    return new long[] {Long.MAX_VALUE, Long.MAX_VALUE};
+                }
+                break;
+            case JoinType.HASHJOIN:
+            case JoinType.PARALLELHASH:
+                /** the parallel hash join does the same I/O, only on more threads **/
+                joincost = hashJoinCost(node, leftpages, rightpages, numbuff);
+                if (joincost == Long.MAX_VALUE) {
+                    isFeasible = false;
+                    return new long[] {Long.MAX_VALUE, Long.MAX_VALUE};
+                }
+                break;
+            case JoinType.HYBRIDHASH:
+                joincost = hybridHashCost(node, leftpages, rightpages, numbuff);
+                if (joincost == Long.MAX_VALUE) {
+                    isFeasible = false;
+                    return new long[] {Long.MAX_VALUE, Long.MAX_VALUE};
+                }
+                break;
+            case JoinType.INEQUALITY:
+                joincost = inequalityJoinCost(node, leftpages, rightpages, numbuff);
+                if (joincost == Long.MAX_VALUE) {
+                    isFeasible = false;
+                    return new long[] {Long.MAX_VALUE, Long.MAX_VALUE};
+                }
+                break;
             default:
                 System.out.println("join type is not supported");
                 return new long[] {Long.MAX_VALUE, Long.MAX_VALUE};
@@ -256,6 +319,128 @@ public class PlanCost {
         return new long[] {outtuples, numPages};
     }
 
+    /**
+     * Cost of the sort merge join. Each input is materialized and sorted with numbuff
+     * buffers, unless it already comes in the order of the equality conditions, and
+     * both are read once more to merge them. Returns Long.MAX_VALUE if there is no
+     * equality condition to sort on or too few buffers to merge.
+     **/
+    protected long sortMergeCost(Join node, long leftpages, long rightpages, long numbuff) {
+        ArrayList<Attribute> leftkeys = new ArrayList<>();
+        ArrayList<Attribute> rightkeys = new ArrayList<>();
+        for (Condition con : node.getConditionList()) {
+            if (con.getExprType() == Condition.EQUAL) {
+                leftkeys.add(con.getLhs());
+                rightkeys.add((Attribute) con.getRhs());
+            }
+        }
+        if (leftkeys.isEmpty() || numbuff < 3) {
+            return Long.MAX_VALUE;
+        }
+        long joincost = leftpages + rightpages;
+        if (!SortMergeJoin.isSortedOn(node.getLeft(), leftkeys)) {
+            joincost += sortCost(leftpages, numbuff);
+        }
+        if (!SortMergeJoin.isSortedOn(node.getRight(), rightkeys)) {
+            joincost += sortCost(rightpages, numbuff);
+        }
+        return joincost;
+    }
+
+    /**
+     * Cost of writing out an input of numPages pages and sorting it with numbuff buffers
+     **/
+    protected long sortCost(long numPages, long numbuff) {
+        numPages = Math.max(1, numPages);
+        long numPasses = (long) (1 + Math.ceil(Math.log(Math.ceil(((double) numPages) / numbuff))
+                / Math.log(numbuff - 1)));
+        return numPages + 2 * numPages * numPasses;
+    }
+
+    /**
+     * Cost of the Grace hash join. Both inputs are read and written once per partitioning
+     * pass into numbuff - 1 partitions, until the partitions of the smaller input fit in
+     * numbuff - 2 buffers, and are read once more to join them. Returns Long.MAX_VALUE
+     * if there is no equality condition to hash or too few buffers to partition.
+     **/
+    protected long hashJoinCost(Join node, long leftpages, long rightpages, long numbuff) {
+        boolean hasEquality = false;
+        for (Condition con : node.getConditionList()) {
+            hasEquality |= con.getExprType() == Condition.EQUAL;
+        }
+        if (!hasEquality || numbuff < 3) {
+            return Long.MAX_VALUE;
+        }
+        long passes = 1;
+        long partpages = (long) Math.ceil((double) Math.min(leftpages, rightpages) / (numbuff - 1));
+        while (partpages > numbuff - 2 && passes < HashJoin.MAX_LEVEL + 1) {
+            partpages = (long) Math.ceil((double) partpages / (numbuff - 1));
+            passes++;
+        }
+        return (2 * passes + 1) * (leftpages + rightpages);
+    }
+
+    /**
+     * Cost of the hybrid hash join, which builds on the right input. Of its numbuff - 1
+     * partitions as many are kept in memory as fit in the numbuff - 2 buffers left over
+     * by those written out. Only the fraction written out is written and read again,
+     * together with the same fraction of the left input, and it is partitioned further
+     * as in the Grace hash join if needed.
+     **/
+    protected long hybridHashCost(Join node, long leftpages, long rightpages, long numbuff) {
+        long gracecost = hashJoinCost(node, leftpages, rightpages, numbuff);
+        if (gracecost == Long.MAX_VALUE) {
+            return Long.MAX_VALUE;
+        }
+        if (rightpages <= numbuff - 2) {
+            return leftpages + rightpages;
+        }
+        /** k partitions of rightpages / (numbuff - 1) pages each are written out, where
+         ** (numbuff - 1 - k) * rightpages / (numbuff - 1) <= numbuff - 2 - k
+         **/
+        double numparts = numbuff - 1;
+        double partpages = rightpages / numparts;
+        double spilled = numparts;
+        if (partpages > 1) {
+            spilled = Math.min(numparts, Math.ceil((rightpages - (numbuff - 2)) / (partpages - 1)));
+        }
+        double fraction = spilled / numparts;
+        long passes = 1;
+        long spilledpages = (long) Math.ceil(Math.min(leftpages, rightpages) / numparts);
+        while (spilledpages > numbuff - 2 && passes < HashJoin.MAX_LEVEL + 1) {
+            spilledpages = (long) Math.ceil((double) spilledpages / (numbuff - 1));
+            passes++;
+        }
+        return leftpages + rightpages + (long) Math.ceil(2 * passes * fraction * (leftpages + rightpages));
+    }
+
+    /**
+     * Cost of the inequality join, which reads the inputs as the block nested join
+     * does with the left input outside. Sorting each block takes no I/O. Returns
+     * Long.MAX_VALUE if there is no inequality condition or too few buffers for a block.
+     **/
+    protected long inequalityJoinCost(Join node, long leftpages, long rightpages, long numbuff) {
+        boolean hasInequality = false;
+        for (Condition con : node.getConditionList()) {
+            int op = con.getExprType();
+            hasInequality |= op == Condition.LESSTHAN || op == Condition.GREATERTHAN
+                    || op == Condition.LTOE || op == Condition.GTOE;
+        }
+        if (!hasInequality || numbuff < 3) {
+            return Long.MAX_VALUE;
+        }
+        return leftpages + leftpages / numbuff * rightpages + materializeCost(node.getRight(), rightpages);
+    }
+
+    /**
+     * Cost of writing the inner input of a nested loops join to a file to scan it
+     * again for every outer page or block. A base table is already in a file, so it
+     * is scanned again as it is.
+     **/
+    protected long materializeCost(Operator inner, long innerpages) {
+        return inner.getOpType() == OpType.SCAN ? 0 : innerpages;
+    }
+
     /**
      * Find number of incoming tuples, Using the selectivity find # of output tuples
      * * And statistics about the attributes
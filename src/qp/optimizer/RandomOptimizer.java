@@ -7,6 +7,7 @@ package qp.optimizer;
 import qp.operators.*;
 import qp.utils.Attribute;
 import qp.utils.Condition;
+import qp.utils.PageFile;
 import qp.utils.RandNumb;
 import qp.utils.SQLQuery;
 
@@ -41,9 +42,17 @@ public class RandomOptimizer {
      * After finding a choice of method for each operator
      * * prepare an execution plan by replacing the methods with
      * * corresponding join operator implementation
+     * * An operator reuses the batches of its result only if its parent drains them and hands them back
+     * * Chains of hash joins whose dimensions fit in memory run as a single MultiwayJoin
      **/
     public static Operator makeExecPlan(Operator node) {
         if (node.getOpType() == OpType.JOIN) {
+            /** Estimated on the logical plan, before its inputs are replaced **/
+            ((Join) node).setNumRightKeys(numRightKeys((Join) node));
+            Operator multiway = makeMultiwayJoin((Join) node);
+            if (multiway != null) {
+                return multiway;
+            }
             Operator left = makeExecPlan(((Join) node).getLeft());
             Operator right = makeExecPlan(((Join) node).getRight());
             int joinType = ((Join) node).getJoinType();
@@ -54,51 +63,188 @@ public class RandomOptimizer {
                     nj.setLeft(left);
                     nj.setRight(right);
                     nj.setNumBuff(numbuff);
+                    setInputRecycling(nj, left, right);
                     return nj;
                 case JoinType.INDEXJOIN:
                     IndexNestedJoin inj = new IndexNestedJoin((Join) node);
                     inj.setLeft(left);
                     inj.setRight(right);
                     inj.setNumBuff(numbuff);
+                    setInputRecycling(inj, left, right);
                     return inj;
                 case JoinType.BLOCKNESTED:
                     BlockNestedJoin bnj = new BlockNestedJoin((Join) node);
                     bnj.setLeft(left);
                     bnj.setRight(right);
                     bnj.setNumBuff(numbuff);
+                    setInputRecycling(bnj, left, right);
                     return bnj;
+                case JoinType.SORTMERGE:
+                    SortMergeJoin smj = new SortMergeJoin((Join) node);
+                    smj.setLeft(left);
+                    smj.setRight(right);
+                    smj.setNumBuff(numbuff);
+                    setInputRecycling(smj, left, right);
+                    return smj;
+                case JoinType.HASHJOIN:
+                    HashJoin hj = new HashJoin((Join) node);
+                    hj.setLeft(left);
+                    hj.setRight(right);
+                    hj.setNumBuff(numbuff);
+                    setInputRecycling(hj, left, right);
+                    return hj;
+                case JoinType.HYBRIDHASH:
+                    HybridHashJoin hhj = new HybridHashJoin((Join) node);
+                    hhj.setLeft(left);
+                    hhj.setRight(right);
+                    hhj.setNumBuff(numbuff);
+                    setInputRecycling(hhj, left, right);
+                    return hhj;
+                case JoinType.PARALLELHASH:
+                    ParallelHashJoin phj = new ParallelHashJoin((Join) node);
+                    phj.setLeft(left);
+                    phj.setRight(right);
+                    phj.setNumBuff(numbuff);
+                    setInputRecycling(phj, left, right);
+                    return phj;
+                case JoinType.INEQUALITY:
+                    InequalityJoin iej = new InequalityJoin((Join) node);
+                    iej.setLeft(left);
+                    iej.setRight(right);
+                    iej.setNumBuff(numbuff);
+                    setInputRecycling(iej, left, right);
+                    return iej;
                 default:
                     return node;
             }
         } else if (node.getOpType() == OpType.SELECT) {
             Operator base = makeExecPlan(((Select) node).getBase());
             ((Select) node).setBase(base);
+            setInputRecycling(node, base);
             return node;
         } else if (node.getOpType() == OpType.PROJECT) {
             Operator base = makeExecPlan(((Project) node).getBase());
             ((Project) node).setBase(base);
+            setInputRecycling(node, base);
             return node;
         } else if (node.getOpType() == OpType.ORDERBY) {
             int totalBuff = BufferManager.getNumBuffer();
             Operator base = makeExecPlan(((Orderby) node).getBase());
             ((Orderby) node).setBase(base);
             ((Orderby) node).setNumBuff(totalBuff);
+            setInputRecycling(node, base);
             return node;
         } else if (node.getOpType() == OpType.SORTDISTINCT) {
             int totalBuff = BufferManager.getNumBuffer();
             Operator base = makeExecPlan(((SortDistinct) node).getBase());
             ((SortDistinct) node).setBase(base);
             ((SortDistinct) node).setNumBuff(totalBuff);
+            setInputRecycling(node, base);
             return node;
         } else if (node.getOpType() == OpType.HASHDISTINCT) {
             Operator base = makeExecPlan(((HashDistinct) node).getBase());
             ((HashDistinct) node).setBase(base);
+            setInputRecycling(node, base);
             return node;
+        } else if (node.getOpType() == OpType.SCAN) {
+            /** Tables in the page format are read through a memory mapping into the buffer pool **/
+            String tabname = ((Scan) node).getTabName();
+            if (node instanceof MappedScan || !PageFile.isPageFile(tabname + ".tbl")) {
+                return node;
+            }
+            MappedScan ms = new MappedScan(tabname, OpType.SCAN);
+            ms.setSchema(node.getSchema());
+            return ms;
         } else {
             return node;
         }
     }
 
+    /**
+     * Estimated number of distinct keys of the right input of the join, which its
+     * Bloom filter is sized for, or 0 if the join has no equality condition
+     **/
+    static long numRightKeys(Join node) {
+        ArrayList<Attribute> keys = new ArrayList<>();
+        for (Condition con : node.getConditionList()) {
+            if (con.getExprType() == Condition.EQUAL) {
+                keys.add((Attribute) con.getRhs());
+            }
+        }
+        return keys.isEmpty() ? 0 : new PlanCost().getNumDistinct(node.getRight(), keys);
+    }
+
+    /**
+     * Lets the inputs reuse their batches if the operator drains every batch it takes
+     * and hands it back. The recycling of the root is set by QueryMain, which does so.
+     **/
+    static void setInputRecycling(Operator op, Operator... inputs) {
+        for (Operator input : inputs) {
+            input.setRecycling(op.handsBackInput());
+        }
+    }
+
+    /**
+     * Replaces the chain of hash joins starting at the join by a MultiwayJoin, if the
+     * chain has at least two joins and its dimensions fit together in the buffers of
+     * its joins. Returns null otherwise, and the joins are then executed one by one.
+     **/
+    static Operator makeMultiwayJoin(Join root) {
+        ArrayList<Join> levels = new ArrayList<>();
+        ArrayList<Operator> dimensions = new ArrayList<>();
+        Operator node = root;
+        while (node.getOpType() == OpType.JOIN && isHashJoin((Join) node)) {
+            Join join = (Join) node;
+            Operator dimension = MultiwayJoin.dimensionOf(join);
+            if (dimension == null) {
+                break;
+            }
+            join.setNumRightKeys(numRightKeys(join));
+            levels.add(0, join);
+            dimensions.add(0, dimension);
+            node = dimension == join.getLeft() ? join.getRight() : join.getLeft();
+        }
+        if (levels.size() < 2) {
+            return null;
+        }
+
+        /** The hash tables take all the buffers but the input and output pages **/
+        int numbuff = levels.size() * BufferManager.getBuffersPerJoin();
+        long pages = 0;
+        for (Operator dimension : dimensions) {
+            pages += new PlanCost().getNumPages(dimension);
+        }
+        if (pages > numbuff - 2) {
+            return null;
+        }
+
+        for (int i = 0; i < dimensions.size(); ++i) {
+            dimensions.set(i, makeExecPlan(dimensions.get(i)));
+        }
+        Operator driving = makeExecPlan(node);
+        MultiwayJoin mj = new MultiwayJoin(driving, levels, dimensions);
+        mj.setNumBuff(numbuff);
+        setInputRecycling(mj, driving);
+        setInputRecycling(mj, dimensions.toArray(new Operator[0]));
+        return mj;
+    }
+
+    /**
+     * Whether the join is one of the hash joins, which need an equality condition
+     **/
+    static boolean isHashJoin(Join node) {
+        int joinType = node.getJoinType();
+        if (joinType != JoinType.HASHJOIN && joinType != JoinType.HYBRIDHASH && joinType != JoinType.PARALLELHASH) {
+            return false;
+        }
+        for (Condition con : node.getConditionList()) {
+            if (con.getExprType() == Condition.EQUAL) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Randomly selects a neighbour
      **/
@@ -230,9 +376,9 @@ public class RandomOptimizer {
             /** find the node that is to be altered **/
             Join node = (Join) findNodeAt(root, joinNum);
             int prevJoinMeth = node.getJoinType();
-            int joinMeth = RandNumb.randInt(0, numJMeth - 1);
+            int joinMeth = JoinType.getJoinType(RandNumb.randInt(0, numJMeth - 1));
             while (joinMeth == prevJoinMeth) {
-                joinMeth = RandNumb.randInt(0, numJMeth - 1);
+                joinMeth = JoinType.getJoinType(RandNumb.randInt(0, numJMeth - 1));
             }
             node.setJoinType(joinMeth);
         }
@@ -42,6 +42,12 @@ public class Batch implements Serializable {
         tuples.clear();
     }
 
+    /** Empties the page and sets its number of tuples, so that the page can be reused **/
+    public void reset(int numtuple) {
+        MAX_SIZE = numtuple;
+        tuples.clear();
+    }
+
     public boolean contains(Tuple t) {
         return tuples.contains(t);
     }
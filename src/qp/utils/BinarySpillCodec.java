@@ -0,0 +1,98 @@
+/**
+ * Codec which writes batches in the binary page format of PageFile
+ */
+
+package qp.utils;
+
+import java.io.IOException;
+
+/**
+ * The tuples are encoded from the schema into fixed size pages, which are written and read
+ * through a FileChannel with a direct ByteBuffer that is reused for every page.
+ * No class descriptors or per object headers are written, and reading does not go
+ * through reflection.
+ */
+public class BinarySpillCodec implements SpillCodec {
+
+    final Schema schema;      // Schema of the tuples in the file
+    final int batchsize;      // Number of tuples per batch returned by readBatch
+
+    PageFileWriter writer;
+    PageFileReader reader;
+    int prefetchDepth = 0;    // Number of pages read ahead when reading
+
+    public BinarySpillCodec(Schema schema, int batchsize) {
+        this.schema = schema;
+        this.batchsize = batchsize;
+    }
+
+    /**
+     * Whether every attribute of the schema can be encoded in the page format
+     */
+    public static boolean supports(Schema schema) {
+        if (schema == null || schema.getNumCols() == 0) {
+            return false;
+        }
+        for (int i = 0; i < schema.getNumCols(); ++i) {
+            int type = schema.getAttribute(i).getProjectedType();
+            if (type != Attribute.INT && type != Attribute.REAL && type != Attribute.STRING) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Temporary files use the page size of the query when it is known
+     */
+    static int spillPageSize() {
+        int pagesize = Batch.getPageSize();
+        return pagesize > 0 ? pagesize : PageFile.DEFAULT_PAGE_SIZE;
+    }
+
+    public boolean openWrite(String filename) {
+        writer = new PageFileWriter(filename, schema, spillPageSize());
+        return writer.open();
+    }
+
+    public void writeBatch(Batch batch) throws IOException {
+        writer.write(batch);
+    }
+
+    public void closeWrite() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+    }
+
+    public boolean openRead(String filename) {
+        reader = new PageFileReader(filename, schema);
+        reader.setPrefetch(prefetchDepth);
+        return reader.open();
+    }
+
+    public void setPrefetch(int depth) {
+        prefetchDepth = depth;
+    }
+
+    public Batch readBatch() throws IOException {
+        Tuple tuple = reader.next();
+        if (tuple == null) {
+            return null;
+        }
+        Batch batch = new Batch(batchsize);
+        batch.add(tuple);
+        while (!batch.isFull() && (tuple = reader.next()) != null) {
+            batch.add(tuple);
+        }
+        return batch;
+    }
+
+    public void closeRead() throws IOException {
+        if (reader != null) {
+            reader.close();
+            reader = null;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ * Bloom filter over the hashes of the join attributes of tuples
+ */
+
+package qp.utils;
+
+/**
+ * A join that has read all of one input builds the filter on the hash of its join
+ * attributes, as given by Tuple.hashOn, and hands it to the Scan of the other input.
+ * The Scan then drops the tuples that certainly have no match before they reach the
+ * join. The filter may let tuples without a match through, but never drops a match.
+ *
+ * The filter is sized before the input is read, for the number of distinct keys the
+ * planner expects it to have, and add sets the bits of each hash right away. More keys
+ * than expected only raise the false positive rate.
+ */
+public class BloomFilter {
+
+    public static final double FALSE_POSITIVE_RATE = 0.01;
+    static final int MIN_BITS = 64;         // Smallest number of bits of a filter
+    static final int MAX_BITS = 1 << 30;    // Largest number of bits of a filter
+
+    long[] bits;                            // Bits of the filter
+    int numBits;
+    int numProbes;                          // Number of bits set per key
+    long numAdded = 0;                      // Number of hashes added, duplicates included
+
+    /**
+     * Sizes the filter for expectedKeys distinct keys at the false positive rate fpp,
+     * taking at most maxBits bits. Without an estimate, expectedKeys of 0, the filter
+     * takes maxBits bits and is sized for as many keys as they hold at that rate.
+     */
+    public BloomFilter(long expectedKeys, double fpp, long maxBits) {
+        double bitsPerKey = -Math.log(fpp) / (Math.log(2) * Math.log(2));
+        long most = Math.max(MIN_BITS, Math.min(MAX_BITS, maxBits));
+        long m = expectedKeys > 0 ? (long) Math.ceil(expectedKeys * bitsPerKey) : most;
+        numBits = (int) Math.max(MIN_BITS, Math.min(most, m));
+        double keys = expectedKeys > 0 ? expectedKeys : numBits / bitsPerKey;
+        /** No more probes than the rate needs, as more would only pay off for an exact estimate **/
+        long probes = Math.min(Math.round(numBits / keys * Math.log(2)), Math.round(bitsPerKey * Math.log(2)));
+        numProbes = (int) Math.max(1, probes);
+        bits = new long[(numBits + 63) / 64];
+    }
+
+    // Adds the hash of the join attributes of a tuple
+    public void add(int hash) {
+        int h1 = mix(hash);
+        int h2 = mix(h1) | 1;
+        for (int k = 0; k < numProbes; ++k) {
+            int bit = Math.floorMod(h1 + k * h2, numBits);
+            bits[bit >>> 6] |= 1L << bit;
+        }
+        numAdded++;
+    }
+
+    public long getNumAdded() {
+        return numAdded;
+    }
+
+    public int getNumBits() {
+        return numBits;
+    }
+
+    // Whether a tuple whose join attributes have the given hash may have a match
+    public boolean mightContain(int hash) {
+        int h1 = mix(hash);
+        int h2 = mix(h1) | 1;
+        for (int k = 0; k < numProbes; ++k) {
+            int bit = Math.floorMod(h1 + k * h2, numBits);
+            if ((bits[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Spreads the bits of the hash, the finalizer of MurmurHash3
+    static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
@@ -0,0 +1,335 @@
+/**
+ * Pool of page frames shared by all the files read and written in page format
+ */
+
+package qp.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+
+/**
+ * The pool has a fixed number of frames, each of which can hold one page of a file.
+ * A page is pinned while it is being used and cannot be evicted until it is unpinned.
+ * Pages written through the pool are marked dirty and only go to the file when they
+ * are evicted or when their file is flushed. Which unpinned page to evict is decided
+ * by the ReplacementPolicy.
+ *
+ * Pages are identified by the absolute path of their file and their page number.
+ * The methods are synchronized so that the pool can be shared between threads. A page
+ * is read from its file outside the lock of the pool: its frame is pinned and marked
+ * loading first, and other pins of the same page wait on the frame until it is read.
+ */
+public class BufferPool {
+
+    final int numFrames;
+    final ReplacementPolicy policy;
+
+    final ByteBuffer[] frames;        // Page data of every frame, allocated on first use
+    final long[] pageKey;             // Key of the page held in every frame, -1 if free
+    final int[] pinCount;             // Number of pins of every frame
+    final boolean[] dirty;            // Whether the page differs from the file
+    final boolean[] stale;            // Whether the file was rewritten while the page was pinned
+    final boolean[] loading;          // Whether the page is still being read, guarded by latches
+    final Object[] latches;           // Monitor of every frame, waited on while its page is read
+    final PageStore[] stores;         // File of the page held in every frame
+
+    final HashMap<Long, Integer> pageTable = new HashMap<>();   // Page key to frame
+    final HashMap<String, Integer> fileIds = new HashMap<>();   // Absolute path to file id
+    final ArrayDeque<Integer> freeFrames = new ArrayDeque<>();
+    int nextFileId = 0;               // Id of the next file registered
+
+    long hits = 0;          // Number of pins served from the pool
+    long misses = 0;        // Number of pins which had to read the page
+    long allocations = 0;   // Number of pages pinned to be written, without reading them
+    long evictions = 0;     // Number of pages evicted to make room, at most misses + allocations
+    long writes = 0;        // Number of dirty pages written back
+
+    public BufferPool(int numFrames, ReplacementPolicy policy) {
+        this.numFrames = Math.max(1, numFrames);
+        this.policy = policy;
+        frames = new ByteBuffer[this.numFrames];
+        pageKey = new long[this.numFrames];
+        pinCount = new int[this.numFrames];
+        dirty = new boolean[this.numFrames];
+        stale = new boolean[this.numFrames];
+        loading = new boolean[this.numFrames];
+        latches = new Object[this.numFrames];
+        stores = new PageStore[this.numFrames];
+        for (int i = 0; i < this.numFrames; ++i) {
+            pageKey[i] = -1;
+            latches[i] = new Object();
+            freeFrames.add(i);
+        }
+        policy.init(this.numFrames);
+    }
+
+    public int getNumFrames() {
+        return numFrames;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getAllocations() {
+        return allocations;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized long getWrites() {
+        return writes;
+    }
+
+    /**
+     * Returns the id under which the pages of the file are kept
+     */
+    public synchronized int fileId(String filename) {
+        String path = new File(filename).getAbsolutePath();
+        Integer id = fileIds.get(path);
+        if (id == null) {
+            id = nextFileId++;
+            fileIds.put(path, id);
+        }
+        return id;
+    }
+
+    /**
+     * Drops the pages and the id of a file that is deleted. Pages still pinned are
+     * marked stale, as in invalidate.
+     */
+    public synchronized void forget(String filename) {
+        Integer id = fileIds.remove(new File(filename).getAbsolutePath());
+        if (id != null) {
+            invalidate(id);
+        }
+    }
+
+    private static long key(int fileId, int pageNo) {
+        return ((long) fileId << 32) | (pageNo & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Pins the page, reading it from the store if it is not in the pool.
+     * Returns the frame holding the page, or -1 if every frame is pinned,
+     * in which case the caller has to read the page by itself.
+     */
+    public int pin(int fileId, int pageNo, PageStore store) {
+        long key = key(fileId, pageNo);
+        int frame;
+        boolean claimed;
+        synchronized (this) {
+            Integer cached = pageTable.get(key);
+            if (cached != null) {
+                hits++;
+                pinCount[cached]++;
+                policy.accessed(cached);
+                frame = cached;
+                claimed = false;
+            } else {
+                frame = getFrame(store.getPageSize());
+                if (frame == -1) {
+                    return -1;
+                }
+                misses++;
+                install(frame, key, store);
+                loading[frame] = true;
+                claimed = true;
+            }
+        }
+        if (claimed) {
+            ByteBuffer buf = frames[frame];
+            buf.clear();
+            buf.limit(store.getPageSize());
+            try {
+                store.loadPage(pageNo, buf);
+            } catch (IOException io) {
+                System.out.println("BufferPool: error reading page " + pageNo);
+                System.exit(1);
+            }
+            synchronized (latches[frame]) {
+                loading[frame] = false;
+                latches[frame].notifyAll();
+            }
+        } else {
+            waitLoaded(frame);
+        }
+        return frame;
+    }
+
+    // Waits until the page of the pinned frame is read by the pin that claimed the frame
+    private void waitLoaded(int frame) {
+        boolean interrupted = false;
+        synchronized (latches[frame]) {
+            while (loading[frame]) {
+                try {
+                    latches[frame].wait();
+                } catch (InterruptedException ie) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Pins a frame for a page that is about to be written in full, without reading it.
+     * Returns the frame, or -1 if every frame is pinned, in which case the caller
+     * has to write the page to the file by itself.
+     */
+    public synchronized int pinNew(int fileId, int pageNo, PageStore store) {
+        long key = key(fileId, pageNo);
+        Integer cached = pageTable.get(key);
+        if (cached != null) {
+            pinCount[cached]++;
+            policy.accessed(cached);
+            stores[cached] = store;
+            return cached;
+        }
+        int frame = getFrame(store.getPageSize());
+        if (frame == -1) {
+            return -1;
+        }
+        allocations++;
+        install(frame, key, store);
+        return frame;
+    }
+
+    /**
+     * Returns a view of the page held in a pinned frame, positioned at the start of the page
+     */
+    public synchronized ByteBuffer getPage(int frame) {
+        ByteBuffer page = frames[frame].duplicate();
+        page.clear();
+        page.limit(stores[frame].getPageSize());
+        return page;
+    }
+
+    /**
+     * Releases a pin. The page is marked dirty if it was changed.
+     * A stale page is dropped once its last pin is released, whatever was written to it.
+     */
+    public synchronized void unpin(int frame, boolean isDirty) {
+        if (pinCount[frame] <= 0) {
+            System.out.println("BufferPool: unpinning a frame that is not pinned");
+            System.exit(1);
+        }
+        pinCount[frame]--;
+        if (stale[frame]) {
+            if (pinCount[frame] == 0) {
+                remove(frame);
+                freeFrames.add(frame);
+            }
+            return;
+        }
+        dirty[frame] |= isDirty;
+    }
+
+    /**
+     * Writes all the dirty pages of the file back to it
+     */
+    public synchronized void flush(int fileId) {
+        for (int frame = 0; frame < numFrames; ++frame) {
+            if (pageKey[frame] != -1 && (int) (pageKey[frame] >>> 32) == fileId && dirty[frame]) {
+                writeBack(frame);
+            }
+        }
+    }
+
+    /**
+     * Drops all the pages of the file from the pool without writing them.
+     * Used when the file is rewritten from the start. A page that is still pinned
+     * is marked stale: it is no longer found by pin, is never written back, and
+     * its frame is freed when the last pin is released.
+     */
+    public synchronized void invalidate(int fileId) {
+        for (int frame = 0; frame < numFrames; ++frame) {
+            if (pageKey[frame] == -1 || stale[frame] || (int) (pageKey[frame] >>> 32) != fileId) {
+                continue;
+            }
+            if (pinCount[frame] == 0) {
+                remove(frame);
+                freeFrames.add(frame);
+            } else {
+                pageTable.remove(pageKey[frame]);
+                stale[frame] = true;
+                dirty[frame] = false;
+            }
+        }
+    }
+
+    /**
+     * Whether the page in the frame belongs to a file that was rewritten while it was pinned
+     */
+    public synchronized boolean isStale(int frame) {
+        return stale[frame];
+    }
+
+    // Finds a free frame with room for a page of the given size, evicting a page if needed
+    private int getFrame(int pageSize) {
+        int frame;
+        if (!freeFrames.isEmpty()) {
+            frame = freeFrames.poll();
+        } else {
+            frame = policy.victim(pinCount);
+            if (frame == -1) {
+                return -1;
+            }
+            if (dirty[frame]) {
+                writeBack(frame);
+            }
+            remove(frame);
+            evictions++;
+        }
+        if (frames[frame] == null || frames[frame].capacity() < pageSize) {
+            frames[frame] = ByteBuffer.allocate(pageSize);
+        }
+        return frame;
+    }
+
+    private void install(int frame, long key, PageStore store) {
+        pageKey[frame] = key;
+        stores[frame] = store;
+        pinCount[frame] = 1;
+        dirty[frame] = false;
+        stale[frame] = false;
+        pageTable.put(key, frame);
+        policy.accessed(frame);
+    }
+
+    private void remove(int frame) {
+        if (!stale[frame]) {
+            pageTable.remove(pageKey[frame]);
+        }
+        pageKey[frame] = -1;
+        stores[frame] = null;
+        dirty[frame] = false;
+        stale[frame] = false;
+        policy.removed(frame);
+    }
+
+    private void writeBack(int frame) {
+        ByteBuffer page = frames[frame].duplicate();
+        page.clear();
+        page.limit(stores[frame].getPageSize());
+        try {
+            stores[frame].storePage((int) pageKey[frame], page);
+        } catch (IOException io) {
+            System.out.println("BufferPool: error writing back page " + (int) pageKey[frame]);
+            System.exit(1);
+        }
+        dirty[frame] = false;
+        writes++;
+    }
+}
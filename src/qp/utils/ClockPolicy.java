@@ -0,0 +1,47 @@
+/**
+ * CLOCK page replacement
+ */
+
+package qp.utils;
+
+/**
+ * Every frame has a reference bit which is set when the frame is accessed.
+ * The clock hand sweeps over the frames, clearing the bits it passes, and
+ * evicts the first unpinned frame whose bit is already clear.
+ */
+public class ClockPolicy implements ReplacementPolicy {
+
+    boolean[] referenced;
+    int hand = 0;
+
+    public void init(int numFrames) {
+        referenced = new boolean[numFrames];
+        hand = 0;
+    }
+
+    public void accessed(int frame) {
+        referenced[frame] = true;
+    }
+
+    public void removed(int frame) {
+        referenced[frame] = false;
+    }
+
+    public int victim(int[] pinCount) {
+        int numFrames = referenced.length;
+        // Two sweeps are enough: the first one clears the bits of every unpinned frame
+        for (int i = 0; i < 2 * numFrames; ++i) {
+            int frame = hand;
+            hand = (hand + 1) % numFrames;
+            if (pinCount[frame] > 0) {
+                continue;
+            }
+            if (referenced[frame]) {
+                referenced[frame] = false;
+            } else {
+                return frame;
+            }
+        }
+        return -1;
+    }
+}
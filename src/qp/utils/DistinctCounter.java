@@ -0,0 +1,103 @@
+/**
+ * Counts the distinct values of a column, exactly while there are few of them
+ */
+
+package qp.utils;
+
+import java.util.HashSet;
+
+/**
+ * The values are kept in a set until there are more than EXACT_LIMIT of them. The
+ * counter then switches to a HyperLogLog sketch of 2^PRECISION registers, which counts
+ * any number of values in a fixed 16KB with a standard error of about 0.8%.
+ *
+ * A counter is not thread safe. Threads count into counters of their own, which are
+ * then combined with merge.
+ */
+public class DistinctCounter {
+
+    public static final int EXACT_LIMIT = 1 << 16;  // Most values kept before switching to the sketch
+    static final int PRECISION = 14;                // Number of hash bits choosing the register
+    static final int NUM_REGISTERS = 1 << PRECISION;
+
+    HashSet<Object> values = new HashSet<>();   // Values seen, null once the sketch is used
+    byte[] registers;                           // Longest run of zero bits seen per register, null while exact
+
+    public void add(Object value) {
+        if (values != null) {
+            values.add(value);
+            if (values.size() > EXACT_LIMIT) {
+                toSketch();
+            }
+        } else {
+            addHash(mix(value.hashCode()));
+        }
+    }
+
+    // Adds the values or the registers of the other counter to this one
+    public void merge(DistinctCounter other) {
+        if (other.values != null) {
+            for (Object value : other.values) {
+                add(value);
+            }
+            return;
+        }
+        if (values != null) {
+            toSketch();
+        }
+        for (int i = 0; i < NUM_REGISTERS; ++i) {
+            registers[i] = (byte) Math.max(registers[i], other.registers[i]);
+        }
+    }
+
+    // Exact number of distinct values while there are few, the estimate of the sketch after
+    public long count() {
+        if (values != null) {
+            return values.size();
+        }
+        double sum = 0;
+        int zeros = 0;
+        for (int i = 0; i < NUM_REGISTERS; ++i) {
+            sum += 1.0 / (1L << registers[i]);
+            if (registers[i] == 0) {
+                zeros++;
+            }
+        }
+        double m = NUM_REGISTERS;
+        double estimate = 0.7213 / (1 + 1.079 / m) * m * m / sum;
+        /** Small counts leave registers empty, linear counting is more accurate then **/
+        if (estimate <= 2.5 * m && zeros > 0) {
+            estimate = m * Math.log(m / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    private void toSketch() {
+        registers = new byte[NUM_REGISTERS];
+        for (Object value : values) {
+            addHash(mix(value.hashCode()));
+        }
+        values = null;
+    }
+
+    private void addHash(long hash) {
+        int register = (int) (hash >>> (64 - PRECISION));
+        /** The sentinel bit bounds the run of zeros when the remaining bits are all 0 **/
+        long rest = (hash << PRECISION) | (1L << (PRECISION - 1));
+        byte rank = (byte) (Long.numberOfLeadingZeros(rest) + 1);
+        if (rank > registers[register]) {
+            registers[register] = rank;
+        }
+    }
+
+    // Spreads the hash code over 64 bits, the 64 bit finalizer of MurmurHash3
+    static long mix(int hashCode) {
+        long h = hashCode;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb93e5a130c53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,74 @@
+/**
+ * LRU-K page replacement
+ */
+
+package qp.utils;
+
+/**
+ * Keeps the times of the last K accesses of every frame and evicts the unpinned frame
+ * whose K-th most recent access is the oldest. Frames accessed fewer than K times count
+ * as infinitely old and go first, oldest last access first. This keeps a page that is
+ * read once by a sequential scan from pushing out pages that are read over and over,
+ * such as the inner relation of a nested loop join.
+ *
+ * The history of a page is dropped when it leaves the pool.
+ */
+public class LRUKPolicy implements ReplacementPolicy {
+
+    final int k;
+    long[][] history;   // Last k access times of every frame, most recent first
+    int[] numAccess;    // Number of accesses of every frame, capped at k
+    long time = 0;
+
+    public LRUKPolicy(int k) {
+        if (k < 1) {
+            System.out.println("LRU-K: K must be at least 1");
+            System.exit(1);
+        }
+        this.k = k;
+    }
+
+    public void init(int numFrames) {
+        history = new long[numFrames][k];
+        numAccess = new int[numFrames];
+        time = 0;
+    }
+
+    public void accessed(int frame) {
+        long[] times = history[frame];
+        System.arraycopy(times, 0, times, 1, k - 1);
+        times[0] = ++time;
+        if (numAccess[frame] < k) {
+            numAccess[frame]++;
+        }
+    }
+
+    public void removed(int frame) {
+        numAccess[frame] = 0;
+    }
+
+    public int victim(int[] pinCount) {
+        int victim = -1;
+        boolean victimFull = true;
+        for (int frame = 0; frame < history.length; ++frame) {
+            if (pinCount[frame] > 0) {
+                continue;
+            }
+            boolean full = numAccess[frame] == k;
+            if (victim == -1) {
+                victim = frame;
+                victimFull = full;
+            } else if (!full && victimFull) {
+                victim = frame;
+                victimFull = false;
+            } else if (!full) {
+                if (history[frame][0] < history[victim][0]) {
+                    victim = frame;
+                }
+            } else if (victimFull && history[frame][k - 1] < history[victim][k - 1]) {
+                victim = frame;
+            }
+        }
+        return victim;
+    }
+}
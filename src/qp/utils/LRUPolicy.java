@@ -0,0 +1,38 @@
+/**
+ * Least recently used page replacement
+ */
+
+package qp.utils;
+
+/**
+ * Evicts the unpinned frame whose last access is the oldest.
+ * The pool only has numBuffer frames, so the victim is found with a linear scan.
+ */
+public class LRUPolicy implements ReplacementPolicy {
+
+    long[] lastAccess;
+    long time = 0;
+
+    public void init(int numFrames) {
+        lastAccess = new long[numFrames];
+        time = 0;
+    }
+
+    public void accessed(int frame) {
+        lastAccess[frame] = ++time;
+    }
+
+    public void removed(int frame) {
+        lastAccess[frame] = 0;
+    }
+
+    public int victim(int[] pinCount) {
+        int victim = -1;
+        for (int frame = 0; frame < lastAccess.length; ++frame) {
+            if (pinCount[frame] == 0 && (victim == -1 || lastAccess[frame] < lastAccess[victim])) {
+                victim = frame;
+            }
+        }
+        return victim;
+    }
+}
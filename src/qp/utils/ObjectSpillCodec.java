@@ -0,0 +1,68 @@
+/**
+ * Codec which serializes whole Batch objects with ObjectOutputStream
+ */
+
+package qp.utils;
+
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+public class ObjectSpillCodec implements SpillCodec {
+
+    ObjectOutputStream out;  // Output file stream
+    ObjectInputStream in;    // Input file stream
+
+    public boolean openWrite(String filename) {
+        try {
+            out = new ObjectOutputStream(new FileOutputStream(filename));
+        } catch (IOException io) {
+            System.out.printf("%s:writing the temporary file error\n", filename);
+            return false;
+        }
+        return true;
+    }
+
+    public void writeBatch(Batch batch) throws IOException {
+        out.writeObject(batch);
+    }
+
+    public void closeWrite() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+
+    public boolean openRead(String filename) {
+        try {
+            in = new ObjectInputStream(new FileInputStream(filename));
+        } catch (IOException io) {
+            System.out.printf("%s:reading the temporary file error\n", filename);
+            return false;
+        }
+        return true;
+    }
+
+    public Batch readBatch() throws IOException {
+        try {
+            return (Batch) in.readObject();
+        } catch (EOFException e) {
+            return null;
+        } catch (ClassNotFoundException c) {
+            System.out.println("ObjectSpillCodec: Some error in deserialization");
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void closeRead() throws IOException {
+        if (in != null) {
+            in.close();
+            in = null;
+        }
+    }
+}
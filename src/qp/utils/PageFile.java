@@ -0,0 +1,241 @@
+/**
+ * Binary page format for table and temporary files
+ **/
+
+package qp.utils;
+
+import qp.optimizer.BufferManager;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/**
+ * A page file replaces the stream of serialized Tuple objects with fixed size pages whose
+ * records are laid out from the Schema of the file.
+ *
+ * The file starts with a header of HEADER_SIZE bytes:
+ *   magic (int), version (int), page size in bytes (int), max tuples per page (int),
+ *   number of tuples in the file (long)
+ * The header is followed by the pages. Page i starts at HEADER_SIZE + i * pageSize.
+ *
+ * Every page starts with the number of tuples stored in it (int), followed by the records.
+ * Within a record the attributes are stored in schema order:
+ *   INT    - 4 bytes
+ *   REAL   - 4 bytes (IEEE 754 float bits)
+ *   STRING - 2 byte unsigned length followed by the UTF-8 bytes
+ * The unused space at the end of a page is zero filled.
+ *
+ * Records are decoded into compact tuples (see TupleLayout) whenever the strings fit
+ * in the slots of the schema, so reading a page does not box every field.
+ */
+public class PageFile {
+
+    public static final int MAGIC = 0x51505047;  // "QPPG"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 24;
+    public static final int PAGE_HEADER_SIZE = 4;
+    public static final int DEFAULT_PAGE_SIZE = 4096;
+
+    static final int MAX_STRING_LENGTH = 0xFFFF;
+
+    /**
+     * Deletes a temporary file, and drops its pages and its id from the buffer pool
+     */
+    public static boolean delete(String filename) {
+        BufferPool pool = BufferManager.getBufferPool();
+        if (pool != null) {
+            pool.forget(filename);
+        }
+        return new File(filename).delete();
+    }
+
+    /**
+     * Checks the first bytes of the file to see if it is a page file.
+     * Files written with ObjectOutputStream start with a different magic number,
+     * so this can be used to tell the two formats apart.
+     */
+    public static boolean isPageFile(String filename) {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(filename))) {
+            return in.readInt() == MAGIC;
+        } catch (IOException io) {
+            return false;
+        }
+    }
+
+    /**
+     * Upper bound on the number of tuples placed in a page, based on the tuple size
+     * declared in the schema. This keeps one page of the file equal to one Batch
+     * when the file is scanned with the same page size.
+     */
+    public static int tuplesPerPage(Schema schema, int pageSize) {
+        int tuplesize = schema.getTupleSize();
+        if (tuplesize <= 0) {
+            return Integer.MAX_VALUE;
+        }
+        return Math.max(1, pageSize / tuplesize);
+    }
+
+    /**
+     * Encodes the tuple into the buffer at its current position.
+     * Returns false and leaves the buffer position untouched if the record does not fit.
+     */
+    public static boolean writeTuple(ByteBuffer buf, Tuple tuple, Schema schema) {
+        int start = buf.position();
+        int numCols = schema.getNumCols();
+        for (int i = 0; i < numCols; ++i) {
+            int type = schema.getAttribute(i).getProjectedType();
+            switch (type) {
+                case Attribute.INT:
+                    if (buf.remaining() < 4) {
+                        buf.position(start);
+                        return false;
+                    }
+                    buf.putInt(tuple.getInt(i));
+                    break;
+                case Attribute.REAL:
+                    if (buf.remaining() < 4) {
+                        buf.position(start);
+                        return false;
+                    }
+                    buf.putFloat(tuple.getFloat(i));
+                    break;
+                case Attribute.STRING:
+                    if (tuple.bytes != null && tuple.layout.types[i] == Attribute.STRING) {
+                        // The slot already holds the length and the UTF-8 bytes
+                        int offset = tuple.layout.offsets[i];
+                        int length = 2 + Tuple.readLength(tuple.bytes, offset);
+                        if (buf.remaining() < length) {
+                            buf.position(start);
+                            return false;
+                        }
+                        buf.put(tuple.bytes, offset, length);
+                        break;
+                    }
+                    byte[] bytes = tuple.getString(i).getBytes(StandardCharsets.UTF_8);
+                    if (bytes.length > MAX_STRING_LENGTH) {
+                        System.err.println("PageFile: String attribute is too long to be stored");
+                        System.exit(1);
+                    }
+                    if (buf.remaining() < 2 + bytes.length) {
+                        buf.position(start);
+                        return false;
+                    }
+                    buf.putShort((short) bytes.length);
+                    buf.put(bytes);
+                    break;
+                default:
+                    System.err.println("PageFile: Unknown attribute type " + type);
+                    System.exit(1);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decodes the record at the current position of the buffer into a compact tuple of the layout.
+     * Falls back to a boxed tuple if there is no layout or a string does not fit in its slot.
+     */
+    public static Tuple readTuple(ByteBuffer buf, Schema schema, TupleLayout layout) {
+        if (layout == null) {
+            return readTuple(buf, schema);
+        }
+        int start = buf.position();
+        byte[] bytes = new byte[layout.length];
+        int numCols = layout.getNumCols();
+        for (int i = 0; i < numCols; ++i) {
+            int offset = layout.offsets[i];
+            switch (layout.types[i]) {
+                case Attribute.INT:
+                    buf.get(bytes, offset, 4);
+                    break;
+                case Attribute.REAL:
+                    Tuple.writeInt(bytes, offset, Float.floatToIntBits(buf.getFloat()));
+                    break;
+                default:
+                    int length = buf.getShort() & MAX_STRING_LENGTH;
+                    if (length > layout.capacity(i)) {
+                        buf.position(start);
+                        return readTuple(buf, schema);
+                    }
+                    bytes[offset] = (byte) (length >>> 8);
+                    bytes[offset + 1] = (byte) length;
+                    buf.get(bytes, offset + 2, length);
+            }
+        }
+        return new Tuple(layout, bytes);
+    }
+
+    /**
+     * Decodes the record at the current position of the buffer into a boxed tuple
+     */
+    public static Tuple readTuple(ByteBuffer buf, Schema schema) {
+        int numCols = schema.getNumCols();
+        ArrayList<Object> data = new ArrayList<>(numCols);
+        for (int i = 0; i < numCols; ++i) {
+            int type = schema.getAttribute(i).getProjectedType();
+            switch (type) {
+                case Attribute.INT:
+                    data.add(buf.getInt());
+                    break;
+                case Attribute.REAL:
+                    data.add(buf.getFloat());
+                    break;
+                case Attribute.STRING:
+                    int length = buf.getShort() & MAX_STRING_LENGTH;
+                    data.add(readString(buf, length));
+                    break;
+                default:
+                    System.err.println("PageFile: Unknown attribute type " + type);
+                    System.exit(1);
+            }
+        }
+        return new Tuple(data);
+    }
+
+    static String readString(ByteBuffer buf, int length) {
+        if (buf.hasArray()) {
+            int offset = buf.arrayOffset() + buf.position();
+            buf.position(buf.position() + length);
+            return new String(buf.array(), offset, length, StandardCharsets.UTF_8);
+        }
+        byte[] bytes = new byte[length];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Decodes all the tuples of the page held in the buffer into the batch.
+     * The buffer must be positioned at the start of the page.
+     * Returns the number of tuples decoded.
+     */
+    public static int readPage(ByteBuffer page, Schema schema, Batch into) {
+        return readPage(page, schema, TupleLayout.forSchema(schema), into);
+    }
+
+    /**
+     * Same as readPage, but the tuples are decoded into compact tuples of the layout
+     */
+    public static int readPage(ByteBuffer page, Schema schema, TupleLayout layout, Batch into) {
+        int count = page.getInt();
+        for (int i = 0; i < count; ++i) {
+            into.add(readTuple(page, schema, layout));
+        }
+        return count;
+    }
+
+    /**
+     * Writes the file header at the start of the buffer
+     */
+    static void writeHeader(ByteBuffer buf, int pageSize, int tuplesPerPage, long numTuples) {
+        buf.putInt(MAGIC);
+        buf.putInt(VERSION);
+        buf.putInt(pageSize);
+        buf.putInt(tuplesPerPage);
+        buf.putLong(numTuples);
+    }
+}
@@ -0,0 +1,531 @@
+/**
+ * PageFileReader reads the tuples of a file in the binary page format described in PageFile
+ */
+
+package qp.utils;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import qp.optimizer.BufferManager;
+
+/**
+ * Pages are read through the BufferPool of the BufferManager when there is one,
+ * so pages read again while they are still in the pool do not touch the file.
+ * Files opened with openMapped load the pages of the pool by copying them out of the
+ * mapping. Only without a pool, or when every frame is pinned, are pages decoded
+ * straight from the mapping.
+ *
+ * With a prefetch depth set, a background thread reads the pages ahead of the sequential
+ * reads into a bounded queue of that many pages, so the file is read while the caller
+ * works on the current page. Only readNextPage and readNextVectorPage use the queue.
+ * The readers share one pool of daemon threads, so opening or rewinding a file does not
+ * start a new thread.
+ *
+ * A PageFilter makes the sequential reads skip the pages it rules out.
+ */
+public class PageFileReader implements PageStore {
+
+    /** Threads reading ahead for every reader, idle threads are kept for a minute **/
+    static final ExecutorService PREFETCHERS = Executors.newCachedThreadPool(task -> {
+        Thread thread = new Thread(task, "prefetch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    final String filename;    // Filename to read from
+    final Schema schema;      // Schema of the tuples in the file
+    final TupleLayout layout; // Layout of the compact tuples decoded from the file
+
+    FileChannel in;           // Input file channel
+    ByteBuffer page;          // Buffer the pages are read into, reused for every page
+    int pageSize;             // Number of bytes per page, read from the header
+    int tuplesPerPage;        // Maximum number of tuples per page, read from the header
+    long numTuples;           // Number of tuples in the file, read from the header
+    int numPages;             // Number of pages in the file
+    int nextPage = 0;         // Page number of the next page to be read sequentially
+
+    MappedByteBuffer mapped;  // Mapping of the current segment of the file, if opened with openMapped
+    long segmentStart;        // File offset at which the mapped segment starts, guarded by this with mapped
+    int pagesPerSegment;      // Number of pages covered by one mapped segment
+
+    BufferPool pool;          // Pool the pages are read through, null to read them directly
+    int fileId;               // Id of the file in the pool
+    int pinnedFrame = -1;     // Frame of the page being decoded, -1 if none is pinned
+
+    int prefetchDepth = 0;    // Number of pages read ahead, 0 to read every page on demand
+    Future<?> prefetcher;     // Task reading the pages ahead, null if not prefetching
+    volatile boolean stopPrefetch;                    // Asks the prefetcher to stop
+    BlockingQueue<ByteBuffer> prefetched;             // Pages read ahead, in page order
+    BlockingQueue<ByteBuffer> freeBuffers;            // Buffers the prefetcher can read into
+
+    PageFilter filter;        // Pages skipped by sequential reads, null to read every page
+    int pagesSkipped = 0;     // Number of pages skipped because of the filter
+
+    Batch inBatch;            // Page decoded for tuple at a time reading
+    int readCursor = 0;       // Cursor within inBatch
+
+    public PageFileReader(String filename, Schema schema) {
+        this.filename = filename;
+        this.schema = schema;
+        this.layout = TupleLayout.forSchema(schema);
+    }
+
+    public String getFileName() {
+        return filename;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public int getTuplesPerPage() {
+        return tuplesPerPage;
+    }
+
+    public long getNumTuples() {
+        return numTuples;
+    }
+
+    public int getNumPages() {
+        return numPages;
+    }
+
+    /**
+     * Sets the number of pages read ahead of the sequential reads by a background thread.
+     * Must be called before the file is opened, 0 turns prefetching off.
+     */
+    public void setPrefetch(int depth) {
+        prefetchDepth = Math.max(0, depth);
+    }
+
+    /**
+     * Sets the filter of the pages read by readNextPage, readNextVectorPage and next.
+     * Can be set once the file is open, as long as no page has been read yet.
+     */
+    public void setPageFilter(PageFilter filter) {
+        boolean prefetching = prefetcher != null;
+        haltPrefetcher();
+        this.filter = filter;
+        if (prefetching) {
+            startPrefetch();
+        }
+    }
+
+    public int getPagesSkipped() {
+        return pagesSkipped;
+    }
+
+    // Returns the first page from pageNo on that is not ruled out by the filter
+    private int nextMatchingPage(int pageNo) {
+        if (filter != null) {
+            while (pageNo < numPages && !filter.mayMatch(pageNo)) {
+                pageNo++;
+            }
+        }
+        return pageNo;
+    }
+
+    // Opens the file and reads the header
+    public boolean open() {
+        try {
+            in = new RandomAccessFile(filename, "r").getChannel();
+            ByteBuffer header = ByteBuffer.allocate(PageFile.HEADER_SIZE);
+            while (header.hasRemaining()) {
+                if (in.read(header) < 0) {
+                    break;
+                }
+            }
+            header.flip();
+            if (header.remaining() < PageFile.HEADER_SIZE || header.getInt() != PageFile.MAGIC) {
+                System.out.printf("%s:not a page file\n", filename);
+                in.close();
+                return false;
+            }
+            if (header.getInt() != PageFile.VERSION) {
+                System.out.printf("%s:unsupported page file version\n", filename);
+                in.close();
+                return false;
+            }
+            pageSize = header.getInt();
+            tuplesPerPage = header.getInt();
+            numTuples = header.getLong();
+            numPages = (int) ((in.size() - PageFile.HEADER_SIZE) / pageSize);
+        } catch (IOException io) {
+            System.out.printf("%s:reading the page file error\n", filename);
+            return false;
+        }
+        page = ByteBuffer.allocateDirect(pageSize);
+        pool = BufferManager.getBufferPool();
+        if (pool != null) {
+            fileId = pool.fileId(filename);
+        }
+        nextPage = 0;
+        pagesSkipped = 0;
+        inBatch = null;
+        readCursor = 0;
+        startPrefetch();
+        return true;
+    }
+
+    /**
+     * Opens the file and memory maps it instead of reading the pages through the channel.
+     * Pages are then copied out of the mapping instead of read through the channel,
+     * and decoded directly from it when there is no pool to copy them into.
+     * A mapping cannot be larger than 2GB, so bigger files are mapped one segment at a time.
+     */
+    public boolean openMapped() {
+        int depth = prefetchDepth;
+        prefetchDepth = 0;
+        boolean opened = open();
+        prefetchDepth = depth;
+        if (!opened) {
+            return false;
+        }
+        pagesPerSegment = Math.max(1, Integer.MAX_VALUE / pageSize);
+        if (!mapSegment(0)) {
+            return false;
+        }
+        startPrefetch();
+        return true;
+    }
+
+    // Maps the segment of the file that holds the given page
+    private synchronized boolean mapSegment(int pageNo) {
+        segmentStart = PageFile.HEADER_SIZE + (long) (pageNo / pagesPerSegment) * pagesPerSegment * pageSize;
+        try {
+            long length = Math.min((long) pagesPerSegment * pageSize, in.size() - segmentStart);
+            mapped = in.map(FileChannel.MapMode.READ_ONLY, segmentStart, Math.max(0, length));
+        } catch (IOException io) {
+            System.out.printf("%s:mapping the page file error\n", filename);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Reads the given page and decodes its tuples into the batch.
+     * Returns the number of tuples decoded.
+     */
+    public int readPage(int pageNo, Batch into) {
+        try {
+            return PageFile.readPage(pageBuffer(pageNo), schema, layout, into);
+        } finally {
+            releasePage();
+        }
+    }
+
+    /**
+     * Reads the given page and appends its records as rows of the vector batch.
+     * Returns the number of rows decoded.
+     */
+    public int readVectorPage(int pageNo, VectorBatch into) {
+        try {
+            return into.appendPage(pageBuffer(pageNo));
+        } finally {
+            releasePage();
+        }
+    }
+
+    /**
+     * Returns a buffer positioned at the start of the given page.
+     * If the page is pinned in the pool, releasePage must be called once it is decoded.
+     */
+    private ByteBuffer pageBuffer(int pageNo) {
+        if (pool != null) {
+            int frame = pool.pin(fileId, pageNo, this);
+            if (frame != -1) {
+                pinnedFrame = frame;
+                return pool.getPage(frame);
+            }
+        }
+        /** Every frame of the pool is pinned, read the page from the mapping or into our own buffer **/
+        if (mapped != null) {
+            return mappedView(pageNo);
+        }
+        page.clear();
+        try {
+            loadPage(pageNo, page);
+        } catch (IOException io) {
+            System.out.printf("%s:reading the page file error\n", filename);
+            System.exit(1);
+        }
+        page.flip();
+        return page;
+    }
+
+    /**
+     * Returns a view of the page in the mapping, mapping its segment first if needed.
+     * The prefetcher and the caller both map segments, so the segment is checked and
+     * switched under the lock.
+     */
+    private synchronized ByteBuffer mappedView(int pageNo) {
+        long offset = PageFile.HEADER_SIZE + (long) pageNo * pageSize;
+        if (offset < segmentStart || offset + pageSize > segmentStart + mapped.capacity()) {
+            if (!mapSegment(pageNo)) {
+                System.exit(1);
+            }
+        }
+        ByteBuffer view = mapped.duplicate();
+        view.position((int) (offset - segmentStart));
+        view.limit(view.position() + pageSize);
+        return view;
+    }
+
+    // Whether pages are decoded straight from the mapping rather than from a copy
+    private boolean decodesMapped() {
+        return mapped != null && pool == null;
+    }
+
+    private void releasePage() {
+        if (pinnedFrame != -1) {
+            pool.unpin(pinnedFrame, false);
+            pinnedFrame = -1;
+        }
+    }
+
+    public void loadPage(int pageNo, ByteBuffer into) throws IOException {
+        if (mapped != null) {
+            into.put(mappedView(pageNo));
+            return;
+        }
+        long offset = PageFile.HEADER_SIZE + (long) pageNo * pageSize;
+        int start = into.position();
+        while (into.hasRemaining()) {
+            if (in.read(into, offset + into.position() - start) < 0) {
+                break;
+            }
+        }
+    }
+
+    public void storePage(int pageNo, ByteBuffer from) throws IOException {
+        throw new IOException(filename + ": pages are never written through a reader");
+    }
+
+    /**
+     * Starts the thread reading the pages ahead from nextPage, if a prefetch depth is set.
+     * The thread only uses positional reads, pinned pages are copied out of the pool
+     * straight away, so it never holds a frame while its page waits in the queue.
+     * Pages decoded straight from a mapping are touched so that they are faulted in by the thread.
+     */
+    private void startPrefetch() {
+        /** Reading a single page ahead is not worth a thread **/
+        if (prefetchDepth == 0 || numPages - nextPage <= 1) {
+            return;
+        }
+        stopPrefetch = false;
+        prefetched = new ArrayBlockingQueue<>(prefetchDepth);
+        freeBuffers = new ArrayBlockingQueue<>(prefetchDepth + 1);
+        if (!decodesMapped()) {
+            /** One more buffer than the depth, for the page being decoded **/
+            for (int i = 0; i <= prefetchDepth; ++i) {
+                freeBuffers.add(ByteBuffer.allocate(pageSize));
+            }
+        }
+        final int firstPage = nextPage;
+        prefetcher = PREFETCHERS.submit(() -> {
+            for (int pageNo = nextMatchingPage(firstPage); pageNo < numPages && !stopPrefetch;
+                 pageNo = nextMatchingPage(pageNo + 1)) {
+                ByteBuffer buf = decodesMapped() ? touch(mappedView(pageNo)) : fetchPage(pageNo);
+                if (buf == null || !offer(prefetched, buf)) {
+                    return;
+                }
+            }
+        });
+    }
+
+    // Reads the page into a free buffer, through the pool if there is one
+    private ByteBuffer fetchPage(int pageNo) {
+        ByteBuffer buf = null;
+        try {
+            while (buf == null && !stopPrefetch) {
+                buf = freeBuffers.poll(10, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException ie) {
+            return null;
+        }
+        if (buf == null) {
+            return null;
+        }
+        buf.clear();
+        int frame = pool == null ? -1 : pool.pin(fileId, pageNo, this);
+        if (frame != -1) {
+            buf.put(pool.getPage(frame));
+            pool.unpin(frame, false);
+        } else {
+            try {
+                loadPage(pageNo, buf);
+            } catch (IOException io) {
+                System.out.printf("%s:reading the page file error\n", filename);
+                System.exit(1);
+            }
+        }
+        buf.flip();
+        return buf;
+    }
+
+    // Reads one byte of every 4KB of the mapped page so that it is brought into memory
+    private static ByteBuffer touch(ByteBuffer view) {
+        for (int i = view.position(); i < view.limit(); i += 4096) {
+            view.get(i);
+        }
+        return view;
+    }
+
+    // Puts the page into the queue, waiting for room unless the prefetcher is stopped
+    private boolean offer(BlockingQueue<ByteBuffer> queue, ByteBuffer buf) {
+        try {
+            while (!stopPrefetch) {
+                if (queue.offer(buf, 10, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            }
+        } catch (InterruptedException ie) {
+            return false;
+        }
+        return false;
+    }
+
+    /**
+     * Takes the next page read ahead by the prefetcher, which is always page nextPage
+     * once the pages skipped by the filter are passed over
+     */
+    private ByteBuffer takePrefetched() {
+        try {
+            return prefetched.take();
+        } catch (InterruptedException ie) {
+            System.out.printf("%s:interrupted while reading ahead\n", filename);
+            System.exit(1);
+            return null;
+        }
+    }
+
+    // Hands a decoded page back to the prefetcher
+    private void recycle(ByteBuffer buf) {
+        if (!decodesMapped()) {
+            freeBuffers.offer(buf);
+        }
+    }
+
+    /**
+     * Stops the prefetcher and waits for it, the pages it read ahead are dropped.
+     * The task is not cancelled with an interrupt, as that would close the file channel.
+     */
+    private void haltPrefetcher() {
+        if (prefetcher == null) {
+            return;
+        }
+        stopPrefetch = true;
+        try {
+            prefetcher.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ee) {
+            System.out.printf("%s:reading ahead failed: %s\n", filename, ee.getCause());
+            System.exit(1);
+        }
+        prefetcher = null;
+        prefetched = null;
+        freeBuffers = null;
+    }
+
+    /**
+     * Reads the next page of the file into a new Batch.
+     * Returns null once all the pages have been read.
+     */
+    public Batch readNextPage(int batchsize) {
+        return readNextPage(new Batch(batchsize));
+    }
+
+    /**
+     * Reads the next page of the file into the given empty Batch, which is returned.
+     * Returns null once all the pages have been read.
+     */
+    public Batch readNextPage(Batch batch) {
+        int pageNo = nextMatchingPage(nextPage);
+        pagesSkipped += pageNo - nextPage;
+        nextPage = pageNo;
+        if (nextPage >= numPages) {
+            return null;
+        }
+        if (prefetcher != null) {
+            ByteBuffer buf = takePrefetched();
+            PageFile.readPage(buf, schema, layout, batch);
+            recycle(buf);
+        } else {
+            readPage(nextPage, batch);
+        }
+        nextPage++;
+        return batch;
+    }
+
+    /**
+     * Reads the next page of the file into a new VectorBatch.
+     * Returns null once all the pages have been read.
+     */
+    public VectorBatch readNextVectorPage(int batchsize) {
+        int pageNo = nextMatchingPage(nextPage);
+        pagesSkipped += pageNo - nextPage;
+        nextPage = pageNo;
+        if (nextPage >= numPages) {
+            return null;
+        }
+        VectorBatch batch = new VectorBatch(batchsize, schema);
+        if (prefetcher != null) {
+            ByteBuffer buf = takePrefetched();
+            batch.appendPage(buf);
+            recycle(buf);
+        } else {
+            readVectorPage(nextPage, batch);
+        }
+        nextPage++;
+        return batch;
+    }
+
+    // Returns the next tuple of the file or null at the end of the file
+    public Tuple next() {
+        while (inBatch == null || readCursor >= inBatch.size()) {
+            inBatch = readNextPage(Math.min(tuplesPerPage, pageSize));
+            readCursor = 0;
+            if (inBatch == null) {
+                return null;
+            }
+        }
+        return inBatch.get(readCursor++);
+    }
+
+    // Restarts sequential reading from the first page
+    public void rewind() {
+        haltPrefetcher();
+        nextPage = 0;
+        inBatch = null;
+        readCursor = 0;
+        startPrefetch();
+    }
+
+    public boolean close() {
+        haltPrefetcher();
+        inBatch = null;
+        page = null;
+        mapped = null;
+        if (in != null) {
+            try {
+                in.close();
+                in = null;
+            } catch (IOException io) {
+                System.out.printf("%s:closing the page file error\n", filename);
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,204 @@
+/**
+ * PageFileWriter writes tuples to a file in the binary page format described in PageFile
+ */
+
+package qp.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import qp.optimizer.BufferManager;
+
+/**
+ * Full pages are handed to the BufferPool of the BufferManager when there is one.
+ * They stay in the pool as dirty pages until they are evicted or the writer is closed,
+ * so a temporary file that is read back soon after it is written may never be read from disk.
+ */
+public class PageFileWriter implements PageStore {
+
+    final String filename;    // Filename to write to
+    final Schema schema;      // Schema of the tuples in the file
+    final int pageSize;       // Number of bytes per page
+    final int tuplesPerPage;  // Maximum number of tuples per page
+
+    FileChannel out;          // Output file channel
+    ByteBuffer page;          // Page currently being filled, reused for every page
+    int pageCount = 0;        // Number of tuples in the current page
+    int numPage = 0;          // Number of pages written
+    long numTuple = 0;        // Number of tuples written
+
+    BufferPool pool;          // Pool the pages are written through, null to write them directly
+    int fileId;               // Id of the file in the pool
+
+    String zonefile;          // Sidecar file the zone map is written to, null for no zone map
+    ZoneMap.Builder zones;    // Bounds of the pages written so far
+
+    public PageFileWriter(String filename, Schema schema, int pageSize) {
+        this.filename = filename;
+        this.schema = schema;
+        this.pageSize = pageSize;
+        this.tuplesPerPage = PageFile.tuplesPerPage(schema, pageSize);
+    }
+
+    public int getNumPage() {
+        return numPage;
+    }
+
+    public long getNumTuple() {
+        return numTuple;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public String getFileName() {
+        return filename;
+    }
+
+    /**
+     * Asks the writer to record the zone map of the file and write it to the given
+     * sidecar file on close. Must be called before the file is opened.
+     */
+    public void setZoneMap(String zonefile) {
+        this.zonefile = zonefile;
+    }
+
+    // Creates (or truncates) the file and writes a placeholder header
+    public boolean open() {
+        try {
+            RandomAccessFile raf = new RandomAccessFile(filename, "rw");
+            raf.setLength(0);
+            out = raf.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(PageFile.HEADER_SIZE);
+            PageFile.writeHeader(header, pageSize, tuplesPerPage, 0);
+            header.flip();
+            while (header.hasRemaining()) {
+                out.write(header);
+            }
+        } catch (IOException io) {
+            System.out.printf("%s:writing the page file error\n", filename);
+            return false;
+        }
+        pool = BufferManager.getBufferPool();
+        if (pool != null) {
+            /** Pages of an earlier version of the file are no longer valid **/
+            fileId = pool.fileId(filename);
+            pool.invalidate(fileId);
+        }
+        if (zonefile != null) {
+            /** The zone map of the previous contents must not be used until the new one is written **/
+            new File(zonefile).delete();
+            zones = new ZoneMap.Builder(schema);
+        }
+        page = ByteBuffer.allocateDirect(pageSize);
+        page.position(PageFile.PAGE_HEADER_SIZE);
+        pageCount = 0;
+        numPage = 0;
+        numTuple = 0;
+        return true;
+    }
+
+    // Appends a tuple to the current page, the page is written out once it is full
+    public boolean next(Tuple tuple) {
+        if (pageCount == tuplesPerPage) {
+            writePage();
+        }
+        if (!PageFile.writeTuple(page, tuple, schema)) {
+            if (pageCount == 0) {
+                System.out.printf("%s:tuple does not fit in a page of %d bytes\n", filename, pageSize);
+                System.exit(1);
+            }
+            writePage();
+            PageFile.writeTuple(page, tuple, schema);
+        }
+        if (zones != null) {
+            zones.add(tuple);
+        }
+        ++pageCount;
+        ++numTuple;
+        return true;
+    }
+
+    // Appends all the tuples of the batch
+    public boolean write(Batch batch) {
+        for (int i = 0; i < batch.size(); ++i) {
+            next(batch.get(i));
+        }
+        return true;
+    }
+
+    // Helper method to write the current page to the file and reset the buffer
+    private void writePage() {
+        page.putInt(0, pageCount);
+        while (page.hasRemaining()) {
+            page.put((byte) 0);
+        }
+        page.flip();
+        try {
+            int frame = pool == null ? -1 : pool.pinNew(fileId, numPage, this);
+            if (frame != -1) {
+                pool.getPage(frame).put(page);
+                pool.unpin(frame, true);
+            } else {
+                storePage(numPage, page);
+            }
+        } catch (IOException io) {
+            System.out.printf("%s:writing the page file error\n", filename);
+            System.out.println(io);
+            System.exit(1);
+        }
+        if (zones != null) {
+            zones.endPage();
+        }
+        page.clear();
+        page.position(PageFile.PAGE_HEADER_SIZE);
+        pageCount = 0;
+        ++numPage;
+    }
+
+    public void loadPage(int pageNo, ByteBuffer into) throws IOException {
+        throw new IOException(filename + ": pages are never read through a writer");
+    }
+
+    public void storePage(int pageNo, ByteBuffer from) throws IOException {
+        long offset = PageFile.HEADER_SIZE + (long) pageNo * pageSize;
+        int start = from.position();
+        while (from.hasRemaining()) {
+            out.write(from, offset + from.position() - start);
+        }
+    }
+
+    // Flushes the last page and fills in the header
+    public boolean close() {
+        if (out == null) {
+            return true;
+        }
+        if (pageCount > 0) {
+            writePage();
+        }
+        if (pool != null) {
+            pool.flush(fileId);
+        }
+        try {
+            ByteBuffer header = ByteBuffer.allocate(PageFile.HEADER_SIZE);
+            PageFile.writeHeader(header, pageSize, tuplesPerPage, numTuple);
+            header.flip();
+            out.write(header, 0);
+            out.close();
+            out = null;
+            if (zones != null) {
+                zones.write(zonefile, numTuple);
+                zones = null;
+            }
+        } catch (IOException io) {
+            System.out.printf("%s:writing the page file error\n", filename);
+            System.out.println(io);
+            System.exit(1);
+        }
+        page = null;
+        return true;
+    }
+}
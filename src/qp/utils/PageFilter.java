@@ -0,0 +1,15 @@
+/**
+ * Decides which pages of a file have to be read
+ */
+
+package qp.utils;
+
+/**
+ * Used by PageFileReader to skip pages during sequential reads, for example the pages
+ * in which the ZoneMap shows that no tuple can satisfy a selection.
+ */
+public interface PageFilter {
+
+    // Whether the page may hold tuples the reader is interested in
+    boolean mayMatch(int pageNo);
+}
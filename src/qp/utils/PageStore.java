@@ -0,0 +1,23 @@
+/**
+ * File whose pages are cached in the BufferPool
+ */
+
+package qp.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The pool calls back into the store to read a missing page and to write back
+ * a dirty page that is evicted or flushed.
+ */
+public interface PageStore {
+
+    int getPageSize();
+
+    // Reads the page from the file into the buffer, which has room for getPageSize() bytes
+    void loadPage(int pageNo, ByteBuffer into) throws IOException;
+
+    // Writes the page held in the buffer, from position to limit, back to the file
+    void storePage(int pageNo, ByteBuffer from) throws IOException;
+}
@@ -0,0 +1,44 @@
+/**
+ * Page replacement policy of the BufferPool
+ */
+
+package qp.utils;
+
+/**
+ * The buffer pool tells the policy about every access to a frame and asks it for a
+ * victim when a page has to be brought in and no frame is free. Only frames that
+ * are not pinned (pinCount of 0) may be chosen as victims.
+ */
+public interface ReplacementPolicy {
+
+    // Called once by the pool before any other method
+    void init(int numFrames);
+
+    // The page in the frame was pinned
+    void accessed(int frame);
+
+    // The page in the frame was dropped, the frame is empty
+    void removed(int frame);
+
+    // Returns an unpinned frame to evict, or -1 if every frame is pinned
+    int victim(int[] pinCount);
+
+    /**
+     * Returns the policy with the given name: clock, lru or lru-k (for example lru-2)
+     */
+    static ReplacementPolicy forName(String name) {
+        String policy = name.toLowerCase();
+        if (policy.equals("clock")) {
+            return new ClockPolicy();
+        } else if (policy.equals("lru")) {
+            return new LRUPolicy();
+        } else if (policy.startsWith("lru-")) {
+            return new LRUKPolicy(Integer.parseInt(policy.substring(4)));
+        } else if (policy.equals("lruk")) {
+            return new LRUKPolicy(2);
+        }
+        System.out.println("Unknown replacement policy " + name);
+        System.exit(1);
+        return null;
+    }
+}
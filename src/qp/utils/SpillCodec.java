@@ -0,0 +1,48 @@
+/**
+ * SpillCodec decides how batches are laid out in temporary files
+ */
+
+package qp.utils;
+
+import java.io.IOException;
+
+/**
+ * A codec writes batches to a temporary file and reads them back in the same order.
+ * An instance is used either for writing or for reading a single file at a time.
+ */
+public interface SpillCodec {
+
+    // Creates (or truncates) the file for writing
+    boolean openWrite(String filename);
+
+    // Appends all the tuples of the batch to the file
+    void writeBatch(Batch batch) throws IOException;
+
+    void closeWrite() throws IOException;
+
+    // Opens the file for reading from the start
+    boolean openRead(String filename);
+
+    // Returns the next batch of the file, or null once the end of the file is reached
+    Batch readBatch() throws IOException;
+
+    void closeRead() throws IOException;
+
+    // Sets the number of pages read ahead by openRead, codecs that cannot read ahead ignore it
+    default void setPrefetch(int depth) {
+    }
+
+    /**
+     * Chooses the codec for the given schema. Tuples whose attribute types are all known
+     * are written in the binary page format, otherwise (or if the schema is not known)
+     * the batches are serialized as objects.
+     * @param schema Schema of the tuples to be written, may be null
+     * @param batchsize Number of tuples per batch returned by readBatch
+     */
+    static SpillCodec forSchema(Schema schema, int batchsize) {
+        if (BinarySpillCodec.supports(schema)) {
+            return new BinarySpillCodec(schema, batchsize);
+        }
+        return new ObjectSpillCodec();
+    }
+}
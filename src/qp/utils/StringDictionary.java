@@ -0,0 +1,109 @@
+/**
+ * Dictionary of the strings of a column in a VectorBatch
+ **/
+
+package qp.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Every distinct string of the column gets a code, which is its position in the dictionary.
+ * The strings are looked up by their UTF-8 bytes, so a page can be decoded into codes
+ * without creating a String per row. The String of a code is only created when asked for.
+ */
+public class StringDictionary {
+
+    byte[][] utf8 = new byte[8][];     // UTF-8 bytes of every code
+    String[] strings = new String[8];  // Decoded string of every code, filled in lazily
+    int[] hashes = new int[8];         // Hash of the bytes of every code
+    int size = 0;                      // Number of codes
+
+    int[] table = newTable(16);        // Open addressing table from hash slot to code, -1 if empty
+
+    private static int[] newTable(int length) {
+        int[] table = new int[length];
+        Arrays.fill(table, -1);
+        return table;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public String get(int code) {
+        String s = strings[code];
+        if (s == null) {
+            s = new String(utf8[code], StandardCharsets.UTF_8);
+            strings[code] = s;
+        }
+        return s;
+    }
+
+    public byte[] getBytes(int code) {
+        return utf8[code];
+    }
+
+    /**
+     * Returns the code of the bytes, adding them to the dictionary if they are new
+     */
+    public int encode(byte[] bytes, int offset, int length) {
+        int hash = 1;
+        for (int k = 0; k < length; ++k) {
+            hash = 31 * hash + bytes[offset + k];
+        }
+        int mask = table.length - 1;
+        int slot = hash & mask;
+        while (table[slot] != -1) {
+            int code = table[slot];
+            if (hashes[code] == hash && matches(utf8[code], bytes, offset, length)) {
+                return code;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (size == utf8.length) {
+            utf8 = Arrays.copyOf(utf8, size * 2);
+            strings = Arrays.copyOf(strings, size * 2);
+            hashes = Arrays.copyOf(hashes, size * 2);
+        }
+        int code = size++;
+        utf8[code] = Arrays.copyOfRange(bytes, offset, offset + length);
+        hashes[code] = hash;
+        table[slot] = code;
+        if (size * 2 > table.length) {
+            rehash();
+        }
+        return code;
+    }
+
+    public int encode(String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        int code = encode(bytes, 0, bytes.length);
+        strings[code] = s;
+        return code;
+    }
+
+    private static boolean matches(byte[] entry, byte[] bytes, int offset, int length) {
+        if (entry.length != length) {
+            return false;
+        }
+        for (int k = 0; k < length; ++k) {
+            if (entry[k] != bytes[offset + k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rehash() {
+        table = newTable(table.length * 2);
+        int mask = table.length - 1;
+        for (int code = 0; code < size; ++code) {
+            int slot = hashes[code] & mask;
+            while (table[slot] != -1) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = code;
+        }
+    }
+}
@@ -6,28 +6,163 @@ package qp.utils;
 
 import java.io.*;
 import java.lang.StringBuilder;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 /**
  * Tuple - a simple object which holds an ArrayList of data
+ *
+ * Tuples read from page files are stored compactly instead: all the fields are kept in
+ * one byte array laid out by a TupleLayout, and are only boxed when they are asked for
+ * through data() or dataAt(). Comparisons, hashing and joins of compact tuples work on
+ * the bytes directly.
  */
 public class Tuple implements Serializable {
 
-    public ArrayList<Object> _data;
+    private static final long serialVersionUID = -3943676663682369063L;
+
+    public ArrayList<Object> _data;       // Boxed fields, null until needed for a compact tuple
+    transient TupleLayout layout;         // Layout of the bytes of a compact tuple
+    transient byte[] bytes;               // Fields of a compact tuple, null for a boxed tuple
 
     public Tuple(ArrayList<Object> d) {
         _data = d;
     }
 
+    public Tuple(TupleLayout layout, byte[] bytes) {
+        this.layout = layout;
+        this.bytes = bytes;
+    }
+
     /**
      * Accessor for data
+     * The list is shared with the tuple and should not be modified.
      */
     public ArrayList<Object> data() {
+        if (_data == null) {
+            int numCols = layout.getNumCols();
+            ArrayList<Object> data = new ArrayList<>(numCols);
+            for (int i = 0; i < numCols; ++i) {
+                data.add(dataAt(i));
+            }
+            _data = data;
+        }
         return _data;
     }
 
     public Object dataAt(int index) {
-        return _data.get(index);
+        if (_data != null) {
+            return _data.get(index);
+        }
+        switch (layout.types[index]) {
+            case Attribute.INT:
+                return getInt(index);
+            case Attribute.REAL:
+                return getFloat(index);
+            default:
+                return getString(index);
+        }
+    }
+
+    public boolean isCompact() {
+        return bytes != null;
+    }
+
+    public int getInt(int index) {
+        if (bytes != null) {
+            return readInt(bytes, layout.offsets[index]);
+        }
+        return (Integer) _data.get(index);
+    }
+
+    public float getFloat(int index) {
+        if (bytes != null) {
+            return Float.intBitsToFloat(readInt(bytes, layout.offsets[index]));
+        }
+        return (Float) _data.get(index);
+    }
+
+    public String getString(int index) {
+        if (bytes != null) {
+            int offset = layout.offsets[index];
+            return new String(bytes, offset + 2, readLength(bytes, offset), StandardCharsets.UTF_8);
+        }
+        return (String) _data.get(index);
+    }
+
+    static int readInt(byte[] b, int offset) {
+        return ((b[offset] & 0xFF) << 24) | ((b[offset + 1] & 0xFF) << 16)
+                | ((b[offset + 2] & 0xFF) << 8) | (b[offset + 3] & 0xFF);
+    }
+
+    static void writeInt(byte[] b, int offset, int value) {
+        b[offset] = (byte) (value >>> 24);
+        b[offset + 1] = (byte) (value >>> 16);
+        b[offset + 2] = (byte) (value >>> 8);
+        b[offset + 3] = (byte) value;
+    }
+
+    static int readLength(byte[] b, int offset) {
+        return ((b[offset] & 0xFF) << 8) | (b[offset + 1] & 0xFF);
+    }
+
+    private int numCols() {
+        return bytes != null ? layout.getNumCols() : _data.size();
+    }
+
+    // Whether the attributes of the two compact tuples are stored the same way
+    private static boolean sameType(Tuple left, Tuple right, int leftIndex, int rightIndex) {
+        return left.bytes != null && right.bytes != null
+                && left.layout.types[leftIndex] == right.layout.types[rightIndex];
+    }
+
+    /**
+     * Checks if the attributes of the two tuples are equal
+     **/
+    static boolean equalAt(Tuple left, Tuple right, int leftIndex, int rightIndex) {
+        if (!sameType(left, right, leftIndex, rightIndex)) {
+            return left.dataAt(leftIndex).equals(right.dataAt(rightIndex));
+        }
+        byte[] lb = left.bytes;
+        byte[] rb = right.bytes;
+        int lo = left.layout.offsets[leftIndex];
+        int ro = right.layout.offsets[rightIndex];
+        int length = 4;
+        if (left.layout.types[leftIndex] == Attribute.STRING) {
+            length = 2 + readLength(lb, lo);
+        }
+        for (int k = 0; k < length; ++k) {
+            if (lb[lo + k] != rb[ro + k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compares two string slots. UTF-8 bytes sort in the same order as the strings
+     * as long as the first difference is between ASCII characters, otherwise the
+     * strings are decoded and compared as usual.
+     */
+    private static int compareStrings(Tuple left, Tuple right, int leftIndex, int rightIndex) {
+        byte[] lb = left.bytes;
+        byte[] rb = right.bytes;
+        int lo = left.layout.offsets[leftIndex];
+        int ro = right.layout.offsets[rightIndex];
+        int llen = readLength(lb, lo);
+        int rlen = readLength(rb, ro);
+        int n = Math.min(llen, rlen);
+        for (int k = 0; k < n; ++k) {
+            int l = lb[lo + 2 + k];
+            int r = rb[ro + 2 + k];
+            if (l != r) {
+                if (l >= 0 && r >= 0) {
+                    return l - r;
+                }
+                return left.getString(leftIndex).compareTo(right.getString(rightIndex));
+            }
+        }
+        return llen - rlen;
     }
 
     /**
@@ -35,12 +170,7 @@ public class Tuple implements Serializable {
      * * before performing actual join operation
      **/
     public boolean checkJoin(Tuple right, int leftindex, int rightindex) {
-        Object leftData = dataAt(leftindex);
-        Object rightData = right.dataAt(rightindex);
-        if (leftData.equals(rightData))
-            return true;
-        else
-            return false;
+        return equalAt(this, right, leftindex, rightindex);
     }
 
     /**
@@ -51,9 +181,7 @@ public class Tuple implements Serializable {
         if (leftindex.size() != rightindex.size())
             return false;
         for (int i = 0; i < leftindex.size(); ++i) {
-            Object leftData = dataAt(leftindex.get(i));
-            Object rightData = right.dataAt(rightindex.get(i));
-            if (!leftData.equals(rightData)) {
+            if (!equalAt(this, right, leftindex.get(i), rightindex.get(i))) {
                 return false;
             }
         }
@@ -77,8 +205,6 @@ public class Tuple implements Serializable {
         if (leftindex.size() != rightindex.size())
             return false;
         for (int i = 0; i < leftindex.size(); ++i) {
-            Object leftData = dataAt(leftindex.get(i));
-            Object rightData = right.dataAt(rightindex.get(i));
             Condition cond = conditions.get(i);
 
             // As long as one of the conditions is false, the checkjoin will fail and return false
@@ -105,12 +231,12 @@ public class Tuple implements Serializable {
                 }
                 break;
             case Condition.EQUAL:
-                if (!leftData.equals(rightData)) {
+                if (!equalAt(this, right, leftindex.get(i), rightindex.get(i))) {
                     return false;
                 }
                 break;
             case Condition.NOTEQUAL:
-                if (leftData.equals(rightData)) {
+                if (equalAt(this, right, leftindex.get(i), rightindex.get(i))) {
                     return false;
                 }
                 break;
@@ -126,8 +252,21 @@ public class Tuple implements Serializable {
      * Joining two tuples without duplicate column elimination
      **/
     public Tuple joinWith(Tuple right) {
-        ArrayList<Object> newData = new ArrayList<>(this.data());
-        newData.addAll(right.data());
+        if (bytes != null && right.bytes != null) {
+            byte[] newBytes = new byte[bytes.length + right.bytes.length];
+            System.arraycopy(bytes, 0, newBytes, 0, bytes.length);
+            System.arraycopy(right.bytes, 0, newBytes, bytes.length, right.bytes.length);
+            return new Tuple(layout.join(right.layout), newBytes);
+        }
+        int leftCols = numCols();
+        int rightCols = right.numCols();
+        ArrayList<Object> newData = new ArrayList<>(leftCols + rightCols);
+        for (int i = 0; i < leftCols; ++i) {
+            newData.add(dataAt(i));
+        }
+        for (int i = 0; i < rightCols; ++i) {
+            newData.add(right.dataAt(i));
+        }
         return new Tuple(newData);
     }
 
@@ -142,6 +281,16 @@ public class Tuple implements Serializable {
      * Comparing tuples in different tables, used for join condition checking
      **/
     public static int compareTuples(Tuple left, Tuple right, int leftIndex, int rightIndex) {
+        if (sameType(left, right, leftIndex, rightIndex)) {
+            switch (left.layout.types[leftIndex]) {
+                case Attribute.INT:
+                    return Integer.compare(left.getInt(leftIndex), right.getInt(rightIndex));
+                case Attribute.REAL:
+                    return Float.compare(left.getFloat(leftIndex), right.getFloat(rightIndex));
+                default:
+                    return compareStrings(left, right, leftIndex, rightIndex);
+            }
+        }
         Object leftdata = left.dataAt(leftIndex);
         Object rightdata = right.dataAt(rightIndex);
         if (leftdata instanceof Integer) {
@@ -167,19 +316,9 @@ public class Tuple implements Serializable {
             return 0;
         }
         for (int i = 0; i < leftIndex.size(); ++i) {
-            Object leftdata = left.dataAt(leftIndex.get(i));
-            Object rightdata = right.dataAt(rightIndex.get(i));
-            if (leftdata.equals(rightdata)) continue;
-            if (leftdata instanceof Integer) {
-                return ((Integer) leftdata).compareTo((Integer) rightdata);
-            } else if (leftdata instanceof String) {
-                return ((String) leftdata).compareTo((String) rightdata);
-            } else if (leftdata instanceof Float) {
-                return ((Float) leftdata).compareTo((Float) rightdata);
-            } else {
-                System.out.println("Tuple: Unknown comparision of the tuples");
-                System.exit(1);
-                return 0;
+            int result = compareTuples(left, right, leftIndex.get(i), rightIndex.get(i));
+            if (result != 0) {
+                return result;
             }
         }
         return 0;
@@ -190,26 +329,66 @@ public class Tuple implements Serializable {
     @Override
     public int hashCode() {
         int hash = 7;
-        for (Object elementdata : _data) {
+        int numCols = numCols();
+        for (int i = 0; i < numCols; ++i) {
+            hash = 31 * hash + hashAt(i);
+        }
+        return hash;
+    }
+
+    /**
+     * Hash of the given attributes, tuples that are equal on them hash alike,
+     * used to hash the join attributes in the hash joins
+     */
+    public int hashOn(ArrayList<Integer> index) {
+        int hash = 7;
+        for (int i = 0; i < index.size(); ++i) {
+            hash = 31 * hash + hashAt(index.get(i));
+        }
+        return hash;
+    }
+
+    /**
+     * Hash of a single attribute, the same as the hashCode of the boxed value
+     * so that compact and boxed tuples with equal data hash alike
+     */
+    int hashAt(int index) {
+        if (bytes == null) {
+            Object elementdata = _data.get(index);
             if (elementdata instanceof Integer) {
-                hash = 31 * hash + (int) elementdata;
+                return (int) elementdata;
             } else if (elementdata instanceof String || elementdata instanceof Float) {
-                hash = 31 * hash + elementdata.hashCode();
+                return elementdata.hashCode();
             } else {
                 System.out.println("Unrecognised tuple type");
                 System.exit(1);
                 return 0;
             }
         }
-
-        return hash;
+        int offset = layout.offsets[index];
+        if (layout.types[index] != Attribute.STRING) {
+            // Float.hashCode is floatToIntBits, which is what is stored for REAL
+            return readInt(bytes, offset);
+        }
+        int length = readLength(bytes, offset);
+        int h = 0;
+        for (int k = 0; k < length; ++k) {
+            int b = bytes[offset + 2 + k];
+            if (b < 0) {
+                return getString(index).hashCode();
+            }
+            h = 31 * h + b;
+        }
+        return h;
     }
 
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
+        int numCols = numCols();
 
-        for (Object o: _data) {
+        for (int i = 0; i < numCols; ++i) {
+            Object o = dataAt(i);
             if (o instanceof Integer) {
                 sb.append(Integer.toString((int) o));
             } else if (o instanceof String) {
@@ -233,11 +412,12 @@ public class Tuple implements Serializable {
         }
         if (o instanceof Tuple) {
             Tuple t = (Tuple) o;
-            if (t._data.size() != this._data.size()) {
+            int numCols = numCols();
+            if (t.numCols() != numCols) {
                 return false;
             }
-            for (int i = 0; i < this._data.size(); i++) {
-                if (!t._data.get(i).equals(this._data.get(i))) {
+            for (int i = 0; i < numCols; i++) {
+                if (!equalAt(t, this, i, i)) {
                     return false;
                 }
             }
@@ -245,4 +425,13 @@ public class Tuple implements Serializable {
         }
         return false;
     }
+
+    /**
+     * Compact tuples are written with their boxed data,
+     * so the serialized form is the same for both representations
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        data();
+        out.defaultWriteObject();
+    }
 }
@@ -0,0 +1,125 @@
+/**
+ * Cache of the tuples read from a file at given offsets
+ */
+
+package qp.utils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the tuples last read from a .tbli file, keyed by their offset in the file,
+ * so that reading the same offset again needs neither a read nor a deserialization.
+ * When the cache is full the least recently used tuple is evicted.
+ *
+ * There is one cache per file, shared by all the operators reading the file.
+ * At most MAX_FILES caches are kept, the least recently used going first, so that
+ * the cached tuples of all the files stay bounded. The cache of a file is dropped
+ * when the file is written again.
+ * The methods are synchronized so that the caches can be shared between threads.
+ */
+public class TupleCache {
+
+    public static final int DEFAULT_CAPACITY = 4096;    // Number of tuples kept per file
+    public static final int MAX_FILES = 8;              // Number of files whose caches are kept
+
+    // Absolute path to cache, least recently used first
+    static final LinkedHashMap<String, TupleCache> caches =
+            new LinkedHashMap<String, TupleCache>(16, 0.75f, true) {
+                protected boolean removeEldestEntry(Map.Entry<String, TupleCache> eldest) {
+                    return size() > MAX_FILES;
+                }
+            };
+
+    final String fileName;
+    final int capacity;
+    final LinkedHashMap<Long, Tuple> tuples;    // Offset to tuple, least recently used first
+
+    long hits = 0;          // Number of reads served from the cache
+    long misses = 0;        // Number of reads which had to go to the file
+
+    public TupleCache(String fileName, int capacity) {
+        this.fileName = fileName;
+        this.capacity = Math.max(1, capacity);
+        tuples = new LinkedHashMap<Long, Tuple>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<Long, Tuple> eldest) {
+                return size() > TupleCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns the cache of the file, creating it on first use. The path is
+     * normalized, so that the names of the same file share its cache.
+     */
+    public static synchronized TupleCache forFile(String fileName) {
+        String path = path(fileName);
+        TupleCache cache = caches.get(path);
+        if (cache == null) {
+            cache = new TupleCache(path, DEFAULT_CAPACITY);
+            caches.put(path, cache);
+        }
+        return cache;
+    }
+
+    /**
+     * Drops the cache of the file, whose tuples are stale once it is written again.
+     * The operators still holding the cache keep it, but no new one shares it.
+     */
+    public static synchronized void invalidate(String fileName) {
+        TupleCache cache = caches.remove(path(fileName));
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+
+    static String path(String fileName) {
+        return new File(fileName).getAbsoluteFile().toPath().normalize().toString();
+    }
+
+    /**
+     * Returns the caches of the files read lately
+     */
+    public static synchronized ArrayList<TupleCache> getCaches() {
+        return new ArrayList<>(caches.values());
+    }
+
+    /**
+     * Returns the tuple at the offset, or null if it is not in the cache
+     */
+    public synchronized Tuple get(long offset) {
+        Tuple tuple = tuples.get(offset);
+        if (tuple == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return tuple;
+    }
+
+    public synchronized void put(long offset, Tuple tuple) {
+        tuples.put(offset, tuple);
+    }
+
+    public synchronized void clear() {
+        tuples.clear();
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * Layout of the fields of a compact tuple
+ **/
+
+package qp.utils;
+
+/**
+ * A compact Tuple stores all its fields in one byte array. The layout gives every
+ * attribute of the schema a fixed slot in that array:
+ *   INT    - 4 bytes, big endian
+ *   REAL   - 4 bytes, the Float.floatToIntBits of the value
+ *   STRING - 2 byte unsigned length followed by up to attrsize UTF-8 bytes
+ * Unused bytes of a string slot are left zero, so two equal values always have
+ * the same bytes. Strings longer than their slot cannot be stored in the layout.
+ */
+public final class TupleLayout {
+
+    final int[] types;     // Projected type of every attribute
+    final int[] offsets;   // Offset of every slot in the byte array
+    final int[] widths;    // Number of bytes of every slot
+    final int length;      // Number of bytes of a tuple
+
+    private volatile TupleLayout[] lastJoin;  // {right layout, joined layout} of the last join
+
+    private TupleLayout(int[] types, int[] widths) {
+        this.types = types;
+        this.widths = widths;
+        this.offsets = new int[types.length];
+        int offset = 0;
+        for (int i = 0; i < types.length; ++i) {
+            offsets[i] = offset;
+            offset += widths[i];
+        }
+        this.length = offset;
+    }
+
+    /**
+     * Builds the layout of the schema.
+     * Returns null if the schema has an attribute type which cannot be stored compactly.
+     */
+    public static TupleLayout forSchema(Schema schema) {
+        if (schema == null || schema.getNumCols() == 0) {
+            return null;
+        }
+        int numCols = schema.getNumCols();
+        int[] types = new int[numCols];
+        int[] widths = new int[numCols];
+        for (int i = 0; i < numCols; ++i) {
+            Attribute attr = schema.getAttribute(i);
+            types[i] = attr.getProjectedType();
+            switch (types[i]) {
+                case Attribute.INT:
+                case Attribute.REAL:
+                    widths[i] = 4;
+                    break;
+                case Attribute.STRING:
+                    widths[i] = 2 + Math.min(Math.max(attr.getAttrSize(), 0), PageFile.MAX_STRING_LENGTH);
+                    break;
+                default:
+                    return null;
+            }
+        }
+        return new TupleLayout(types, widths);
+    }
+
+    public int getNumCols() {
+        return types.length;
+    }
+
+    public int getType(int index) {
+        return types[index];
+    }
+
+    // Number of string bytes that fit in the slot of the attribute
+    int capacity(int index) {
+        return widths[index] - 2;
+    }
+
+    /**
+     * Layout of the tuples produced by joining a tuple of this layout with one of the right layout.
+     * A join operator joins the same pair of layouts over and over, so the last result is kept.
+     */
+    public TupleLayout join(TupleLayout right) {
+        TupleLayout[] last = lastJoin;
+        if (last != null && last[0] == right) {
+            return last[1];
+        }
+        int numCols = types.length + right.types.length;
+        int[] newTypes = new int[numCols];
+        int[] newWidths = new int[numCols];
+        System.arraycopy(types, 0, newTypes, 0, types.length);
+        System.arraycopy(right.types, 0, newTypes, types.length, right.types.length);
+        System.arraycopy(widths, 0, newWidths, 0, widths.length);
+        System.arraycopy(right.widths, 0, newWidths, widths.length, right.widths.length);
+        TupleLayout joined = new TupleLayout(newTypes, newWidths);
+        lastJoin = new TupleLayout[]{right, joined};
+        return joined;
+    }
+}
@@ -13,6 +13,7 @@ public class TupleReader {
 
     final String filename;    // Filename to write to
     final int batchsize;        // Number of tuples per out batch
+    final SpillCodec codec;     // Layout of the batches in the file
 
     Batch inBatch;                            // Currently buffered input
     int readCursor = 0;                    // Cursor within inBatch
@@ -20,13 +21,19 @@ public class TupleReader {
     int numBatch = 0;                        // Number of batch read
     int numTuple = 0;                        // Number of tuples read
     Tuple peekTuple = null;            // The next tuple of the batch (if peeked)
-    ObjectInputStream in;                // Input file stream
+    boolean isOpen = false;            // Whether the input file is open
 
     // filename: Filename of the output file to read from
     // batchsize: Number of tuples per batch
     public TupleReader(String filename, int batchsize) {
+        this(filename, batchsize, null);
+    }
+
+    // schema: Schema of the tuples, must be the schema the file was written with
+    public TupleReader(String filename, int batchsize, Schema schema) {
         this.filename = filename;
         this.batchsize = batchsize;
+        this.codec = SpillCodec.forSchema(schema, batchsize);
     }
 
     public int getNumBatch() {
@@ -45,6 +52,12 @@ public class TupleReader {
         return filename;
     }
 
+    // Reads depth pages of the file ahead in the background, must be called before open
+    // Only has an effect on files in the binary page format
+    public void setPrefetch(int depth) {
+        codec.setPrefetch(depth);
+    }
+
     // Returns true if the end of the input file is encountered
     public boolean isEOF() {
         if (completed) return true;
@@ -53,12 +66,10 @@ public class TupleReader {
 
     // Opens the input file and initializes the class for reading
     public boolean open() {
-        try {
-            in = new ObjectInputStream(new FileInputStream(filename));
-        } catch (IOException io) {
-            System.out.printf("%s:reading the temporary file error", filename);
+        if (!codec.openRead(filename)) {
             return false;
         }
+        isOpen = true;
         inBatch = null;
         numBatch = 0;
         numTuple = 0;
@@ -79,19 +90,17 @@ public class TupleReader {
         if (inBatch == null) {
             try {
                 while (true) {
-                    inBatch = (Batch) in.readObject();
+                    inBatch = isOpen ? codec.readBatch() : null;
+                    if (inBatch == null) {
+                        // No more batch in the file
+                        peekTuple = null;
+                        completed = true;
+                        this.close();
+                        return null;
+                    }
                     numBatch++;
                     if (inBatch.size() > 0) break;
                 }
-            } catch (NullPointerException | EOFException e) {
-                // No more batch in the file
-                peekTuple = null;
-                completed = true;
-                this.close();
-                return null;
-            } catch (ClassNotFoundException c) {
-                System.out.printf("%s:Some error in deserialization\n", filename);
-                System.exit(1);
             } catch (IOException io) {
                 System.out.printf("%s:temporary file reading error\n", filename);
                 System.exit(1);
@@ -130,10 +139,10 @@ public class TupleReader {
         inBatch = null;        // deallocate buffer
         peekTuple = null;
         completed = true;
-        if (in != null) {
+        if (isOpen) {
             try {
-                in.close();
-                in = null;
+                codec.closeRead();
+                isOpen = false;
             } catch (IOException io) {
                 System.out.printf("%s:reading the temporary file error", filename);
                 System.out.println(io);
@@ -13,17 +13,24 @@ public class TupleWriter {
 
     final String filename;    // Filename to write to
     final int batchsize;        // Number of tuples per out batch
+    final SpillCodec codec;     // Layout of the batches in the file
 
     Batch outBatch;
     int numBatch = 0;                        // Number of batch written
     int numTuple = 0;                        // Number of tuples added
-    ObjectOutputStream out;            // Output file stream
+    boolean isOpen = false;                  // Whether the output file is open
 
     // filename: Filename of the output file to write to
     // batchsize: Number of tuples per batch
     public TupleWriter(String filename, int batchsize) {
+        this(filename, batchsize, null);
+    }
+
+    // schema: Schema of the tuples, used to choose the codec of the file
+    public TupleWriter(String filename, int batchsize, Schema schema) {
         this.filename = filename;
         this.batchsize = batchsize;
+        this.codec = SpillCodec.forSchema(schema, batchsize);
     }
 
     public int getNumBatch() {
@@ -44,12 +51,10 @@ public class TupleWriter {
 
     // Opens the file and initializes the class for writing
     public boolean open() {
-        try {
-            out = new ObjectOutputStream(new FileOutputStream(filename));
-        } catch (IOException io) {
-            System.out.printf("%s:writing the temporary file error", filename);
+        if (!codec.openWrite(filename)) {
             return false;
         }
+        isOpen = true;
         outBatch = null;
         numBatch = 0;
         numTuple = 0;
@@ -72,7 +77,7 @@ public class TupleWriter {
     // Helper method to write a single batch to the output file
     private void writeBatch() {
         try {
-            out.writeObject(outBatch);
+            codec.writeBatch(outBatch);
             outBatch = null;        // deallocate output buffer --> saves memory
             ++numBatch;
         } catch (IOException io) {
@@ -85,10 +90,10 @@ public class TupleWriter {
     // Signals the TupleWriter to finish writing all the tuples to the file
     public boolean close() {
         if (outBatch != null) writeBatch();  // Unfilled batch (if any) will be flushed to the file
-        if (out != null) {
+        if (isOpen) {
             try {
-                out.close();
-                out = null;
+                codec.closeWrite();
+                isOpen = false;
             } catch (IOException io) {
                 System.out.printf("%s:writing the temporary file error", filename);
                 System.out.println(io);
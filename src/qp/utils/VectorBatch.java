@@ -0,0 +1,460 @@
+/**
+ * Batch which stores its tuples column by column
+ **/
+
+package qp.utils;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A VectorBatch keeps one primitive array per column instead of one Tuple per row:
+ *   INT    - int[] of the values
+ *   REAL   - float[] of the values
+ *   STRING - int[] of dictionary codes, with a StringDictionary per column
+ * A selection vector lists the rows that are part of the batch, so a filter only has to
+ * build a new selection and a projection only has to pick columns, without touching the rows.
+ *
+ * The batch still behaves as a normal Batch to the operators that are not vectorized.
+ * get(i) builds the Tuple of the i-th selected row when it is first asked for.
+ * Any method that changes the batch first turns it into an ordinary batch of tuples.
+ * The batches made by select and project share their columns with the batch they
+ * come from. A batch whose columns are shared copies its own rows out before rows
+ * are appended to it, so the rows seen by the other batches never change.
+ */
+public class VectorBatch extends Batch {
+
+    private static final long serialVersionUID = 4318203927148605213L;
+
+    final int[] types;              // Projected type of every column
+    final TupleLayout layout;       // Layout of the compact tuples built from the rows, may be null
+
+    int[][] ints;                   // Values of INT columns and codes of STRING columns
+    float[][] floats;               // Values of REAL columns
+    StringDictionary[] dicts;       // Dictionaries of STRING columns
+    int numRows = 0;                // Number of rows stored in the columns
+
+    int[] sel;                      // Rows of the batch in order, null if every row is selected
+    int selCount;                   // Number of entries used in sel
+    boolean shared = false;         // Whether other batches share the columns
+
+    boolean columnar = true;        // False once the batch has been turned into tuples
+    Tuple[] rowCache;               // Tuples already built by get(i)
+    byte[] scratch = new byte[64];  // Buffer for the string bytes of a page being decoded
+
+    /**
+     * Creates an empty batch with columns for the attributes of the schema
+     */
+    public VectorBatch(int numtuple, Schema schema) {
+        super(0);
+        MAX_SIZE = numtuple;
+        int numCols = schema.getNumCols();
+        types = new int[numCols];
+        for (int i = 0; i < numCols; ++i) {
+            types[i] = schema.getAttribute(i).getProjectedType();
+        }
+        layout = TupleLayout.forSchema(schema);
+        ints = new int[numCols][];
+        floats = new float[numCols][];
+        dicts = new StringDictionary[numCols];
+        int rows = Math.max(numtuple, 1);
+        for (int i = 0; i < numCols; ++i) {
+            if (types[i] == Attribute.REAL) {
+                floats[i] = new float[rows];
+            } else {
+                ints[i] = new int[rows];
+                if (types[i] == Attribute.STRING) {
+                    dicts[i] = new StringDictionary();
+                }
+            }
+        }
+    }
+
+    // Creates a batch which shares the given columns
+    private VectorBatch(int numtuple, int[] types, TupleLayout layout,
+                        int[][] ints, float[][] floats, StringDictionary[] dicts, int numRows) {
+        super(0);
+        MAX_SIZE = numtuple;
+        this.types = types;
+        this.layout = layout;
+        this.ints = ints;
+        this.floats = floats;
+        this.dicts = dicts;
+        this.numRows = numRows;
+    }
+
+    /**
+     * Whether every attribute type of the schema can be stored in a column
+     */
+    public static boolean supports(Schema schema) {
+        if (schema == null || schema.getNumCols() == 0) {
+            return false;
+        }
+        for (int i = 0; i < schema.getNumCols(); ++i) {
+            int type = schema.getAttribute(i).getProjectedType();
+            if (type != Attribute.INT && type != Attribute.REAL && type != Attribute.STRING) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean isColumnar() {
+        return columnar;
+    }
+
+    public int getNumCols() {
+        return types.length;
+    }
+
+    public int getType(int col) {
+        return types[col];
+    }
+
+    public int getNumRows() {
+        return numRows;
+    }
+
+    // Row of the i-th tuple of the batch
+    public int row(int i) {
+        return sel == null ? i : sel[i];
+    }
+
+    public int[] getInts(int col) {
+        return ints[col];
+    }
+
+    public float[] getFloats(int col) {
+        return floats[col];
+    }
+
+    public int[] getCodes(int col) {
+        return ints[col];
+    }
+
+    public StringDictionary getDictionary(int col) {
+        return dicts[col];
+    }
+
+    /**
+     * Decodes the records of a page in the PageFile format and appends them as rows.
+     * The buffer must be positioned at the start of the page.
+     * Returns the number of rows decoded.
+     */
+    public int appendPage(ByteBuffer page) {
+        unshare();
+        int count = page.getInt();
+        ensureRows(numRows + count);
+        int numCols = types.length;
+        for (int r = numRows; r < numRows + count; ++r) {
+            for (int c = 0; c < numCols; ++c) {
+                switch (types[c]) {
+                    case Attribute.INT:
+                        ints[c][r] = page.getInt();
+                        break;
+                    case Attribute.REAL:
+                        floats[c][r] = page.getFloat();
+                        break;
+                    default:
+                        int length = page.getShort() & PageFile.MAX_STRING_LENGTH;
+                        if (scratch.length < length) {
+                            scratch = new byte[Math.max(length, scratch.length * 2)];
+                        }
+                        page.get(scratch, 0, length);
+                        ints[c][r] = dicts[c].encode(scratch, 0, length);
+                }
+            }
+        }
+        numRows += count;
+        return count;
+    }
+
+    /**
+     * Appends count tuples of the other batch, starting from its from-th tuple.
+     * Both batches must have the same column types.
+     */
+    public void appendRows(VectorBatch src, int from, int count) {
+        unshare();
+        ensureRows(numRows + count);
+        int numCols = types.length;
+        for (int k = 0; k < count; ++k) {
+            int srcRow = src.row(from + k);
+            int r = numRows + k;
+            for (int c = 0; c < numCols; ++c) {
+                switch (types[c]) {
+                    case Attribute.INT:
+                        ints[c][r] = src.ints[c][srcRow];
+                        break;
+                    case Attribute.REAL:
+                        floats[c][r] = src.floats[c][srcRow];
+                        break;
+                    default:
+                        byte[] bytes = src.dicts[c].getBytes(src.ints[c][srcRow]);
+                        ints[c][r] = dicts[c].encode(bytes, 0, bytes.length);
+                }
+            }
+        }
+        numRows += count;
+    }
+
+    /**
+     * Copies the selected rows into columns of the batch's own, when the columns are
+     * shared with other batches or only some rows are selected. The dictionaries
+     * stay shared, as they only ever grow and their codes do not change.
+     */
+    private void unshare() {
+        if (!columnar || (!shared && sel == null)) {
+            return;
+        }
+        int size = size();
+        int length = Math.max(Math.max(size, MAX_SIZE), 1);
+        int[][] newInts = new int[types.length][];
+        float[][] newFloats = new float[types.length][];
+        for (int c = 0; c < types.length; ++c) {
+            if (floats[c] != null) {
+                newFloats[c] = new float[length];
+                for (int i = 0; i < size; ++i) {
+                    newFloats[c][i] = floats[c][row(i)];
+                }
+            } else {
+                newInts[c] = new int[length];
+                for (int i = 0; i < size; ++i) {
+                    newInts[c][i] = ints[c][row(i)];
+                }
+            }
+        }
+        ints = newInts;
+        floats = newFloats;
+        numRows = size;
+        sel = null;
+        selCount = 0;
+        shared = false;
+        rowCache = null;
+    }
+
+    private void ensureRows(int rows) {
+        int length = types.length == 0 ? 0 : (floats[0] != null ? floats[0].length : ints[0].length);
+        if (rows <= length) {
+            return;
+        }
+        int newLength = Math.max(rows, length * 2);
+        for (int c = 0; c < types.length; ++c) {
+            if (floats[c] != null) {
+                floats[c] = Arrays.copyOf(floats[c], newLength);
+            } else {
+                ints[c] = Arrays.copyOf(ints[c], newLength);
+            }
+        }
+    }
+
+    /**
+     * Returns a batch over the same columns which only holds the given rows.
+     * The rows are row numbers of the columns, as given by row(i).
+     */
+    public VectorBatch select(int[] rows, int count) {
+        VectorBatch view = new VectorBatch(MAX_SIZE, types, layout, ints, floats, dicts, numRows);
+        shared = true;
+        view.shared = true;
+        view.sel = rows;
+        view.selCount = count;
+        return view;
+    }
+
+    /**
+     * Returns a batch with the same rows whose columns are the given columns of this batch.
+     * The column arrays are shared, no row is copied.
+     * @param cols Index of every column of the new batch in this batch
+     * @param layout Layout of the tuples of the new batch, from TupleLayout.forSchema
+     * @param numtuple Capacity of the new batch
+     */
+    public VectorBatch project(int[] cols, TupleLayout layout, int numtuple) {
+        int[] newTypes = new int[cols.length];
+        int[][] newInts = new int[cols.length][];
+        float[][] newFloats = new float[cols.length][];
+        StringDictionary[] newDicts = new StringDictionary[cols.length];
+        for (int i = 0; i < cols.length; ++i) {
+            newTypes[i] = types[cols[i]];
+            newInts[i] = ints[cols[i]];
+            newFloats[i] = floats[cols[i]];
+            newDicts[i] = dicts[cols[i]];
+        }
+        TupleLayout newLayout = layout;
+        if (newLayout != null && !Arrays.equals(newLayout.types, newTypes)) {
+            newLayout = null;
+        }
+        VectorBatch view = new VectorBatch(numtuple, newTypes, newLayout, newInts, newFloats, newDicts, numRows);
+        shared = true;
+        view.shared = true;
+        view.sel = sel;
+        view.selCount = selCount;
+        return view;
+    }
+
+    /**
+     * Builds the tuple of a row, as a compact tuple whenever the strings fit the layout
+     */
+    Tuple rowTuple(int row) {
+        if (layout == null) {
+            return boxedRow(row);
+        }
+        byte[] bytes = new byte[layout.length];
+        for (int c = 0; c < types.length; ++c) {
+            int offset = layout.offsets[c];
+            switch (types[c]) {
+                case Attribute.INT:
+                    Tuple.writeInt(bytes, offset, ints[c][row]);
+                    break;
+                case Attribute.REAL:
+                    Tuple.writeInt(bytes, offset, Float.floatToIntBits(floats[c][row]));
+                    break;
+                default:
+                    byte[] utf8 = dicts[c].getBytes(ints[c][row]);
+                    if (utf8.length > layout.capacity(c)) {
+                        return boxedRow(row);
+                    }
+                    bytes[offset] = (byte) (utf8.length >>> 8);
+                    bytes[offset + 1] = (byte) utf8.length;
+                    System.arraycopy(utf8, 0, bytes, offset + 2, utf8.length);
+            }
+        }
+        return new Tuple(layout, bytes);
+    }
+
+    private Tuple boxedRow(int row) {
+        ArrayList<Object> data = new ArrayList<>(types.length);
+        for (int c = 0; c < types.length; ++c) {
+            switch (types[c]) {
+                case Attribute.INT:
+                    data.add(ints[c][row]);
+                    break;
+                case Attribute.REAL:
+                    data.add(floats[c][row]);
+                    break;
+                default:
+                    data.add(dicts[c].get(ints[c][row]));
+            }
+        }
+        return new Tuple(data);
+    }
+
+    /**
+     * Turns the batch into an ordinary batch of tuples, the columns are no longer used
+     */
+    private void materialize() {
+        if (!columnar) {
+            return;
+        }
+        int size = size();
+        tuples = new ArrayList<>(Math.max(size, MAX_SIZE));
+        for (int i = 0; i < size; ++i) {
+            tuples.add(get(i));
+        }
+        columnar = false;
+        ints = null;
+        floats = null;
+        dicts = null;
+        sel = null;
+        rowCache = null;
+    }
+
+    @Override
+    public Tuple get(int i) {
+        if (!columnar) {
+            return super.get(i);
+        }
+        if (rowCache == null || rowCache.length < size()) {
+            rowCache = rowCache == null ? new Tuple[size()] : Arrays.copyOf(rowCache, size());
+        }
+        Tuple t = rowCache[i];
+        if (t == null) {
+            t = rowTuple(row(i));
+            rowCache[i] = t;
+        }
+        return t;
+    }
+
+    @Override
+    public int size() {
+        if (!columnar) {
+            return super.size();
+        }
+        return sel == null ? numRows : selCount;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public void add(Tuple t) {
+        materialize();
+        super.add(t);
+    }
+
+    @Override
+    public void add(Tuple t, int i) {
+        materialize();
+        super.add(t, i);
+    }
+
+    @Override
+    public void reset(int numtuple) {
+        materialize();
+        super.reset(numtuple);
+    }
+
+    @Override
+    public void clear() {
+        materialize();
+        super.clear();
+    }
+
+    @Override
+    public boolean contains(Tuple t) {
+        materialize();
+        return super.contains(t);
+    }
+
+    @Override
+    public ArrayList<Tuple> getTuples() {
+        materialize();
+        return super.getTuples();
+    }
+
+    @Override
+    public int indexOf(Tuple t) {
+        materialize();
+        return super.indexOf(t);
+    }
+
+    @Override
+    public void remove(int i) {
+        materialize();
+        super.remove(i);
+    }
+
+    @Override
+    public void set(Tuple t, int i) {
+        materialize();
+        super.set(t, i);
+    }
+
+    @Override
+    public void addBatch(Batch newBatch) {
+        materialize();
+        super.addBatch(newBatch);
+    }
+
+    /**
+     * A VectorBatch is written out as an ordinary batch of its tuples
+     */
+    private Object writeReplace() {
+        Batch batch = new Batch(MAX_SIZE);
+        for (int i = 0; i < size(); ++i) {
+            batch.add(get(i));
+        }
+        return batch;
+    }
+}
@@ -0,0 +1,241 @@
+/**
+ * Per page minimum and maximum of the columns of a table in the page format
+ */
+
+package qp.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The zone map of <tablename>.tbl is kept in the sidecar file <tablename>.zmap, which
+ * is written by the loader together with the table. It holds the minimum and maximum
+ * value of every INT and REAL column in every page of the table:
+ *   magic (int), number of tuples (long), number of columns (int), number of pages (int),
+ *   then for every page and every column the minimum and the maximum (double)
+ * A column without values in the page, and every STRING column, has NaN as bounds.
+ *
+ * Scan uses the zone map to skip the pages in which a Select condition of the form
+ * attr op constant cannot hold for any tuple.
+ */
+public class ZoneMap {
+
+    public static final int MAGIC = 0x515a4d50;  // "QZMP"
+
+    final long numTuples;     // Number of tuples of the table when the zone map was written
+    final int numCols;        // Number of columns of the table
+    final double[][] min;     // Minimum of every column in every page
+    final double[][] max;     // Maximum of every column in every page
+
+    ZoneMap(long numTuples, int numCols, double[][] min, double[][] max) {
+        this.numTuples = numTuples;
+        this.numCols = numCols;
+        this.min = min;
+        this.max = max;
+    }
+
+    public int getNumPages() {
+        return min.length;
+    }
+
+    /**
+     * Returns the sidecar file of the table file
+     */
+    public static String fileFor(String tblfile) {
+        String base = tblfile.endsWith(".tbl") ? tblfile.substring(0, tblfile.length() - 4) : tblfile;
+        return base + ".zmap";
+    }
+
+    /**
+     * Reads the zone map of the table file. Returns null if there is none, or if it was
+     * not written for the table as it is now, i.e. the number of pages or tuples differ.
+     */
+    public static ZoneMap load(String tblfile, int numPages, long numTuples) {
+        File file = new File(fileFor(tblfile));
+        if (!file.exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                return null;
+            }
+            long tuples = in.readLong();
+            int cols = in.readInt();
+            int pages = in.readInt();
+            if (tuples != numTuples || pages != numPages) {
+                return null;
+            }
+            double[][] min = new double[pages][cols];
+            double[][] max = new double[pages][cols];
+            for (int p = 0; p < pages; ++p) {
+                for (int c = 0; c < cols; ++c) {
+                    min[p][c] = in.readDouble();
+                    max[p][c] = in.readDouble();
+                }
+            }
+            return new ZoneMap(tuples, cols, min, max);
+        } catch (IOException io) {
+            return null;
+        }
+    }
+
+    /**
+     * Whether some tuple of the page may satisfy "column exprtype value".
+     * Pages without bounds for the column may always match.
+     */
+    public boolean mayMatch(int pageNo, int col, int exprtype, double value) {
+        double lo = min[pageNo][col];
+        double hi = max[pageNo][col];
+        if (Double.isNaN(lo) || Double.isNaN(hi)) {
+            return true;
+        }
+        switch (exprtype) {
+            case Condition.LESSTHAN:
+                return lo < value;
+            case Condition.GREATERTHAN:
+                return hi > value;
+            case Condition.LTOE:
+                return lo <= value;
+            case Condition.GTOE:
+                return hi >= value;
+            case Condition.EQUAL:
+                return lo <= value && value <= hi;
+            case Condition.NOTEQUAL:
+                return !(lo == value && hi == value);
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Builds the page filter for the conditions on the table with the given schema.
+     * Only conditions comparing an INT or REAL column to a constant are used.
+     * Returns null if none of the conditions can skip a page.
+     */
+    public PageFilter filter(List<Condition> conditions, Schema schema) {
+        final ArrayList<int[]> preds = new ArrayList<>();     // Column and operator
+        final ArrayList<Double> values = new ArrayList<>();   // Constant of the condition
+        for (Condition con : conditions) {
+            if (con.getOpType() != Condition.SELECT || !(con.getRhs() instanceof String)) {
+                continue;
+            }
+            int col = schema.indexOf(con.getLhs());
+            if (col < 0 || col >= numCols) {
+                continue;
+            }
+            int type = schema.typeOf(con.getLhs());
+            double value;
+            try {
+                if (type == Attribute.INT) {
+                    value = Integer.parseInt((String) con.getRhs());
+                } else if (type == Attribute.REAL) {
+                    value = Float.parseFloat((String) con.getRhs());
+                } else {
+                    continue;
+                }
+            } catch (NumberFormatException nfe) {
+                continue;
+            }
+            preds.add(new int[]{col, con.getExprType()});
+            values.add(value);
+        }
+        if (preds.isEmpty()) {
+            return null;
+        }
+        return pageNo -> {
+            if (pageNo >= min.length) {
+                return true;
+            }
+            for (int i = 0; i < preds.size(); ++i) {
+                if (!mayMatch(pageNo, preds.get(i)[0], preds.get(i)[1], values.get(i))) {
+                    return false;
+                }
+            }
+            return true;
+        };
+    }
+
+    /**
+     * Collects the bounds of the pages of a table while it is written
+     */
+    public static class Builder {
+
+        final Schema schema;
+        final int numCols;
+        final ArrayList<double[]> min = new ArrayList<>();
+        final ArrayList<double[]> max = new ArrayList<>();
+        double[] pageMin;         // Bounds of the page being written
+        double[] pageMax;
+
+        public Builder(Schema schema) {
+            this.schema = schema;
+            this.numCols = schema.getNumCols();
+            startPage();
+        }
+
+        private void startPage() {
+            pageMin = new double[numCols];
+            pageMax = new double[numCols];
+            Arrays.fill(pageMin, Double.NaN);
+            Arrays.fill(pageMax, Double.NaN);
+        }
+
+        // Adds the values of the tuple to the bounds of the current page
+        public void add(Tuple tuple) {
+            for (int i = 0; i < numCols; ++i) {
+                int type = schema.getAttribute(i).getProjectedType();
+                double value;
+                if (type == Attribute.INT) {
+                    value = tuple.getInt(i);
+                } else if (type == Attribute.REAL) {
+                    value = tuple.getFloat(i);
+                } else {
+                    continue;
+                }
+                if (Double.isNaN(value)) {
+                    /** A NaN cannot be ordered, so the column gets no bounds in this page **/
+                    pageMin[i] = Double.NEGATIVE_INFINITY;
+                    pageMax[i] = Double.POSITIVE_INFINITY;
+                } else if (Double.isNaN(pageMin[i])) {
+                    pageMin[i] = value;
+                    pageMax[i] = value;
+                } else {
+                    pageMin[i] = Math.min(pageMin[i], value);
+                    pageMax[i] = Math.max(pageMax[i], value);
+                }
+            }
+        }
+
+        // Closes the bounds of the current page
+        public void endPage() {
+            min.add(pageMin);
+            max.add(pageMax);
+            startPage();
+        }
+
+        // Writes the zone map of a table of numTuples tuples
+        public void write(String zonefile, long numTuples) throws IOException {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(zonefile)))) {
+                out.writeInt(MAGIC);
+                out.writeLong(numTuples);
+                out.writeInt(numCols);
+                out.writeInt(min.size());
+                for (int p = 0; p < min.size(); ++p) {
+                    for (int c = 0; c < numCols; ++c) {
+                        out.writeDouble(min.get(p)[c]);
+                        out.writeDouble(max.get(p)[c]);
+                    }
+                }
+            }
+        }
+    }
+}
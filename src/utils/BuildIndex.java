@@ -25,6 +25,8 @@ import qp.utils.BPlusTree;
 import qp.utils.BPlusTreeKey;
 import qp.utils.Schema;
 import qp.utils.Tuple;
+import qp.utils.TupleCache;
+import qp.utils.TupleReader;
 
 /**
  * BuildIndex allows us to build an index from a .tbl file
@@ -68,12 +70,11 @@ public class BuildIndex {
         }
 
         // Setup the Random Access File that will be written to
+        String tbliPath = String.format("testcases/%s-%s.tbli", tblName, keysString);
         FileChannel fc = null;
         try {
             // A random access table is just the tbl file with an i on the file type.
-            fc = new RandomAccessFile(new File(
-                String.format("testcases/%s-%s.tbli", tblName, keysString)
-            ), "rw")
+            fc = new RandomAccessFile(new File(tbliPath), "rw")
                 .getChannel();
             fc.force(true);
         } catch (FileNotFoundException fofe) {
@@ -102,6 +103,8 @@ public class BuildIndex {
             outs.writeObject(index);
             outs.close();
             fc.close();
+            // The tuples cached from the previous file are at other offsets
+            TupleCache.invalidate(tbliPath);
         } catch (IOException ioe) {
             System.out.println("Failed to write index to output file");
             System.exit(1);
@@ -114,9 +117,12 @@ public class BuildIndex {
         FileChannel fc
     ) {
         String sortedTblPath = "";
+        ExternalSort sort = new ExternalSort(pageSize, numberOfBuffers);
+        // Tables are mostly loaded in key order, which replacement selection sorts in one run.
+        // A single run needs no merge, which saves more than the parallel mode would.
+        sort.setReplacementSelection(true);
         // We assume the .md file and the .tbl file are in the same directory.
         try {
-            ExternalSort sort = new ExternalSort(pageSize, numberOfBuffers);
             // Generates the sorted table
             sortedTblPath = sort.sort(tblPath, mdPath, indexKeys);
         } catch (IOException ioe) {
@@ -124,50 +130,38 @@ public class BuildIndex {
             System.exit(1);
         }
 
-        FileInputStream fin = null;
-        ObjectInputStream ois = null;
-        try {
-            fin = new FileInputStream(sortedTblPath);
-            ois = new ObjectInputStream(fin);
-        } catch (IOException ioe) {
+        int batchSize = (int) Math.floor(pageSize / tupleSize);
+        assert(batchSize > 2);
+
+        // The sorted table is written in the format of the schema, so it is read back the same way
+        TupleReader ins = new TupleReader(sortedTblPath, batchSize, sort.schema);
+        if (!ins.open()) {
             System.out.println("IO Exception reading file");
             System.exit(1);
         }
 
-        int batchSize = (int) Math.floor(pageSize / tupleSize);
-        assert(batchSize > 2);
-
         boolean eos = false;
         BPlusTree<BPlusTreeKey, Long> index = new BPlusTree<>(order);
 
         while (!eos) {
-            try {
-                Tuple tuple = ExternalSort.readTuple(ois);
-                byte[] tupleBytes = BuildIndex.serialize(tuple);
-                index.serializedValueLength = tupleBytes.length;
-
-                // Now we write to the random access file and store the offset in BPlusTree
-                long offset = BuildIndex.addTuple(fc, tupleBytes);
-                BPlusTreeKey key = buildKey(tuple, indexKeys);
-
-                if (index.search(key) == null)
-                    index.insert(key, offset);
-
-            } catch (EOFException eof) {
+            Tuple tuple = ins.next();
+            if (tuple == null) {
                 eos = true;
-            } catch (IOException ioe) {
-                System.out.println("Failed to read from tbl in BuildIndex");
-                System.exit(1);
+                break;
             }
-        }
+            byte[] tupleBytes = BuildIndex.serialize(tuple);
+            index.serializedValueLength = tupleBytes.length;
 
-        try {
-            ois.close();
-            fin.close();
-        } catch (IOException ioe) {
-            System.exit(1);
+            // Now we write to the random access file and store the offset in BPlusTree
+            long offset = BuildIndex.addTuple(fc, tupleBytes);
+            BPlusTreeKey key = buildKey(tuple, indexKeys);
+
+            if (index.search(key) == null)
+                index.insert(key, offset);
         }
 
+        ins.close();
+
         return index;
     }
 
@@ -0,0 +1,84 @@
+package utils;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import qp.algorithms.ExternalSort;
+import qp.utils.PageFile;
+import qp.utils.PageFileWriter;
+import qp.utils.Schema;
+import qp.utils.Tuple;
+import qp.utils.ZoneMap;
+
+/**
+ * Converts a .tbl file that stores serialized Tuple objects into the binary page format.
+ * The converted file replaces the original one.
+ */
+public class ConvertTblFormat {
+    public static void main(String[] args) {
+        if (args.length < 1 || args.length > 2) {
+            System.out.println("Usage: java utils.ConvertTblFormat <tblpath> [pagesize]");
+            return;
+        }
+
+        String tblPath = args[0];
+        // We assume the .md file and the .tbl file are in the same directory.
+        String mdPath = String.format("%s.md", tblPath.split("[.]", 0)[0]);
+        int pageSize = PageFile.DEFAULT_PAGE_SIZE;
+        if (args.length == 2)
+            pageSize = Integer.parseInt(args[1]);
+
+        if (PageFile.isPageFile(tblPath)) {
+            System.out.println(tblPath + " is already in the page format");
+            return;
+        }
+
+        Schema schema = null;
+        try {
+            ObjectInputStream schemaIns = new ObjectInputStream(new FileInputStream(mdPath));
+            schema = (Schema) schemaIns.readObject();
+            schemaIns.close();
+        } catch (IOException ioe) {
+            System.out.println("Cannot read the schema file " + mdPath);
+            System.exit(1);
+        } catch (ClassNotFoundException ce) {
+            System.out.println("class not found exception --- error in schema object file");
+            System.exit(1);
+        }
+
+        String convertedPath = tblPath + ".converting";
+        PageFileWriter writer = new PageFileWriter(convertedPath, schema, pageSize);
+        writer.setZoneMap(ZoneMap.fileFor(tblPath));
+        if (!writer.open())
+            System.exit(1);
+
+        try {
+            ObjectInputStream tableIns = new ObjectInputStream(new FileInputStream(tblPath));
+            boolean eos = false;
+            while (!eos) {
+                try {
+                    Tuple tuple = ExternalSort.readTuple(tableIns);
+                    writer.next(tuple);
+                } catch (EOFException eof) {
+                    eos = true;
+                }
+            }
+            tableIns.close();
+        } catch (IOException ioe) {
+            System.out.println("Failed to read " + tblPath);
+            new File(convertedPath).delete();
+            System.exit(1);
+        }
+        writer.close();
+
+        File original = new File(tblPath);
+        if (!original.delete() || !new File(convertedPath).renameTo(original)) {
+            System.out.println("Failed to replace " + tblPath + " with " + convertedPath);
+            System.exit(1);
+        }
+        System.out.printf("Converted %d tuples into %d pages of %d bytes\n",
+            writer.getNumTuple(), writer.getNumPage(), pageSize);
+    }
+}
@@ -5,6 +5,7 @@ import qp.utils.*;
 
 /**
  * This is a util file for developers to print out the tuples in a .tbl file for inspection.
+ * Files in the page format need the schema, which is read from the .md file of the same name.
  */
 public class PrintTupleFile {
     public static void main(String[] args) throws IOException {
@@ -13,6 +14,11 @@ public class PrintTupleFile {
            return;
         }
 
+        if (PageFile.isPageFile(args[0])) {
+            printPageFile(args[0]);
+            return;
+        }
+
         try {
             ObjectInputStream ins = new ObjectInputStream(new FileInputStream(args[0]));
 
@@ -28,4 +34,26 @@ public class PrintTupleFile {
             System.exit(1);
         }
     }
+
+    private static void printPageFile(String tblPath) throws IOException {
+        String mdPath = String.format("%s.md", tblPath.split("[.]", 0)[0]);
+        Schema schema = null;
+        try {
+            ObjectInputStream schemaIns = new ObjectInputStream(new FileInputStream(mdPath));
+            schema = (Schema) schemaIns.readObject();
+            schemaIns.close();
+        } catch (ClassNotFoundException ce) {
+            System.out.println("Class not found exception");
+            System.exit(1);
+        }
+
+        PageFileReader reader = new PageFileReader(tblPath, schema);
+        if (!reader.open())
+            System.exit(1);
+        Tuple tuple;
+        while ((tuple = reader.next()) != null)
+            System.out.println(tuple);
+        reader.close();
+        System.out.println("Done printing file");
+    }
 }
@@ -0,0 +1,29 @@
+rmdir /s /q testrun
+mkdir testclasses
+mkdir testrun
+javac -d testclasses -classpath lib -sourcepath src;test test\*.java test\qp\operators\*.java test\qp\algorithms\*.java test\qp\utils\*.java
+cd testrun
+java -classpath ..\testclasses;..\lib ConvertTxtToTblTest
+java -classpath ..\testclasses;..\lib qp.algorithms.ExternalSortTest
+java -classpath ..\testclasses;..\lib qp.operators.BlockNestedJoinTest
+java -classpath ..\testclasses;..\lib qp.operators.HashJoinTest
+java -classpath ..\testclasses;..\lib qp.operators.HybridHashJoinTest
+java -classpath ..\testclasses;..\lib qp.operators.IndexNestedJoinTest
+java -classpath ..\testclasses;..\lib qp.operators.InequalityJoinTest
+java -classpath ..\testclasses;..\lib qp.operators.MappedScanTest
+java -classpath ..\testclasses;..\lib qp.operators.MultiwayJoinTest
+java -classpath ..\testclasses;..\lib qp.operators.ParallelHashJoinTest
+java -classpath ..\testclasses;..\lib qp.operators.PrefetchTest
+java -classpath ..\testclasses;..\lib qp.operators.RecyclingTest
+java -classpath ..\testclasses;..\lib qp.operators.SelectTest
+java -classpath ..\testclasses;..\lib qp.operators.SortMergeJoinTest
+java -classpath ..\testclasses;..\lib qp.operators.ZoneMapTest
+java -classpath ..\testclasses;..\lib qp.utils.BloomFilterTest
+java -classpath ..\testclasses;..\lib qp.utils.BufferPoolTest
+java -classpath ..\testclasses;..\lib qp.utils.PageFileTest
+java -classpath ..\testclasses;..\lib qp.utils.SpillCodecTest
+java -classpath ..\testclasses;..\lib qp.utils.TupleCacheTest
+java -classpath ..\testclasses;..\lib qp.utils.TupleTest
+java -classpath ..\testclasses;..\lib qp.utils.VectorBatchTest
+cd ..
+rmdir /s /q testrun
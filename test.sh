@@ -0,0 +1,33 @@
+# Compiles the sources with the tests, then runs every test from the testrun folder,
+# where the tests write their tables and temporary files
+rm -rf testrun
+mkdir -p testclasses testrun
+javac -d testclasses -classpath lib -sourcepath src:test $(find test -name '*.java') || exit 1
+status=0
+run() {
+    (cd testrun && java -classpath ../testclasses:../lib "$1") || status=1
+}
+run ConvertTxtToTblTest
+run qp.algorithms.ExternalSortTest
+run qp.operators.BlockNestedJoinTest
+run qp.operators.HashJoinTest
+run qp.operators.HybridHashJoinTest
+run qp.operators.IndexNestedJoinTest
+run qp.operators.InequalityJoinTest
+run qp.operators.MappedScanTest
+run qp.operators.MultiwayJoinTest
+run qp.operators.ParallelHashJoinTest
+run qp.operators.PrefetchTest
+run qp.operators.RecyclingTest
+run qp.operators.SelectTest
+run qp.operators.SortMergeJoinTest
+run qp.operators.ZoneMapTest
+run qp.utils.BloomFilterTest
+run qp.utils.BufferPoolTest
+run qp.utils.PageFileTest
+run qp.utils.SpillCodecTest
+run qp.utils.TupleCacheTest
+run qp.utils.TupleTest
+run qp.utils.VectorBatchTest
+rm -rf testrun
+exit $status
@@ -0,0 +1,191 @@
+/**
+ * Checks that the chunked parser of ConvertTxtToTbl loads the lines of the text file in
+ * order whatever the chunks they are cut into, and writes the counts of the .stat file
+ **/
+
+import qp.utils.Attribute;
+import qp.utils.DistinctCounter;
+import qp.utils.PageFileReader;
+import qp.utils.Schema;
+import qp.utils.Tuple;
+import qp.utils.ZoneMap;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The table has an INT, a REAL and a STRING column. The chunks are made a few lines
+ * long, so that most lines of the file are cut by a chunk boundary somewhere.
+ **/
+public class ConvertTxtToTblTest {
+
+    static Schema schema;
+    static int checks = 0;              // Number of checks made
+    static int failures = 0;            // Number of checks that failed
+
+    static Tuple tuple(int id, float r, String s) {
+        ArrayList<Object> data = new ArrayList<>();
+        data.add(id);
+        data.add(r);
+        data.add(s);
+        return new Tuple(data);
+    }
+
+    static List<Tuple> generate(int rows, long seed) {
+        Random random = new Random(seed);
+        ArrayList<Tuple> tuples = new ArrayList<>();
+        for (int i = 0; i < rows; ++i) {
+            tuples.add(tuple(random.nextInt(500) - 250, random.nextInt(40) / 4.0f, "s" + random.nextInt(30)));
+        }
+        return tuples;
+    }
+
+    static List<String> contents(List<Tuple> tuples) {
+        ArrayList<String> strings = new ArrayList<>();
+        for (Tuple t : tuples) {
+            strings.add(t.data().toString());
+        }
+        return strings;
+    }
+
+    // Writes the text file of the tuples, with the given line as the line of index at
+    static void writeText(String table, List<Tuple> tuples, int at, String line) {
+        try (PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(table + ".txt")))) {
+            for (int i = 0; i < tuples.size(); ++i) {
+                if (i == at) {
+                    out.print(line + "\n");
+                }
+                Tuple t = tuples.get(i);
+                out.print(t.dataAt(0) + "\t" + t.dataAt(1) + "\t" + t.dataAt(2) + "\t\n");
+            }
+        } catch (IOException io) {
+            check(false, "cannot write " + table + ".txt");
+        }
+        try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(table + ".md"))) {
+            out.writeObject(schema);
+        } catch (IOException io) {
+            check(false, "cannot write " + table + ".md");
+        }
+    }
+
+    static List<String> readTable(String table) {
+        ArrayList<Tuple> tuples = new ArrayList<>();
+        PageFileReader reader = new PageFileReader(table + ".tbl", schema);
+        if (!reader.open()) {
+            check(false, "open " + table + ".tbl");
+            return contents(tuples);
+        }
+        Tuple t;
+        while ((t = reader.next()) != null) {
+            tuples.add(t);
+        }
+        reader.close();
+        return contents(tuples);
+    }
+
+    static List<String> readStat(String table) {
+        ArrayList<String> lines = new ArrayList<>();
+        try (BufferedReader in = new BufferedReader(new FileReader(table + ".stat"))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                lines.add(line);
+            }
+        } catch (IOException io) {
+            check(false, "cannot read " + table + ".stat");
+        }
+        return lines;
+    }
+
+    // The .stat lines of the tuples: their number, then the number of distinct values of each column
+    static List<String> stat(List<Tuple> tuples) {
+        StringBuilder distinct = new StringBuilder();
+        for (int i = 0; i < 3; ++i) {
+            HashSet<Object> values = new HashSet<>();
+            for (Tuple t : tuples) {
+                values.add(t.dataAt(i));
+            }
+            distinct.append(values.size()).append("\t");
+        }
+        ArrayList<String> lines = new ArrayList<>();
+        lines.add(Integer.toString(tuples.size()));
+        lines.add(distinct.toString());
+        return lines;
+    }
+
+    static void convert(String table, int chunkSize, int threads) throws IOException {
+        ConvertTxtToTbl.chunkSize = chunkSize;
+        ConvertTxtToTbl.main(new String[]{table, "4096", Integer.toString(threads)});
+    }
+
+    static void check(boolean ok, String what) {
+        checks++;
+        if (!ok) {
+            failures++;
+        }
+        System.out.println((ok ? "ok   " : "FAIL ") + what);
+    }
+
+    public static void main(String[] args) throws IOException {
+        ArrayList<Attribute> attrs = new ArrayList<>();
+        attrs.add(new Attribute("T", "id", Attribute.INT, 0, 4));
+        attrs.add(new Attribute("T", "r", Attribute.REAL, 0, 4));
+        attrs.add(new Attribute("T", "s", Attribute.STRING, 0, 8));
+        schema = new Schema(attrs);
+        schema.setTupleSize(16);
+
+        /** Lines with spaces, carriage returns, an empty line, signs and a last line without its end **/
+        byte[] chunk = "1\t2.5\tab\r\n\n  -3 0.5  c\t\n+7\t1\tx".getBytes(StandardCharsets.US_ASCII);
+        DistinctCounter[] distinct = {new DistinctCounter(), new DistinctCounter(), new DistinctCounter()};
+        int[] types = {Attribute.INT, Attribute.REAL, Attribute.STRING};
+        List<Tuple> parsed = ConvertTxtToTbl.parseChunk(chunk, types, distinct);
+        check(contents(parsed).equals(contents(List.of(tuple(1, 2.5f, "ab"), tuple(-3, 0.5f, "c"), tuple(7, 1, "x")))),
+                "fields split on white space, empty lines skipped");
+        check(distinct[0].count() == 3 && distinct[2].count() == 3, "values of the chunk counted");
+        byte[] ints = "-2147483648 2147483647 007".getBytes(StandardCharsets.US_ASCII);
+        check(ConvertTxtToTbl.parseInt(ints, 0, 11) == Integer.MIN_VALUE
+                && ConvertTxtToTbl.parseInt(ints, 12, 22) == Integer.MAX_VALUE
+                && ConvertTxtToTbl.parseInt(ints, 23, 26) == 7, "integers at the limits parsed");
+
+        /** The same file cut into chunks of one big chunk, of a few lines and of less than a line **/
+        List<Tuple> tuples = generate(3000, 1);
+        writeText("T", tuples, -1, "");
+        List<String> expected = contents(tuples);
+        for (int chunkSize : new int[]{4 << 20, 100, 7}) {
+            convert("T", chunkSize, 3);
+            check(readTable("T").equals(expected), "lines loaded in order from chunks of " + chunkSize + " bytes");
+            check(readStat("T").equals(stat(tuples)), "counts of the .stat file from chunks of " + chunkSize + " bytes");
+        }
+        convert("T", 100, 1);
+        check(readTable("T").equals(expected), "lines loaded in order by one thread");
+
+        /** A line much longer than the chunk grows the buffer **/
+        String longString = "a-string-of-a-line-longer-than-the-chunk";
+        writeText("T", tuples, 1500, "12\t3\t" + longString);
+        convert("T", 20, 3);
+        ArrayList<Tuple> withLong = new ArrayList<>(tuples);
+        withLong.add(1500, tuple(12, 3, longString));
+        check(readTable("T").equals(contents(withLong)), "line longer than the chunk loaded");
+        check(readStat("T").equals(stat(withLong)), "counts with the line longer than the chunk");
+
+        /** Past EXACT_LIMIT values, the counts of two threads are merged sketches **/
+        DistinctCounter first = new DistinctCounter();
+        DistinctCounter second = new DistinctCounter();
+        int many = 4 * DistinctCounter.EXACT_LIMIT;
+        for (int i = 0; i < many; ++i) {
+            (i % 2 == 0 ? first : second).add(i);
+            first.add(i / 4);
+        }
+        first.merge(second);
+        check(Math.abs(first.count() - many) < many * 0.03, "estimate of " + many + " values within 3%");
+
+        for (String name : new String[]{"T.txt", "T.md", "T.tbl", "T.stat", ZoneMap.fileFor("T.tbl")}) {
+            new File(name).delete();
+        }
+        System.out.println("ConvertTxtToTblTest: " + (checks - failures) + " of " + checks + " checks passed");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+}
@@ -0,0 +1,239 @@
+/**
+ * Checks the order and the tuples of the files sorted by ExternalSort
+ **/
+
+package qp.algorithms;
+
+import qp.utils.Attribute;
+import qp.utils.Batch;
+import qp.utils.Schema;
+import qp.utils.Tuple;
+import qp.utils.TupleComparator;
+import qp.utils.TupleReader;
+import qp.utils.TupleWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The tuples have the integer columns id and k, and are sorted on k. As k has
+ * few values the ties are many, so the tuples are compared whole once sorted.
+ **/
+public class ExternalSortTest {
+
+    static final int PAGE_SIZE = 80;    // 10 tuples per page
+    static Schema schema;
+    static int checks = 0;              // Number of checks made
+    static int failures = 0;            // Number of checks that failed
+
+    static Tuple tuple(int id, int k) {
+        ArrayList<Object> data = new ArrayList<>();
+        data.add(id);
+        data.add(k);
+        return new Tuple(data);
+    }
+
+    /**
+     * Writes the tuples to a file in the format of the runs and returns its name
+     **/
+    static String write(String name, List<Tuple> tuples) {
+        TupleWriter out = new TupleWriter(name, PAGE_SIZE / schema.getTupleSize(), schema);
+        if (!out.open()) {
+            check(false, "cannot write " + name);
+        }
+        for (Tuple t : tuples) {
+            out.next(t);
+        }
+        out.close();
+        return name;
+    }
+
+    static List<Tuple> read(String name) {
+        ArrayList<Tuple> tuples = new ArrayList<>();
+        TupleReader in = new TupleReader(name, PAGE_SIZE / schema.getTupleSize(), schema);
+        if (!in.open()) {
+            check(false, "cannot read " + name);
+            return tuples;
+        }
+        Tuple t;
+        while ((t = in.next()) != null) {
+            tuples.add(t);
+        }
+        in.close();
+        return tuples;
+    }
+
+    // Tuples as strings in sorted order, to compare the tuples of two files whatever their order
+    static List<String> contents(List<Tuple> tuples) {
+        ArrayList<String> strings = new ArrayList<>();
+        for (Tuple t : tuples) {
+            strings.add(t.data().toString());
+        }
+        Collections.sort(strings);
+        return strings;
+    }
+
+    static boolean inOrder(List<Tuple> tuples, boolean isReverse) {
+        TupleComparator order = new TupleComparator(Arrays.asList(1), isReverse);
+        for (int i = 1; i < tuples.size(); ++i) {
+            if (order.compare(tuples.get(i - 1), tuples.get(i)) > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static String checkSort(String what, List<Tuple> input, int numbuff, boolean selection,
+                            int parallelism, boolean isReverse) {
+        return checkSort(what, input, numbuff, selection, parallelism, isReverse, new ArrayList<>());
+    }
+
+    /**
+     * Sorts the tuples with the given buffers and checks the sorted file, whose tuples
+     * are added to output. Returns the name of the sorted file.
+     **/
+    static String checkSort(String what, List<Tuple> input, int numbuff, boolean selection,
+                            int parallelism, boolean isReverse, List<Tuple> output) {
+        String name = write("input", input);
+        ExternalSort sort = new ExternalSort(PAGE_SIZE, numbuff);
+        sort.setReplacementSelection(selection);
+        sort.setParallelism(parallelism);
+        String sorted;
+        try {
+            sorted = sort.sort(name, schema, Arrays.asList(1), isReverse);
+        } catch (IOException io) {
+            check(false, what + ": " + io.getMessage());
+            return null;
+        }
+        output.addAll(read(sorted));
+        check(output.size() == input.size() && inOrder(output, isReverse)
+                && contents(output).equals(contents(input)), what);
+        new File(sorted).delete();
+        new File(name).delete();
+        return sorted;
+    }
+
+    /**
+     * Merges k runs with the loser tree and checks the merged file. Run r has r * 7
+     * tuples, so run 0 is empty, and the ids of its tuples start at r * 10000.
+     * Of equal tuples those of the earlier run come first, so the ids of equal
+     * keys are increasing.
+     **/
+    static void checkMerge(int k, Random random) {
+        ArrayList<TupleReader> runs = new ArrayList<>();
+        ArrayList<Tuple> all = new ArrayList<>();
+        for (int r = 0; r < k; ++r) {
+            ArrayList<Tuple> run = new ArrayList<>();
+            for (int i = 0; i < r * 7; ++i) {
+                run.add(tuple(r * 10000 + i, random.nextInt(20)));
+            }
+            run.sort(new TupleComparator(Arrays.asList(1)));
+            all.addAll(run);
+            TupleReader in = new TupleReader(write("run" + r, run), PAGE_SIZE / schema.getTupleSize(), schema);
+            in.open();
+            runs.add(in);
+        }
+        TupleWriter out = new TupleWriter("merged", PAGE_SIZE / schema.getTupleSize(), schema);
+        out.open();
+        ExternalSort.mergeRuns(runs, new TupleComparator(Arrays.asList(1)), out);
+        out.close();
+        for (int r = 0; r < k; ++r) {
+            runs.get(r).close();
+            new File("run" + r).delete();
+        }
+
+        List<Tuple> merged = read("merged");
+        new File("merged").delete();
+        boolean stable = true;
+        for (int i = 1; i < merged.size(); ++i) {
+            Tuple a = merged.get(i - 1);
+            Tuple b = merged.get(i);
+            if (a.dataAt(1).equals(b.dataAt(1)) && (Integer) a.dataAt(0) > (Integer) b.dataAt(0)) {
+                stable = false;
+            }
+        }
+        check(merged.size() == all.size() && inOrder(merged, false)
+                && contents(merged).equals(contents(all)), "loser tree merge of " + k + " runs");
+        check(stable, "loser tree merge of " + k + " runs keeps equal tuples in run order");
+    }
+
+    // Names of the files in the current folder
+    static List<String> files() {
+        String[] names = new File(".").list();
+        Arrays.sort(names);
+        return Arrays.asList(names);
+    }
+
+    static void check(boolean ok, String what) {
+        checks++;
+        if (!ok) {
+            failures++;
+        }
+        System.out.println((ok ? "ok   " : "FAIL ") + what);
+    }
+
+    public static void main(String[] args) {
+        ArrayList<Attribute> attrs = new ArrayList<>();
+        attrs.add(new Attribute("T", "id", Attribute.INT, Attribute.PK, 4));
+        attrs.add(new Attribute("T", "k", Attribute.INT, 0, 4));
+        schema = new Schema(attrs);
+        schema.setTupleSize(8);
+        Batch.setPageSize(PAGE_SIZE);
+        List<String> before = files();
+
+        Random random = new Random(1);
+        ArrayList<Tuple> shuffled = new ArrayList<>();
+        ArrayList<Tuple> ascending = new ArrayList<>();
+        ArrayList<Tuple> descending = new ArrayList<>();
+        for (int i = 0; i < 2000; ++i) {
+            shuffled.add(tuple(i, random.nextInt(300)));
+            ascending.add(tuple(i, i / 3));
+            descending.add(tuple(i, (2000 - i) / 3));
+        }
+
+        for (boolean selection : new boolean[]{false, true}) {
+            String mode = selection ? "replacement selection" : "sorted chunks";
+            for (int numbuff : new int[]{3, 4, 7, 12}) {
+                checkSort(mode + ", " + numbuff + " buffers", shuffled, numbuff, selection, 0, false);
+                checkSort(mode + ", " + numbuff + " buffers, descending", shuffled, numbuff, selection, 0, true);
+            }
+            checkSort(mode + ", input in order", ascending, 3, selection, 0, false);
+            checkSort(mode + ", input in reverse order", descending, 3, selection, 0, false);
+            checkSort(mode + ", empty input", new ArrayList<>(), 3, selection, 0, false);
+            checkSort(mode + ", single tuple", Arrays.asList(tuple(0, 0)), 3, selection, 0, false);
+        }
+
+        /** An input already in order is a single run, which needs no merge pass **/
+        String sorted = checkSort("input in order by replacement selection", ascending, 3, true, 0, false);
+        check(sorted != null && sorted.endsWith("-0-0.tblo"), "input in order makes a single run");
+
+        /** The chunks sorted in the background make runs of all the buffers, in the order of the sequential mode **/
+        for (int numbuff : new int[]{3, 8, 16}) {
+            for (boolean isReverse : new boolean[]{false, true}) {
+                String what = "4 chunks per run, " + numbuff + " buffers" + (isReverse ? ", descending" : "");
+                List<Tuple> parallel = new ArrayList<>();
+                List<Tuple> sequential = new ArrayList<>();
+                checkSort(what, shuffled, numbuff, false, 4, isReverse, parallel);
+                checkSort(what + ", sequential", shuffled, numbuff, false, 0, isReverse, sequential);
+                check(parallel.toString().equals(sequential.toString()), what + " in the order of the sequential mode");
+            }
+        }
+        sorted = checkSort("run of all the buffers in chunks", shuffled, 200, false, 4, false);
+        check(sorted != null && sorted.endsWith("-0-0.tblo"), "chunks of the buffers make a single run");
+        checkSort("more chunks than tuples", Arrays.asList(tuple(1, 2), tuple(0, 1)), 3, false, 8, false);
+
+        /** No run and a single run have no match to play **/
+        for (int k : new int[]{0, 1, 2, 3, 5, 8, 9}) {
+            checkMerge(k, random);
+        }
+
+        check(files().equals(before), "no run left after the sorts");
+        System.out.println("ExternalSortTest: " + (checks - failures) + " of " + checks + " checks passed");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+}
@@ -0,0 +1,83 @@
+/**
+ * Checks the BlockNestedJoin against a nested loop over the rows of the tables
+ **/
+
+package qp.operators;
+
+import qp.optimizer.RandomOptimizer;
+import qp.utils.Condition;
+import qp.utils.Tuple;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class BlockNestedJoinTest {
+
+    public static void main(String[] args) {
+        /** 10 tuples per page, and blocks of 3 left pages **/
+        TestTables.setup(120, 5);
+        TestTables.create("L", 2000, 200, 0, 1);
+        TestTables.create("R", 1000, 200, 0.2, 2);
+
+        /** With an equality the right tuples probe the hash table of the block **/
+        ArrayList<Condition> cons = TestTables.conds(TestTables.cond("L", "k", Condition.EQUAL, "R", "k"));
+        List<String> expected = TestTables.expected("L", "R", cons);
+        TestTables.check(!expected.isEmpty(), "join has a result");
+        Operator plan = TestTables.plan(JoinType.BLOCKNESTED, "L", "R", cons);
+        TestTables.checkResult("equality condition", plan, expected);
+        TestTables.check(((BlockNestedJoin) plan).blocktable != null, "block probed on its hash table");
+        TestTables.check(((BlockNestedJoin) plan).rescan, "right base table scanned again for every block");
+
+        /** The inequality is checked on the tuples of the block with the hash of the right tuple **/
+        ArrayList<Condition> mixed = TestTables.conds(TestTables.cond("L", "k", Condition.EQUAL, "R", "k"),
+                TestTables.cond("L", "v", Condition.LESSTHAN, "R", "v"));
+        plan = TestTables.plan(JoinType.BLOCKNESTED, "L", "R", mixed);
+        TestTables.checkResult("equality and inequality conditions", plan, TestTables.expected("L", "R", mixed));
+        TestTables.check(((BlockNestedJoin) plan).blocktable != null, "block with a residual inequality probed on its hash table");
+
+        ArrayList<Condition> keys = TestTables.conds(TestTables.cond("L", "k", Condition.EQUAL, "R", "k"),
+                TestTables.cond("L", "v", Condition.EQUAL, "R", "v"));
+        TestTables.checkResult("two equality conditions",
+                TestTables.plan(JoinType.BLOCKNESTED, "L", "R", keys), TestTables.expected("L", "R", keys));
+
+        /** Without an equality every right tuple is compared with every tuple of the block **/
+        ArrayList<Condition> none = TestTables.conds(TestTables.cond("L", "v", Condition.GREATERTHAN, "R", "v"),
+                TestTables.cond("L", "k", Condition.NOTEQUAL, "R", "k"));
+        plan = TestTables.plan(JoinType.BLOCKNESTED, "L", "R", none);
+        TestTables.checkResult("inequality conditions only", plan, TestTables.expected("L", "R", none));
+        TestTables.check(((BlockNestedJoin) plan).blocktable == null, "block without equality not hashed");
+
+        /** The first pass over the rescanned R fills the filter that drops the later left tuples without a key of R **/
+        TestTables.create("S", 300, 20, 0, 3);
+        ArrayList<Condition> few = TestTables.conds(TestTables.cond("L", "k", Condition.EQUAL, "S", "k"));
+        BlockNestedJoin filtered = (BlockNestedJoin) TestTables.plan(JoinType.BLOCKNESTED, "L", "S", few);
+        filtered.open();
+        Scan leftscan = (Scan) filtered.getLeft();
+        filtered.next();
+        TestTables.check(leftscan.runtimeFilters.isEmpty(), "no filter before the first pass is over");
+        while (filtered.pending != null && filtered.next() != null) {
+            // Join the first block to the end of S
+        }
+        TestTables.check(leftscan.runtimeFilters.size() == 1, "filter of the rescanned right table handed to the left scan");
+        filtered.close();
+        TestTables.checkResult("left tuples dropped by the filter", filtered, TestTables.expected("L", "S", few));
+
+        /** A select on the right side is materialized into a file first **/
+        Condition small = TestTables.selectCond("R", "v", Condition.LESSTHAN, "40");
+        Join logical = TestTables.join(TestTables.scan("L"), TestTables.select(TestTables.scan("R"), small),
+                mixed, JoinType.BLOCKNESTED);
+        ArrayList<Tuple> selected = new ArrayList<>();
+        for (Tuple t : TestTables.rows("R")) {
+            if (t.getInt(2) < 40) {
+                selected.add(t);
+            }
+        }
+        plan = RandomOptimizer.makeExecPlan(logical);
+        TestTables.checkResult("materialized right side", plan,
+                TestTables.contents(TestTables.joinRows(TestTables.rows("L"), TestTables.scan("L").getSchema(),
+                        selected, TestTables.scan("R").getSchema(), mixed)));
+        TestTables.check(!((BlockNestedJoin) plan).rescan, "right select materialized");
+
+        TestTables.finish("BlockNestedJoinTest");
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * Checks when the HashJoin partitions its inputs again or joins them in chunks, and
+ * that the heavy hitters of a skewed right input get a pair of partitions of their own.
+ * Its results are compared with a nested loop over the rows of the tables.
+ **/
+
+package qp.operators;
+
+import qp.utils.Condition;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class HashJoinTest {
+
+    public static void main(String[] args) {
+        /** 10 tuples per page, and a single buffer for the hash table **/
+        TestTables.setup(120, 3);
+        TestTables.create("L", 2000, 200, 0, 1);
+        TestTables.create("R", 2000, 200, 0, 2);
+        ArrayList<Condition> cons = TestTables.conds(TestTables.cond("L", "k", Condition.EQUAL, "R", "k"));
+        List<String> expected = TestTables.expected("L", "R", cons);
+        TestTables.check(!expected.isEmpty(), "join has a result");
+
+        /** The pairs are split MAX_LEVEL times and are then still too large, so they are joined in chunks **/
+        Operator plan = TestTables.plan(JoinType.HASHJOIN, "L", "R", cons);
+        TestTables.checkResult("partitions split up to MAX_LEVEL", plan, expected);
+        TestTables.check(((HashJoin) plan).getNumChunks() > 0, "build partitions joined in chunks at MAX_LEVEL");
+        TestTables.check(((HashJoin) plan).getNumHeavy() == 0, "no heavy hitter among evenly spread keys");
+
+        /** With enough buffers every pair fits after the first pass **/
+        TestTables.setup(120, 80);
+        plan = TestTables.plan(JoinType.HASHJOIN, "L", "R", cons);
+        TestTables.checkResult("partitions that fit", plan, expected);
+        TestTables.check(((HashJoin) plan).getNumChunks() == 0, "no chunks when the partitions fit");
+
+        /** Only the equality is hashed, the other conditions are checked on the matches **/
+        TestTables.setup(120, 5);
+        ArrayList<Condition> mixed = TestTables.conds(TestTables.cond("L", "k", Condition.EQUAL, "R", "k"),
+                TestTables.cond("L", "v", Condition.GTOE, "R", "v"));
+        TestTables.checkResult("equality and inequality conditions",
+                TestTables.plan(JoinType.HASHJOIN, "L", "R", mixed), TestTables.expected("L", "R", mixed));
+
+        ArrayList<Condition> keys = TestTables.conds(TestTables.cond("L", "k", Condition.EQUAL, "R", "k"),
+                TestTables.cond("L", "v", Condition.EQUAL, "R", "v"));
+        TestTables.checkResult("two equality conditions",
+                TestTables.plan(JoinType.HASHJOIN, "L", "R", keys), TestTables.expected("L", "R", keys));
+
+        ArrayList<Condition> none = TestTables.conds(TestTables.cond("L", "k", Condition.LESSTHAN, "R", "k"));
+        TestTables.check(TestTables.run(TestTables.plan(JoinType.HASHJOIN, "L", "R", none)) == null,
+                "no equality condition to hash");
+
+        /** 40% of S, and 30% of T, have the key 0 **/
+        TestTables.setup(120, 5);
+        TestTables.create("S", 2000, 200, 0.4, 3);
+        TestTables.create("T", 1500, 200, 0.3, 4);
+        ArrayList<Condition> skewed = TestTables.conds(TestTables.cond("L", "k", Condition.EQUAL, "S", "k"));
+        plan = TestTables.plan(JoinType.HASHJOIN, "L", "S", skewed);
+        TestTables.checkResult("skewed right input", plan, TestTables.expected("L", "S", skewed));
+        TestTables.check(((HashJoin) plan).getNumHeavy() == 1, "single heavy hitter of the right input found");
+        TestTables.check(((HashJoin) plan).getSkewBuild() > 0, "right tuples of the heavy hitter joined apart");
+        TestTables.check(((HashJoin) plan).getNumRightKeys() == 201, "filter sized for the distinct keys of the .stat file");
+
+        ArrayList<Condition> both = TestTables.conds(TestTables.cond("T", "k", Condition.EQUAL, "S", "k"));
+        plan = TestTables.plan(JoinType.HASHJOIN, "T", "S", both);
+        TestTables.checkResult("same key skewed on both inputs", plan, TestTables.expected("T", "S", both));
+        TestTables.check(((HashJoin) plan).getSkewProbe() > 0, "left tuples of the heavy hitter joined apart");
+
+        ArrayList<Condition> leftonly = TestTables.conds(TestTables.cond("S", "k", Condition.EQUAL, "R", "k"));
+        plan = TestTables.plan(JoinType.HASHJOIN, "S", "R", leftonly);
+        TestTables.checkResult("skewed left input", plan, TestTables.expected("S", "R", leftonly));
+        TestTables.check(((HashJoin) plan).getNumHeavy() == 0, "heavy hitters only looked for in the right input");
+
+        TestTables.finish("HashJoinTest");
+    }
+}
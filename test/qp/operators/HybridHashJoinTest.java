@@ -0,0 +1,55 @@
+/**
+ * Checks how many partitions of the right input the HybridHashJoin keeps in memory
+ * as its buffers shrink, and its result against a nested loop over the rows of the tables
+ **/
+
+package qp.operators;
+
+import qp.utils.Condition;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class HybridHashJoinTest {
+
+    public static void main(String[] args) {
+        TestTables.setup(120, 3);
+        TestTables.create("L", 2000, 200, 0, 1);
+        TestTables.create("R", 600, 200, 0, 2);
+        ArrayList<Condition> cons = TestTables.conds(TestTables.cond("L", "k", Condition.EQUAL, "R", "k"));
+        List<String> expected = TestTables.expected("L", "R", cons);
+
+        /** R takes 60 pages, and at least a page more for every partition it partly fills.
+         ** With 150 buffers all of it stays in memory and nothing is written out.
+         **/
+        TestTables.setup(120, 200);
+        HybridHashJoin plan = (HybridHashJoin) TestTables.plan(JoinType.HYBRIDHASH, "L", "R", cons);
+        TestTables.checkResult("right input in " + plan.numBuff + " buffers", plan, expected);
+        TestTables.check(plan.numspilled == 0 && plan.numfiles == 0, "all partitions kept in memory");
+        TestTables.check(plan.residentpages >= 60 && plan.residentpages <= plan.numBuff - 2,
+                "resident pages within the buffers");
+
+        /** With 80 buffers the largest partitions are written out until the others fit.
+         ** Every one written out takes a buffer, and so does its left partition later.
+         **/
+        TestTables.setup(120, 106);
+        plan = (HybridHashJoin) TestTables.plan(JoinType.HYBRIDHASH, "L", "R", cons);
+        TestTables.checkResult("right input in " + plan.numBuff + " buffers", plan, expected);
+        TestTables.check(plan.numspilled > 0 && plan.numspilled < plan.numparts,
+                plan.numspilled + " of " + plan.numparts + " partitions written out");
+        TestTables.check(plan.residentpages > 0 && plan.residentpages <= plan.numBuff - 2 - plan.numspilled,
+                "resident pages within the buffers left by the partitions written out");
+        TestTables.check(plan.numfiles == 2 * plan.numspilled, "a pair of files per partition written out");
+
+        /** With few buffers every partition is written out, and the join is a Grace hash join **/
+        for (int numbuff : new int[]{10, 3}) {
+            TestTables.setup(120, numbuff);
+            plan = (HybridHashJoin) TestTables.plan(JoinType.HYBRIDHASH, "L", "R", cons);
+            TestTables.checkResult("right input in " + plan.numBuff + " buffers", plan, expected);
+            TestTables.check(plan.numspilled == plan.numparts && plan.residentpages == 0,
+                    "all " + plan.numparts + " partitions written out");
+        }
+
+        TestTables.finish("HybridHashJoinTest");
+    }
+}
@@ -0,0 +1,154 @@
+/**
+ * Checks the IndexNestedJoin against a nested loop over the rows of the tables,
+ * and counts the tuples it reads from the .tbli file
+ **/
+
+package qp.operators;
+
+import qp.utils.BPlusTree;
+import qp.utils.BPlusTreeKey;
+import qp.utils.Batch;
+import qp.utils.Condition;
+import qp.utils.Tuple;
+import qp.utils.TupleCache;
+import utils.BuildIndex;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * The join looks for its indexes in the indexes folder next to the folder it runs in,
+ * and for the .tbli files in the folder it runs in, as the queries run from testcases.
+ **/
+public class IndexNestedJoinTest {
+
+    static File indexes = new File("../indexes");
+
+    /**
+     * Writes the .tbli file and the B+ tree of the column of the table, as BuildIndex does.
+     * The serialized tuples are padded to the longest one, as the tree keeps a single length.
+     **/
+    static void writeIndex(String name, String col, int index) {
+        ArrayList<Tuple> sorted = new ArrayList<>(TestTables.rows(name));
+        sorted.sort(Comparator.comparingInt(t -> t.getInt(index)));
+        ArrayList<byte[]> records = new ArrayList<>();
+        int length = 0;
+        for (Tuple t : sorted) {
+            records.add(BuildIndex.serialize(t));
+            length = Math.max(length, records.get(records.size() - 1).length);
+        }
+        BPlusTree<BPlusTreeKey, Long> tree = new BPlusTree<>(10);
+        tree.serializedValueLength = length;
+        try (FileOutputStream out = new FileOutputStream(name + "-" + col + ".tbli")) {
+            for (int i = 0; i < sorted.size(); ++i) {
+                ArrayList<Object> key = new ArrayList<>();
+                key.add(sorted.get(i).dataAt(index));
+                if (tree.search(new BPlusTreeKey(key)) == null) {
+                    tree.insert(new BPlusTreeKey(key), (long) i * length);
+                }
+                out.write(records.get(i));
+                out.write(new byte[length - records.get(i).length]);
+            }
+        } catch (IOException io) {
+            TestTables.fail("cannot write " + name + "-" + col + ".tbli");
+        }
+        tree.setFirstKey();
+        tree.setLastKey();
+        try (ObjectOutputStream out = new ObjectOutputStream(
+                new FileOutputStream(new File(indexes, name + "-" + col)))) {
+            out.writeObject(tree);
+        } catch (IOException io) {
+            TestTables.fail("cannot write the index " + name + "-" + col);
+        }
+    }
+
+    // Whether the output keeps the order of the left table, whose ids ascend
+    static boolean inLeftOrder(Operator plan) {
+        if (!plan.open()) {
+            return false;
+        }
+        int last = -1;
+        boolean ordered = true;
+        Batch batch;
+        while ((batch = plan.next()) != null) {
+            for (int i = 0; i < batch.size(); ++i) {
+                ordered &= batch.get(i).getInt(0) >= last;
+                last = batch.get(i).getInt(0);
+            }
+        }
+        plan.close();
+        return ordered;
+    }
+
+    // Number of tuples of the .tbli file the joins asked for so far
+    static long reads(String tbli) {
+        TupleCache cache = TupleCache.forFile(tbli);
+        return cache.getHits() + cache.getMisses();
+    }
+
+    public static void main(String[] args) {
+        /** 10 input tuples and 5 output tuples per page, and a block of all the left table **/
+        TestTables.setup(120, 100);
+        TestTables.create("L", 300, 40, 0, 1);
+        TestTables.create("R", 600, 20, 0, 2);
+        boolean created = indexes.mkdir();
+        writeIndex("R", "k", 1);
+
+        /** The 30 or so tuples of R with a key fill several output pages **/
+        ArrayList<Condition> cons = TestTables.conds(TestTables.cond("L", "k", Condition.EQUAL, "R", "k"));
+        List<String> expected = TestTables.expected("L", "R", cons);
+        TestTables.check(!expected.isEmpty(), "join has a result");
+        long before = reads("R-k.tbli");
+        IndexNestedJoin sorted = (IndexNestedJoin) TestTables.plan(JoinType.INDEXJOIN, "L", "R", cons);
+        sorted.setSortedProbes(true);
+        TestTables.checkResult("equality probed in key order", sorted, expected);
+
+        /** Each key of L found in R reads its tuples of R and the one after them once **/
+        HashMap<Integer, Integer> rightCounts = new HashMap<>();
+        for (Tuple t : TestTables.rows("R")) {
+            rightCounts.merge(t.getInt(1), 1, Integer::sum);
+        }
+        HashSet<Integer> leftKeys = new HashSet<>();
+        for (Tuple t : TestTables.rows("L")) {
+            leftKeys.add(t.getInt(1));
+        }
+        long once = 0;
+        for (int key : leftKeys) {
+            once += rightCounts.containsKey(key) ? rightCounts.get(key) + 1 : 0;
+        }
+        TestTables.check(reads("R-k.tbli") - before == once,
+                "matches of a key read once, across full output pages");
+
+        /** By default the order of arrival is kept, and the same keys are probed again and again **/
+        before = reads("R-k.tbli");
+        TestTables.checkResult("equality probed in arrival order",
+                TestTables.plan(JoinType.INDEXJOIN, "L", "R", cons), expected);
+        TestTables.check(reads("R-k.tbli") - before > 2 * once, "unsorted probes read the matches again");
+        TestTables.check(inLeftOrder(TestTables.plan(JoinType.INDEXJOIN, "L", "R", cons)),
+                "output in the order of the left table by default");
+        sorted = (IndexNestedJoin) TestTables.plan(JoinType.INDEXJOIN, "L", "R", cons);
+        sorted.setSortedProbes(true);
+        TestTables.check(!inLeftOrder(sorted), "sorted probes reorder the output");
+
+        /** Blocks of 3 pages, with the other condition checked on the matches **/
+        TestTables.setup(120, 5);
+        ArrayList<Condition> mixed = TestTables.conds(TestTables.cond("L", "k", Condition.EQUAL, "R", "k"),
+                TestTables.cond("L", "v", Condition.LESSTHAN, "R", "v"));
+        TestTables.checkResult("equality and inequality over several blocks",
+                TestTables.plan(JoinType.INDEXJOIN, "L", "R", mixed), TestTables.expected("L", "R", mixed));
+
+        new File(indexes, "R-k").delete();
+        new File("R-k.tbli").delete();
+        if (created) {
+            indexes.delete();
+        }
+        TestTables.finish("IndexNestedJoinTest");
+    }
+}
@@ -0,0 +1,67 @@
+/**
+ * Checks that the InequalityJoin sorts each left block on the attributes of its two
+ * inequality conditions, in the direction of each, and that its results for every
+ * pair of directions match a nested loop over the rows of the tables
+ **/
+
+package qp.operators;
+
+import qp.utils.Condition;
+
+import java.util.ArrayList;
+
+public class InequalityJoinTest {
+
+    static final int[] OPS = {Condition.LESSTHAN, Condition.GREATERTHAN, Condition.LTOE, Condition.GTOE};
+
+    public static void main(String[] args) {
+        TestTables.setup(120, 6);
+        TestTables.create("L", 300, 40, 0, 1);
+        TestTables.create("R", 200, 40, 0.2, 2);
+
+        for (int op : OPS) {
+            ArrayList<Condition> cons = TestTables.conds(TestTables.cond("L", "k", op, "R", "k"));
+            TestTables.checkResult("single condition " + op,
+                    TestTables.plan(JoinType.INEQUALITY, "L", "R", cons), TestTables.expected("L", "R", cons));
+        }
+
+        /** Every pair of directions, such as L.k < R.k and L.v >= R.v **/
+        for (int first : OPS) {
+            for (int second : OPS) {
+                ArrayList<Condition> cons = TestTables.conds(TestTables.cond("L", "k", first, "R", "k"),
+                        TestTables.cond("L", "v", second, "R", "v"));
+                TestTables.checkResult("conditions " + first + " and " + second,
+                        TestTables.plan(JoinType.INEQUALITY, "L", "R", cons), TestTables.expected("L", "R", cons));
+            }
+        }
+
+        /** The block of numBuff - 2 pages is sorted up on L.k for <, and its positions down on L.v for >= **/
+        ArrayList<Condition> sweep = TestTables.conds(TestTables.cond("L", "k", Condition.LESSTHAN, "R", "k"),
+                TestTables.cond("L", "v", Condition.GTOE, "R", "v"));
+        InequalityJoin plan = (InequalityJoin) TestTables.plan(JoinType.INEQUALITY, "L", "R", sweep);
+        plan.open();
+        plan.next();
+        boolean byx = plan.byx.length == (plan.numBuff - 2) * 10;
+        boolean byy = plan.yorder.length == plan.byx.length;
+        for (int i = 1; i < plan.byx.length; ++i) {
+            byx &= plan.byx[i - 1].getInt(1) <= plan.byx[i].getInt(1);
+            byy &= plan.byx[plan.yorder[i - 1]].getInt(2) >= plan.byx[plan.yorder[i]].getInt(2);
+        }
+        plan.close();
+        TestTables.check(byx, "block sorted on the attribute of the first condition");
+        TestTables.check(byy, "positions of the block sorted for the second condition");
+
+        /** Conditions besides the two inequalities are checked on the pairs found **/
+        ArrayList<Condition> extra = TestTables.conds(TestTables.cond("L", "k", Condition.LESSTHAN, "R", "k"),
+                TestTables.cond("L", "v", Condition.GTOE, "R", "v"),
+                TestTables.cond("L", "id", Condition.NOTEQUAL, "R", "v"));
+        TestTables.checkResult("extra not equal condition",
+                TestTables.plan(JoinType.INEQUALITY, "L", "R", extra), TestTables.expected("L", "R", extra));
+
+        ArrayList<Condition> none = TestTables.conds(TestTables.cond("L", "k", Condition.EQUAL, "R", "k"));
+        TestTables.check(TestTables.run(TestTables.plan(JoinType.INEQUALITY, "L", "R", none)) == null,
+                "no inequality condition to sort on");
+
+        TestTables.finish("InequalityJoinTest");
+    }
+}
@@ -0,0 +1,53 @@
+/**
+ * Checks the MappedScan against the Scan
+ **/
+
+package qp.operators;
+
+import qp.optimizer.BufferManager;
+import qp.optimizer.RandomOptimizer;
+import qp.utils.Batch;
+import qp.utils.BufferPool;
+
+import java.util.List;
+
+public class MappedScanTest {
+
+    public static void main(String[] args) {
+        /** No BufferManager yet, so the pages are decoded straight out of the mapping **/
+        Batch.setPageSize(120);
+        TestTables.create("L", 3000, 200, 0, 1);
+        List<String> expected = TestTables.run(TestTables.scan("L"));
+        TestTables.check(expected != null && expected.size() == 3000, "scan of the table");
+        TestTables.check(BufferManager.getBufferPool() == null, "no buffer pool before the BufferManager");
+        MappedScan mapped = new MappedScan("L", OpType.SCAN);
+        mapped.setSchema(TestTables.scan("L").getSchema());
+        TestTables.check(expected.equals(TestTables.run(mapped)), "mapped scan without a pool");
+        TestTables.check(expected.equals(TestTables.run(mapped)), "mapped scan opened again");
+        TestTables.check(expected.equals(TestTables.run((Operator) mapped.clone())), "clone of the mapped scan");
+
+        /** The table has 9 pages of 4KB, so the pool of 3 frames
+         ** out of 12 buffers evicts and 20 frames keep them all **/
+        for (int numbuff : new int[]{12, 80}) {
+            TestTables.setup(120, numbuff);
+            BufferPool pool = BufferManager.getBufferPool();
+            TestTables.check(expected.equals(TestTables.run(mapped)), "mapped scan with " + numbuff + " buffers");
+            long misses = pool.getMisses();
+            TestTables.check(expected.equals(TestTables.run(mapped)), "mapped scan again with " + numbuff + " buffers");
+            if (numbuff == 80) {
+                TestTables.check(pool.getMisses() == misses && pool.getHits() > 0, "second scan served from the pool");
+            } else {
+                TestTables.check(pool.getMisses() > misses, "pages evicted from a pool that is too small are read again");
+            }
+        }
+
+        /** A table of a single tuple, and the plan of the optimizer **/
+        TestTables.create("S", 1, 1, 0, 2);
+        MappedScan single = new MappedScan("S", OpType.SCAN);
+        single.setSchema(TestTables.scan("S").getSchema());
+        TestTables.check(TestTables.run(single).size() == 1, "mapped scan of a single tuple");
+        TestTables.check(RandomOptimizer.makeExecPlan(TestTables.scan("L")) instanceof MappedScan,
+                "optimizer maps tables in the page format");
+        TestTables.finish("MappedScanTest");
+    }
+}
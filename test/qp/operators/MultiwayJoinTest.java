@@ -0,0 +1,76 @@
+/**
+ * Checks the MultiwayJoin against nested loops over the rows of the tables
+ **/
+
+package qp.operators;
+
+import qp.optimizer.RandomOptimizer;
+import qp.utils.Condition;
+import qp.utils.Schema;
+import qp.utils.Tuple;
+
+import java.util.List;
+
+public class MultiwayJoinTest {
+
+    /**
+     * The chain F join D on F.k = D.id, then join E on E.id = F.v, with E on the left
+     **/
+    static Operator chain(int type, String dim1, String dim2) {
+        Join first = TestTables.join(TestTables.scan("F"), TestTables.scan(dim1),
+                TestTables.conds(TestTables.cond("F", "k", Condition.EQUAL, dim1, "id")), type);
+        Join second = TestTables.join(TestTables.scan(dim2), first,
+                TestTables.conds(TestTables.cond(dim2, "id", Condition.EQUAL, "F", "v"),
+                        TestTables.cond(dim2, "k", Condition.LESSTHAN, dim1, "v")), type);
+        return RandomOptimizer.makeExecPlan(second);
+    }
+
+    /**
+     * Tuples of the same chain, joined with nested loops over the rows of the tables
+     **/
+    static List<String> expected(String dim1, String dim2) {
+        Schema fschema = TestTables.scan("F").getSchema();
+        Schema dschema = TestTables.scan(dim1).getSchema();
+        List<Tuple> first = TestTables.joinRows(TestTables.rows("F"), fschema, TestTables.rows(dim1), dschema,
+                TestTables.conds(TestTables.cond("F", "k", Condition.EQUAL, dim1, "id")));
+        List<Tuple> second = TestTables.joinRows(TestTables.rows(dim2), TestTables.scan(dim2).getSchema(),
+                first, fschema.joinWith(dschema),
+                TestTables.conds(TestTables.cond(dim2, "id", Condition.EQUAL, "F", "v"),
+                        TestTables.cond(dim2, "k", Condition.LESSTHAN, dim1, "v")));
+        return TestTables.contents(second);
+    }
+
+    public static void main(String[] args) {
+        /** 10 tuples per page and 10 buffers per join, so the two dimensions may take 18 pages **/
+        TestTables.setup(120, 13);
+        TestTables.create("F", 1000, 60, 0.1, 1);
+        TestTables.create("D", 60, 10, 0, 2);
+        TestTables.create("E", 100, 10, 0, 3);
+        TestTables.create("G", 400, 10, 0, 4);
+
+        List<String> expected = expected("D", "E");
+        TestTables.check(!expected.isEmpty(), "chain has a result");
+        for (int type : new int[]{JoinType.HASHJOIN, JoinType.HYBRIDHASH, JoinType.PARALLELHASH}) {
+            Operator plan = chain(type, "D", "E");
+            TestTables.check(plan instanceof MultiwayJoin, "dimensions that fit make a MultiwayJoin, type " + type);
+            TestTables.checkResult("multiway join of type " + type, plan, expected);
+            TestTables.check(plan instanceof MultiwayJoin && !((MultiwayJoin) plan).isBinary(),
+                    "dimensions joined in memory, type " + type);
+        }
+
+        /** G is planned as 50 tuples, but its 40 pages do not fit **/
+        expected = expected("D", "G");
+        TestTables.writeStat("G", 50, 11);
+        for (int type : new int[]{JoinType.HASHJOIN, JoinType.HYBRIDHASH, JoinType.PARALLELHASH}) {
+            Operator plan = chain(type, "D", "G");
+            TestTables.check(plan instanceof MultiwayJoin, "underestimated dimension makes a MultiwayJoin, type " + type);
+            TestTables.checkResult("binary joins after the dimensions overflow, type " + type, plan, expected);
+            TestTables.check(plan instanceof MultiwayJoin && ((MultiwayJoin) plan).isBinary(),
+                    "joins executed one by one, type " + type);
+            TestTables.check(plan instanceof MultiwayJoin && ((MultiwayJoin) plan).binary.isRecycling()
+                    == (type != JoinType.PARALLELHASH), "top binary join recycles as the MultiwayJoin, type " + type);
+        }
+
+        TestTables.finish("MultiwayJoinTest");
+    }
+}
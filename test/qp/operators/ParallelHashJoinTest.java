@@ -0,0 +1,78 @@
+/**
+ * Checks that the ParallelHashJoin joins its pairs of partitions on several threads,
+ * and that closing it before the end of its output stops them
+ **/
+
+package qp.operators;
+
+import qp.utils.Batch;
+import qp.utils.Condition;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+
+public class ParallelHashJoinTest {
+
+    // Whether a partition file of the join is left in the folder the test runs in
+    static boolean filesLeft(ParallelHashJoin plan) {
+        String[] names = new File(".").list();
+        if (names != null) {
+            for (String name : names) {
+                if (name.startsWith(plan.prefix)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        /** 10 tuples per page, and a single buffer for the hash tables **/
+        TestTables.setup(120, 3);
+        TestTables.create("L", 2000, 200, 0, 1);
+        TestTables.create("R", 2000, 200, 0, 2);
+        ArrayList<Condition> cons = TestTables.conds(TestTables.cond("L", "k", Condition.EQUAL, "R", "k"));
+        List<String> expected = TestTables.expected("L", "R", cons);
+
+        /** The pairs are still too large at MAX_LEVEL, so they are joined a chunk at a time **/
+        ParallelHashJoin plan = (ParallelHashJoin) TestTables.plan(JoinType.PARALLELHASH, "L", "R", cons);
+        TestTables.checkResult("partitions joined in chunks", plan, expected);
+        TestTables.check(plan.getNumChunks() > 0, "build partitions split into chunks");
+
+        /** The output is left unread for a while, so that the threads filling the queue
+         ** wait, and the pool starts other threads for the other pairs even on a single processor
+         **/
+        TestTables.setup(120, 40);
+        plan = (ParallelHashJoin) TestTables.plan(JoinType.PARALLELHASH, "L", "R", cons);
+        if (!plan.open()) {
+            TestTables.fail("cannot open the join");
+        }
+        Thread.sleep(200);
+        ArrayList<String> out = new ArrayList<>();
+        Batch batch;
+        while ((batch = plan.next()) != null) {
+            for (int i = 0; i < batch.size(); ++i) {
+                out.add(batch.get(i).data().toString());
+            }
+        }
+        plan.close();
+        out.sort(null);
+        TestTables.check(out.equals(expected), "result of the pairs joined by the threads");
+        TestTables.check(plan.getNumWorkers() > 1, plan.getNumWorkers() + " threads joined pairs");
+
+        /** Closed after a page, the join waits for its threads, which skip the pairs left
+         ** and delete their partitions
+         **/
+        plan = (ParallelHashJoin) TestTables.plan(JoinType.PARALLELHASH, "L", "R", cons);
+        plan.open();
+        TestTables.check(plan.next() != null, "first page of output");
+        ForkJoinTask<?> root = plan.root;
+        plan.close();
+        TestTables.check(root.isDone(), "threads stopped by close");
+        TestTables.check(!filesLeft(plan), "partitions deleted by the stopped threads");
+
+        TestTables.finish("ParallelHashJoinTest");
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * Checks that the pages read ahead in the background give the same tuples as reads on demand
+ **/
+
+package qp.operators;
+
+import qp.utils.Batch;
+import qp.utils.PageFileReader;
+import qp.utils.Tuple;
+import qp.utils.TupleReader;
+import qp.utils.TupleWriter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+public class PrefetchTest {
+
+    static Scan scan(String name, boolean mapped, int prefetch) {
+        Scan scan = mapped ? new MappedScan(name, OpType.SCAN) : new Scan(name, OpType.SCAN);
+        scan.setSchema(TestTables.scan(name).getSchema());
+        scan.setPrefetch(prefetch);
+        return scan;
+    }
+
+    // Number of threads reading ahead
+    static int prefetchThreads() {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals("prefetch")) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public static void main(String[] args) {
+        /** The table has 18 pages of 4KB and is read in batches of 10 tuples **/
+        TestTables.setup(120, 20);
+        TestTables.create("L", 6000, 200, 0, 1);
+        List<String> expected = TestTables.contents(TestTables.rows("L"));
+
+        for (boolean mapped : new boolean[]{false, true}) {
+            for (int prefetch : new int[]{0, 1, 3, 40}) {
+                TestTables.check(expected.equals(TestTables.run(scan("L", mapped, prefetch))),
+                        (mapped ? "mapped scan" : "scan") + " reading " + prefetch + " pages ahead");
+            }
+        }
+
+        /** Without a pool, pages are decoded straight out of the mapping the prefetcher touched **/
+        TestTables.setup(120, 3);
+        TestTables.check(expected.equals(TestTables.run(scan("L", true, 3))), "mapped scan ahead without a pool");
+        TestTables.setup(120, 20);
+
+        /** Rewinding and closing stop the prefetcher wherever it is **/
+        PageFileReader reader = new PageFileReader("L.tbl", TestTables.scan("L").getSchema());
+        reader.setPrefetch(2);
+        reader.open();
+        for (int i = 0; i < 500; ++i) {
+            reader.next();
+        }
+        reader.rewind();
+        ArrayList<Tuple> again = new ArrayList<>();
+        Tuple t;
+        while ((t = reader.next()) != null) {
+            again.add(t);
+        }
+        TestTables.check(TestTables.contents(again).equals(expected), "all tuples read after a rewind");
+        reader.rewind();
+        reader.next();
+        TestTables.check(reader.close(), "closed while reading ahead");
+
+        /**
+         * Many scans opened one after the other share the threads. A thread goes back to the
+         * pool a moment after its task is done, so a scan may still start a thread now and then.
+         **/
+        int before = prefetchThreads();
+        for (int i = 0; i < 20; ++i) {
+            Scan scan = scan("L", false, 2);
+            scan.open();
+            scan.next();
+            scan.close();
+        }
+        TestTables.check(prefetchThreads() - before < 10, "scans reuse the threads reading ahead");
+
+        /** A temporary file read ahead through TupleReader **/
+        TupleWriter out = new TupleWriter("spill", 10, TestTables.scan("L").getSchema());
+        out.open();
+        for (Tuple row : TestTables.rows("L")) {
+            out.next(row);
+        }
+        out.close();
+        TupleReader in = new TupleReader("spill", 10, TestTables.scan("L").getSchema());
+        in.setPrefetch(3);
+        in.open();
+        ArrayList<Tuple> spilled = new ArrayList<>();
+        while ((t = in.next()) != null) {
+            spilled.add(t);
+        }
+        TestTables.check(TestTables.contents(spilled).equals(expected), "temporary file read ahead");
+        new File("spill").delete();
+
+        TestTables.finish("PrefetchTest");
+    }
+}
@@ -0,0 +1,67 @@
+/**
+ * Checks which operators of a plan reuse the batches handed back to them
+ **/
+
+package qp.operators;
+
+import qp.optimizer.RandomOptimizer;
+import qp.utils.Batch;
+import qp.utils.Condition;
+import qp.utils.VectorBatch;
+
+public class RecyclingTest {
+
+    public static void main(String[] args) {
+        TestTables.setup(120, 20);
+        TestTables.create("L", 1000, 50, 0, 1);
+        TestTables.create("R", 300, 50, 0, 2);
+
+        /** A block nested join over a select hands back the pages of both inputs **/
+        Select sel = TestTables.select(TestTables.scan("L"), TestTables.selectCond("L", "v", Condition.LESSTHAN, "50"));
+        Join logical = TestTables.join(sel, TestTables.scan("R"),
+                TestTables.conds(TestTables.cond("L", "k", Condition.EQUAL, "R", "k")), JoinType.BLOCKNESTED);
+        Join bnj = (Join) RandomOptimizer.makeExecPlan(logical);
+        TestTables.check(bnj.getLeft().isRecycling() && bnj.getRight().isRecycling(),
+                "inputs of a block nested join recycle");
+        TestTables.check(((Select) bnj.getLeft()).getBase().isRecycling(), "base of a select recycles");
+        TestTables.check(!bnj.isRecycling(), "root recycles only when its caller sets it");
+
+        /** The index join keeps its outer pages and the hash distinct its input pages **/
+        logical.setJoinType(JoinType.INDEXJOIN);
+        Join inj = (Join) RandomOptimizer.makeExecPlan(logical);
+        TestTables.check(!inj.getLeft().isRecycling() && !inj.getRight().isRecycling(),
+                "inputs of an index join do not recycle");
+        HashDistinct distinct = new HashDistinct(TestTables.scan("L"), OpType.HASHDISTINCT);
+        distinct.setSchema(TestTables.scan("L").getSchema());
+        RandomOptimizer.makeExecPlan(distinct);
+        TestTables.check(!distinct.getBase().isRecycling(), "input of a hash distinct does not recycle");
+        ParallelHashJoin phj = new ParallelHashJoin(logical);
+        phj.setRecycling(true);
+        TestTables.check(!phj.isRecycling(), "parallel hash join never recycles");
+
+        /** A page filtered as a vector leaves the batch handed back in the pool **/
+        Select vector = TestTables.select(TestTables.scan("L"), TestTables.selectCond("L", "v", Condition.LESSTHAN, "50"));
+        vector.setRecycling(true);
+        vector.open();
+        Batch first = vector.next();
+        Batch handed = new Batch(10);
+        vector.recycle(handed);
+        Batch second = vector.next();
+        TestTables.check(first instanceof VectorBatch && second instanceof VectorBatch && vector.recycled.size() == 1,
+                "vector path does not take a recycled batch");
+        vector.close();
+
+        /** The pages of a join are filtered tuple by tuple, into the batch handed back **/
+        Select rows = TestTables.select(bnj, TestTables.selectCond("L", "id", Condition.LESSTHAN, "500"));
+        rows.setRecycling(true);
+        rows.open();
+        first = rows.next();
+        rows.recycle(first);
+        second = rows.next();
+        TestTables.check(!(first instanceof VectorBatch) && second == first && rows.recycled.isEmpty(),
+                "row path reuses the recycled batch");
+        rows.close();
+
+        TestTables.finish("RecyclingTest");
+    }
+}
@@ -0,0 +1,82 @@
+/**
+ * Checks the Select and the Project over a scan of the table against the rows of the table
+ **/
+
+package qp.operators;
+
+import qp.utils.Attribute;
+import qp.utils.Batch;
+import qp.utils.Condition;
+import qp.utils.Tuple;
+import qp.utils.VectorBatch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class SelectTest {
+
+    static Project project(Operator base, String tbl, String... cols) {
+        ArrayList<Attribute> attrs = new ArrayList<>();
+        for (String col : cols) {
+            attrs.add(new Attribute(tbl, col, Attribute.INT));
+        }
+        Project proj = new Project(base, attrs, OpType.PROJECT);
+        proj.setSchema(base.getSchema().subSchema(attrs));
+        return proj;
+    }
+
+    // Whether the first batch of the operator is a VectorBatch, which means it was filtered on columns
+    static boolean firstIsVector(Operator op) {
+        op.open();
+        Batch first = op.next();
+        op.close();
+        return first instanceof VectorBatch;
+    }
+
+    public static void main(String[] args) {
+        /** 10 tuples per page, so the pages of 4KB of the file are cut into several batches **/
+        TestTables.setup(120, 10);
+        TestTables.create("L", 3000, 200, 0, 1);
+        List<Tuple> rows = TestTables.rows("L");
+
+        for (int op = Condition.LESSTHAN; op <= Condition.NOTEQUAL; ++op) {
+            ArrayList<Tuple> constant = new ArrayList<>();
+            ArrayList<Tuple> columns = new ArrayList<>();
+            for (Tuple t : rows) {
+                if (TestTables.satisfies(op, t.getInt(2), 50)) {
+                    constant.add(t);
+                }
+                if (TestTables.satisfies(op, t.getInt(1), t.getInt(2))) {
+                    columns.add(t);
+                }
+            }
+            Select sel = TestTables.select(TestTables.scan("L"), TestTables.selectCond("L", "v", op, "50"));
+            TestTables.checkResult("L.v against a constant, operator " + op, sel, TestTables.contents(constant));
+            TestTables.check(firstIsVector(sel), "filtered on the columns, operator " + op);
+            Attribute v = new Attribute("L", "v", Attribute.INT);
+            sel = TestTables.select(TestTables.scan("L"), TestTables.selectCond("L", "k", op, v));
+            TestTables.checkResult("L.k against L.v, operator " + op, sel, TestTables.contents(columns));
+        }
+
+        /** Two selects on one scan, projected to two of the columns in another order **/
+        ArrayList<Tuple> projected = new ArrayList<>();
+        for (Tuple t : rows) {
+            if (t.getInt(2) < 30 && t.getInt(1) >= 100) {
+                projected.add(new Tuple(new ArrayList<>(Arrays.asList(t.dataAt(2), t.dataAt(0)))));
+            }
+        }
+        Select first = TestTables.select(TestTables.scan("L"),
+                TestTables.selectCond("L", "v", Condition.LESSTHAN, "30"));
+        Select both = TestTables.select(first, TestTables.selectCond("L", "k", Condition.GTOE, "100"));
+        Project proj = project(both, "L", "v", "id");
+        TestTables.checkResult("projection of two selects", proj, TestTables.contents(projected));
+        TestTables.check(firstIsVector(proj), "projected on the columns");
+
+        /** No row has v of 100 **/
+        Select none = TestTables.select(TestTables.scan("L"), TestTables.selectCond("L", "v", Condition.EQUAL, "100"));
+        TestTables.checkResult("select of no row", none, new ArrayList<>());
+
+        TestTables.finish("SelectTest");
+    }
+}
@@ -0,0 +1,94 @@
+/**
+ * Checks that the SortMergeJoin writes out the groups of duplicate keys too large for
+ * its buffers, reads the sorted .tbli copy of an input instead of sorting it, and
+ * leaves no run behind. Its results are compared with a nested loop over the rows.
+ **/
+
+package qp.operators;
+
+import qp.utils.Condition;
+import qp.utils.Tuple;
+import utils.BuildIndex;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+public class SortMergeJoinTest {
+
+    // Names of the files in the current folder
+    static List<String> files() {
+        String[] names = new File(".").list();
+        Arrays.sort(names);
+        return Arrays.asList(names);
+    }
+
+    /**
+     * Writes the sorted copy of the table on the column that BuildIndex writes, each
+     * tuple serialized on its own in the order of the column
+     **/
+    static void writeIndexFile(String name, String col, int index) {
+        ArrayList<Tuple> sorted = new ArrayList<>(TestTables.rows(name));
+        sorted.sort(Comparator.comparingInt(t -> t.getInt(index)));
+        try (FileOutputStream out = new FileOutputStream(name + "-" + col + ".tbli")) {
+            for (Tuple t : sorted) {
+                out.write(BuildIndex.serialize(t));
+            }
+        } catch (IOException io) {
+            TestTables.fail("cannot write " + name + "-" + col + ".tbli");
+        }
+    }
+
+    public static void main(String[] args) {
+        /** 10 tuples per page and 3 buffers, so the sorts take several merge passes **/
+        TestTables.setup(120, 3);
+        TestTables.create("L", 2000, 50, 0, 1);
+        TestTables.create("R", 1500, 50, 0.3, 2);
+        List<String> tables = files();
+
+        /** Many tuples share each key on both sides, and a third of R has the key 0 **/
+        ArrayList<Condition> cons = TestTables.conds(TestTables.cond("L", "k", Condition.EQUAL, "R", "k"));
+        List<String> expected = TestTables.expected("L", "R", cons);
+        SortMergeJoin smj = (SortMergeJoin) TestTables.plan(JoinType.SORTMERGE, "L", "R", cons);
+        TestTables.checkResult("duplicate and skewed keys", smj, expected);
+        TestTables.check(smj.spilledGroups > 0, "groups larger than a page written to a file");
+        TestTables.check(files().equals(tables), "no run or temporary file left after close");
+
+        /** With more buffers the groups of about 40 tuples of L are kept in memory **/
+        TestTables.setup(120, 20);
+        smj = (SortMergeJoin) TestTables.plan(JoinType.SORTMERGE, "L", "R", cons);
+        TestTables.checkResult("duplicate keys with the groups in memory", smj, expected);
+        TestTables.check(smj.spilledGroups == 0, "groups that fit kept in memory");
+        TestTables.setup(120, 3);
+
+        /** The sorted copy of L on k is read instead of sorting L **/
+        writeIndexFile("L", "k", 1);
+        smj = (SortMergeJoin) TestTables.plan(JoinType.SORTMERGE, "L", "R", cons);
+        TestTables.checkResult("left input read from its .tbli file", smj, expected);
+        TestTables.check(smj.leftin instanceof SortMergeJoin.IndexFileInput
+                && smj.rightin instanceof SortMergeJoin.FileInput, "only the right input sorted");
+        new File("L-k.tbli").delete();
+
+        ArrayList<Condition> keys = TestTables.conds(TestTables.cond("L", "v", Condition.EQUAL, "R", "v"),
+                TestTables.cond("L", "k", Condition.EQUAL, "R", "k"));
+        TestTables.checkResult("two equality conditions",
+                TestTables.plan(JoinType.SORTMERGE, "L", "R", keys), TestTables.expected("L", "R", keys));
+
+        ArrayList<Condition> mixed = TestTables.conds(TestTables.cond("L", "k", Condition.EQUAL, "R", "k"),
+                TestTables.cond("L", "v", Condition.LESSTHAN, "R", "v"));
+        TestTables.checkResult("equality and inequality conditions",
+                TestTables.plan(JoinType.SORTMERGE, "L", "R", mixed), TestTables.expected("L", "R", mixed));
+
+        /** No key of L.id above 1999 matches, and R.k is at most 50 **/
+        ArrayList<Condition> few = TestTables.conds(TestTables.cond("R", "k", Condition.EQUAL, "L", "id"));
+        TestTables.checkResult("unique keys on one side",
+                TestTables.plan(JoinType.SORTMERGE, "R", "L", few), TestTables.expected("R", "L", few));
+        TestTables.check(files().equals(tables), "no run or temporary file left after close");
+
+        TestTables.finish("SortMergeJoinTest");
+    }
+}
@@ -0,0 +1,296 @@
+/**
+ * Small generated tables and helpers shared by the join tests
+ **/
+
+package qp.operators;
+
+import qp.optimizer.BufferManager;
+import qp.optimizer.RandomOptimizer;
+import qp.utils.Attribute;
+import qp.utils.Batch;
+import qp.utils.Condition;
+import qp.utils.PageFile;
+import qp.utils.PageFileWriter;
+import qp.utils.Schema;
+import qp.utils.Tuple;
+import qp.utils.ZoneMap;
+
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The tables have the integer columns id, k and v. The tests are run from a scratch
+ * directory, as the tables and the temporary files of the joins are written there.
+ * Every result is checked against the BlockNestedJoin on the same tables.
+ **/
+public class TestTables {
+
+    static int checks = 0;          // Number of checks made
+    static int failures = 0;        // Number of checks that failed
+    static HashMap<String, List<Tuple>> tables = new HashMap<>();  // Rows written to every table
+
+    /**
+     * Sets the page size and the buffers of the query, as QueryMain does. A quarter of
+     * the buffers go to the buffer pool as long as the join keeps 3 of them.
+     **/
+    static void setup(int pagesize, int numbuff) {
+        Batch.setPageSize(pagesize);
+        new BufferManager(numbuff, 1);
+    }
+
+    /**
+     * Writes the table name with rows tuples in the page format. The k column takes
+     * keys distinct values, except for the skew share of the rows whose k is 0.
+     * v is drawn from 0 to 99 and id numbers the rows. The statistics and the zone map are written too.
+     **/
+    static void create(String name, int rows, int keys, double skew, long seed) {
+        ArrayList<Attribute> attrs = new ArrayList<>();
+        attrs.add(new Attribute(name, "id", Attribute.INT, Attribute.PK, 4));
+        attrs.add(new Attribute(name, "k", Attribute.INT, 0, 4));
+        attrs.add(new Attribute(name, "v", Attribute.INT, 0, 4));
+        Schema schema = new Schema(attrs);
+        schema.setTupleSize(12);
+        try {
+            ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(name + ".md"));
+            out.writeObject(schema);
+            out.close();
+        } catch (IOException io) {
+            fail("cannot write " + name + ".md");
+            return;
+        }
+        PageFileWriter writer = new PageFileWriter(name + ".tbl", schema, PageFile.DEFAULT_PAGE_SIZE);
+        writer.setZoneMap(ZoneMap.fileFor(name + ".tbl"));
+        if (!writer.open()) {
+            fail("cannot write " + name + ".tbl");
+            return;
+        }
+        Random random = new Random(seed);
+        ArrayList<Tuple> tuples = new ArrayList<>();
+        for (int i = 0; i < rows; ++i) {
+            ArrayList<Object> data = new ArrayList<>();
+            data.add(i);
+            data.add(random.nextDouble() < skew ? 0 : 1 + random.nextInt(keys));
+            data.add(random.nextInt(100));
+            tuples.add(new Tuple(data));
+            writer.next(tuples.get(i));
+        }
+        writer.close();
+        tables.put(name, tuples);
+        writeStat(name, rows, keys + 1);
+    }
+
+    /**
+     * Writes the statistics of the table the optimizer plans with, which need not be the actual ones
+     **/
+    static void writeStat(String name, long rows, long keys) {
+        try {
+            PrintWriter out = new PrintWriter(new FileWriter(name + ".stat"));
+            out.println(rows);
+            out.println(rows + "\t" + Math.min(rows, keys) + "\t" + Math.min(rows, 100) + "\t");
+            out.close();
+        } catch (IOException io) {
+            fail("cannot write " + name + ".stat");
+        }
+    }
+
+    /**
+     * Scan of a table written by create
+     **/
+    static Scan scan(String name) {
+        Scan scan = new Scan(name, OpType.SCAN);
+        ArrayList<Attribute> attrs = new ArrayList<>();
+        attrs.add(new Attribute(name, "id", Attribute.INT, Attribute.PK, 4));
+        attrs.add(new Attribute(name, "k", Attribute.INT, 0, 4));
+        attrs.add(new Attribute(name, "v", Attribute.INT, 0, 4));
+        Schema schema = new Schema(attrs);
+        schema.setTupleSize(12);
+        scan.setSchema(schema);
+        return scan;
+    }
+
+    /**
+     * Rows written to the table by create, in the order of the file
+     **/
+    static List<Tuple> rows(String name) {
+        return tables.get(name);
+    }
+
+    /**
+     * Rows as sorted strings, in the form of the results of run
+     **/
+    static List<String> contents(List<Tuple> tuples) {
+        ArrayList<String> out = new ArrayList<>();
+        for (Tuple t : tuples) {
+            out.add(t.data().toString());
+        }
+        Collections.sort(out);
+        return out;
+    }
+
+    /**
+     * Select condition comparing the column to a constant, given as a String, or to another column
+     **/
+    static Condition selectCond(String tbl, String col, int op, Object rhs) {
+        Condition con = new Condition(new Attribute(tbl, col, Attribute.INT), op, rhs);
+        con.setOpType(Condition.SELECT);
+        return con;
+    }
+
+    static Select select(Operator base, Condition con) {
+        Select sel = new Select(base, con, OpType.SELECT);
+        sel.setSchema(base.getSchema());
+        return sel;
+    }
+
+    /**
+     * Whether the two values satisfy the condition operator
+     **/
+    static boolean satisfies(int op, int left, int right) {
+        switch (op) {
+            case Condition.LESSTHAN:
+                return left < right;
+            case Condition.GREATERTHAN:
+                return left > right;
+            case Condition.LTOE:
+                return left <= right;
+            case Condition.GTOE:
+                return left >= right;
+            case Condition.EQUAL:
+                return left == right;
+            default:
+                return left != right;
+        }
+    }
+
+    static Condition cond(String lefttbl, String leftcol, int op, String righttbl, String rightcol) {
+        Condition con = new Condition(new Attribute(lefttbl, leftcol, Attribute.INT),
+                op, new Attribute(righttbl, rightcol, Attribute.INT));
+        con.setOpType(Condition.JOIN);
+        return con;
+    }
+
+    static ArrayList<Condition> conds(Condition... cons) {
+        ArrayList<Condition> list = new ArrayList<>();
+        Collections.addAll(list, cons);
+        return list;
+    }
+
+    /**
+     * Logical join of two operators with the given join method
+     **/
+    static Join join(Operator left, Operator right, ArrayList<Condition> cons, int type) {
+        Join jn = new Join(left, right, cons, OpType.JOIN);
+        jn.setSchema(left.getSchema().joinWith(right.getSchema()));
+        jn.setJoinType(type);
+        jn.setNumBuff(BufferManager.getBuffersPerJoin());
+        return jn;
+    }
+
+    /**
+     * Executable plan of the join of the two tables with the given join method
+     **/
+    static Operator plan(int type, String lefttbl, String righttbl, ArrayList<Condition> cons) {
+        return RandomOptimizer.makeExecPlan(join(scan(lefttbl), scan(righttbl), cons, type));
+    }
+
+    /**
+     * Runs the plan to the end and returns its tuples as sorted strings, or null if it cannot be opened.
+     * As in QueryMain, the pages of the result are handed back once read.
+     **/
+    static List<String> run(Operator plan) {
+        plan.setRecycling(true);
+        if (!plan.open()) {
+            return null;
+        }
+        ArrayList<String> out = new ArrayList<>();
+        Batch batch;
+        while ((batch = plan.next()) != null) {
+            for (int i = 0; i < batch.size(); ++i) {
+                out.add(batch.get(i).data().toString());
+            }
+            plan.recycle(batch);
+        }
+        plan.close();
+        Collections.sort(out);
+        return out;
+    }
+
+    /**
+     * Joins every pair of rows that satisfies the conditions, with a plain nested loop that
+     * shares no code with the joins. The left attribute of each condition is in the left schema.
+     **/
+    static List<Tuple> joinRows(List<Tuple> leftrows, Schema leftschema, List<Tuple> rightrows, Schema rightschema,
+                                ArrayList<Condition> cons) {
+        int[] leftcols = new int[cons.size()];
+        int[] rightcols = new int[cons.size()];
+        for (int c = 0; c < cons.size(); ++c) {
+            leftcols[c] = leftschema.indexOf(cons.get(c).getLhs());
+            rightcols[c] = rightschema.indexOf((Attribute) cons.get(c).getRhs());
+        }
+        ArrayList<Tuple> out = new ArrayList<>();
+        for (Tuple l : leftrows) {
+            for (Tuple r : rightrows) {
+                boolean match = true;
+                for (int c = 0; c < cons.size() && match; ++c) {
+                    match = satisfies(cons.get(c).getExprType(), l.getInt(leftcols[c]), r.getInt(rightcols[c]));
+                }
+                if (match) {
+                    out.add(l.joinWith(r));
+                }
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Tuples of the join of the two tables as sorted strings, which the joins are checked against
+     **/
+    static List<String> expected(String lefttbl, String righttbl, ArrayList<Condition> cons) {
+        return contents(joinRows(rows(lefttbl), scan(lefttbl).getSchema(), rows(righttbl), scan(righttbl).getSchema(), cons));
+    }
+
+    /**
+     * Runs the plan and checks that it gives the expected tuples
+     **/
+    static void checkResult(String what, Operator plan, List<String> expected) {
+        List<String> actual = run(plan);
+        if (actual == null) {
+            fail(what + ": cannot open the plan");
+        } else if (!actual.equals(expected)) {
+            fail(what + ": " + actual.size() + " tuples instead of " + expected.size());
+        } else {
+            check(true, what);
+        }
+    }
+
+    static void check(boolean ok, String what) {
+        if (ok) {
+            checks++;
+            System.out.println("ok   " + what);
+        } else {
+            fail(what);
+        }
+    }
+
+    static void fail(String what) {
+        checks++;
+        failures++;
+        System.out.println("FAIL " + what);
+    }
+
+    /**
+     * Prints the number of failed checks and exits with 1 if there are any
+     **/
+    static void finish(String test) {
+        System.out.println(test + ": " + (checks - failures) + " of " + checks + " checks passed");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+}
@@ -0,0 +1,83 @@
+/**
+ * Checks that selects skip the pages that the zone map rules out, and only those
+ **/
+
+package qp.operators;
+
+import qp.utils.Condition;
+import qp.utils.PageFile;
+import qp.utils.PageFileWriter;
+import qp.utils.Tuple;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The id column numbers the rows, so its bounds narrow every page down to 341 ids,
+ * while v is spread over every page.
+ **/
+public class ZoneMapTest {
+
+    static List<Tuple> rows;
+
+    /**
+     * Runs the selects of the conditions over a scan of L and checks the result
+     * and the number of pages the scan skipped
+     **/
+    static void checkSkip(String what, int skipped, Condition... cons) {
+        Scan scan = TestTables.scan("L");
+        Operator plan = scan;
+        for (Condition con : cons) {
+            plan = TestTables.select(plan, con);
+        }
+        ArrayList<Tuple> expected = new ArrayList<>();
+        for (Tuple t : rows) {
+            boolean all = true;
+            for (Condition con : cons) {
+                int col = scan.getSchema().indexOf(con.getLhs());
+                all &= TestTables.satisfies(con.getExprType(), t.getInt(col), Integer.parseInt((String) con.getRhs()));
+            }
+            if (all) {
+                expected.add(t);
+            }
+        }
+        TestTables.checkResult(what, plan, TestTables.contents(expected));
+        TestTables.check(scan.pages.getPagesSkipped() == skipped,
+                what + ": " + scan.pages.getPagesSkipped() + " pages skipped, " + skipped + " expected");
+    }
+
+    public static void main(String[] args) {
+        /** 6000 rows in 18 pages of 341 rows **/
+        TestTables.setup(120, 10);
+        TestTables.create("L", 6000, 200, 0, 1);
+        rows = TestTables.rows("L");
+
+        checkSkip("L.id < 500 reads the first 2 pages", 16,
+                TestTables.selectCond("L", "id", Condition.LESSTHAN, "500"));
+        checkSkip("L.id <= 340 reads the first page", 17, TestTables.selectCond("L", "id", Condition.LTOE, "340"));
+        checkSkip("L.id >= 5800 reads the last page", 17, TestTables.selectCond("L", "id", Condition.GTOE, "5800"));
+        checkSkip("L.id > 5999 reads no page", 18, TestTables.selectCond("L", "id", Condition.GREATERTHAN, "5999"));
+        checkSkip("L.id = 3000 reads a single page", 17, TestTables.selectCond("L", "id", Condition.EQUAL, "3000"));
+        checkSkip("L.id <> 3000 reads every page", 0, TestTables.selectCond("L", "id", Condition.NOTEQUAL, "3000"));
+        checkSkip("L.v < 5 reads every page", 0, TestTables.selectCond("L", "v", Condition.LESSTHAN, "5"));
+        checkSkip("two selects on the same scan", 16, TestTables.selectCond("L", "id", Condition.GTOE, "1000"),
+                TestTables.selectCond("L", "id", Condition.LESSTHAN, "1300"));
+        checkSkip("range and a column spread over every page", 17,
+                TestTables.selectCond("L", "id", Condition.LESSTHAN, "300"),
+                TestTables.selectCond("L", "v", Condition.GTOE, "50"));
+
+        /** The table is written again without its zone map, so the old one no longer fits it **/
+        PageFileWriter writer = new PageFileWriter("L.tbl", TestTables.scan("L").getSchema(),
+                PageFile.DEFAULT_PAGE_SIZE);
+        writer.open();
+        for (Tuple t : rows.subList(3000, 6000)) {
+            writer.next(t);
+        }
+        writer.close();
+        rows = rows.subList(3000, 6000);
+        checkSkip("zone map of another version of the table ignored", 0,
+                TestTables.selectCond("L", "id", Condition.LESSTHAN, "3500"));
+
+        TestTables.finish("ZoneMapTest");
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ * Checks the size, the false negatives and the false positives of the BloomFilter
+ **/
+
+package qp.utils;
+
+import java.util.Random;
+
+/**
+ * The keys are random ints. The filters are probed with other random ints, of which
+ * about FALSE_POSITIVE_RATE should pass when the filter is sized for its keys.
+ **/
+public class BloomFilterTest {
+
+    static int checks = 0;              // Number of checks made
+    static int failures = 0;            // Number of checks that failed
+
+    // Whether every key added to the filter passes it
+    static boolean containsAll(BloomFilter filter, int[] keys) {
+        for (int key : keys) {
+            if (!filter.mightContain(key)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Share of the probes that pass the filter, none of them a key
+    static double falsePositives(BloomFilter filter, int probes, long seed) {
+        Random random = new Random(seed);
+        int passed = 0;
+        for (int i = 0; i < probes; ++i) {
+            if (filter.mightContain(random.nextInt() | 1)) {
+                passed++;
+            }
+        }
+        return (double) passed / probes;
+    }
+
+    static int[] keys(int count, long seed) {
+        Random random = new Random(seed);
+        int[] keys = new int[count];
+        for (int i = 0; i < count; ++i) {
+            keys[i] = random.nextInt() & ~1;
+        }
+        return keys;
+    }
+
+    static void check(boolean ok, String what) {
+        checks++;
+        if (!ok) {
+            failures++;
+        }
+        System.out.println((ok ? "ok   " : "FAIL ") + what);
+    }
+
+    public static void main(String[] args) {
+        double rate = BloomFilter.FALSE_POSITIVE_RATE;
+
+        /** Sized for its keys, about 9.6 bits per key at 1% **/
+        int[] keys = keys(10000, 1);
+        BloomFilter filter = new BloomFilter(keys.length, rate, Long.MAX_VALUE);
+        for (int key : keys) {
+            filter.add(key);
+        }
+        check(filter.getNumBits() > 95000 && filter.getNumBits() < 97000, "filter sized for its keys");
+        check(containsAll(filter, keys), "every key added passes");
+        check(falsePositives(filter, 100000, 2) < 2 * rate, "false positives near the rate");
+
+        /** Duplicates set the same bits, so a skewed input does not grow or fill the filter **/
+        BloomFilter skewed = new BloomFilter(1000, rate, Long.MAX_VALUE);
+        int numBits = skewed.getNumBits();
+        int[] few = keys(1000, 3);
+        for (int i = 0; i < 100000; ++i) {
+            skewed.add(i % 10 == 0 ? few[i / 10 % few.length] : few[0]);
+        }
+        check(skewed.getNumBits() == numBits && skewed.getNumAdded() == 100000, "size fixed before the keys are added");
+        check(containsAll(skewed, few) && falsePositives(skewed, 100000, 4) < 2 * rate,
+                "skewed keys filtered at the rate");
+
+        /** The cap of the buffers wins over the estimate, the filter then lets more through **/
+        BloomFilter capped = new BloomFilter(keys.length, rate, 64 * 1024);
+        for (int key : keys) {
+            capped.add(key);
+        }
+        check(capped.getNumBits() == 64 * 1024, "filter capped by the buffers");
+        check(containsAll(capped, keys), "every key passes a capped filter");
+        double capRate = falsePositives(capped, 100000, 5);
+        check(capRate > rate && capRate < 0.1, "capped filter still drops most tuples");
+
+        /** Without an estimate the filter takes all the bits it may **/
+        BloomFilter unknown = new BloomFilter(0, rate, 64 * 1024);
+        for (int key : keys(5000, 6)) {
+            unknown.add(key);
+        }
+        check(unknown.getNumBits() == 64 * 1024 && containsAll(unknown, keys(5000, 6)), "filter without an estimate");
+
+        /** An estimate far too low gives a small filter that still never drops a key **/
+        BloomFilter low = new BloomFilter(1, rate, Long.MAX_VALUE);
+        for (int key : keys) {
+            low.add(key);
+        }
+        check(low.getNumBits() == BloomFilter.MIN_BITS && containsAll(low, keys), "underestimated keys all pass");
+
+        System.out.println("BloomFilterTest: " + (checks - failures) + " of " + checks + " checks passed");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+}
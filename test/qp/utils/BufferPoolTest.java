@@ -0,0 +1,203 @@
+/**
+ * Checks the pins, the write backs and the replacement policies of the BufferPool
+ **/
+
+package qp.utils;
+
+import qp.optimizer.BufferManager;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * The pages are kept in memory by a PageStore that counts the pages it loads and stores.
+ * The first int of every page is the number of the page, or whatever was written to it.
+ **/
+public class BufferPoolTest {
+
+    static final int PAGE_SIZE = 16;
+    static int checks = 0;              // Number of checks made
+    static int failures = 0;            // Number of checks that failed
+
+    static class MemoryStore implements PageStore {
+        HashMap<Integer, Integer> pages = new HashMap<>();
+        int loads = 0;
+        int stores = 0;
+
+        public int getPageSize() {
+            return PAGE_SIZE;
+        }
+
+        public void loadPage(int pageNo, ByteBuffer into) {
+            loads++;
+            into.putInt(pages.getOrDefault(pageNo, pageNo));
+        }
+
+        public void storePage(int pageNo, ByteBuffer from) {
+            stores++;
+            pages.put(pageNo, from.getInt(from.position()));
+        }
+    }
+
+    // Store whose reads wait until the test lets them go on
+    static class SlowStore extends MemoryStore {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        public void loadPage(int pageNo, ByteBuffer into) {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+            super.loadPage(pageNo, into);
+        }
+    }
+
+    // Pins the page, reads its first int and unpins it again
+    static int read(BufferPool pool, int fileId, int pageNo, MemoryStore store) {
+        int frame = pool.pin(fileId, pageNo, store);
+        int value = pool.getPage(frame).getInt();
+        pool.unpin(frame, false);
+        return value;
+    }
+
+    // Whether reading the page is served from the pool
+    static boolean isHit(BufferPool pool, int fileId, int pageNo, MemoryStore store) {
+        long hits = pool.getHits();
+        read(pool, fileId, pageNo, store);
+        return pool.getHits() > hits;
+    }
+
+    static void check(boolean ok, String what) {
+        checks++;
+        if (!ok) {
+            failures++;
+        }
+        System.out.println((ok ? "ok   " : "FAIL ") + what);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        MemoryStore store = new MemoryStore();
+
+        /** LRU: page 0 is read again, so page 1 is the least recently used **/
+        BufferPool pool = new BufferPool(3, new LRUPolicy());
+        int file = pool.fileId("F");
+        for (int p : new int[]{0, 1, 2, 0, 3}) {
+            read(pool, file, p, store);
+        }
+        check(isHit(pool, file, 0, store) && isHit(pool, file, 2, store) && isHit(pool, file, 3, store)
+                && !isHit(pool, file, 1, store), "LRU evicts the least recently used page");
+        check(pool.getEvictions() == 2 && pool.getMisses() == 5, "LRU misses and evictions counted");
+
+        /** CLOCK: every bit is set, so the hand clears them all and takes the first frame **/
+        pool = new BufferPool(3, new ClockPolicy());
+        for (int p : new int[]{0, 1, 2, 3}) {
+            read(pool, file, p, store);
+        }
+        check(isHit(pool, file, 1, store) && isHit(pool, file, 2, store) && !isHit(pool, file, 0, store),
+                "CLOCK evicts the first frame once every reference bit is cleared");
+
+        /** LRU-2: page 0 is read twice, the pages of a scan once **/
+        pool = new BufferPool(3, new LRUKPolicy(2));
+        read(pool, file, 0, store);
+        read(pool, file, 0, store);
+        for (int p = 10; p < 20; ++p) {
+            read(pool, file, p, store);
+        }
+        check(isHit(pool, file, 0, store), "LRU-2 keeps a page read twice through a scan");
+        check(ReplacementPolicy.forName("lru-3") instanceof LRUKPolicy
+                && ReplacementPolicy.forName("CLOCK") instanceof ClockPolicy, "policies chosen by name");
+
+        /** Pinned pages are never evicted **/
+        pool = new BufferPool(2, new LRUPolicy());
+        int a = pool.pin(file, 0, store);
+        int b = pool.pin(file, 1, store);
+        check(pool.pin(file, 2, store) == -1, "no frame when every frame is pinned");
+        pool.unpin(b, false);
+        int c = pool.pin(file, 2, store);
+        check(c == b && isHit(pool, file, 0, store), "unpinned frame reused, pinned page kept");
+        pool.unpin(a, false);
+        pool.unpin(c, false);
+
+        /** Dirty pages are written back when they are evicted or flushed, and only then **/
+        MemoryStore written = new MemoryStore();
+        pool = new BufferPool(2, new LRUPolicy());
+        int out = pool.fileId("OUT");
+        for (int p = 0; p < 3; ++p) {
+            int frame = pool.pinNew(out, p, written);
+            pool.getPage(frame).putInt(100 + p);
+            pool.unpin(frame, true);
+        }
+        check(written.stores == 1 && written.pages.get(0) == 100, "dirty page written back on eviction");
+        check(written.loads == 0 && pool.getAllocations() == 3, "new pages are not read");
+        pool.flush(out);
+        check(written.stores == 3 && written.pages.get(2) == 102, "dirty pages written back on flush");
+        pool.flush(out);
+        check(written.stores == 3, "clean pages not written again");
+        check(read(pool, out, 0, written) == 100 && written.loads == 1, "evicted page read back");
+
+        /** A rewritten file: unpinned pages are dropped, a pinned page goes stale **/
+        pool = new BufferPool(3, new LRUPolicy());
+        read(pool, file, 0, store);
+        int pinned = pool.pin(file, 1, store);
+        store.pages.put(0, 50);
+        store.pages.put(1, 51);
+        pool.invalidate(file);
+        check(pool.isStale(pinned), "pinned page of a rewritten file marked stale");
+        check(read(pool, file, 0, store) == 50, "unpinned page of a rewritten file read again");
+        long misses = pool.getMisses();
+        check(read(pool, file, 1, store) == 51 && pool.getMisses() == misses + 1, "stale page not served to new pins");
+        int stores = store.stores;
+        pool.getPage(pinned).putInt(99);
+        pool.unpin(pinned, true);
+        pool.flush(file);
+        check(store.stores == stores && store.pages.get(1) == 51, "stale page never written back");
+        check(!pool.isStale(pinned) && pool.pin(file, 2, store) == pinned, "stale frame freed on its last unpin");
+
+        /** A page is read without the lock of the pool, and a second pin of it waits for the read **/
+        BufferPool shared = new BufferPool(3, new LRUPolicy());
+        read(shared, file, 0, store);
+        SlowStore slow = new SlowStore();
+        int slowFile = shared.fileId("S");
+        int[] got = new int[2];
+        Thread first = new Thread(() -> got[0] = read(shared, slowFile, 4, slow));
+        Thread second = new Thread(() -> got[1] = read(shared, slowFile, 4, slow));
+        first.start();
+        slow.started.await();
+        check(isHit(shared, file, 0, store), "cached page pinned while another page is read");
+        second.start();
+        second.join(100);
+        check(second.isAlive(), "second pin of the page waits for its read");
+        slow.release.countDown();
+        first.join();
+        second.join();
+        check(got[0] == 4 && got[1] == 4 && slow.loads == 1, "page read once for both pins");
+
+        /** A deleted file leaves neither its pages nor its id in the pool **/
+        int gone = shared.fileId("S");
+        shared.forget("S");
+        check(!shared.fileIds.containsKey(new File("S").getAbsolutePath()), "id of a deleted file dropped");
+        check(shared.fileId("S") != gone && !isHit(shared, shared.fileId("S"), 4, slow), "pages of a deleted file dropped");
+
+        /** The pool is taken out of the buffers of the query **/
+        new BufferManager(100, 2);
+        check(BufferManager.getBufferPool().getNumFrames() == 25 && BufferManager.getBuffersPerJoin() == 37
+                && BufferManager.getNumBuffer() == 75, "a quarter of the buffers go to the pool");
+        new BufferManager(7, 2);
+        check(BufferManager.getBufferPool().getNumFrames() == 1 && BufferManager.getBuffersPerJoin() == 3,
+                "every join keeps 3 buffers");
+        new BufferManager(6, 2);
+        check(BufferManager.getBufferPool() == null && BufferManager.getBuffersPerJoin() == 3,
+                "no pool when the joins need every buffer");
+        new BufferManager(12);
+        check(BufferManager.getBufferPool().getNumFrames() == 3 && BufferManager.getNumBuffer() == 9,
+                "pool of a query without joins");
+
+        System.out.println("BufferPoolTest: " + (checks - failures) + " of " + checks + " checks passed");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+}
@@ -0,0 +1,179 @@
+/**
+ * Checks that tuples written in the page format are read back unchanged
+ **/
+
+package qp.utils;
+
+import qp.operators.OpType;
+import qp.operators.Scan;
+import utils.ConvertTblFormat;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The tuples have an INT, a REAL and a STRING column whose slot holds 8 bytes.
+ * The strings vary in length, so the number of tuples per page varies, and some
+ * of them are longer than their slot and are read back as boxed tuples.
+ **/
+public class PageFileTest {
+
+    static final int PAGE_SIZE = 128;
+    static Schema schema;
+    static int checks = 0;              // Number of checks made
+    static int failures = 0;            // Number of checks that failed
+
+    static Tuple tuple(int id, float r, String s) {
+        ArrayList<Object> data = new ArrayList<>();
+        data.add(id);
+        data.add(r);
+        data.add(s);
+        return new Tuple(data);
+    }
+
+    static List<Tuple> generate(int rows, long seed) {
+        Random random = new Random(seed);
+        String[] strings = {"", "a", "12345678", "\u00e9\u4e2d", "longer than its slot"};
+        ArrayList<Tuple> tuples = new ArrayList<>();
+        for (int i = 0; i < rows; ++i) {
+            String s = random.nextInt(4) == 0 ? strings[i % strings.length] : "s" + random.nextInt(1000);
+            tuples.add(tuple(i - rows / 2, random.nextFloat() * 1000 - 500, s));
+        }
+        return tuples;
+    }
+
+    static List<String> contents(List<Tuple> tuples) {
+        ArrayList<String> strings = new ArrayList<>();
+        for (Tuple t : tuples) {
+            strings.add(t.data().toString());
+        }
+        return strings;
+    }
+
+    static void write(String name, List<Tuple> tuples) {
+        PageFileWriter writer = new PageFileWriter(name, schema, PAGE_SIZE);
+        check(writer.open(), "open " + name + " for writing");
+        for (Tuple t : tuples) {
+            writer.next(t);
+        }
+        writer.close();
+    }
+
+    /**
+     * Reads the file back tuple by tuple and page by page
+     **/
+    static void checkRead(String name, List<Tuple> tuples) {
+        PageFileReader reader = new PageFileReader(name, schema);
+        check(reader.open(), "open " + name + " for reading");
+        check(reader.getNumTuples() == tuples.size(), name + ": number of tuples in the header");
+
+        ArrayList<Tuple> read = new ArrayList<>();
+        boolean compact = true;
+        Tuple t;
+        while ((t = reader.next()) != null) {
+            read.add(t);
+            String s = t.getString(2);
+            compact &= t.isCompact() == s.getBytes(StandardCharsets.UTF_8).length <= 8;
+        }
+        check(contents(read).equals(contents(tuples)), name + ": tuples read back in order");
+        check(compact, name + ": strings that fit their slot read as compact tuples, others boxed");
+
+        int total = 0;
+        boolean fits = true;
+        for (int p = 0; p < reader.getNumPages(); ++p) {
+            Batch page = new Batch(reader.getTuplesPerPage());
+            int count = reader.readPage(p, page);
+            fits &= count == page.size() && count <= reader.getTuplesPerPage() && (count > 0 || tuples.isEmpty());
+            total += count;
+        }
+        check(fits && total == tuples.size(), name + ": every page holds at most a batch of tuples");
+        if (reader.getNumPages() > 0) {
+            int last = reader.getNumPages() - 1;
+            Batch page = new Batch(reader.getTuplesPerPage());
+            reader.readPage(last, page);
+            List<String> tail = contents(tuples).subList(tuples.size() - page.size(), tuples.size());
+            check(contents(page.getTuples()).equals(tail), name + ": last page read out of order");
+        }
+        reader.close();
+    }
+
+    /**
+     * Runs a Scan over the table and returns its tuples
+     **/
+    static List<String> scan(String table) {
+        Scan scan = new Scan(table, OpType.SCAN);
+        scan.setSchema(schema);
+        ArrayList<String> out = new ArrayList<>();
+        if (!scan.open()) {
+            check(false, "open the scan of " + table);
+            return out;
+        }
+        Batch batch;
+        while ((batch = scan.next()) != null) {
+            out.addAll(contents(batch.getTuples()));
+        }
+        scan.close();
+        return out;
+    }
+
+    static void writeSchema(String table) {
+        try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(table + ".md"))) {
+            out.writeObject(schema);
+        } catch (IOException io) {
+            check(false, "cannot write " + table + ".md");
+        }
+    }
+
+    static void check(boolean ok, String what) {
+        checks++;
+        if (!ok) {
+            failures++;
+        }
+        System.out.println((ok ? "ok   " : "FAIL ") + what);
+    }
+
+    public static void main(String[] args) {
+        ArrayList<Attribute> attrs = new ArrayList<>();
+        attrs.add(new Attribute("T", "id", Attribute.INT, Attribute.PK, 4));
+        attrs.add(new Attribute("T", "r", Attribute.REAL, 0, 4));
+        attrs.add(new Attribute("T", "s", Attribute.STRING, 0, 8));
+        schema = new Schema(attrs);
+        schema.setTupleSize(18);
+        Batch.setPageSize(PAGE_SIZE);
+
+        List<Tuple> tuples = generate(1000, 1);
+        write("T.pages", tuples);
+        check(PageFile.isPageFile("T.pages"), "page file recognised by its magic number");
+        checkRead("T.pages", tuples);
+        write("E.pages", new ArrayList<>());
+        checkRead("E.pages", new ArrayList<>());
+
+        /** A table of serialized tuples is converted in place, and scans the same before and after **/
+        try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream("OBJ.tbl"))) {
+            for (Tuple t : tuples) {
+                out.writeObject(t);
+            }
+        } catch (IOException io) {
+            check(false, "cannot write OBJ.tbl");
+        }
+        writeSchema("OBJ");
+        check(!PageFile.isPageFile("OBJ.tbl"), "serialized tuples are not a page file");
+        List<String> before = scan("OBJ");
+        check(before.equals(contents(tuples)), "scan of serialized tuples");
+        ConvertTblFormat.main(new String[]{"OBJ.tbl", Integer.toString(PAGE_SIZE)});
+        check(PageFile.isPageFile("OBJ.tbl"), "table converted to the page format");
+        check(scan("OBJ").equals(before), "scan of the converted table");
+
+        for (String name : new String[]{"T.pages", "E.pages", "OBJ.tbl", "OBJ.md", ZoneMap.fileFor("OBJ.tbl")}) {
+            new File(name).delete();
+        }
+        System.out.println("PageFileTest: " + (checks - failures) + " of " + checks + " checks passed");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ * Checks that the tuples written by TupleWriter are read back unchanged by TupleReader
+ **/
+
+package qp.utils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The files are written once with the schema, which picks the binary codec, and
+ * once without it, which serializes the batches as objects. Both must give the
+ * same tuples in the same order.
+ **/
+public class SpillCodecTest {
+
+    static final int PAGE_SIZE = 100;
+    static final int BATCH_SIZE = 5;
+    static Schema schema;
+    static int checks = 0;              // Number of checks made
+    static int failures = 0;            // Number of checks that failed
+
+    static List<Tuple> generate(int rows, long seed) {
+        Random random = new Random(seed);
+        ArrayList<Tuple> tuples = new ArrayList<>();
+        for (int i = 0; i < rows; ++i) {
+            ArrayList<Object> data = new ArrayList<>();
+            data.add(random.nextInt());
+            data.add(random.nextFloat());
+            data.add(i % 7 == 0 ? "" : "v" + random.nextInt(100000));
+            tuples.add(new Tuple(data));
+        }
+        return tuples;
+    }
+
+    static List<String> contents(List<Tuple> tuples) {
+        ArrayList<String> strings = new ArrayList<>();
+        for (Tuple t : tuples) {
+            strings.add(t.data().toString());
+        }
+        return strings;
+    }
+
+    static void write(String name, List<Tuple> tuples, Schema schema) {
+        TupleWriter out = new TupleWriter(name, BATCH_SIZE, schema);
+        check(out.open(), "open " + name + " for writing");
+        for (Tuple t : tuples) {
+            out.next(t);
+        }
+        out.close();
+        check(out.getNumTuple() == tuples.size()
+                && out.getNumBatch() == (tuples.size() + BATCH_SIZE - 1) / BATCH_SIZE, name + ": batches written");
+    }
+
+    /**
+     * Reads the file back with peek and next, and checks that the reader closes at the end
+     **/
+    static List<Tuple> read(String name, Schema schema) {
+        ArrayList<Tuple> tuples = new ArrayList<>();
+        TupleReader in = new TupleReader(name, BATCH_SIZE, schema);
+        if (!in.open()) {
+            check(false, "cannot read " + name);
+            return tuples;
+        }
+        boolean peeks = true;
+        while (!in.isEOF()) {
+            Tuple peeked = in.peek();
+            Tuple t = in.next();
+            peeks &= peeked == t;
+            tuples.add(t);
+        }
+        check(peeks, name + ": peek gives the next tuple");
+        check(in.next() == null && in.peek() == null, name + ": no tuple after the end of the file");
+        check(in.getNumTuple() == tuples.size(), name + ": tuples counted");
+        return tuples;
+    }
+
+    static void check(boolean ok, String what) {
+        checks++;
+        if (!ok) {
+            failures++;
+        }
+        System.out.println((ok ? "ok   " : "FAIL ") + what);
+    }
+
+    public static void main(String[] args) {
+        ArrayList<Attribute> attrs = new ArrayList<>();
+        attrs.add(new Attribute("T", "a", Attribute.INT, 0, 4));
+        attrs.add(new Attribute("T", "b", Attribute.REAL, 0, 4));
+        attrs.add(new Attribute("T", "c", Attribute.STRING, 0, 6));
+        schema = new Schema(attrs);
+        schema.setTupleSize(16);
+        Batch.setPageSize(PAGE_SIZE);
+
+        check(SpillCodec.forSchema(schema, BATCH_SIZE) instanceof BinarySpillCodec, "binary codec for a known schema");
+        check(SpillCodec.forSchema(null, BATCH_SIZE) instanceof ObjectSpillCodec, "object codec without a schema");
+
+        for (int rows : new int[]{0, 1, BATCH_SIZE, 333}) {
+            List<Tuple> tuples = generate(rows, rows);
+            write("binary", tuples, schema);
+            check(PageFile.isPageFile("binary"), rows + " tuples: binary spill is a page file");
+            List<Tuple> binary = read("binary", schema);
+            check(contents(binary).equals(contents(tuples)), rows + " tuples: binary spill read back");
+
+            write("object", tuples, null);
+            check(!PageFile.isPageFile("object"), rows + " tuples: object spill is serialized");
+            List<Tuple> object = read("object", null);
+            check(contents(object).equals(contents(tuples)), rows + " tuples: object spill read back");
+            check(binary.equals(object), rows + " tuples: both codecs give equal tuples");
+        }
+
+        /** A file is read again from the start when it is opened again **/
+        List<Tuple> tuples = generate(40, 7);
+        write("binary", tuples, schema);
+        read("binary", schema);
+        check(contents(read("binary", schema)).equals(contents(tuples)), "binary spill read twice");
+
+        new File("binary").delete();
+        new File("object").delete();
+        System.out.println("SpillCodecTest: " + (checks - failures) + " of " + checks + " checks passed");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+}
@@ -0,0 +1,77 @@
+/**
+ * Checks the eviction and the counts of the TupleCache
+ **/
+
+package qp.utils;
+
+import java.util.ArrayList;
+
+public class TupleCacheTest {
+
+    static int checks = 0;              // Number of checks made
+    static int failures = 0;            // Number of checks that failed
+
+    static Tuple tuple(int id) {
+        ArrayList<Object> data = new ArrayList<>();
+        data.add(id);
+        return new Tuple(data);
+    }
+
+    static void check(boolean ok, String what) {
+        checks++;
+        if (!ok) {
+            failures++;
+        }
+        System.out.println((ok ? "ok   " : "FAIL ") + what);
+    }
+
+    public static void main(String[] args) {
+        /** A cache of 3 tuples, filled at the offsets 0, 10 and 20 **/
+        TupleCache cache = new TupleCache("T.tbli", 3);
+        check(cache.get(0) == null && cache.getMisses() == 1 && cache.getHits() == 0, "empty cache misses");
+        Tuple first = tuple(0);
+        cache.put(0, first);
+        cache.put(10, tuple(1));
+        cache.put(20, tuple(2));
+        check(cache.get(0) == first && cache.getHits() == 1, "cached tuple returned as is");
+
+        /** Offset 0 was just read, so 10 is the least recently used and goes first **/
+        cache.put(30, tuple(3));
+        check(cache.get(10) == null, "least recently used tuple evicted");
+        check(cache.get(0) != null && cache.get(20) != null && cache.get(30) != null, "other tuples kept");
+        cache.put(40, tuple(4));
+        check(cache.get(0) == null && cache.get(40) != null, "reads keep the order of use");
+        check(cache.getHits() == 5 && cache.getMisses() == 3, "hits and misses counted");
+
+        /** Clearing drops the tuples but not the counts **/
+        cache.clear();
+        check(cache.get(40) == null && cache.getHits() == 5 && cache.getMisses() == 4, "cleared cache misses");
+
+        /** One cache per file, whatever the path it is named by **/
+        TupleCache shared = TupleCache.forFile("S.tbli");
+        check(TupleCache.forFile("./S.tbli") == shared, "same file shares its cache");
+        check(TupleCache.forFile("U.tbli") != shared, "other file has its own cache");
+        check(shared.getCapacity() == TupleCache.DEFAULT_CAPACITY && TupleCache.getCaches().size() == 2,
+                "caches listed with the default capacity");
+        check(new TupleCache("V.tbli", 0).getCapacity() == 1, "capacity of at least one tuple");
+
+        /** A file written again gets a new cache, and the old one is emptied **/
+        shared.put(0, tuple(0));
+        TupleCache.invalidate("./S.tbli");
+        TupleCache rewritten = TupleCache.forFile("S.tbli");
+        check(shared.get(0) == null && rewritten != shared, "cache of a rewritten file dropped");
+
+        /** Past MAX_FILES files the least recently used cache goes **/
+        TupleCache recent = TupleCache.forFile("U.tbli");
+        for (int i = 0; i < TupleCache.MAX_FILES; ++i) {
+            TupleCache.forFile("F" + i + ".tbli");
+            TupleCache.forFile("U.tbli");
+        }
+        check(TupleCache.getCaches().size() == TupleCache.MAX_FILES, "number of caches bounded");
+        check(TupleCache.forFile("U.tbli") == recent, "cache in use kept");
+        check(!TupleCache.getCaches().contains(rewritten), "least recently used cache evicted");
+
+        System.out.println("TupleCacheTest: " + (checks - failures) + " of " + checks + " checks passed");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+}
@@ -0,0 +1,150 @@
+/**
+ * Checks that compact tuples behave the same as boxed tuples with the same data
+ **/
+
+package qp.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Every tuple is built boxed and turned into a compact tuple by encoding it the way
+ * a page is written and decoding it with the layout of the schema. Each comparison,
+ * join check and hash is then made on every pair of tuples in both representations.
+ **/
+public class TupleTest {
+
+    static Schema schema;
+    static TupleLayout layout;
+    static int checks = 0;              // Number of checks made
+    static int failures = 0;            // Number of checks that failed
+
+    static Tuple boxed(int a, float b, String c) {
+        ArrayList<Object> data = new ArrayList<>();
+        data.add(a);
+        data.add(b);
+        data.add(c);
+        return new Tuple(data);
+    }
+
+    static Tuple compact(Tuple boxed) {
+        ByteBuffer buf = ByteBuffer.allocate(256);
+        PageFile.writeTuple(buf, boxed, schema);
+        buf.flip();
+        return PageFile.readTuple(buf, schema, layout);
+    }
+
+    static int sign(int value) {
+        return Integer.signum(value);
+    }
+
+    static void check(boolean ok, String what) {
+        checks++;
+        if (!ok) {
+            failures++;
+        }
+        System.out.println((ok ? "ok   " : "FAIL ") + what);
+    }
+
+    public static void main(String[] args) {
+        ArrayList<Attribute> attrs = new ArrayList<>();
+        attrs.add(new Attribute("T", "a", Attribute.INT, 0, 4));
+        attrs.add(new Attribute("T", "b", Attribute.REAL, 0, 4));
+        attrs.add(new Attribute("T", "c", Attribute.STRING, 0, 8));
+        schema = new Schema(attrs);
+        schema.setTupleSize(18);
+        layout = TupleLayout.forSchema(schema);
+
+        /** Negative numbers, negative zero, and strings that differ in ASCII and in other characters **/
+        int[] ints = {Integer.MIN_VALUE, -5, 0, 7, Integer.MAX_VALUE};
+        float[] reals = {-1.5f, -0.0f, 0.0f, 2.25f, Float.MAX_VALUE};
+        String[] strings = {"", "A", "Z", "a", "ab", "abc", "\u00e9", "\u00e9t\u00e9", "\uff21", "z"};
+        Random random = new Random(1);
+        ArrayList<Tuple> boxed = new ArrayList<>();
+        for (int i = 0; i < 60; ++i) {
+            boxed.add(boxed(ints[random.nextInt(ints.length)], reals[random.nextInt(reals.length)],
+                    strings[random.nextInt(strings.length)]));
+        }
+        ArrayList<Tuple> compact = new ArrayList<>();
+        boolean allCompact = true;
+        boolean sameData = true;
+        for (Tuple t : boxed) {
+            Tuple c = compact(t);
+            allCompact &= c.isCompact();
+            sameData &= c.data().equals(t.data()) && c.getInt(0) == t.getInt(0)
+                    && Float.compare(c.getFloat(1), t.getFloat(1)) == 0 && c.getString(2).equals(t.getString(2));
+            compact.add(c);
+        }
+        check(allCompact, "tuples decoded with the layout are compact");
+        check(sameData, "typed accessors give the boxed values");
+
+        ArrayList<Integer> all = new ArrayList<>(Arrays.asList(0, 1, 2));
+        boolean compares = true;
+        boolean joins = true;
+        boolean equal = true;
+        boolean hashes = true;
+        for (int i = 0; i < boxed.size(); ++i) {
+            for (int j = 0; j < boxed.size(); ++j) {
+                Tuple bl = boxed.get(i);
+                Tuple br = boxed.get(j);
+                for (Tuple l : new Tuple[]{bl, compact.get(i)}) {
+                    for (Tuple r : new Tuple[]{br, compact.get(j)}) {
+                        for (int col = 0; col < 3; ++col) {
+                            compares &= sign(Tuple.compareTuples(l, r, col)) == sign(Tuple.compareTuples(bl, br, col));
+                            joins &= l.checkJoin(r, col, col) == bl.dataAt(col).equals(br.dataAt(col));
+                        }
+                        compares &= sign(Tuple.compareTuples(l, r, all, all)) == sign(Tuple.compareTuples(bl, br, all, all));
+                        joins &= l.checkJoin(r, all, all) == bl.data().equals(br.data());
+                        equal &= l.equals(r) == bl.data().equals(br.data());
+                        if (l.equals(r)) {
+                            hashes &= l.hashCode() == r.hashCode() && l.hashOn(all) == r.hashOn(all);
+                        }
+                    }
+                }
+            }
+        }
+        check(compares, "compareTuples agrees on compact and boxed tuples");
+        check(joins, "checkJoin agrees on compact and boxed tuples");
+        check(equal, "equals agrees on compact and boxed tuples");
+        check(hashes, "equal tuples hash alike whatever their representation");
+
+        boolean joined = true;
+        for (int i = 0; i + 1 < boxed.size(); ++i) {
+            List<Object> expected = new ArrayList<>(boxed.get(i).data());
+            expected.addAll(boxed.get(i + 1).data());
+            Tuple both = compact.get(i).joinWith(compact.get(i + 1));
+            Tuple mixed = compact.get(i).joinWith(boxed.get(i + 1));
+            joined &= both.isCompact() && both.data().equals(expected) && mixed.data().equals(expected)
+                    && Tuple.compareTuples(both, mixed, 5) == 0 && both.equals(mixed);
+        }
+        check(joined, "joinWith keeps two compact tuples compact");
+
+        /** A string longer than its slot is read back boxed **/
+        Tuple longer = compact(boxed(1, 1f, "longer than eight"));
+        check(!longer.isCompact() && longer.getString(2).equals("longer than eight"), "string too long for its slot");
+
+        /** Compact tuples are serialized with their data, as boxed tuples are **/
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream out = new ObjectOutputStream(bytes);
+            out.writeObject(compact.get(0));
+            out.close();
+            ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+            Tuple read = (Tuple) in.readObject();
+            check(!read.isCompact() && read.equals(boxed.get(0)), "compact tuple serialized and read back");
+        } catch (IOException | ClassNotFoundException e) {
+            check(false, "compact tuple serialized and read back: " + e);
+        }
+
+        System.out.println("TupleTest: " + (checks - failures) + " of " + checks + " checks passed");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+}
@@ -0,0 +1,149 @@
+/**
+ * Checks the rows of VectorBatches and of the views taken over them
+ **/
+
+package qp.utils;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The batches are decoded from a page of tuples with an INT, a REAL and a STRING
+ * column, and their rows are compared with the tuples of the page decoded as usual.
+ **/
+public class VectorBatchTest {
+
+    static Schema schema;
+    static int checks = 0;              // Number of checks made
+    static int failures = 0;            // Number of checks that failed
+
+    static List<Tuple> generate(int rows, long seed) {
+        Random random = new Random(seed);
+        ArrayList<Tuple> tuples = new ArrayList<>();
+        for (int i = 0; i < rows; ++i) {
+            ArrayList<Object> data = new ArrayList<>();
+            data.add(i);
+            data.add(random.nextInt(10) / 2.0f);
+            data.add(i % 5 == 0 ? "a rather long string" : "s" + random.nextInt(4));
+            tuples.add(new Tuple(data));
+        }
+        return tuples;
+    }
+
+    // Encodes the tuples as a page of the PageFile format
+    static ByteBuffer page(List<Tuple> tuples) {
+        ByteBuffer buf = ByteBuffer.allocate(8192);
+        buf.putInt(tuples.size());
+        for (Tuple t : tuples) {
+            PageFile.writeTuple(buf, t, schema);
+        }
+        buf.flip();
+        return buf;
+    }
+
+    static VectorBatch vector(List<Tuple> tuples) {
+        VectorBatch batch = new VectorBatch(tuples.size(), schema);
+        batch.appendPage(page(tuples));
+        return batch;
+    }
+
+    static List<String> contents(Batch batch) {
+        ArrayList<String> strings = new ArrayList<>();
+        for (int i = 0; i < batch.size(); ++i) {
+            strings.add(batch.get(i).data().toString());
+        }
+        return strings;
+    }
+
+    static List<String> contents(List<Tuple> tuples) {
+        ArrayList<String> strings = new ArrayList<>();
+        for (Tuple t : tuples) {
+            strings.add(t.data().toString());
+        }
+        return strings;
+    }
+
+    static void check(boolean ok, String what) {
+        checks++;
+        if (!ok) {
+            failures++;
+        }
+        System.out.println((ok ? "ok   " : "FAIL ") + what);
+    }
+
+    public static void main(String[] args) {
+        ArrayList<Attribute> attrs = new ArrayList<>();
+        attrs.add(new Attribute("T", "a", Attribute.INT, 0, 4));
+        attrs.add(new Attribute("T", "b", Attribute.REAL, 0, 4));
+        attrs.add(new Attribute("T", "c", Attribute.STRING, 0, 4));
+        schema = new Schema(attrs);
+        schema.setTupleSize(14);
+        check(VectorBatch.supports(schema), "every type of the schema has a column");
+
+        List<Tuple> tuples = generate(50, 1);
+        VectorBatch batch = vector(tuples);
+        check(batch.isColumnar() && batch.size() == 50, "page decoded into columns");
+        check(contents(batch).equals(contents(tuples)), "rows of the columns are the tuples of the page");
+        Batch rows = new Batch(50);
+        PageFile.readPage(page(tuples), schema, rows);
+        check(batch.get(1).equals(rows.get(1)) && batch.get(1).isCompact() && !batch.get(0).isCompact(),
+                "rows built as compact tuples when their strings fit");
+
+        /** The odd rows, and then every other of those **/
+        int[] odd = new int[25];
+        for (int i = 0; i < 25; ++i) {
+            odd[i] = 2 * i + 1;
+        }
+        VectorBatch selected = batch.select(odd, 25);
+        ArrayList<Tuple> expected = new ArrayList<>();
+        for (int i : odd) {
+            expected.add(tuples.get(i));
+        }
+        check(contents(selected).equals(contents(expected)), "selection vector of the odd rows");
+        int[] again = new int[13];
+        ArrayList<Tuple> narrowed = new ArrayList<>();
+        for (int i = 0; i < 13; ++i) {
+            again[i] = selected.row(2 * i);
+            narrowed.add(expected.get(2 * i));
+        }
+        check(contents(selected.select(again, 13)).equals(contents(narrowed)), "selection of a selection");
+        check(selected.select(new int[0], 0).isEmpty(), "empty selection");
+
+        /** Columns c and a of the odd rows, without copying them **/
+        ArrayList<Attribute> projected = new ArrayList<>();
+        projected.add(schema.getAttribute(2));
+        projected.add(schema.getAttribute(0));
+        Schema pschema = new Schema(projected);
+        pschema.setTupleSize(10);
+        VectorBatch project = selected.project(new int[]{2, 0}, TupleLayout.forSchema(pschema), 25);
+        boolean same = project.size() == 25;
+        for (int i = 0; i < project.size(); ++i) {
+            Tuple t = project.get(i);
+            same &= t.dataAt(0).equals(expected.get(i).dataAt(2)) && t.dataAt(1).equals(expected.get(i).dataAt(0));
+        }
+        check(same, "projection of the selected rows");
+        check(project.getInts(1) == batch.getInts(0), "projection shares the columns");
+
+        /** Changing a view turns it into tuples, and neither the batch nor the other views see it **/
+        selected.remove(0);
+        selected.add(tuples.get(0));
+        check(!selected.isColumnar() && selected.size() == 25, "changed view turned into tuples");
+        check(contents(batch).equals(contents(tuples)), "batch unchanged by a changed view");
+        check(project.size() == 25 && project.get(0).dataAt(1).equals(1), "other view unchanged by a changed view");
+
+        /** Rows appended from views of other batches **/
+        VectorBatch appended = new VectorBatch(40, schema);
+        VectorBatch other = vector(generate(30, 2));
+        appended.appendRows(batch.select(odd, 25), 5, 10);
+        appended.appendRows(other, 0, 30);
+        ArrayList<Tuple> both = new ArrayList<>(expected.subList(5, 15));
+        both.addAll(generate(30, 2));
+        check(contents(appended).equals(contents(both)), "rows appended from two batches");
+        check(appended.isFull(), "appended batch full");
+
+        System.out.println("VectorBatchTest: " + (checks - failures) + " of " + checks + " checks passed");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+}